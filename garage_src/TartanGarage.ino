@@ -15,6 +15,12 @@
  * string back. This illustrates basic connection and two-way
  * communication.
  *
+ * A client can ask for pushed state updates with "PU=1.". While a
+ * client is connected, the state is then checked every
+ * PUSH_CHECK_INTERVAL milliseconds and, when it changes, sent as a
+ * state update line starting with '!'. Pushing stops with "PU=0." or
+ * when the client disconnects.
+ *
  * Compilation and Execution Instructions: Must be compiled using 
  * Arduino IDE VERSION 1.0.4
  *
@@ -107,6 +113,12 @@ long ParkingStall4LEDState;
 #define EntryBeamRcvr  34
 #define ExitBeamRcvr   35
 
+// Pushed state updates
+#define PUSH_CHECK_INTERVAL 250   // How often the state is checked for changes, in ms
+bool PushUpdates = false;         // True if the client asked for pushed updates
+String PushedState = "";          // The state last sent to the client
+unsigned long LastPushCheck = 0;  // When the state was last checked
+
 /**
  * Initialization routine
  */
@@ -168,8 +180,19 @@ void loop() {
                req += c;
             }
          }
+         else if (PushUpdates && millis() - LastPushCheck >= PUSH_CHECK_INTERVAL) {
+            // push the state if it changed since it was last sent
+            LastPushCheck = millis();
+            String state = GetState();
+            if (state != PushedState) {
+               PushedState = state;
+               client.println ("!" + state);
+               client.flush();
+            }
+         }
       }
       client.stop();
+      PushUpdates = false;
       /* Additional procedure when When Tartan Parking System is disconnected:
        * We open Exit gates when disconnection to kiosk.
        * We don't want keep customer in garage.
@@ -270,7 +293,10 @@ String  ProcessRequest(String request) {
    String hdr = request.substring(0,2);
    String body = request.substring(hdrPosition+1,endPosition);
 
-   if (hdr == "GS") {
+   if (request.startsWith("BA:")) {
+      response = HandleBatch(request.substring(3,endPosition));
+   }
+   else if (hdr == "GS") {
       // a set state request has a body
       response =  HandleGetState();
    }
@@ -289,6 +315,9 @@ String  ProcessRequest(String request) {
    else if (hdr == "PL") {
       response = ToggleParkingLights(body);
    }
+   else if (hdr == "PU") {
+      response = TogglePushUpdates(body);
+   }
 
    return response;
 }
@@ -307,6 +336,24 @@ String HandleGetState() {
 
    Serial.println("HandleGetState");
 
+   String response = GetState();
+
+   Serial.println("HandleGetState response: " + response);
+
+   return response;
+}
+
+/**
+ * String GetState()
+ *
+ * Parameters: None
+ *
+ * Description:
+ *
+ * Build a state update from the current state of the garage.
+ */
+String GetState() {
+
    String response = "SU:"; // state update
 
    // Get entry gate state
@@ -373,6 +420,12 @@ String HandleGetState() {
 
    response += ";";
 
+   // report the number of parking stalls
+   response += "SC=4;";
+
+   // report the optional features: batches, and light lists that leave spots out
+   response += "CA=BL;";
+
    // get the parking spot states.
    String ps = "PO=[";
    if (GetParkingStall1State() == OCCUPIED) {
@@ -433,11 +486,59 @@ String HandleGetState() {
    pl += "]";
    response += pl + ".";
 
-   Serial.println("HandleGetState response: " + response);
+   return response;
+}
 
+/**
+ * String HandleBatch()
+ *
+ * Parameters: the commands of a batch, separated by ';', without the
+ * ending '.'
+ *
+ * Description:
+ *
+ * Carry out each command of a batch in order, so a gate step needs one
+ * round trip. The batch is acknowledged once, if every command was.
+ */
+String HandleBatch(String commands)
+{
+   String response = "OK.";
+   unsigned int start = 0;
+   while (start < commands.length()) {
+      int end = commands.indexOf(';', start);
+      if (end < 0) {
+         end = commands.length();
+      }
+      if (ProcessRequest(commands.substring(start, end) + ".") != "OK.") {
+         response = "";
+      }
+      start = end + 1;
+   }
    return response;
 }
 
+/**
+ * String TogglePushUpdates()
+ *
+ * Parameters: 1 to push state updates, 0 to stop
+ *
+ * Description:
+ *
+ * Start or stop pushing state updates to the client. The current
+ * state is pushed at the next check. Returns OK regardless of outcome.
+ */
+String TogglePushUpdates(String newState)
+{
+   if (newState == "1") {
+      PushUpdates = true;
+      PushedState = "";
+   }
+   else if (newState == "0") {
+      PushUpdates = false;
+   }
+   return "OK.";
+}
+
 /**
  * int GetEntryIRState()
  *
@@ -13,6 +13,7 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Vector;
 
 /**
  * UI to handle customer interaction.
@@ -162,6 +163,22 @@ public class TartanKioskWindow extends JFrame {
                 JOptionPane.INFORMATION_MESSAGE);
     }
 
+    /**
+     * Inform the customer that a batch of reservations is confirmed.
+     *
+     * @param batch The confirmed reservations.
+     */
+    public void confirmReservations(Vector<Reservation> batch) {
+        StringBuilder text = new StringBuilder(batch.size() + " reservations confirmed");
+        for (Reservation rsvp : batch) {
+            text.append("\n").append(rsvp.toString());
+        }
+        JOptionPane.showMessageDialog(this,
+                text.toString(),
+                "New reservations confirmed",
+                JOptionPane.INFORMATION_MESSAGE);
+    }
+
     /**
      * Notify the customer that the reservation has been updated.
      *
@@ -49,9 +49,12 @@ public class Payment implements Serializable {
      * Encode and protect a message
      *
      * @param param the message to encode
-     * @return the encoded message
+     * @return the encoded message, or null if there is no message
      */
     private String protect(String param) {
+        if (param == null) {
+            return null;
+        }
 
         char[] keys = key.toCharArray();
         char[] p = param.toCharArray();
@@ -193,4 +196,58 @@ public class Payment implements Serializable {
     public void setCcName(String ccName) {
         this.ccName = protect(ccName);
     }
+
+    /**
+     * Protected credit card number getter, for sending the payment without exposing the number.
+     *
+     * @return the credit card number as stored
+     */
+    public String getProtectedCcNum() {
+        return ccNum;
+    }
+
+    /**
+     * Protected credit card number setter, for a number received as stored.
+     *
+     * @param ccNum the credit card number as stored
+     */
+    public void setProtectedCcNum(String ccNum) {
+        this.ccNum = ccNum;
+    }
+
+    /**
+     * Protected credit card expiration date getter, for sending the payment without exposing the date.
+     *
+     * @return the expiration date as stored
+     */
+    public String getProtectedCcExpDate() {
+        return ccExpDate;
+    }
+
+    /**
+     * Protected credit card expiration date setter, for a date received as stored.
+     *
+     * @param ccExpDate the expiration date as stored
+     */
+    public void setProtectedCcExpDate(String ccExpDate) {
+        this.ccExpDate = ccExpDate;
+    }
+
+    /**
+     * Protected credit card holder name getter, for sending the payment without exposing the name.
+     *
+     * @return the name as stored
+     */
+    public String getProtectedCcName() {
+        return ccName;
+    }
+
+    /**
+     * Protected credit card holder name setter, for a name received as stored.
+     *
+     * @param ccName the name as stored
+     */
+    public void setProtectedCcName(String ccName) {
+        this.ccName = ccName;
+    }
 }
@@ -3,26 +3,68 @@ package edu.cmu.tartan.edu.cmu.tartan.reservation;
 import edu.cmu.tartan.TartanUtils;
 import edu.cmu.tartan.service.TartanParams;
 
-import java.io.Serializable;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
 import java.util.Date;
+import java.util.Objects;
 /**
  *
  * A Reservation for a parking space.
+ * <p>
+ * Times are kept to the minute, as minutes since the epoch, and the spot and flags as primitives; a field that has
+ * not been set is marked rather than null. The formats are shared by every reservation. A reservation is
+ * serialized in a hand-written form of a few dozen bytes, so it is cheap to keep and to put in a message.
  *
  * Project: LG Exec Ed SDET Program
  * Copyright: 2017 Jeffrey S. Gennari
  * Versions:
  * 1.0 November 2016 - initial version
  */
-public class Reservation implements Serializable{
+public class Reservation implements Externalizable {
 
     /** use serialVersionUID from JDK 1.0.2 for interoperability */
     private static final long serialVersionUID = 5678L;
 
-    /** The start and end time for the reservation */
-    private Date startTime, endTime;
+    /** A start or end time that has not been set */
+    public static final int NO_TIME = Integer.MIN_VALUE;
+
+    /** The date format for start and end times, shared by every reservation */
+    public static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy:MM:dd:HH:mm");
+
+    /** Parses start and end times as leniently as SimpleDateFormat did: "2017:8:0:24:00" rolls over */
+    private static final DateTimeFormatter PARSE_FORMAT =
+            DateTimeFormatter.ofPattern("u:M:d:H:m").withResolverStyle(ResolverStyle.LENIENT);
+
+    /** The date format of toString */
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("EEE, MMM dd:hh a yyyy");
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    /** A spot that has not been set */
+    private static final int NO_SPOT = Integer.MIN_VALUE;
+
+    // the flags; a flag that has not been set reads as null
+    private static final int PAID_SET = 1;
+    private static final int PAID = 2;
+    private static final int REDEEMED_SET = 4;
+    private static final int REDEEMED = 8;
+
+    // the serialized form
+    private static final int FORM_VERSION = 1;
+    private static final int HAS_CUSTOMER = 16;
+    private static final int HAS_VEHICLE = 32;
+
+    /** The start and end time for the reservation, in minutes since the epoch */
+    private int startTime = NO_TIME, endTime = NO_TIME;
 
     /** The name on the reservation */
     private String customerName;
@@ -31,16 +73,10 @@ public class Reservation implements Serializable{
     private String vehicleID;
 
     /** The spot assigned to this reservation */
-    private Integer spotId;
-
-    /** Indicates whether this reservation in paid for */
-    private Boolean isPaid;
-
-    /** Indicates whether this reservation has been redeemed */
-    private Boolean isRedeemed;
+    private int spotId = NO_SPOT;
 
-    /** The date format for start and end times */
-    private SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd:HH:mm");
+    /** Whether this reservation is paid for and whether it has been redeemed */
+    private byte flags;
 
     /** The total payment for this reservation */
     private Payment payment;
@@ -49,13 +85,8 @@ public class Reservation implements Serializable{
      * The default constructor.
      */
     public Reservation() {
-        startTime = null;
-        endTime = null;
-        customerName = null;
-        vehicleID = null;
         spotId = TartanParams.INVALID_SPOT;
-        isPaid = false;
-        isRedeemed = false;
+        flags = PAID_SET | REDEEMED_SET;
     }
 
     /**
@@ -68,12 +99,8 @@ public class Reservation implements Serializable{
      */
     public Reservation(String st, String et, String cn, String vid) {
 
-        try {
-            startTime = format.parse(st);
-            endTime = format.parse(et);
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+        setStartTime(st);
+        setEndTime(et);
         customerName = cn;
         vehicleID = vid;
     }
@@ -81,10 +108,10 @@ public class Reservation implements Serializable{
     /**
      * Get the spot ID for this reservation.
      *
-     * @return the spot ID.
+     * @return the spot ID, or null if it has not been set.
      */
     public Integer getSpotId() {
-        return spotId;
+        return spotId == NO_SPOT ? null : spotId;
     }
 
     /**
@@ -93,38 +120,46 @@ public class Reservation implements Serializable{
      * @return true if complete, false otherwise.
      */
     public Boolean isComplete() {
-        return startTime != null && endTime != null
+        return startTime != NO_TIME && endTime != NO_TIME
                 && TartanUtils.IS_EMPTY.test(customerName) == false
                 && TartanUtils.IS_EMPTY.test(vehicleID) == false
-                && spotId.compareTo(TartanParams.INVALID_SPOT) != 0;
+                && spotId != NO_SPOT && spotId != TartanParams.INVALID_SPOT;
     }
 
     /**
      * Set the spot id for this reservation.
      *
-     * @param sid the spot identifier.
+     * @param sid the spot identifier, or null to clear it.
      */
     public void setSpotId(Integer sid) {
-        spotId = sid;
+        spotId = sid == null ? NO_SPOT : sid;
     }
 
     /**
      * Get the start time for this reservation.
      *
-     * @return the start time.
+     * @return the start time, or null if it has not been set.
      */
     public Date getStartTime() {
-        Date tempStartTime = new Date(startTime.getTime());
-        return tempStartTime;
+        return toDate(startTime);
     }
 
     /**
-     * Set the start time for this reservation.
+     * Get the start time for this reservation without making a Date.
+     *
+     * @return the start time in minutes since the epoch, or NO_TIME if it has not been set.
+     */
+    public int getStartMinute() {
+        return startTime;
+    }
+
+    /**
+     * Set the start time for this reservation. Seconds are dropped.
      *
      * @param startTime the start time as a Date.
      */
     public void setStartTime(Date startTime) {
-        this.startTime = new Date(startTime.getTime());
+        this.startTime = toMinute(startTime);
     }
 
     /**
@@ -134,30 +169,47 @@ public class Reservation implements Serializable{
      */
     public void setStartTime(String startTime) {
         try {
-            this.startTime = format.parse(startTime);
+            this.startTime = parse(startTime);
 
-        } catch (ParseException e) {
+        } catch (DateTimeException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Set the start time for this reservation.
+     *
+     * @param startMinute the start time in minutes since the epoch, or NO_TIME.
+     */
+    public void setStartMinute(int startMinute) {
+        this.startTime = startMinute;
+    }
+
     /**
      * Get the end time for this reservation.
      *
-     * @return the end time.
+     * @return the end time, or null if it has not been set.
      */
     public Date getEndTime() {
-        Date tempEndTime = new Date(endTime.getTime());
-        return tempEndTime;
+        return toDate(endTime);
     }
 
     /**
-     * Set the end time for this reservation.
+     * Get the end time for this reservation without making a Date.
+     *
+     * @return the end time in minutes since the epoch, or NO_TIME if it has not been set.
+     */
+    public int getEndMinute() {
+        return endTime;
+    }
+
+    /**
+     * Set the end time for this reservation. Seconds are dropped.
      *
      * @param endTime the end time as a Date.
      */
     public void setEndTime(Date endTime) {
-        this.endTime = new Date(endTime.getTime());
+        this.endTime = toMinute(endTime);
     }
 
     /**
@@ -167,20 +219,29 @@ public class Reservation implements Serializable{
      */
     public void setEndTime(String endTime) {
         try {
-            this.endTime = format.parse(endTime);
+            this.endTime = parse(endTime);
 
-        } catch (ParseException e) {
+        } catch (DateTimeException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Set the end time for this reservation.
+     *
+     * @param endMinute the end time in minutes since the epoch, or NO_TIME.
+     */
+    public void setEndMinute(int endMinute) {
+        this.endTime = endMinute;
+    }
+
     /**
      * Set isRedeemed.
      *
      * @param r true if redeemed, false otherwise.
      */
     public void setIsRedeemed(Boolean r) {
-        isRedeemed = r;
+        flags = flag(flags, REDEEMED_SET, REDEEMED, r);
     }
 
     /**
@@ -189,7 +250,7 @@ public class Reservation implements Serializable{
      * @return the isRedeemed state
      */
     public Boolean getIsRedeemed() {
-        return isRedeemed;
+        return flag(flags, REDEEMED_SET, REDEEMED);
     }
 
     /**
@@ -216,7 +277,7 @@ public class Reservation implements Serializable{
      * @param ip true if paid, false otherwise
      */
     public void setIsPaid(Boolean ip) {
-        isPaid = ip;
+        flags = flag(flags, PAID_SET, PAID, ip);
     }
 
     /**
@@ -225,7 +286,7 @@ public class Reservation implements Serializable{
      * @return true if the reservation is paid for, false otherwise.
      */
     public Boolean getIsPaid() {
-        return isPaid;
+        return flag(flags, PAID_SET, PAID);
     }
 
     /**
@@ -264,6 +325,100 @@ public class Reservation implements Serializable{
         this.vehicleID = vehicleID;
     }
 
+    private static Date toDate(int minute) {
+        return minute == NO_TIME ? null : new Date(minute * MILLIS_PER_MINUTE);
+    }
+
+    private static int toMinute(Date date) {
+        return date == null ? NO_TIME : (int) Math.floorDiv(date.getTime(), MILLIS_PER_MINUTE);
+    }
+
+    /**
+     * Format a time the way reservations are stored, with TIME_FORMAT.
+     *
+     * @param minute the time in minutes since the epoch.
+     * @return the formatted time, or null for NO_TIME.
+     */
+    public static String formatTime(int minute) {
+        if (minute == NO_TIME) {
+            return null;
+        }
+        return TIME_FORMAT.format(Instant.ofEpochSecond(minute * 60L).atZone(ZoneId.systemDefault()));
+    }
+
+    private static int parse(String time) {
+        LocalDateTime local = LocalDateTime.parse(time.trim(), PARSE_FORMAT);
+        // an hour repeated when the clocks go back is read as the later one, as SimpleDateFormat did
+        long seconds = local.atZone(ZoneId.systemDefault()).withLaterOffsetAtOverlap().toEpochSecond();
+        return (int) Math.floorDiv(seconds, 60);
+    }
+
+    private static String display(int minute) {
+        if (minute == NO_TIME) {
+            return "none";
+        }
+        return DISPLAY_FORMAT.format(Instant.ofEpochSecond(minute * 60L).atZone(ZoneId.systemDefault()));
+    }
+
+    private static byte flag(byte flags, int set, int value, Boolean b) {
+        if (b == null) {
+            return (byte) (flags & ~(set | value));
+        }
+        return (byte) (b ? flags | set | value : (flags | set) & ~value);
+    }
+
+    private static Boolean flag(byte flags, int set, int value) {
+        if ((flags & set) == 0) {
+            return null;
+        }
+        return (flags & value) != 0;
+    }
+
+    /**
+     * Write the reservation in its compact form: the times, the spot and the flags, the name and vehicle only if
+     * set, then the payment.
+     *
+     * @param out where to write it.
+     * @throws IOException if it cannot be written.
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        int form = flags;
+        if (customerName != null) form |= HAS_CUSTOMER;
+        if (vehicleID != null) form |= HAS_VEHICLE;
+        out.writeByte(FORM_VERSION);
+        out.writeByte(form);
+        out.writeInt(startTime);
+        out.writeInt(endTime);
+        out.writeInt(spotId);
+        if (customerName != null) out.writeUTF(customerName);
+        if (vehicleID != null) out.writeUTF(vehicleID);
+        out.writeObject(payment);
+    }
+
+    /**
+     * Read a reservation written by writeExternal.
+     *
+     * @param in where to read it from.
+     * @throws IOException if it cannot be read or is in an unknown form.
+     * @throws ClassNotFoundException if its payment cannot be read.
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int version = in.readUnsignedByte();
+        if (version != FORM_VERSION) {
+            throw new InvalidObjectException("Unknown reservation form " + version);
+        }
+        int form = in.readUnsignedByte();
+        flags = (byte) (form & (PAID_SET | PAID | REDEEMED_SET | REDEEMED));
+        startTime = in.readInt();
+        endTime = in.readInt();
+        spotId = in.readInt();
+        customerName = (form & HAS_CUSTOMER) != 0 ? in.readUTF() : null;
+        vehicleID = (form & HAS_VEHICLE) != 0 ? in.readUTF() : null;
+        payment = (Payment) in.readObject();
+    }
+
     /**
      * Get a string representation of the reservation.
      *
@@ -271,14 +426,12 @@ public class Reservation implements Serializable{
      */
     public String toString() {
 
-        SimpleDateFormat fmt = new SimpleDateFormat("EEE, MMM dd:hh a yyyy");
-
         return  " - Customer     : " + customerName+ "\n" +
                 " - Vehicle      : " + vehicleID + "\n" +
-                " - Start Time   : " + fmt.format(startTime) + "\n" +
-                " - End Time     : " + fmt.format(endTime) + "\n" +
-                " - Parking Spot : " + spotId +
-                " - " + ((isPaid) ? "Payment complete" : "Payment required on entry" );
+                " - Start Time   : " + display(startTime) + "\n" +
+                " - End Time     : " + display(endTime) + "\n" +
+                " - Parking Spot : " + getSpotId() +
+                " - " + ((Boolean.TRUE.equals(getIsPaid())) ? "Payment complete" : "Payment required on entry" );
     }
 
     /**
@@ -294,19 +447,18 @@ public class Reservation implements Serializable{
 
         Reservation that = (Reservation) o;
 
-        if (!startTime.equals(that.startTime)) return false;
-        if (!endTime.equals(that.endTime)) return false;
-        if (!customerName.equals(that.customerName)) return false;
-        return vehicleID.equals(that.vehicleID);
+        if (startTime != that.startTime) return false;
+        if (endTime != that.endTime) return false;
+        if (!Objects.equals(customerName, that.customerName)) return false;
+        return Objects.equals(vehicleID, that.vehicleID);
     }
 
     @Override
     public int hashCode() {
-        int result = startTime.hashCode();
-        result = 31 * result + endTime.hashCode();
-        result = 31 * result + customerName.hashCode();
-        result = 31 * result + vehicleID.hashCode();
+        int result = startTime;
+        result = 31 * result + endTime;
+        result = 31 * result + Objects.hashCode(customerName);
+        result = 31 * result + Objects.hashCode(vehicleID);
         return result;
     }
 }
-
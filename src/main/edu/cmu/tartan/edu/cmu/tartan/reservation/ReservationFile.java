@@ -0,0 +1,277 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compact binary reservation file. Records are fixed width with times stored as epoch minutes, and customer
+ * names and plates are stored once in a dictionary at the end of the file and referenced by number. Files are
+ * read through a memory mapping, so loading does no text parsing or date formatting.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * header : magic int, version short, reserved short, record count int, dictionary size int, dictionary offset long
+ * record : start minute int, end minute int, name id int, vehicle id int, spot int, flags byte, 3 pad bytes, fee long
+ * dict   : per entry, byte length short followed by UTF-8 bytes
+ * </pre>
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class ReservationFile {
+
+    /**
+     * File identification.
+     */
+    private static final int MAGIC = 0x54525356; // "TRSV"
+    private static final short VERSION = 1;
+
+    /**
+     * Sizes of the fixed parts of the file.
+     */
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 32;
+
+    /**
+     * Record flags.
+     */
+    private static final byte PAID = 0x1;
+    private static final byte REDEEMED = 0x2;
+    private static final byte HAS_FEE = 0x4;
+
+    /**
+     * Marks a missing string or spot.
+     */
+    private static final int NONE = -1;
+    private static final int NO_SPOT = Integer.MIN_VALUE;
+
+    private ReservationFile() {
+    }
+
+    /**
+     * Read every reservation in a binary file.
+     *
+     * @param file the file to read.
+     * @return the reservations in file order.
+     * @throws IOException if the file cannot be read or is not a reservation file.
+     */
+    public static List<Reservation> read(Path file) throws IOException {
+
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+
+            if (buf.remaining() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+                throw new IOException("Not a reservation file: " + file);
+            }
+            if (buf.getShort(4) != VERSION) {
+                throw new IOException("Unsupported reservation file version " + buf.getShort(4));
+            }
+            int count = buf.getInt(8);
+            int dictSize = buf.getInt(12);
+            long dictOffset = buf.getLong(16);
+
+            // decode the dictionary once, every record refers to it
+            String[] dict = new String[dictSize];
+            buf.position((int) dictOffset);
+            for (int i = 0; i < dictSize; i++) {
+                byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+                buf.get(bytes);
+                dict[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            List<Reservation> reservations = new ArrayList<Reservation>(count);
+            int pos = HEADER_SIZE;
+            for (int i = 0; i < count; i++, pos += RECORD_SIZE) {
+                Reservation r = new Reservation();
+                r.setStartMinute(buf.getInt(pos));
+                r.setEndMinute(buf.getInt(pos + 4));
+
+                int nameId = buf.getInt(pos + 8);
+                int vehicleId = buf.getInt(pos + 12);
+                r.setCustomerName(nameId == NONE ? null : dict[nameId]);
+                r.setVehicleID(vehicleId == NONE ? null : dict[vehicleId]);
+
+                int spot = buf.getInt(pos + 16);
+                r.setSpotId(spot == NO_SPOT ? null : spot);
+
+                byte flags = buf.get(pos + 20);
+                r.setIsPaid((flags & PAID) != 0);
+                r.setIsRedeemed((flags & REDEEMED) != 0);
+                if ((flags & HAS_FEE) != 0) {
+                    r.setPayment(new Payment(buf.getLong(pos + 24)));
+                }
+                reservations.add(r);
+            }
+            return reservations;
+        }
+    }
+
+    /**
+     * Write reservations to a binary file. The file is replaced atomically.
+     *
+     * @param file         the file to write.
+     * @param reservations the reservations to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(Path file, Collection<Reservation> reservations) throws IOException {
+
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        List<String> dict = new ArrayList<String>();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(reservations.size());
+            out.writeInt(0);  // dictionary size, patched below
+            out.writeLong(0); // dictionary offset, patched below
+
+            for (Reservation r : reservations) {
+                out.writeInt(r.getStartMinute());
+                out.writeInt(r.getEndMinute());
+                out.writeInt(intern(r.getCustomerName(), ids, dict));
+                out.writeInt(intern(r.getVehicleID(), ids, dict));
+                out.writeInt(r.getSpotId() == null ? NO_SPOT : r.getSpotId());
+
+                byte flags = 0;
+                if (Boolean.TRUE.equals(r.getIsPaid())) {
+                    flags |= PAID;
+                }
+                if (Boolean.TRUE.equals(r.getIsRedeemed())) {
+                    flags |= REDEEMED;
+                }
+                Payment payment = r.getPayment();
+                boolean hasFee = payment != null && payment.getFee() != null;
+                if (hasFee) {
+                    flags |= HAS_FEE;
+                }
+                out.writeByte(flags);
+                out.write(new byte[3]);
+                out.writeLong(hasFee ? payment.getFee() : 0L);
+            }
+
+            for (String s : dict) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ByteBuffer patch = ByteBuffer.allocate(12);
+            patch.putInt(dict.size());
+            patch.putLong(HEADER_SIZE + (long) reservations.size() * RECORD_SIZE);
+            patch.flip();
+            fc.write(patch, 12);
+            fc.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int intern(String s, HashMap<String, Integer> ids, List<String> dict) {
+        if (s == null) {
+            return NONE;
+        }
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = dict.size();
+            ids.put(s, id);
+            dict.add(s);
+        }
+        return id;
+    }
+
+    /**
+     * Convert a text reservation file (rsvp.txt or statics.txt layout) into a binary file. Reservations already
+     * in the binary file are kept, so the conversion can be rerun to fold new text records in.
+     *
+     * @param textFile   the text file to read.
+     * @param binaryFile the binary file to write.
+     * @return the number of reservations in the binary file.
+     * @throws Exception if a file cannot be read or written.
+     */
+    public static int convert(Path textFile, Path binaryFile) throws Exception {
+        List<Reservation> all = new ArrayList<Reservation>();
+        if (Files.exists(binaryFile)) {
+            all.addAll(read(binaryFile));
+        }
+        for (String line : Files.readAllLines(textFile, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                all.add(ReservationStore.parseReservation(line));
+            }
+        }
+        write(binaryFile, all);
+        return all.size();
+    }
+
+    /**
+     * Export a binary file in the text layout used by rsvp.txt and statics.txt.
+     *
+     * @param binaryFile the binary file to read.
+     * @param textFile   the text file to write.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public static void export(Path binaryFile, Path textFile) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (Reservation r : read(binaryFile)) {
+            String line = ReservationStore.formatReservation(r);
+            if (r.getPayment() != null && r.getPayment().getFee() != null) {
+                line += ",fee=" + r.getPayment().getFee();
+            }
+            lines.add(line);
+        }
+        Files.write(textFile, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One-time conversion of a settings directory to the binary format, or export back to text.
+     * <p>
+     * Usage: ReservationFile convert|export &lt;settings path&gt;
+     *
+     * @param args the command and the settings path.
+     * @throws Exception on any failure.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Usage: ReservationFile convert|export <settings path>");
+            return;
+        }
+        String[][] files = {
+                {ReservationStore.RESERVATION_STORE, ReservationStore.RESERVATION_BINARY},
+                {ReservationStore.STATICS_STORE, ReservationStore.STATICS_BINARY}};
+
+        for (String[] f : files) {
+            Path text = Paths.get(args[1], f[0]);
+            Path binary = Paths.get(args[1], f[1]);
+            if (args[0].equals("convert") && Files.exists(text)) {
+                int n = convert(text, binary);
+                // the text file now only collects records appended after the conversion
+                Files.write(text, new byte[0]);
+                System.out.println("Converted " + text + " -> " + binary + " (" + n + " reservations)");
+            } else if (args[0].equals("export") && Files.exists(binary)) {
+                export(binary, Paths.get(args[1], f[0] + ".export"));
+                System.out.println("Exported " + binary + " -> " + f[0] + ".export");
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only log of text records with group commit. A record is durable once append returns. Writers that
+ * arrive while a sync is in progress are batched into the next write, so a burst of writers pays for one fsync
+ * instead of one each.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class ReservationLog {
+
+    /**
+     * The record separator.
+     */
+    private static final char RECORD_END = '\n';
+
+    /**
+     * The log file.
+     */
+    private final Path path;
+
+    /**
+     * The open channel to the log file.
+     */
+    private FileChannel channel;
+
+    /**
+     * Guards the fields below.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Records appended but not yet written.
+     */
+    private StringBuilder pending = new StringBuilder();
+
+    /**
+     * Sequence number of the last appended record and of the last durable record.
+     */
+    private long appendedSeq = 0;
+    private long durableSeq = 0;
+
+    /**
+     * True while one writer is writing and syncing a batch.
+     */
+    private boolean syncing = false;
+
+    /**
+     * The first write failure. Once a batch is lost the log refuses further records.
+     */
+    private IOException failure = null;
+
+    /**
+     * Open a log, creating the file if needed.
+     *
+     * @param path the log file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public ReservationLog(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Append a record and wait until it is on disk.
+     *
+     * @param record the record, which must not contain a line break.
+     * @throws IOException if the record could not be written.
+     */
+    public void append(String record) throws IOException {
+        long seq;
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+            pending.append(record).append(RECORD_END);
+            seq = ++appendedSeq;
+        }
+        sync(seq);
+    }
+
+    /**
+     * Append several records and wait until all of them are on disk. The records go out in one write and one
+     * sync, next to each other with no record from another writer between them.
+     *
+     * @param records the records, which must not contain line breaks.
+     * @throws IOException if the records could not be written.
+     */
+    public void appendAll(List<String> records) throws IOException {
+        long seq;
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+            for (String record : records) {
+                pending.append(record).append(RECORD_END);
+            }
+            appendedSeq += records.size();
+            seq = appendedSeq;
+        }
+        sync(seq);
+    }
+
+    /**
+     * Wait until the record with the given sequence number is durable, writing the pending batch if no other
+     * writer is doing so.
+     *
+     * @param seq the sequence number to wait for.
+     * @throws IOException if the batch containing the record failed.
+     */
+    private void sync(long seq) throws IOException {
+        String batch;
+        long batchSeq;
+        synchronized (lock) {
+            while (durableSeq < seq && syncing) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for log sync", e);
+                }
+            }
+            if (durableSeq >= seq) {
+                return;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            // become the writer for everything appended so far
+            syncing = true;
+            batch = pending.toString();
+            batchSeq = appendedSeq;
+            pending.setLength(0);
+        }
+
+        IOException error = null;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        synchronized (lock) {
+            syncing = false;
+            if (error == null) {
+                durableSeq = batchSeq;
+            } else {
+                failure = error;
+            }
+            lock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Read every complete record in a log file. A partial record left by a crash in the middle of a write is
+     * ignored.
+     *
+     * @param path the log file.
+     * @return the records in the order they were appended.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<String> readRecords(Path path) throws IOException {
+        List<String> records = new ArrayList<String>();
+        if (!Files.exists(path)) {
+            return records;
+        }
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        int start = 0;
+        int end;
+        while ((end = content.indexOf(RECORD_END, start)) >= 0) {
+            if (end > start) {
+                records.add(content.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return records;
+    }
+
+    /**
+     * Discard every record, after they have been checkpointed elsewhere.
+     *
+     * @throws IOException if the log cannot be truncated.
+     */
+    public void truncate() throws IOException {
+        synchronized (lock) {
+            while (syncing) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for log sync", e);
+                }
+            }
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Get the log file.
+     *
+     * @return the path of the log.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Close the log.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
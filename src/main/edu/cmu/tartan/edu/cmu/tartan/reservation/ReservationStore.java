@@ -4,12 +4,19 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Vector;
 
 /**
@@ -25,19 +32,94 @@ public class ReservationStore {
     /**
      * The flat file that contains all the reservations.
      */
-    private static final String RESERVATION_STORE = "rsvp.txt";
-    private static final String STATICS_STORE = "statics.txt";
+    static final String RESERVATION_STORE = "rsvp.txt";
+    static final String STATICS_STORE = "statics.txt";
+
+    /**
+     * The binary versions of the reservation and statistics files, written by ReservationFile. Once a settings
+     * directory has been converted, the text files only hold records appended since the last snapshot.
+     */
+    static final String RESERVATION_BINARY = "rsvp.dat";
+    static final String STATICS_BINARY = "statics.dat";
+
+    /**
+     * The write-ahead log of reservation changes since the last checkpoint of the reservation file.
+     */
+    private static final String RESERVATION_LOG = "rsvp.wal";
+
+    /**
+     * Write-ahead log record types.
+     */
+    private static final String LOG_OP = "op";
+    private static final String LOG_CREATE = "create";
+    private static final String LOG_REDEEM = "redeem";
+
+    /**
+     * A batch is logged as one record per reservation followed by a commit record with the batch size. Replay
+     * ignores batch records that are not followed by their commit, so a crash part way through writing a batch
+     * loses the whole batch rather than persisting some of it.
+     */
+    private static final String LOG_BATCH = "batch";
+    private static final String LOG_COMMIT = "commit";
+    private static final String LOG_SIZE = "size";
 
     /**
      * The path to the reservation database.
      */
     private final String settingsPath;
 
+    /**
+     * In write-ahead log mode, reservation changes are appended here instead of rewriting the reservation file.
+     */
+    private ReservationLog reservationLog = null;
+
+    /**
+     * In write-ahead log mode, payments are appended to the statistics file through this log.
+     */
+    private ReservationLog staticsLog = null;
+
+    /**
+     * True when the reservation snapshot is kept in the binary format.
+     */
+    private final boolean binary;
+
     /**
      * The list of all reservations.
      */
     private Vector<Reservation> reservations = new Vector<Reservation>();
 
+    /**
+     * Every stored reservation, for duplicate checks when adding. Kept in step with the reservation list by
+     * syncKeys.
+     */
+    private HashSet<Reservation> keys = new HashSet<Reservation>();
+
+    /**
+     * The reservation list the key set was built from, and how many of its entries have been added.
+     */
+    private Vector<Reservation> keyedReservations = null;
+    private int keyedCount = 0;
+
+    /**
+     * A lower bound on the length of one line of a reservation file, used to size the load buffers.
+     */
+    private static final int MIN_LINE_LENGTH = 64;
+
+    /**
+     * Reservations indexed by customer name.
+     */
+    private HashMap<String, Vector<Reservation>> customerIndex = new HashMap<String, Vector<Reservation>>();
+
+    /**
+     * Reservations indexed by normalized vehicle ID.
+     */
+    private HashMap<String, Vector<Reservation>> vehicleIndex = new HashMap<String, Vector<Reservation>>();
+
+    /**
+     * Guards both indexes, which are read by the services' threads while reservations are added and redeemed.
+     */
+    private final Object indexLock = new Object();
+
     /**
      * Fetch all reservations.
      *
@@ -51,38 +133,101 @@ public class ReservationStore {
         settingsPath = path;
         createFile(RESERVATION_STORE);
         createFile(STATICS_STORE);
+        binary = Files.exists(Paths.get(settingsPath, RESERVATION_BINARY));
+    }
+
+    /**
+     * Create a store, optionally in write-ahead log mode. In this mode every new reservation, redemption and
+     * payment is durably appended to a log as it happens, the log is replayed by loadReservations, and shutdown
+     * folds it back into the reservation file.
+     *
+     * @param path          The path to the reservation database.
+     * @param writeAheadLog true to enable write-ahead logging.
+     */
+    public ReservationStore(String path, boolean writeAheadLog) {
+        this(path);
+        if (writeAheadLog) {
+            try {
+                reservationLog = new ReservationLog(Paths.get(settingsPath, RESERVATION_LOG));
+                staticsLog = new ReservationLog(Paths.get(settingsPath, STATICS_STORE));
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeLogs();
+            }
+        }
     }
 
     /**
-     * Get the set of reservations for a given customer.
+     * Get the set of reservations for a given customer, including redeemed ones.
      *
      * @param name The name of the customer.
      * @return The reservations associated with a customer.
      */
     public Vector<Reservation> lookupByCustomer(String name) {
-        Vector<Reservation> results = new Vector<Reservation>();
-        for (Reservation r : reservations) {
-            if (r.getCustomerName().equals(name)) {
-                results.add(r);
+        synchronized (indexLock) {
+            Vector<Reservation> bucket = customerIndex.get(name);
+            if (bucket == null) {
+                return new Vector<Reservation>();
             }
+            return new Vector<Reservation>(bucket);
         }
-        return results;
     }
 
     /**
-     * Get the reservations for a given vehicle
+     * Get the reservations for a given vehicle, including redeemed ones.
      *
      * @param vehicleId the id of the vehicle (license plate).
      * @return The list of reservations for a given vehicle.
      */
     public Vector<Reservation> lookupByVehicle(String vehicleId) {
-        Vector<Reservation> results = new Vector<Reservation>();
-        for (Reservation r : reservations) {
-            if (r.getVehicleID().equals(vehicleId)) {
-                results.add(r);
+        synchronized (indexLock) {
+            Vector<Reservation> bucket = vehicleIndex.get(normalizeVehicleId(vehicleId));
+            if (bucket == null) {
+                return new Vector<Reservation>();
+            }
+            return new Vector<Reservation>(bucket);
+        }
+    }
+
+    /**
+     * Normalize a license plate so that lookups ignore case, spaces and dashes.
+     *
+     * @param vehicleId the vehicle ID as entered.
+     * @return the normalized vehicle ID, or null if none was given.
+     */
+    static String normalizeVehicleId(String vehicleId) {
+        if (vehicleId == null) {
+            return null;
+        }
+        StringBuilder plate = new StringBuilder(vehicleId.length());
+        for (int i = 0; i < vehicleId.length(); i++) {
+            char c = vehicleId.charAt(i);
+            if (!Character.isWhitespace(c) && c != '-') {
+                plate.append(c);
             }
         }
-        return results;
+        return plate.toString().toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Add a reservation to the customer and vehicle indexes.
+     *
+     * @param r the reservation to index.
+     */
+    private void index(Reservation r) {
+        synchronized (indexLock) {
+            indexBucket(customerIndex, r.getCustomerName()).add(r);
+            indexBucket(vehicleIndex, normalizeVehicleId(r.getVehicleID())).add(r);
+        }
+    }
+
+    private static Vector<Reservation> indexBucket(HashMap<String, Vector<Reservation>> idx, String key) {
+        Vector<Reservation> bucket = idx.get(key);
+        if (bucket == null) {
+            bucket = new Vector<Reservation>(2);
+            idx.put(key, bucket);
+        }
+        return bucket;
     }
 
     /**
@@ -92,118 +237,275 @@ public class ReservationStore {
      * @return True when the reservation is added.
      */
     public Boolean addReservation(Reservation r) {
-        for (Reservation reservation : reservations) {
-            if (reservation.equals(r)) {
-                return false;
-            }
+        syncKeys(0);
+        if (!keys.add(r)) {
+            return false;
         }
         reservations.add(r);
+        keyedCount++;
+        index(r);
         return true;
     }
 
     /**
-     * Load reservations from a file. This occurs on start up.
+     * Add many reservations to the database, skipping duplicates. This takes time linear in the number of
+     * reservations, where adding them one at a time used to compare each with every stored reservation.
      *
-     * @throws Exception
+     * @param batch the new reservations.
+     * @return the number of reservations added.
      */
-    public void loadReservations() throws Exception {
+    public int addReservations(Collection<Reservation> batch) {
+        syncKeys(batch.size());
+        reservations.ensureCapacity(reservations.size() + batch.size());
+
+        int added = 0;
+        for (Reservation r : batch) {
+            if (keys.add(r)) {
+                reservations.add(r);
+                keyedCount++;
+                index(r);
+                added++;
+            }
+        }
+        return added;
+    }
 
-        try (BufferedReader br = Files.newBufferedReader(Paths.get(settingsPath + File.separator + RESERVATION_STORE), StandardCharsets.UTF_8)) {
+    /**
+     * Bring the key set up to date with the reservation list, which may have been replaced or appended to
+     * directly.
+     *
+     * @param expected the number of reservations about to be added, used to size a new key set.
+     */
+    private void syncKeys(int expected) {
+        if (keyedReservations != reservations || reservations.size() < keyedCount) {
+            keys = new HashSet<Reservation>(hashCapacity(reservations.size() + expected));
+            keyedReservations = reservations;
+            keyedCount = 0;
+        } else if (keyedCount == 0 && expected > 0) {
+            keys = new HashSet<Reservation>(hashCapacity(expected));
+        }
+        for (; keyedCount < reservations.size(); keyedCount++) {
+            keys.add(reservations.get(keyedCount));
+        }
+    }
+
+    private static int hashCapacity(int entries) {
+        return Math.max(16, (int) (entries / 0.75f) + 1);
+    }
+
+    /**
+     * Read and add every reservation in a text file.
+     *
+     * @param file the file to read.
+     * @throws IOException if the file cannot be read.
+     */
+    private void loadTextFile(Path file) throws IOException {
+        List<Reservation> batch = new ArrayList<Reservation>((int) Math.min(Integer.MAX_VALUE - 8,
+                Files.size(file) / MIN_LINE_LENGTH + 1));
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
 
             String line;
             while ((line = br.readLine()) != null) { // one reservation per line
-                Reservation reservation = new Reservation();
-                String[] entries = line.split(",");
-                for (String entry : entries) {
-                    //System.out.println(entry);
-
-                    String[] item = entry.split("=");
-                    String key = item[0];
-                    String val = item[1];
-
-                    if (key.equals("name")) {
-                        reservation.setCustomerName(val);
-                    } else if (key.equals("start")) {
-                        reservation.setStartTime(val);
-                    } else if (key.equals("end")) {
-                        reservation.setEndTime(val);
-                    } else if (key.equals("vehicle")) {
-                        reservation.setVehicleID(val);
-                    } else if (key.equals("spot")) {
-                        reservation.setSpotId(Integer.parseInt(val));
-                    } else if (key.equals("paid")) {
-                        reservation.setIsPaid(Boolean.valueOf(val));
-                    }
-                }
-                addReservation(reservation);
+                batch.add(parseReservation(line));
             }
         }
+        addReservations(batch);
     }
 
-    public void loadCumulativeReservations() throws Exception {
-        try (BufferedReader br = Files.newBufferedReader(Paths.get(settingsPath + File.separator + STATICS_STORE), StandardCharsets.UTF_8)) {
+    /**
+     * Build a reservation from a line of comma separated key=value fields.
+     *
+     * @param line the line to parse.
+     * @return the reservation.
+     */
+    static Reservation parseReservation(String line) {
+        Reservation reservation = new Reservation();
+        String[] entries = line.split(",");
+        for (String entry : entries) {
+
+            String[] item = entry.split("=");
+            String key = item[0];
+            String val = item[1];
+
+            if (key.equals("name")) {
+                reservation.setCustomerName(val);
+            } else if (key.equals("start")) {
+                reservation.setStartTime(val);
+            } else if (key.equals("end")) {
+                reservation.setEndTime(val);
+            } else if (key.equals("vehicle")) {
+                reservation.setVehicleID(val);
+            } else if (key.equals("spot")) {
+                reservation.setSpotId(Integer.parseInt(val));
+            } else if (key.equals("paid")) {
+                reservation.setIsPaid(Boolean.valueOf(val));
+            } else if (key.equals("fee")) {
+                Payment payment = new Payment();
+                payment.setFee(Long.valueOf(val));
+                reservation.setPayment(payment);
+            }
+        }
+        return reservation;
+    }
 
-            String line;
-            while ((line = br.readLine()) != null) { // one reservation per line
-                Reservation reservation = new Reservation();
-                String[] entries = line.split(",");
-                for (String entry : entries) {
-
-                    String[] item = entry.split("=");
-                    String key = item[0];
-                    String val = item[1];
-
-                    if (key.equals("name")) {
-                        reservation.setCustomerName(val);
-                    } else if (key.equals("start")) {
-                        reservation.setStartTime(val);
-                    } else if (key.equals("end")) {
-                        reservation.setEndTime(val);
-                    } else if (key.equals("vehicle")) {
-                        reservation.setVehicleID(val);
-                    } else if (key.equals("spot")) {
-                        reservation.setSpotId(Integer.parseInt(val));
-                    } else if (key.equals("paid")) {
-                        reservation.setIsPaid(Boolean.valueOf(val));
-                    } else if (key.equals("fee")) {
-                        Payment payment = new Payment();
-                        payment.setFee(Long.valueOf(val));
-                        reservation.setPayment(payment);
-                    }
+    /**
+     * Format a reservation as a line of comma separated key=value fields, without a line terminator.
+     *
+     * @param rsvp the reservation to format.
+     * @return the formatted reservation.
+     */
+    static String formatReservation(Reservation rsvp) {
+        return "name=" + rsvp.getCustomerName() +
+                ",vehicle=" + rsvp.getVehicleID() +
+                ",start=" + Reservation.formatTime(rsvp.getStartMinute()) +
+                ",end=" + Reservation.formatTime(rsvp.getEndMinute()) +
+                ",paid=" + String.valueOf(rsvp.getIsPaid()) +
+                ",spot=" + rsvp.getSpotId().toString();
+    }
+
+    /**
+     * Load reservations from a file. This occurs on start up. A binary snapshot is read first if there is one,
+     * followed by the text file. In write-ahead log mode the log is then replayed and checkpointed.
+     *
+     * @throws Exception
+     */
+    public void loadReservations() throws Exception {
+
+        if (binary) {
+            addReservations(ReservationFile.read(Paths.get(settingsPath, RESERVATION_BINARY)));
+        }
+        loadTextFile(Paths.get(settingsPath + File.separator + RESERVATION_STORE));
+
+        if (reservationLog != null) {
+            replayLog();
+            checkpoint();
+        }
+    }
+
+    /**
+     * Apply the reservation changes recorded in the write-ahead log.
+     *
+     * @throws IOException if the log cannot be read.
+     */
+    private void replayLog() throws IOException {
+        ArrayList<Reservation> batch = new ArrayList<Reservation>();
+        for (String record : ReservationLog.readRecords(reservationLog.getPath())) {
+            String op = record.substring(LOG_OP.length() + 1, record.indexOf(','));
+            String body = record.substring(record.indexOf(',') + 1);
+
+            if (op.equals(LOG_BATCH)) {
+                batch.add(parseReservation(body));
+                continue;
+            }
+            if (op.equals(LOG_COMMIT)) {
+                if (body.equals(LOG_SIZE + "=" + batch.size())) {
+                    addReservations(batch);
                 }
-                addReservation(reservation);
+            } else if (op.equals(LOG_CREATE)) {
+                addReservation(parseReservation(body));
+            } else if (op.equals(LOG_REDEEM)) {
+                redeem(parseReservation(body));
             }
+            // a batch is written in one piece, so any other record ends an uncommitted batch
+            batch.clear();
         }
     }
 
     /**
-     * On shutdown, save the updated reservation list.
+     * Write the unredeemed reservations to the reservation file, replacing it atomically, and then empty the
+     * write-ahead log.
+     *
+     * @throws IOException if the checkpoint cannot be written.
      */
-    public void shutdown() {
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(settingsPath + File.separator + RESERVATION_STORE), StandardCharsets.UTF_8)) {
+    private void checkpoint() throws IOException {
+        if (binary) {
+            writeBinarySnapshot();
+        } else {
+            Path store = Paths.get(settingsPath, RESERVATION_STORE);
+            Path tmp = Paths.get(settingsPath, RESERVATION_STORE + ".tmp");
+
+            writeReservations(tmp);
+            try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                fc.force(true);
+            }
+            Files.move(tmp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        reservationLog.truncate();
+    }
 
-            DateFormat dateFormat = new SimpleDateFormat("yyyy:MM:dd:HH:mm");
+    /**
+     * Write the unredeemed reservations to the binary snapshot and empty the text file, whose records are now
+     * part of the snapshot.
+     *
+     * @throws IOException if the snapshot cannot be written.
+     */
+    private void writeBinarySnapshot() throws IOException {
+        Vector<Reservation> unredeemed = new Vector<Reservation>(reservations.size());
+        for (Reservation rsvp : reservations) {
+            if (!rsvp.getIsRedeemed()) {
+                unredeemed.add(rsvp);
+            }
+        }
+        ReservationFile.write(Paths.get(settingsPath, RESERVATION_BINARY), unredeemed);
+        Files.write(Paths.get(settingsPath, RESERVATION_STORE), new byte[0]);
+    }
 
+    /**
+     * Write every unredeemed reservation to a file.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeReservations(Path file) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
             for (Reservation rsvp : reservations) {
-
                 if (!rsvp.getIsRedeemed()) {
-                    //to convert Date to String, use format method of SimpleDateFormat class.
-                    String startDate = dateFormat.format(rsvp.getStartTime());
-                    String endDate = dateFormat.format(rsvp.getEndTime());
-
-                    bw.write("name=" + rsvp.getCustomerName() +
-                            ",vehicle=" + rsvp.getVehicleID() +
-                            ",start=" + startDate + ",end=" + endDate +
-                            ",paid=" + String.valueOf(rsvp.getIsPaid()) +
-                            //",spot=" + rsvp.getSpotId().toString() + "\n");
-                            ",spot=" + rsvp.getSpotId().toString() + System.lineSeparator());
+                    bw.write(formatReservation(rsvp) + System.lineSeparator());
                 }
             }
+        }
+    }
 
+    public void loadCumulativeReservations() throws Exception {
+        Path statics = Paths.get(settingsPath, STATICS_BINARY);
+        if (Files.exists(statics)) {
+            addReservations(ReservationFile.read(statics));
+        }
+        loadTextFile(Paths.get(settingsPath + File.separator + STATICS_STORE));
+    }
+
+    /**
+     * On shutdown, save the updated reservation list.
+     */
+    public void shutdown() {
+        try {
+            if (reservationLog != null) {
+                checkpoint();
+            } else if (binary) {
+                writeBinarySnapshot();
+            } else {
+                writeReservations(Paths.get(settingsPath + File.separator + RESERVATION_STORE));
+            }
         } catch (RuntimeException e) {
             throw e;
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            closeLogs();
+        }
+    }
+
+    /**
+     * Close the write-ahead logs, leaving the store in plain file mode.
+     */
+    private void closeLogs() {
+        if (reservationLog != null) {
+            reservationLog.close();
+            reservationLog = null;
+        }
+        if (staticsLog != null) {
+            staticsLog.close();
+            staticsLog = null;
         }
     }
 
@@ -215,13 +517,8 @@ public class ReservationStore {
      */
     public Boolean isDuplicate(Reservation rsvp) {
 
-        for (Reservation r : reservations) {
-            if (r.equals(rsvp)) {
-                return true;
-            }
-        }
-        return false;
-
+        syncKeys(0);
+        return keys.contains(rsvp);
     }
 
     /**
@@ -236,13 +533,20 @@ public class ReservationStore {
             return false;
         }
 
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(settingsPath + File.separator + RESERVATION_STORE), StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+        if (reservationLog != null) {
+            try {
+                reservationLog.append(LOG_OP + "=" + LOG_CREATE + "," + formatReservation(newRsvp));
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
 
-            DateFormat dateFormat = new SimpleDateFormat("yyyy:MM:dd:HH:mm");
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(settingsPath + File.separator + RESERVATION_STORE), StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
 
-            //to convert Date to String, use format method of SimpleDateFormat class.
-            String startDate = dateFormat.format(newRsvp.getStartTime());
-            String endDate = dateFormat.format(newRsvp.getEndTime());
+            String startDate = Reservation.formatTime(newRsvp.getStartMinute());
+            String endDate = Reservation.formatTime(newRsvp.getEndMinute());
 
             bw.write("name=" + newRsvp.getCustomerName() +
                     ",vehicle=" + newRsvp.getVehicleID() +
@@ -260,6 +564,42 @@ public class ReservationStore {
         return false;
     }
 
+    /**
+     * Save a batch of new reservations to the database with a single write. The reservations need not have been
+     * added to the store yet, so a batch can be saved first and added only once it is safely written. In write-ahead
+     * log mode the batch is committed as a whole: after a crash either all of it or none of it is replayed.
+     *
+     * @param batch The new reservations.
+     * @return True if the whole batch was saved, false otherwise.
+     */
+    public Boolean saveNewReservations(Collection<Reservation> batch) {
+
+        ArrayList<String> records = new ArrayList<String>(batch.size() + 1);
+        for (Reservation r : batch) {
+            records.add(reservationLog != null
+                    ? LOG_OP + "=" + LOG_BATCH + "," + formatReservation(r)
+                    : formatReservation(r));
+        }
+
+        try {
+            if (reservationLog != null) {
+                records.add(LOG_OP + "=" + LOG_COMMIT + "," + LOG_SIZE + "=" + batch.size());
+                reservationLog.appendAll(records);
+            } else {
+                StringBuilder text = new StringBuilder();
+                for (String record : records) {
+                    text.append(record).append('\n');
+                }
+                Files.write(Paths.get(settingsPath + File.separator + RESERVATION_STORE),
+                        text.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     /***
      * Indicate that a reservation has been redeemed so that it cannot be redeemed twice.
      *
@@ -267,24 +607,52 @@ public class ReservationStore {
      */
     public void markReservationRedeemed(Reservation rsvp) {
 
-        for (Reservation r : reservations) {
+        if (redeem(rsvp) && reservationLog != null) {
+            try {
+                reservationLog.append(LOG_OP + "=" + LOG_REDEEM + "," + formatReservation(rsvp));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Mark the stored copies of a reservation redeemed.
+     *
+     * @param rsvp The redeemed reservation.
+     * @return true if a stored reservation matched.
+     */
+    private boolean redeem(Reservation rsvp) {
+
+        // a matching reservation must have the same customer, so only that customer's bucket is searched
+        boolean found = false;
+        for (Reservation r : lookupByCustomer(rsvp.getCustomerName())) {
             if (r.equals(rsvp)) {
                 r.setIsRedeemed(true);
+                found = true;
             }
         }
+        return found;
     }
 
     public boolean saveStaticsInfo(Reservation rsvp) {
 
         Payment payment = rsvp.getPayment();
 
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(settingsPath + File.separator + STATICS_STORE), StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+        if (staticsLog != null) {
+            try {
+                staticsLog.append(formatReservation(rsvp) + ",fee=" + payment.getFee().toString());
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
 
-            DateFormat dateFormat = new SimpleDateFormat("yyyy:MM:dd:HH:mm");
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(settingsPath + File.separator + STATICS_STORE), StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
 
-            //to convert Date to String, use format method of SimpleDateFormat class.
-            String startDate = dateFormat.format(rsvp.getStartTime());
-            String endDate = dateFormat.format(rsvp.getEndTime());
+            String startDate = Reservation.formatTime(rsvp.getStartMinute());
+            String endDate = Reservation.formatTime(rsvp.getEndMinute());
             bw.write("name=" + rsvp.getCustomerName() +
                     ",vehicle=" + rsvp.getVehicleID() +
                     ",start= " + startDate + ",end=" + endDate +
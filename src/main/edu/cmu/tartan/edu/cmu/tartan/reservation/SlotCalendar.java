@@ -0,0 +1,313 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * An availability calendar over the booking horizon, kept as one spot bitset per 15 minute slot in a ring that
+ * advances with the clock. Finding a free spot for a window ORs the bitsets of the slots the window covers, so the
+ * cost depends on the window length and the garage size, not on the number of reservations.
+ * <p>
+ * Each slot keeps two bitsets: spots with a reservation touching the slot, and spots with a reservation covering
+ * the whole slot. A touching reservation always overlaps a window that covers the whole slot. When a window only
+ * covers part of its first or last slot, a spot whose reservation touches that slot without covering it may or may
+ * not overlap the window; those few spots are settled against the exact per-spot timeline.
+ * <p>
+ * The number of spots touched in each slot is kept as bits are set, so occupancy over a window is read off
+ * directly. A version number changes whenever a reservation is added or the calendar is cleared, so answers
+ * cached by callers can be checked for staleness.
+ * <p>
+ * Intervals are half open, [start, end), in epoch milliseconds, as in {@link SpotTimeline}.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class SlotCalendar {
+
+    /**
+     * The length of a slot.
+     */
+    public static final long SLOT_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * The number of slots in the ring: the seven day booking window plus a day of slack.
+     */
+    public static final int SLOTS = 8 * 24 * 4;
+
+    /**
+     * Returned by findFreeSpot when the window is not within the calendar.
+     */
+    public static final int UNKNOWN = -2;
+
+    /**
+     * Per ring slot: spots with a reservation touching the slot, and spots with one covering the whole slot.
+     */
+    private long[][] touched = new long[SLOTS][1];
+    private long[][] full = new long[SLOTS][1];
+
+    /**
+     * Per ring slot: the number of spots with a reservation touching the slot.
+     */
+    private int[] occupied = new int[SLOTS];
+
+    /**
+     * Changes whenever the recorded reservations change.
+     */
+    private long version = 0;
+
+    /**
+     * The absolute number of the oldest slot in the ring.
+     */
+    private long baseSlot;
+
+    /**
+     * Slots from this absolute number on may be missing reservations that ran past the end of the ring when they
+     * were added.
+     */
+    private long incompleteFrom = Long.MAX_VALUE;
+
+    /**
+     * Scratch bitsets for queries.
+     */
+    private long[] busy = new long[1];
+    private long[] edge = new long[1];
+
+    /**
+     * Create an empty calendar starting at the slot holding a time.
+     *
+     * @param now the current time.
+     */
+    public SlotCalendar(long now) {
+        baseSlot = Math.floorDiv(now, SLOT_MILLIS);
+    }
+
+    /**
+     * Move the calendar forward to the slot holding a time. Slots that fall behind are cleared and reused for the
+     * end of the horizon.
+     *
+     * @param now the current time.
+     */
+    public void advance(long now) {
+        long slot = Math.floorDiv(now, SLOT_MILLIS);
+        if (slot <= baseSlot) {
+            return;
+        }
+        long passed = Math.min(slot - baseSlot, SLOTS);
+        for (long s = baseSlot; s < baseSlot + passed; s++) {
+            int i = ring(s);
+            Arrays.fill(touched[i], 0L);
+            Arrays.fill(full[i], 0L);
+            occupied[i] = 0;
+        }
+        baseSlot = slot;
+    }
+
+    /**
+     * Add a reserved interval for a spot. The parts of the interval outside the ring are not recorded.
+     *
+     * @param spot  the spot identifier.
+     * @param start the start of the interval.
+     * @param end   the end of the interval.
+     */
+    public void add(int spot, long start, long end) {
+        if (spot < 0 || end <= start) {
+            return;
+        }
+        int word = spot >>> 6;
+        long bit = 1L << spot;
+
+        long first = Math.max(Math.floorDiv(start, SLOT_MILLIS), baseSlot);
+        long last = Math.floorDiv(end - 1, SLOT_MILLIS);
+        if (last >= baseSlot + SLOTS) {
+            last = baseSlot + SLOTS - 1;
+            incompleteFrom = Math.min(incompleteFrom, baseSlot + SLOTS);
+        }
+        for (long s = first; s <= last; s++) {
+            int i = ring(s);
+            if (touched[i].length <= word) {
+                touched[i] = Arrays.copyOf(touched[i], word + 1);
+                full[i] = Arrays.copyOf(full[i], word + 1);
+            }
+            if ((touched[i][word] & bit) == 0) {
+                touched[i][word] |= bit;
+                occupied[i]++;
+            }
+            if (start <= s * SLOT_MILLIS && end >= (s + 1) * SLOT_MILLIS) {
+                full[i][word] |= bit;
+            }
+        }
+        version++;
+    }
+
+    /**
+     * Find the lowest numbered spot that is free for a window.
+     *
+     * @param start    the start of the window.
+     * @param end      the end of the window.
+     * @param capacity the number of spots in the garage.
+     * @param timeline the exact index of the same reservations, used to settle partly covered slots.
+     * @return the spot, -1 if every spot is taken, or UNKNOWN if the window is not within the calendar.
+     */
+    public int findFreeSpot(long start, long end, int capacity, SpotTimeline timeline) {
+        return findFreeSpot(start, end, capacity, timeline, spot -> true);
+    }
+
+    /**
+     * Find the lowest numbered spot that is free for a window and can be claimed. Free spots are offered to the
+     * claim in order until one is accepted.
+     *
+     * @param start    the start of the window.
+     * @param end      the end of the window.
+     * @param capacity the number of spots in the garage.
+     * @param timeline the exact index of the same reservations, used to settle partly covered slots.
+     * @param claim    takes a free spot, false if it cannot be had.
+     * @return the claimed spot, -1 if no spot could be claimed, or UNKNOWN if the window is not within the calendar.
+     */
+    public int findFreeSpot(long start, long end, int capacity, SpotTimeline timeline, IntPredicate claim) {
+        if (end <= start) {
+            return UNKNOWN;
+        }
+        long first = Math.floorDiv(start, SLOT_MILLIS);
+        long last = Math.floorDiv(end - 1, SLOT_MILLIS);
+        if (first < baseSlot || last >= baseSlot + SLOTS || last >= incompleteFrom) {
+            return UNKNOWN;
+        }
+
+        int words = (capacity + 63) >>> 6;
+        if (busy.length < words) {
+            busy = new long[words];
+            edge = new long[words];
+        }
+        Arrays.fill(busy, 0, words, 0L);
+        Arrays.fill(edge, 0, words, 0L);
+
+        for (long s = first; s <= last; s++) {
+            int i = ring(s);
+            boolean covered = start <= s * SLOT_MILLIS && end >= (s + 1) * SLOT_MILLIS;
+            long[] t = touched[i];
+            long[] f = full[i];
+            int n = Math.min(words, t.length);
+            for (int w = 0; w < n; w++) {
+                if (covered) {
+                    busy[w] |= t[w];
+                } else {
+                    busy[w] |= f[w];
+                    edge[w] |= t[w];
+                }
+            }
+        }
+
+        for (int w = 0; w < words; w++) {
+            long free = ~busy[w];
+            if (w == words - 1 && (capacity & 63) != 0) {
+                free &= (1L << capacity) - 1;
+            }
+            while (free != 0) {
+                int spot = (w << 6) + Long.numberOfTrailingZeros(free);
+                long bit = free & -free;
+                if (((edge[w] & bit) == 0 || timeline.isFree(spot, start, end)) && claim.test(spot)) {
+                    return spot;
+                }
+                free &= ~bit;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Count the spots with no reservation in any slot of a window. The window is widened to whole slots, so a
+     * spot booked in the part of a first or last slot outside the window is not counted as free.
+     *
+     * @param start    the start of the window.
+     * @param end      the end of the window.
+     * @param capacity the number of spots in the garage.
+     * @return the number of free spots, or UNKNOWN if the window is not within the calendar.
+     */
+    public int countFreeSpots(long start, long end, int capacity) {
+        long first = Math.floorDiv(start, SLOT_MILLIS);
+        long last = Math.floorDiv(end - 1, SLOT_MILLIS);
+        if (end <= start || first < baseSlot || last >= baseSlot + SLOTS || last >= incompleteFrom) {
+            return UNKNOWN;
+        }
+
+        // nothing booked in the window, no bitsets to look at
+        boolean empty = true;
+        for (long s = first; s <= last && empty; s++) {
+            empty = occupied[ring(s)] == 0;
+        }
+        if (empty) {
+            return capacity;
+        }
+
+        int words = (capacity + 63) >>> 6;
+        if (busy.length < words) {
+            busy = new long[words];
+            edge = new long[words];
+        }
+        Arrays.fill(busy, 0, words, 0L);
+        for (long s = first; s <= last; s++) {
+            long[] t = touched[ring(s)];
+            int n = Math.min(words, t.length);
+            for (int w = 0; w < n; w++) {
+                busy[w] |= t[w];
+            }
+        }
+        if ((capacity & 63) != 0) {
+            busy[words - 1] &= (1L << capacity) - 1;
+        }
+        int taken = 0;
+        for (int w = 0; w < words; w++) {
+            taken += Long.bitCount(busy[w]);
+        }
+        return capacity - taken;
+    }
+
+    /**
+     * Get the number of spots booked in each slot of a window.
+     *
+     * @param start the start of the window.
+     * @param end   the end of the window.
+     * @return the count for each slot the window touches, or null if the window is not within the calendar.
+     */
+    public int[] getOccupancy(long start, long end) {
+        long first = Math.floorDiv(start, SLOT_MILLIS);
+        long last = Math.floorDiv(end - 1, SLOT_MILLIS);
+        if (end <= start || first < baseSlot || last >= baseSlot + SLOTS || last >= incompleteFrom) {
+            return null;
+        }
+        int[] counts = new int[(int) (last - first + 1)];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = occupied[ring(first + i)];
+        }
+        return counts;
+    }
+
+    /**
+     * Get the version of the recorded reservations. It changes whenever a reservation is added or the calendar is
+     * cleared.
+     *
+     * @return the version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Remove all intervals.
+     */
+    public void clear() {
+        for (int i = 0; i < SLOTS; i++) {
+            Arrays.fill(touched[i], 0L);
+            Arrays.fill(full[i], 0L);
+        }
+        Arrays.fill(occupied, 0);
+        incompleteFrom = Long.MAX_VALUE;
+        version++;
+    }
+
+    private int ring(long slot) {
+        return (int) Math.floorMod(slot, (long) SLOTS);
+    }
+}
@@ -0,0 +1,288 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Short lived holds on spots offered to customers who have not confirmed yet. A hold keeps a spot for a window so
+ * that no other booking is offered it, and lapses after a fixed time if it is never released.
+ * <p>
+ * Each spot's holds are an immutable array swapped in with compare-and-set, so bookings for different spots never
+ * contend and bookings for the same spot retry instead of locking. Expired holds are ignored as soon as they lapse
+ * and are swept out by a timing wheel: holds are filed in the bucket of the tick they expire in, and each tick only
+ * visits its own bucket.
+ * <p>
+ * Each hold is identified by a token returned when it is made, and only that token releases it. A holder whose hold
+ * lapsed and was replaced by someone else's hold on the same window cannot release the new one.
+ * <p>
+ * Intervals are half open, [start, end), in epoch milliseconds, as in {@link SpotTimeline}.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class SpotHolds {
+
+    /**
+     * A hold on one spot for one window.
+     */
+    private static final class Hold {
+        final long token;
+        final int spot;
+        final long start;
+        final long end;
+        final long expires;
+
+        Hold(long token, int spot, long start, long end, long expires) {
+            this.token = token;
+            this.spot = spot;
+            this.start = start;
+            this.end = end;
+            this.expires = expires;
+        }
+    }
+
+    private static final Hold[] NONE = new Hold[0];
+
+    /**
+     * Returned by hold when the spot could not be held. Never a valid token.
+     */
+    public static final long NO_HOLD = 0;
+
+    /**
+     * The last token given out.
+     */
+    private final AtomicLong tokens = new AtomicLong(NO_HOLD);
+
+    /**
+     * Per spot: the current holds.
+     */
+    private final ConcurrentHashMap<Integer, AtomicReference<Hold[]>> holds =
+            new ConcurrentHashMap<Integer, AtomicReference<Hold[]>>();
+
+    /**
+     * How long a hold lasts, and the length of a wheel tick.
+     */
+    private final long ttl;
+    private final long tick;
+
+    /**
+     * The timing wheel. It spans more than one time to live, so every hold in a bucket expires in the tick the
+     * bucket is visited.
+     */
+    private final ConcurrentLinkedQueue<Hold>[] wheel;
+
+    /**
+     * The last tick swept. A tick is swept once it has passed.
+     */
+    private long lastTick;
+
+    /**
+     * The number of holds in the table.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Create an empty hold table.
+     *
+     * @param ttl  how long a hold lasts, in milliseconds.
+     * @param tick the sweep interval, in milliseconds.
+     * @param now  the current time.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SpotHolds(long ttl, long tick, long now) {
+        this.ttl = ttl;
+        this.tick = Math.max(1, tick);
+        wheel = new ConcurrentLinkedQueue[(int) (ttl / this.tick) + 2];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<Hold>();
+        }
+        lastTick = now / this.tick - 1;
+    }
+
+    /**
+     * Hold a spot for a window unless a live hold on the spot overlaps it.
+     *
+     * @param spot  the spot identifier.
+     * @param start the start of the window.
+     * @param end   the end of the window.
+     * @param now   the current time.
+     * @return the token that releases the hold, or NO_HOLD if the spot was already held.
+     */
+    public long hold(int spot, long start, long end, long now) {
+        AtomicReference<Hold[]> ref = holds.get(spot);
+        if (ref == null) {
+            ref = holds.computeIfAbsent(spot, s -> new AtomicReference<Hold[]>(NONE));
+        }
+        Hold h = new Hold(tokens.incrementAndGet(), spot, start, end, now + ttl);
+        while (true) {
+            Hold[] cur = ref.get();
+            int live = 0;
+            for (Hold o : cur) {
+                if (o.expires > now) {
+                    if (o.start < end && o.end > start) {
+                        return NO_HOLD;
+                    }
+                    live++;
+                }
+            }
+            // drop lapsed holds on the way, the sweep will find them gone
+            Hold[] next = new Hold[live + 1];
+            int i = 0;
+            for (Hold o : cur) {
+                if (o.expires > now) {
+                    next[i++] = o;
+                }
+            }
+            next[i] = h;
+            if (ref.compareAndSet(cur, next)) {
+                size.addAndGet(next.length - cur.length);
+                wheel[bucket(h.expires)].add(h);
+                return h.token;
+            }
+        }
+    }
+
+    /**
+     * Check whether a spot has no live hold overlapping a window.
+     *
+     * @param spot  the spot identifier.
+     * @param start the start of the window.
+     * @param end   the end of the window.
+     * @param now   the current time.
+     * @return true if the spot is not held for any part of the window.
+     */
+    public boolean isFree(int spot, long start, long end, long now) {
+        AtomicReference<Hold[]> ref = holds.get(spot);
+        if (ref == null) {
+            return true;
+        }
+        for (Hold o : ref.get()) {
+            if (o.expires > now && o.start < end && o.end > start) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a hold is still in the table. A hold stays in the table after it lapses until it is swept out or
+     * another hold on the spot replaces it; while it is there nobody else holds its window.
+     *
+     * @param spot  the spot identifier.
+     * @param token the token returned when the spot was held.
+     * @return true if the hold is in the table.
+     */
+    public boolean isHeld(int spot, long token) {
+        AtomicReference<Hold[]> ref = holds.get(spot);
+        if (ref == null) {
+            return false;
+        }
+        for (Hold o : ref.get()) {
+            if (o.token == token) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release a hold on a spot.
+     *
+     * @param spot  the spot identifier.
+     * @param token the token returned when the spot was held.
+     * @return true if the hold was still in the table and is now released.
+     */
+    public boolean release(int spot, long token) {
+        AtomicReference<Hold[]> ref = holds.get(spot);
+        if (ref == null) {
+            return false;
+        }
+        while (true) {
+            Hold[] cur = ref.get();
+            int i = 0;
+            while (i < cur.length && cur[i].token != token) {
+                i++;
+            }
+            if (i == cur.length) {
+                return false;
+            }
+            if (remove(ref, cur, i)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sweep out the holds that have lapsed since the last sweep. Sweeps are made from one thread.
+     *
+     * @param now the current time.
+     * @return the number of holds removed.
+     */
+    public int expire(long now) {
+        long done = now / tick - 1;
+        long from = Math.max(lastTick + 1, done - wheel.length + 1);
+        int removed = 0;
+        for (long t = from; t <= done; t++) {
+            ConcurrentLinkedQueue<Hold> bucket = wheel[(int) (t % wheel.length)];
+            ArrayList<Hold> later = new ArrayList<Hold>();
+            Hold h;
+            while ((h = bucket.poll()) != null) {
+                if (h.expires > now) {
+                    later.add(h);
+                } else if (expire(h)) {
+                    removed++;
+                }
+            }
+            bucket.addAll(later);
+        }
+        lastTick = Math.max(lastTick, done);
+        return removed;
+    }
+
+    /**
+     * Get the number of holds in the table, including lapsed ones not swept yet.
+     *
+     * @return the number of holds.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private boolean expire(Hold h) {
+        AtomicReference<Hold[]> ref = holds.get(h.spot);
+        while (true) {
+            Hold[] cur = ref.get();
+            int i = 0;
+            while (i < cur.length && cur[i] != h) {
+                i++;
+            }
+            if (i == cur.length) {
+                return false;
+            }
+            if (remove(ref, cur, i)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean remove(AtomicReference<Hold[]> ref, Hold[] cur, int i) {
+        Hold[] next = Arrays.copyOf(cur, cur.length - 1);
+        System.arraycopy(cur, i + 1, next, i, cur.length - i - 1);
+        if (ref.compareAndSet(cur, next)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private int bucket(long time) {
+        return (int) ((time / tick) % wheel.length);
+    }
+}
@@ -0,0 +1,137 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * A time index of reserved intervals, kept as one sorted timeline per parking spot. Finding a free spot for a
+ * window only looks at the intervals near that window on each spot instead of every reservation ever made.
+ * <p>
+ * Intervals are half open, [start, end), in epoch milliseconds.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class SpotTimeline {
+
+    /**
+     * Per spot: interval start mapped to the latest end among intervals with that start.
+     */
+    private ArrayList<TreeMap<Long, Long>> timelines = new ArrayList<TreeMap<Long, Long>>();
+
+    /**
+     * Per spot: the longest interval seen. Bounds how far back an overlap search must look.
+     */
+    private ArrayList<Long> longest = new ArrayList<Long>();
+
+    /**
+     * The number of intervals indexed.
+     */
+    private int size = 0;
+
+    /**
+     * Add a reserved interval for a spot.
+     *
+     * @param spot  the spot identifier.
+     * @param start the start of the interval.
+     * @param end   the end of the interval.
+     */
+    public void add(int spot, long start, long end) {
+        if (spot < 0 || end <= start) {
+            return;
+        }
+        while (timelines.size() <= spot) {
+            timelines.add(new TreeMap<Long, Long>());
+            longest.add(0L);
+        }
+        TreeMap<Long, Long> timeline = timelines.get(spot);
+        Long prevEnd = timeline.get(start);
+        if (prevEnd == null || prevEnd < end) {
+            timeline.put(start, end);
+        }
+        if (end - start > longest.get(spot)) {
+            longest.set(spot, end - start);
+        }
+        size++;
+    }
+
+    /**
+     * Check whether a spot has no reserved interval overlapping a window.
+     *
+     * @param spot  the spot identifier.
+     * @param start the start of the window.
+     * @param end   the end of the window.
+     * @return true if the spot is free for the whole window, false otherwise.
+     */
+    public boolean isFree(int spot, long start, long end) {
+        if (spot < 0 || spot >= timelines.size()) {
+            return true;
+        }
+        TreeMap<Long, Long> timeline = timelines.get(spot);
+        long horizon = start - longest.get(spot);
+
+        // walk back from the last interval starting before the window ends; anything starting at or before
+        // the horizon is too short to reach the window
+        for (Map.Entry<Long, Long> e : timeline.headMap(end, false).descendingMap().entrySet()) {
+            if (e.getKey() <= horizon) {
+                break;
+            }
+            if (e.getValue() > start) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the lowest numbered spot that is free for a window.
+     *
+     * @param start    the start of the window.
+     * @param end      the end of the window.
+     * @param capacity the number of spots in the garage.
+     * @return the spot, or -1 if every spot is taken.
+     */
+    public int findFreeSpot(long start, long end, int capacity) {
+        return findFreeSpot(start, end, capacity, spot -> true);
+    }
+
+    /**
+     * Find the lowest numbered spot that is free for a window and can be claimed.
+     *
+     * @param start    the start of the window.
+     * @param end      the end of the window.
+     * @param capacity the number of spots in the garage.
+     * @param claim    takes a free spot, false if it cannot be had.
+     * @return the claimed spot, or -1 if no spot could be claimed.
+     */
+    public int findFreeSpot(long start, long end, int capacity, IntPredicate claim) {
+        for (int spot = 0; spot < capacity; spot++) {
+            if (isFree(spot, start, end) && claim.test(spot)) {
+                return spot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of intervals indexed.
+     *
+     * @return the number of intervals.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all intervals.
+     */
+    public void clear() {
+        timelines.clear();
+        longest.clear();
+        size = 0;
+    }
+}
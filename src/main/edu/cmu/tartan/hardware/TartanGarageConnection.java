@@ -1,14 +1,36 @@
 package edu.cmu.tartan.hardware;
 
 import java.io.*;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * A connection to the Tartan Garage. This class handles the network connection to the
  * garage.
+ * <p>
+ * Commands are pipelined: a command is written as soon as it is sent, without waiting for the responses to the
+ * commands ahead of it. The garage answers each command with one line, in order, so responses are matched to
+ * commands first in, first out. Each command has a deadline; when it passes the command fails with a
+ * TimeoutException, and its response, if it ever arrives, is discarded. All socket I/O happens on the I/O thread
+ * of the connection manager, which serves every garage of the process from one selector, so a garage that stops
+ * answering never blocks the caller.
+ * <p>
+ * A line that starts with TartanSensors.PUSH_MARK was not asked for: it goes to the push listener, without the
+ * mark, instead of to a command.
  *
  * Project: LG Exec Ed SDET Program
  * Copyright: 2017 Jeffrey S. Gennari
@@ -16,20 +38,70 @@ import java.nio.file.Files;
  * 1.0 November 2016 - initial version
  */
 public class TartanGarageConnection {
-    private Boolean isConnected = false;
+    private volatile Boolean isConnected = false;
 
     /** connection settings */
     private String address = null;
 
-    private final Integer PORT = 5050; // the default port for the house
+    private final Integer PORT = TartanGarageConnectionManager.DEFAULT_PORT; // the default port for the house
 
-    /** The connection is private so it can be controlled */
-    private static TartanGarageConnection connection = null;
-    private Socket houseSocket=null;
-    private BufferedWriter out=null;
-    private BufferedReader in = null;
+    /** The default time allowed for the garage to answer a command, in milliseconds */
+    public static final long COMMAND_TIMEOUT = 5000;
 
-    private TartanGarageConnection() { }
+    /** The time allowed to establish the connection, in milliseconds */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /** The connection manager whose I/O thread serves this connection */
+    private final TartanGarageConnectionManager manager;
+
+    private SocketChannel channel = null;
+
+    /** Commands sent by callers and not yet picked up by the I/O thread */
+    private final ConcurrentLinkedQueue<Command> submitted = new ConcurrentLinkedQueue<Command>();
+
+    /** Commands not yet completely written. Only touched by the I/O thread. */
+    private final ArrayDeque<Command> writing = new ArrayDeque<Command>();
+
+    /** Commands waiting for a response, in the order they were written. Only touched by the I/O thread. */
+    private final ArrayDeque<Command> awaiting = new ArrayDeque<Command>();
+
+    /** Receives the lines the garage pushes, on the I/O thread */
+    private volatile Consumer<String> pushListener = null;
+
+    /** The bytes of the response line being read. Only touched by the I/O thread. */
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /**
+     * A command and the future for its response.
+     */
+    private static class Command {
+        final String msg;
+        final ByteBuffer request;
+        final long deadline;
+        final CompletableFuture<String> response = new CompletableFuture<String>();
+
+        Command(String msg, long timeoutMillis) {
+            this.msg = msg;
+            this.request = ByteBuffer.wrap(msg.getBytes(StandardCharsets.UTF_8));
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+    }
+
+    /**
+     * Make a connection served by the default connection manager.
+     */
+    TartanGarageConnection() {
+        this(TartanGarageConnectionManager.getDefault());
+    }
+
+    /**
+     * Make a connection served by a connection manager.
+     *
+     * @param manager the connection manager.
+     */
+    TartanGarageConnection(TartanGarageConnectionManager manager) {
+        this.manager = manager;
+    }
 
     /**
      * Get the house address.
@@ -41,34 +113,16 @@ public class TartanGarageConnection {
     }
 
     /**
-     * Get an existing connection, or make a new one
+     * Get an existing connection, or make a new one. Connections are kept by the default connection manager, so
+     * connecting to one garage leaves the others connected.
      * @param addr the house address
      * @return the established connection or null
      */
-    public synchronized static TartanGarageConnection getConnection(String addr) {
-        if (addr!=null) {
-            if (connection != null) {
-                if (connection.isConnected()) {
-                    if (connection.getAddress().equals(addr)) {
-                        return connection; // already connected to this garage
-                    } else {
-                        connection.disconnect(); // connect to new garage
-                        connection.connect(addr);
-                    }
-                } else {
-                    connection.connect(addr); // connect to garage
-                }
-            } else {
-                // first connection
-                connection = new TartanGarageConnection();
-                connection.connect(addr);
-            }
+    public static TartanGarageConnection getConnection(String addr) {
+        if (addr == null) {
+            return null;
         }
-        // invalid address - return current connection
-        if (connection.isConnected()) {
-            return connection;
-        }
-        return null;
+        return TartanGarageConnectionManager.getDefault().getConnection(addr);
     }
 
     /**
@@ -80,38 +134,77 @@ public class TartanGarageConnection {
     }
 
     /**
-     * Send a message to the garage and get a response
+     * Send a message to the garage and wait for the response
      * @param msg the message to send
-     * @return the response
+     * @return the response, or null if there was none before the deadline
      */
     public String sendMessageToGarage(String msg) {
         try {
+            return sendCommand(msg).get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            ee.getCause().printStackTrace();
+        }
+        return null;
+    }
 
-            out.write(msg, 0, msg.length());
-            out.flush();
-
-            return in.readLine();
+    /**
+     * Send a command to the garage without waiting for the response.
+     *
+     * @param msg the command to send
+     * @return the response, which fails if the garage does not answer within COMMAND_TIMEOUT
+     */
+    public CompletableFuture<String> sendCommand(String msg) {
+        return sendCommand(msg, COMMAND_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
 
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+    /**
+     * Send a command to the garage without waiting for the response.
+     *
+     * @param msg the command to send
+     * @param timeout the time allowed for the response
+     * @param unit the unit of the timeout
+     * @return the response, which fails if the garage does not answer in time
+     */
+    public CompletableFuture<String> sendCommand(String msg, long timeout, TimeUnit unit) {
+        Command command = new Command(msg, unit.toMillis(timeout));
+        if (!isConnected) {
+            command.response.completeExceptionally(new IOException("Not connected to " + address));
+            return command.response;
         }
-        return null;
+        submitted.add(command);
+        manager.wakeup(this);
+        // the I/O thread may have stopped before it could pick the command up
+        if (!isConnected) {
+            failAll(submitted, new IOException("Disconnected from " + address));
+        }
+        return command.response;
     }
 
     /**
-     * Disconnect from the house
+     * Set the listener for the lines the garage pushes without being asked. The listener runs on the I/O thread
+     * and must not wait for the garage.
+     *
+     * @param listener the listener, or null to drop pushed lines
+     */
+    public void setPushListener(Consumer<String> listener) {
+        pushListener = listener;
+    }
+
+    /**
+     * Disconnect from the house. Commands still waiting for a response fail.
      */
     public void disconnect() {
-        if (houseSocket!=null) {
-            if (houseSocket.isConnected()) {
-                try {
-                    houseSocket.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        isConnected = false;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
-        isConnected = false;
+        manager.wakeup(this);
     }
 
     /**
@@ -120,25 +213,201 @@ public class TartanGarageConnection {
      * @return true if connection successful, false otherwise
      */
     public Boolean connect(String addr) {
+        return connect(addr, PORT);
+    }
+
+    /**
+     * Connect to a garage on a given port
+     * @param addr the address of the house
+     * @param port the port of the house
+     * @return true if connection successful, false otherwise
+     */
+    public Boolean connect(String addr, int port) {
         address = addr;
+        if (!manager.isOpen()) {
+            System.out.println("Connection manager closed");
+            return false;
+        }
 
         try {
-            houseSocket = new Socket(address, PORT);
-
-            out = new BufferedWriter(new OutputStreamWriter(houseSocket.getOutputStream(), StandardCharsets.UTF_8));
-            in = new BufferedReader(new InputStreamReader(houseSocket.getInputStream(), StandardCharsets.UTF_8));
-
-
+            channel = SocketChannel.open();
+            channel.socket().connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT);
+            // commands are short lines, each waited on; send them without waiting for the last one's ack
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
 
         } catch (UnknownHostException uhe) {
             System.out.println("Unknown host: " + address);
+            closeQuietly();
             return false;
         } catch (IOException ioe){
             ioe.printStackTrace();
+            closeQuietly();
             return false;
         }
         System.out.println("Connected");
         isConnected = true;
+
+        // the I/O thread registers the channel with its selector
+        manager.wakeup(this);
         return true;
     }
+
+    private void closeQuietly() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serve the connection on the I/O thread: register it with the selector, pick up the commands sent, write as
+     * much as the socket takes and read what the garage sent.
+     *
+     * @param selector the connection manager's selector.
+     * @param readBuffer the I/O thread's buffer for reading.
+     * @param nextExpiry the earliest command deadline the I/O thread knows of.
+     * @return the earliest deadline, including the commands picked up.
+     */
+    long service(Selector selector, ByteBuffer readBuffer, long nextExpiry) {
+        if (!isConnected) {
+            close(new IOException("Disconnected from " + address));
+            return nextExpiry;
+        }
+        try {
+            SelectionKey key = channel.keyFor(selector);
+            if (key == null) {
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+            }
+
+            Command command;
+            while ((command = submitted.poll()) != null) {
+                writing.add(command);
+                awaiting.add(command);
+                if (command.deadline - nextExpiry < 0) {
+                    nextExpiry = command.deadline;
+                }
+            }
+            write(key);
+
+            int n;
+            while ((n = channel.read(readBuffer)) > 0) {
+                readBuffer.flip();
+                read(readBuffer);
+                readBuffer.clear();
+            }
+            if (n < 0) {
+                close(new IOException("Disconnected from " + address));
+            }
+        } catch (IOException ioe) {
+            if (isConnected) {
+                ioe.printStackTrace();
+            }
+            close(ioe);
+        }
+        return nextExpiry;
+    }
+
+    /**
+     * Close the connection on the I/O thread and fail every command not yet answered.
+     *
+     * @param failure the reason the commands fail.
+     */
+    void close(IOException failure) {
+        isConnected = false;
+        closeQuietly();
+        line.reset();
+        failAll(writing, failure);
+        failAll(awaiting, failure);
+        failAll(submitted, failure);
+    }
+
+    /**
+     * Write as much as the socket takes, and ask to be woken when it can take the rest.
+     */
+    private void write(SelectionKey key) throws IOException {
+        while (!writing.isEmpty()) {
+            Command command = writing.peek();
+            channel.write(command.request);
+            if (command.request.hasRemaining()) {
+                break;
+            }
+            writing.poll();
+        }
+        if (!key.isValid()) {
+            throw new ClosedChannelException();
+        }
+        key.interestOps(writing.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Split the bytes read into response lines and hand each to the oldest command waiting.
+     */
+    private void read(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+            String response = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            line.reset();
+            if (response.endsWith("\r")) {
+                response = response.substring(0, response.length() - 1);
+            }
+
+            if (response.startsWith(TartanSensors.PUSH_MARK)) {
+                Consumer<String> listener = pushListener;
+                if (listener != null) {
+                    try {
+                        listener.accept(response.substring(TartanSensors.PUSH_MARK.length()));
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                continue;
+            }
+
+            Command command = awaiting.poll();
+            if (command == null) {
+                System.out.println("Unexpected response from garage: " + response);
+            } else {
+                // a command that timed out already failed and ignores its late response
+                command.response.complete(response);
+            }
+        }
+    }
+
+    /**
+     * Fail the commands past their deadline. They stay in order so their responses are still matched.
+     *
+     * @param now the time, from System.nanoTime.
+     * @param nextExpiry the earliest deadline of the other connections.
+     * @return the earliest deadline still to come, including this connection's.
+     */
+    long expire(long now, long nextExpiry) {
+        for (Command command : awaiting) {
+            if (command.response.isDone()) {
+                continue;
+            }
+            if (now - command.deadline >= 0) {
+                command.response.completeExceptionally(
+                        new TimeoutException("No response from garage to " + command.msg));
+            } else if (command.deadline - nextExpiry < 0) {
+                nextExpiry = command.deadline;
+            }
+        }
+        return nextExpiry;
+    }
+
+    private static void failAll(Iterable<Command> commands, IOException failure) {
+        Iterator<Command> it = commands.iterator();
+        while (it.hasNext()) {
+            it.next().response.completeExceptionally(failure);
+            it.remove();
+        }
+    }
 }
@@ -0,0 +1,293 @@
+package edu.cmu.tartan.hardware;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the connections to any number of garages, so one process can operate a whole campus. Every connection is
+ * multiplexed on one selector and served by one I/O thread, whatever the number of garages; each garage has its own
+ * garage manager, which polls it on its own schedule.
+ * <p>
+ * Connections are kept by address and port. Asking for a garage that is already connected returns the same
+ * connection, and connecting to one garage never disconnects another.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class TartanGarageConnectionManager {
+
+    /** The default port for the house */
+    public static final int DEFAULT_PORT = 5050;
+
+    /** The longest the I/O thread sleeps when no command is waiting, in milliseconds */
+    private static final long IDLE_TIMEOUT = 60000;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /** The manager of connections made without one */
+    private static TartanGarageConnectionManager defaultManager = null;
+
+    private final Selector selector;
+    private final Thread ioThread;
+    private volatile boolean isOpen = true;
+
+    /** Connections with work for the I/O thread: new, with commands sent, or disconnected */
+    private final ConcurrentLinkedQueue<TartanGarageConnection> ready =
+            new ConcurrentLinkedQueue<TartanGarageConnection>();
+
+    /** The connections, by address and port */
+    private final ConcurrentHashMap<String, TartanGarageConnection> connections =
+            new ConcurrentHashMap<String, TartanGarageConnection>();
+
+    /** The garage managers, by address and port */
+    private final ConcurrentHashMap<String, TartanGarageManager> garages =
+            new ConcurrentHashMap<String, TartanGarageManager>();
+
+    /**
+     * Open the selector and start the I/O thread.
+     *
+     * @throws IOException if the selector cannot be opened.
+     */
+    public TartanGarageConnectionManager() throws IOException {
+        selector = Selector.open();
+        ioThread = new Thread(this::runIo, "TartanGarageConnectionManager");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Get the manager shared by the connections of this process.
+     *
+     * @return the manager.
+     */
+    public static synchronized TartanGarageConnectionManager getDefault() {
+        if (defaultManager == null || !defaultManager.isOpen) {
+            try {
+                defaultManager = new TartanGarageConnectionManager();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        return defaultManager;
+    }
+
+    /**
+     * Get an existing connection to a garage on the default port, or make a new one.
+     *
+     * @param addr the address of the house.
+     * @return the established connection or null.
+     */
+    public TartanGarageConnection getConnection(String addr) {
+        return getConnection(addr, DEFAULT_PORT);
+    }
+
+    /**
+     * Get an existing connection to a garage, or make a new one.
+     *
+     * @param addr the address of the house.
+     * @param port the port of the house.
+     * @return the established connection or null.
+     */
+    public TartanGarageConnection getConnection(String addr, int port) {
+        String key = key(addr, port);
+        TartanGarageConnection conn = connections.get(key);
+        if (conn != null && conn.isConnected()) {
+            return conn;
+        }
+        conn = new TartanGarageConnection(this);
+        if (!conn.connect(addr, port)) {
+            return null;
+        }
+        // another thread may have connected to the same garage meanwhile
+        TartanGarageConnection current = connections.get(key);
+        if (current != null && current.isConnected()) {
+            conn.disconnect();
+            return current;
+        }
+        connections.put(key, conn);
+        return conn;
+    }
+
+    /**
+     * Connect to a garage and start operating it: learn its capacity, ask it to push its updates and start polling
+     * it. A garage that is already operated is returned as it is.
+     *
+     * @param addr the address of the house.
+     * @param port the port of the house.
+     * @param listener told about the changes in the garage from the first update on, or null.
+     * @return the garage manager, or null if the garage could not be reached.
+     */
+    public synchronized TartanGarageManager connectGarage(String addr, int port, TartanGarageListener listener) {
+        String key = key(addr, port);
+        TartanGarageManager garage = garages.get(key);
+        if (garage != null && garage.isConnected()) {
+            if (listener != null) {
+                garage.addListener(listener);
+            }
+            return garage;
+        }
+        TartanGarageConnection conn = getConnection(addr, port);
+        if (conn == null) {
+            return null;
+        }
+        garage = new TartanGarageManager(conn);
+        if (listener != null) {
+            garage.addListener(listener);
+        }
+        garage.updateGarageState();
+        // the garage is polled until it pushes an update, as one may acknowledge this without pushing
+        garage.enablePushUpdates().join();
+        garage.startUpdateThread();
+        garages.put(key, garage);
+        return garage;
+    }
+
+    /**
+     * Get the manager of a garage operated with connectGarage.
+     *
+     * @param addr the address of the house.
+     * @param port the port of the house.
+     * @return the garage manager, or null if the garage is not operated.
+     */
+    public TartanGarageManager getGarage(String addr, int port) {
+        return garages.get(key(addr, port));
+    }
+
+    /**
+     * @return the managers of the garages operated with connectGarage.
+     */
+    public Collection<TartanGarageManager> getGarages() {
+        return new ArrayList<TartanGarageManager>(garages.values());
+    }
+
+    /**
+     * @return the number of garages connected.
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for (TartanGarageConnection conn : connections.values()) {
+            if (conn.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Disconnect from a garage. Its garage manager, if any, stops polling.
+     *
+     * @param addr the address of the house.
+     * @param port the port of the house.
+     */
+    public void disconnect(String addr, int port) {
+        String key = key(addr, port);
+        garages.remove(key);
+        TartanGarageConnection conn = connections.remove(key);
+        if (conn != null) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Disconnect from every garage and stop the I/O thread.
+     */
+    public void close() {
+        for (TartanGarageConnection conn : connections.values()) {
+            conn.disconnect();
+        }
+        connections.clear();
+        garages.clear();
+        isOpen = false;
+        selector.wakeup();
+        if (ioThread != Thread.currentThread()) {
+            try {
+                ioThread.join(IDLE_TIMEOUT);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return true until the manager is closed.
+     */
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    /**
+     * Hand a connection's work to the I/O thread.
+     *
+     * @param conn the connection that is new, has commands to write or was disconnected.
+     */
+    void wakeup(TartanGarageConnection conn) {
+        ready.add(conn);
+        selector.wakeup();
+    }
+
+    private static String key(String addr, int port) {
+        return addr + ":" + port;
+    }
+
+    /**
+     * The I/O loop: serve the connections with work handed over or with I/O ready, and expire the commands past
+     * their deadline. Deadlines are only scanned once the earliest one known has passed.
+     */
+    private void runIo() {
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long nextExpiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT);
+        try {
+            while (isOpen) {
+                long wait = TimeUnit.NANOSECONDS.toMillis(nextExpiry - System.nanoTime()) + 1;
+                selector.select(Math.max(1, wait));
+
+                TartanGarageConnection conn;
+                while ((conn = ready.poll()) != null) {
+                    nextExpiry = conn.service(selector, readBuffer, nextExpiry);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    nextExpiry = ((TartanGarageConnection) key.attachment()).service(selector, readBuffer, nextExpiry);
+                }
+
+                long now = System.nanoTime();
+                if (now - nextExpiry >= 0) {
+                    nextExpiry = now + TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT);
+                    for (SelectionKey key : selector.keys()) {
+                        nextExpiry = ((TartanGarageConnection) key.attachment()).expire(now, nextExpiry);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } finally {
+            isOpen = false;
+            IOException failure = new IOException("Connection manager closed");
+            for (SelectionKey key : selector.keys()) {
+                ((TartanGarageConnection) key.attachment()).close(failure);
+            }
+            TartanGarageConnection conn;
+            while ((conn = ready.poll()) != null) {
+                conn.close(failure);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
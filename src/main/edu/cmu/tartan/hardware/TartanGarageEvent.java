@@ -0,0 +1,133 @@
+package edu.cmu.tartan.hardware;
+
+import java.util.Queue;
+
+/**
+ * A change in the garage, found by comparing two consecutive snapshots: a vehicle parked in or left a spot, broke or
+ * cleared a gate's beam, or a gate opened or closed. Each event carries the snapshot it was found in.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public final class TartanGarageEvent {
+
+    /** What changed */
+    public enum Type {SPOT_OCCUPIED, SPOT_VACATED, BEAM_BROKEN, BEAM_CLEARED, GATE_MOVED}
+
+    /** The gates of the garage */
+    public enum Gate {ENTRY, EXIT}
+
+    /** The spot of an event that is not about a spot */
+    public static final int NO_SPOT = -1;
+
+    private static final long[] NO_SPOTS = new long[0];
+
+    private final Type type;
+    private final Gate gate;
+    private final int spot;
+    private final boolean open;
+    private final TartanGarageSnapshot state;
+
+    /**
+     * Describe a change in the garage.
+     *
+     * @param type what changed.
+     * @param gate the gate of a beam or gate event, or null for a spot event.
+     * @param spot the spot index of a spot event, or NO_SPOT.
+     * @param open true if the gate of a GATE_MOVED event is now open.
+     * @param state the snapshot the change was found in.
+     */
+    public TartanGarageEvent(Type type, Gate gate, int spot, boolean open, TartanGarageSnapshot state) {
+        this.type = type;
+        this.gate = gate;
+        this.spot = spot;
+        this.open = open;
+        this.state = state;
+    }
+
+    /**
+     * Find the changes from one snapshot to the next. A parameter the new snapshot does not report has not changed;
+     * one the old snapshot did not report is compared with its resting value (beam clear, gate closed, spot empty).
+     *
+     * @param before the previous snapshot.
+     * @param after the new snapshot.
+     * @param events the queue to add the changes to, in the order gates, beams, spots.
+     */
+    public static void diff(TartanGarageSnapshot before, TartanGarageSnapshot after, Queue<TartanGarageEvent> events) {
+        boolean entryGateWasOpen = before.has(TartanGarageState.ENTRY_GATE) && before.isEntryGateOpen();
+        if (after.has(TartanGarageState.ENTRY_GATE) && after.isEntryGateOpen() != entryGateWasOpen) {
+            events.add(new TartanGarageEvent(Type.GATE_MOVED, Gate.ENTRY, NO_SPOT, after.isEntryGateOpen(), after));
+        }
+        boolean exitGateWasOpen = before.has(TartanGarageState.EXIT_GATE) && before.isExitGateOpen();
+        if (after.has(TartanGarageState.EXIT_GATE) && after.isExitGateOpen() != exitGateWasOpen) {
+            events.add(new TartanGarageEvent(Type.GATE_MOVED, Gate.EXIT, NO_SPOT, after.isExitGateOpen(), after));
+        }
+        boolean entryBeamWasBroken = before.has(TartanGarageState.ENTRY_IR) && before.isEntryBeamBroken();
+        if (after.has(TartanGarageState.ENTRY_IR) && after.isEntryBeamBroken() != entryBeamWasBroken) {
+            events.add(new TartanGarageEvent(after.isEntryBeamBroken() ? Type.BEAM_BROKEN : Type.BEAM_CLEARED,
+                    Gate.ENTRY, NO_SPOT, false, after));
+        }
+        boolean exitBeamWasBroken = before.has(TartanGarageState.EXIT_IR) && before.isExitBeamBroken();
+        if (after.has(TartanGarageState.EXIT_IR) && after.isExitBeamBroken() != exitBeamWasBroken) {
+            events.add(new TartanGarageEvent(after.isExitBeamBroken() ? Type.BEAM_BROKEN : Type.BEAM_CLEARED,
+                    Gate.EXIT, NO_SPOT, false, after));
+        }
+        if (after.has(TartanGarageState.PARKING_SPOT_OCCUPIED)) {
+            // compare 64 spots at a time and only look at the ones that changed
+            long[] now = after.getSpotOccupiedBits();
+            long[] was = before.has(TartanGarageState.PARKING_SPOT_OCCUPIED) ? before.getSpotOccupiedBits() : NO_SPOTS;
+            for (int w = 0; w < now.length; w++) {
+                long changed = now[w] ^ (w < was.length ? was[w] : 0);
+                while (changed != 0) {
+                    int spot = (w << 6) + Long.numberOfTrailingZeros(changed);
+                    changed &= changed - 1;
+                    events.add(new TartanGarageEvent(after.getSpotOccupied(spot) != 0
+                            ? Type.SPOT_OCCUPIED : Type.SPOT_VACATED, null, spot, false, after));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return what changed.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the gate of a beam or gate event, or null for a spot event.
+     */
+    public Gate getGate() {
+        return gate;
+    }
+
+    /**
+     * @return the spot index, from 0, of a spot event, or NO_SPOT.
+     */
+    public int getSpot() {
+        return spot;
+    }
+
+    /**
+     * @return true if the gate of a GATE_MOVED event is now open.
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return the snapshot the change was found in.
+     */
+    public TartanGarageSnapshot getState() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return "TartanGarageEvent{" + type + (gate != null ? " " + gate : "") + (spot != NO_SPOT ? " spot=" + spot : "")
+                + (type == Type.GATE_MOVED ? (open ? " open" : " closed") : "") + "}";
+    }
+}
@@ -0,0 +1,20 @@
+package edu.cmu.tartan.hardware;
+
+/**
+ * Receives the changes in the garage as the garage manager finds them.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public interface TartanGarageListener {
+
+    /**
+     * Handle a change in the garage. Events are delivered one at a time, in the order they happened, on the
+     * garage manager's update thread.
+     *
+     * @param event the change.
+     */
+    void onGarageEvent(TartanGarageEvent event);
+}
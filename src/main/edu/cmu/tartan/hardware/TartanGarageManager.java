@@ -1,21 +1,37 @@
 package edu.cmu.tartan.hardware;
 
-import edu.cmu.tartan.service.TartanParams;
-
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Observable;
-import java.util.StringTokenizer;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages connection and data flow to the Tartan Garage.
  * <p>
+ * Gate and light commands return as soon as they are sent. The connection sends them in order and the
+ * returned future reports whether the garage acknowledged the command. Commands issued between startBatch and
+ * sendBatch on one thread are coalesced into a single batch line when the garage reports that it takes batches, and
+ * sent one by one otherwise. Spot light commands only carry the spots that changed since the last light command the
+ * garage acknowledged when the garage reports that it keeps the lights of spots left out; otherwise they list every
+ * spot.
+ * <p>
+ * The state is polled at an adaptive rate: every MIN_POLL_INTERVAL while a beam is broken or a gate is open, backing
+ * off to MAX_POLL_INTERVAL once the garage is quiet. A garage that pushes its state updates is only polled every
+ * PUSH_POLL_INTERVAL, to catch a lost update.
+ * <p>
+ * Each new snapshot is compared with the one before it, and the changes are queued as TartanGarageEvents. The update
+ * thread delivers them to the listeners in order, so listeners never compare states themselves.
+ * <p>
  * Project: LG Exec Ed SDET Program
  * Copyright: 2017 Jeffrey S. Gennari
  * Versions:
  * 1.0 November 2016 - initial version
  */
-public class TartanGarageManager extends Observable {
+public class TartanGarageManager {
 
     /**
      * Connection to the garage
@@ -27,35 +43,147 @@ public class TartanGarageManager extends Observable {
      */
     protected Thread updateThread = null;
 
-    private boolean isEntryOn;
-    private boolean isExitOn;
+    /** The shortest time between polls, while a vehicle is at a gate or a gate is open, in milliseconds */
+    public static final long MIN_POLL_INTERVAL = 250;
+
+    /** The longest time between polls of a quiet garage, in milliseconds */
+    public static final long MAX_POLL_INTERVAL = 5000;
+
+    /** The time between polls of a garage that pushes its state updates, in milliseconds */
+    public static final long PUSH_POLL_INTERVAL = 30000;
+
+    /** True once the garage has pushed a state update; an acknowledgement alone does not show that it will */
+    private volatile boolean pushEnabled = false;
+
+    /** Wakes the update thread early: set when a pushed update arrives or a gate command is sent */
+    private final Object updateSignal = new Object();
+    private boolean updateSignalled = false;
+    private boolean statePushed = false;
+
+    /**
+     * the currentState of the garage, updated by every poll or push. Readers take the published snapshot without
+     * locking; a new snapshot is published only when an update changes the state.
+     */
+    private final AtomicReference<TartanGarageSnapshot> currentState =
+            new AtomicReference<TartanGarageSnapshot>(TartanGarageSnapshot.EMPTY);
+
+    /**
+     * Each update is parsed into this state, which is reused from one update to the next.
+     */
+    private final TartanGarageState parsedState = new TartanGarageState();
+
+    /**
+     * The number of pushed updates handled, guarded by parsedState. A polled update is dropped if a push was handled
+     * while it was on its way: the push is at least as new, and any later change is pushed too.
+     */
+    private long pushesHandled = 0;
+
+    /** Marks a pushed update to handleStateUpdate */
+    private static final long PUSHED = -1;
+
+    /**
+     * Changes found by updates and not yet delivered. Updates come from the update thread and from pushes on the
+     * connection's thread; only the update thread takes events off the queue.
+     */
+    private final ConcurrentLinkedQueue<TartanGarageEvent> events = new ConcurrentLinkedQueue<TartanGarageEvent>();
+
+    /**
+     * The parties told about changes in the garage
+     */
+    private final CopyOnWriteArrayList<TartanGarageListener> listeners =
+            new CopyOnWriteArrayList<TartanGarageListener>();
+
+    /**
+     * The system property that sets the garage capacity until the garage reports it
+     */
+    public static final String CAPACITY_PROPERTY = "tartan.garage.capacity";
+
+    /**
+     * The capacity of the Tartan Garage hardware
+     */
+    public static final int DEFAULT_CAPACITY = 4;
+
+    /**
+     * Spot light commands for more spots than this are sent as a bitmap; the garage firmware reads lists of up to
+     * this many spots
+     */
+    private static final int MAX_LIST_SPOTS = 10;
+
     /**
-     * the currentState of the garage, updated every 5 seconds
+     * True once the garage reports that it takes batches. Until then, and for a garage that does not, commands are
+     * sent one by one.
      */
-    HashMap<String, Object> currentState = new HashMap<String, Object>();
+    private volatile boolean batchEnabled = false;
+
+    /**
+     * True once the garage reports that it keeps the lights of spots left out of a light command. Until then every
+     * light command lists every spot.
+     */
+    private volatile boolean listChangesEnabled = false;
+
+    /** The batch each thread is collecting, between startBatch and sendBatch */
+    private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+    /**
+     * The spot lights as last sent, which the garage acknowledged or is about to. Guarded by itself, with
+     * spotLightsKnown and spotLightCount.
+     */
+    private final BitSet spotLights = new BitSet();
+
+    /** False until a complete light state is sent, and again once a light command is not acknowledged */
+    private boolean spotLightsKnown = false;
+
+    private int spotLightCount = 0;
+
+    /**
+     * Commands collected for one batch line.
+     */
+    private static class Batch {
+
+        /** The commands by parameter, in the order first issued. A later command replaces an earlier one. */
+        final LinkedHashMap<String, String> commands = new LinkedHashMap<String, String>();
+
+        /** The light state asked for last, or null */
+        ArrayList<String> lights = null;
+
+        /** Completed once the batch is acknowledged */
+        final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+        /** The number of startBatch calls not yet matched by sendBatch */
+        int depth = 0;
+    }
 
     /**
      * The list of parking spots
      */
-    ArrayList<Integer> parkingSpots = new ArrayList<Integer>();
+    volatile ArrayList<Integer> parkingSpots = new ArrayList<Integer>();
 
     /**
-     * Garage capacity
+     * Garage capacity, set in configuration and replaced by the number of spots the garage reports
      */
-    private final Integer capacity = 4;
+    private volatile int capacity;
 
     /**
-     * Set up the connection manager with a connection.
+     * Set up the connection manager with a connection. The capacity is taken from the CAPACITY_PROPERTY system
+     * property until the garage reports it.
      *
      * @param conn the (established) connection
      */
     public TartanGarageManager(TartanGarageConnection conn) {
+        this(conn, Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Set up the connection manager with a connection.
+     *
+     * @param conn the (established) connection
+     * @param capacity the number of parking spots until the garage reports it
+     */
+    public TartanGarageManager(TartanGarageConnection conn, int capacity) {
 
         connection = conn;
 
-        for (int i = 0; i < capacity; ++i) {
-            parkingSpots.add(i);
-        }
+        setCapacity(capacity);
     }
 
     /**
@@ -67,6 +195,23 @@ public class TartanGarageManager extends Observable {
         return capacity;
     }
 
+    /**
+     * Change the garage capacity and the list of parking spots with it.
+     *
+     * @param capacity the number of parking spots.
+     */
+    private void setCapacity(int capacity) {
+        ArrayList<Integer> spots = new ArrayList<Integer>(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            spots.add(i);
+        }
+        this.capacity = capacity;
+        parkingSpots = spots;
+        synchronized (spotLights) {
+            spotLightsKnown = false;
+        }
+    }
+
     /**
      * Fetch the list of parking spots.
      *
@@ -87,39 +232,208 @@ public class TartanGarageManager extends Observable {
 
     /**
      * Send command to close the exit gate.
+     *
+     * @return True once the command is acknowledged.
      */
-    public void closeExitGate() {
-        toggleExitGate(false);
+    public CompletableFuture<Boolean> closeExitGate() {
+        return toggleExitGate(false);
     }
 
     /**
      * Send command to open the exit gate.
+     *
+     * @return True once the command is acknowledged.
      */
-    public void openExitGate() {
-        toggleExitGate(true);
+    public CompletableFuture<Boolean> openExitGate() {
+        return toggleExitGate(true);
     }
 
     /**
      * Send command to close the entry gate.
+     *
+     * @return True once the command is acknowledged.
      */
-    public void closeEntryGate() {
-        toggleEntryGate(false);
+    public CompletableFuture<Boolean> closeEntryGate() {
+        return toggleEntryGate(false);
     }
 
     /**
      * Send command to open the entry gate.
+     *
+     * @return True once the command is acknowledged.
+     */
+    public CompletableFuture<Boolean> openEntryGate() {
+        return toggleEntryGate(true);
+    }
+
+    /**
+     * Send a command to the garage, or add it to the batch the calling thread is collecting.
+     *
+     * @param msg The command.
+     * @return True once the garage acknowledges the command, false if it answers otherwise or not at all.
+     */
+    private CompletableFuture<Boolean> sendCommand(final String msg) {
+        Batch batch = batches.get();
+        if (batch != null) {
+            batch.commands.put(msg.substring(0, msg.indexOf(TartanSensors.PARAM_EQ)), msg);
+            return batch.result;
+        }
+        return connection.sendCommand(msg).handle((response, e) -> {
+            if (e != null) {
+                System.out.println("Garage command " + msg + " failed: " + e.getMessage());
+                return false;
+            }
+            return isAcknowledgement(response);
+        });
+    }
+
+    private static boolean isAcknowledgement(String response) {
+        // the garage ends its acknowledgement with a period
+        return TartanSensors.OK.equals(response) || (TartanSensors.OK + TartanSensors.MSG_END).equals(response);
+    }
+
+    /**
+     * Start collecting the gate and light commands this thread issues into one batch, sent by sendBatch. Until
+     * then each command returns the future of the whole batch. Batches may be nested; the outermost sendBatch
+     * sends.
+     */
+    public void startBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = new Batch();
+            batches.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * Send the commands collected since startBatch as one line. Of several commands for one parameter only the last
+     * is sent, and the light states asked for become one light command with the spots that changed.
+     *
+     * @return True once the garage acknowledges every command of the batch.
+     */
+    public CompletableFuture<Boolean> sendBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        if (--batch.depth > 0) {
+            return batch.result;
+        }
+        batches.remove();
+
+        List<String> commands = new ArrayList<String>(batch.commands.values());
+        if (batch.lights != null) {
+            String lights = spotLightCommand(batch.lights);
+            if (lights != null) {
+                commands.add(lights);
+            }
+        }
+        CompletableFuture<Boolean> result = sendAll(commands);
+        if (batch.lights != null) {
+            result.thenAccept(this::spotLightsAcknowledged);
+        }
+        result.thenAccept(batch.result::complete);
+        return batch.result;
+    }
+
+    /**
+     * Send commands, as a batch line when there are several and the garage takes batches.
+     *
+     * @param commands the commands, each ending with MSG_END.
+     * @return True once the garage acknowledges every command.
+     */
+    private CompletableFuture<Boolean> sendAll(final List<String> commands) {
+        if (commands.size() == 1 || (!batchEnabled && !commands.isEmpty())) {
+            CompletableFuture<Boolean> result = sendCommand(commands.get(0));
+            for (int i = 1; i < commands.size(); i++) {
+                result = result.thenCombine(sendCommand(commands.get(i)), (a, b) -> a && b);
+            }
+            return result;
+        }
+        if (commands.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        StringBuilder msg = new StringBuilder(TartanSensors.BATCH + TartanSensors.MSG_DELIM);
+        for (int i = 0; i < commands.size(); i++) {
+            if (i > 0) {
+                msg.append(TartanSensors.PARAM_DELIM);
+            }
+            String command = commands.get(i);
+            msg.append(command, 0, command.length() - TartanSensors.MSG_END.length());
+        }
+        msg.append(TartanSensors.MSG_END);
+
+        final String batch = msg.toString();
+        return connection.sendCommand(batch).handle((response, e) -> {
+            if (e != null) {
+                System.out.println("Garage command " + batch + " failed: " + e.getMessage());
+                return CompletableFuture.completedFuture(false);
+            }
+            if (isAcknowledgement(response)) {
+                return CompletableFuture.completedFuture(true);
+            }
+            // the garage no longer takes batches, and carried out none of the commands
+            batchEnabled = false;
+            return sendAll(commands);
+        }).thenCompose(result -> result);
+    }
+
+    /**
+     * Ask the garage to push a state update whenever its state changes. The stock simulator acknowledges the
+     * request but never pushes, so the garage is polled at the adaptive rate until its first pushed update arrives.
+     *
+     * @return True once the garage acknowledges the request.
+     */
+    public CompletableFuture<Boolean> enablePushUpdates() {
+        connection.setPushListener(this::handlePushedUpdate);
+        return sendCommand(TartanSensors.PUSH_UPDATES + TartanSensors.PARAM_EQ + TartanSensors.ON
+                + TartanSensors.MSG_END);
+    }
+
+    /**
+     * Test whether the garage pushes its state updates.
+     *
+     * @return true once an update has been pushed, false while polled.
+     */
+    public boolean isPushEnabled() {
+        return pushEnabled;
+    }
+
+    /**
+     * Handle a state update the garage pushed. This runs on the connection's I/O thread.
+     *
+     * @param update the state update.
+     */
+    private void handlePushedUpdate(String update) {
+        pushEnabled = true;
+        if (handleStateUpdate(update, PUSHED)) {
+            synchronized (updateSignal) {
+                statePushed = true;
+                updateSignalled = true;
+                updateSignal.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wake the update thread so it polls now, for instance because a gate is about to move.
      */
-    public void openEntryGate() {
-        toggleEntryGate(true);
+    private void requestUpdate() {
+        synchronized (updateSignal) {
+            updateSignalled = true;
+            updateSignal.notifyAll();
+        }
     }
 
     /**
      * Send command to open or close the entry gate.
      *
      * @param state True means open, false means close.
-     * @return True if command successfully executed.
+     * @return True once the command is acknowledged.
      */
-    private boolean toggleEntryGate(boolean state) {
+    private CompletableFuture<Boolean> toggleEntryGate(boolean state) {
         StringBuffer msg = new StringBuffer();
         msg.append(TartanSensors.ENTRY_GATE + TartanSensors.PARAM_EQ);
         if (state) {
@@ -129,22 +443,18 @@ public class TartanGarageManager extends Observable {
         }
         msg.append(TartanSensors.MSG_END);
 
-        String response = connection.sendMessageToGarage(msg.toString());
-
-        if (response == null) {
-            return false;
-        }
-
-        return response.equals(TartanSensors.OK);
+        CompletableFuture<Boolean> result = sendCommand(msg.toString());
+        requestUpdate();
+        return result;
     }
 
     /**
      * Send command to open or close the exit gate.
      *
      * @param state True means open, false means close.
-     * @return True if command successfully executed, false otherwise.
+     * @return True once the command is acknowledged.
      */
-    private boolean toggleExitGate(boolean state) {
+    private CompletableFuture<Boolean> toggleExitGate(boolean state) {
         StringBuffer msg = new StringBuffer();
         msg.append(TartanSensors.EXIT_GATE + TartanSensors.PARAM_EQ);
         if (state) {
@@ -154,25 +464,88 @@ public class TartanGarageManager extends Observable {
         }
         msg.append(TartanSensors.MSG_END);
 
-        String response = connection.sendMessageToGarage(msg.toString());
+        CompletableFuture<Boolean> result = sendCommand(msg.toString());
+        requestUpdate();
+        return result;
+    }
 
-        if (response == null) {
-            return false;
+    /**
+     * Send command to turn parking stall lights on/off. Only the spots that changed since the last light command are
+     * sent, unless that command was not acknowledged.
+     *
+     * @param state the list of parking stall lights.
+     * @return True once the command is acknowledged, or at once if no light changed.
+     */
+    public CompletableFuture<Boolean> setParkingSpotLights(ArrayList<String> state) {
+        Batch batch = batches.get();
+        if (batch != null) {
+            batch.lights = new ArrayList<String>(state);
+            return batch.result;
         }
 
-        return response.equals(TartanSensors.OK);
+        String msg = spotLightCommand(state);
+        if (msg == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        CompletableFuture<Boolean> result = sendCommand(msg);
+        result.thenAccept(this::spotLightsAcknowledged);
+        return result;
     }
 
     /**
-     * Send command to turn parking stall lights on/off.
+     * Build the light command that takes the garage from the lights last sent to a new state, and take the new
+     * state as sent.
      *
      * @param state the list of parking stall lights.
-     * @return True if command successfully executed, false otherwise.
+     * @return the command, or null if no light changed.
      */
-    public boolean setParkingSpotLights(ArrayList<String> state) {
+    private String spotLightCommand(ArrayList<String> state) {
+        BitSet wanted = new BitSet(state.size());
+        for (int i = 0; i < state.size(); i++) {
+            if (TartanSensors.ON.equals(state.get(i))) {
+                wanted.set(i);
+            }
+        }
+
+        synchronized (spotLights) {
+            BitSet changed = (BitSet) wanted.clone();
+            changed.xor(spotLights);
+            boolean complete = !spotLightsKnown || state.size() != spotLightCount || !listChangesEnabled;
+
+            spotLights.clear();
+            spotLights.or(wanted);
+            spotLightsKnown = true;
+            spotLightCount = state.size();
+
+            if (!complete && changed.isEmpty()) {
+                return null;
+            }
+            // a list takes about 6 characters for each spot, a bitmap one for every 4 spots
+            int changes = changed.cardinality();
+            if (!complete && changes <= MAX_LIST_SPOTS
+                    && (state.size() <= MAX_LIST_SPOTS || 24 * changes < state.size())) {
+                return spotList(wanted, changed);
+            }
+        }
 
         StringBuffer msg = new StringBuffer();
 
+        if (state.size() > MAX_LIST_SPOTS) {
+            // a bitmap takes one character for every 4 spots instead of about 6 for each
+            msg.append(TartanSensors.PARKING_SPOT_LIGHT + TartanSensors.PARAM_EQ + TartanSensors.BITMAP_START);
+            for (int i = 0; i < state.size(); i += 4) {
+                int digit = 0;
+                for (int b = 0; b < 4 && i + b < state.size(); b++) {
+                    if (wanted.get(i + b)) {
+                        digit |= 8 >>> b;
+                    }
+                }
+                msg.append(Character.toUpperCase(Character.forDigit(digit, 16)));
+            }
+            msg.append(TartanSensors.MSG_END);
+            return msg.toString();
+        }
+
         msg.append(TartanSensors.PARKING_SPOT_LIGHT + TartanSensors.PARAM_EQ + TartanSensors.LIST_START);
         for (int i = 0; i < state.size(); i++) {
             String spot = String.valueOf(i + 1);
@@ -184,11 +557,41 @@ public class TartanGarageManager extends Observable {
 
         msg.append(TartanSensors.LIST_END + TartanSensors.MSG_END);
 
-        String response = connection.sendMessageToGarage(msg.toString());
-        if (response == null) {
-            return false;
+        return msg.toString();
+    }
+
+    /**
+     * Build a light command for some spots only. The garage leaves the spots not listed as they are.
+     *
+     * @param wanted the lights that should be on.
+     * @param spots the spots to send.
+     * @return the command.
+     */
+    private static String spotList(BitSet wanted, BitSet spots) {
+        StringBuilder msg = new StringBuilder(TartanSensors.PARKING_SPOT_LIGHT + TartanSensors.PARAM_EQ
+                + TartanSensors.LIST_START);
+        int first = spots.nextSetBit(0);
+        for (int i = first; i >= 0; i = spots.nextSetBit(i + 1)) {
+            if (i != first) {
+                msg.append(TartanSensors.LIST_DELIM);
+            }
+            msg.append(i + 1).append(TartanSensors.PARAM_EQ);
+            msg.append(wanted.get(i) ? TartanSensors.ON : TartanSensors.OFF);
+        }
+        return msg.append(TartanSensors.LIST_END + TartanSensors.MSG_END).toString();
+    }
+
+    /**
+     * Forget the lights last sent if the garage did not acknowledge them, so the next light command is complete.
+     *
+     * @param acknowledged true if the light command was acknowledged.
+     */
+    private void spotLightsAcknowledged(boolean acknowledged) {
+        if (!acknowledged) {
+            synchronized (spotLights) {
+                spotLightsKnown = false;
+            }
         }
-        return response.equals(TartanSensors.OK);
     }
 
     /**
@@ -204,230 +607,143 @@ public class TartanGarageManager extends Observable {
     }
 
     /**
-     * Request and process garage state.
+     * Request and process garage state. No lock is held while waiting for the garage.
+     *
+     * @return true if the state changed, false otherwise.
      */
-    public synchronized void updateGarageState() {
-
-        System.out.println("Requesting currentState");
+    public boolean updateGarageState() {
 
+        // polled several times a second, so nothing is printed here
+        long pushes;
+        synchronized (parsedState) {
+            pushes = pushesHandled;
+        }
         String update = connection.sendMessageToGarage(TartanSensors.GET_STATE + TartanSensors.MSG_END);
-        System.out.println("=== updateState=" + update);
         if (update == null) {
-            return;
+            return false;
         }
 
-        handleStateUpdate(update);
+        return handleStateUpdate(update, pushes);
     }
 
     /**
-     * Get state for each parking stall.
+     * Publish the state in a state update, polled or pushed.
      *
-     * @return A list of parking stall states.
+     * @param update the state update.
+     * @param pushes the pushed updates handled when a polled update was asked for, or PUSHED.
+     * @return true if the state changed, false otherwise.
      */
-    public synchronized Integer[] getSpotOccupiedState() {
-        Integer[] occupiedState = (Integer[]) currentState.get(TartanSensors.PARKING_SPOT_OCCUPIED);
-        return occupiedState;
+    private boolean handleStateUpdate(String update, long pushes) {
+        // only a state update comes from the garage; a bad one leaves the last snapshot in place
+        synchronized (parsedState) {
+            if (pushes == PUSHED) {
+                pushesHandled++;
+            } else if (pushes != pushesHandled) {
+                // an older answer must not undo a newer push, or its changes would be reported twice
+                return false;
+            }
+            TartanGarageSnapshot before = currentState.get();
+            if (!parsedState.parse(update)) {
+                return false;
+            }
+            // the stock simulator acknowledges commands it does not carry out, so only reported features are used
+            batchEnabled = parsedState.can(TartanGarageState.CAN_BATCH);
+            listChangesEnabled = parsedState.can(TartanGarageState.CAN_LIST_CHANGES);
+            if (!before.matches(parsedState)) {
+                TartanGarageSnapshot after = new TartanGarageSnapshot(parsedState);
+                if (after.has(TartanGarageState.SPOT_COUNT) && after.getSpotCount() != capacity) {
+                    setCapacity(after.getSpotCount());
+                }
+                currentState.set(after);
+                TartanGarageEvent.diff(before, after, events);
+                return true;
+            }
+            return false;
+        }
     }
 
     /**
-     * Process the new currentState reported by the garage.
+     * Work out how long to wait before the next poll.
      *
-     * @param stateUpdateMsg the new currentState message.
+     * @param state the current state.
+     * @param changed true if the last update changed the state.
+     * @param interval the current wait.
+     * @return the next wait, in milliseconds.
      */
-    private synchronized void handleStateUpdate(String stateUpdateMsg) {
-
-        if (stateUpdateMsg == null) {
-            return;
-        }
-        if (stateUpdateMsg.length() == 0) {
-            return;
-        }
-
-        String[] req = stateUpdateMsg.split(TartanSensors.MSG_DELIM);
-
-        // invalid currentState update
-        if (req.length != 2) {
-            return;
-        }
-        // is this a currentState update
-        String cmd = req[0];
-        String body = req[1];
-
-        if (!cmd.equals(TartanSensors.STATE_UPDATE)) { // only message that comes from garage
-            return;
+    long nextPollInterval(TartanGarageSnapshot state, boolean changed, long interval) {
+        if (pushEnabled) {
+            return PUSH_POLL_INTERVAL;
         }
-
-        if (String.valueOf(body.charAt(body.length() - 1)).equals(TartanSensors.MSG_END)) {
-            body = body.substring(0, body.length() - 1);
+        if (state.isEntryBeamBroken() || state.isExitBeamBroken()
+                || state.isEntryGateOpen() || state.isExitGateOpen() || changed) {
+            return MIN_POLL_INTERVAL;
         }
+        return Math.min(interval * 2, MAX_POLL_INTERVAL);
+    }
 
-        synchronized (currentState) {
-
-            // clear the currentState for an update
-            currentState.clear();
-
-            StringTokenizer pt = new StringTokenizer(body, TartanSensors.PARAM_DELIM);
-
-            // process the new currentState
-            while (pt.hasMoreTokens()) {
-                String param = pt.nextToken();
-                int paramOffset = param.indexOf(TartanSensors.PARAM_EQ);
-                String pcmd = param.substring(0, paramOffset);
-                String pval = param.substring(paramOffset + 1, param.length());
-
-
-                if (pcmd.equals(TartanSensors.ENTRY_GATE)) {
-                    if (pval.equals("1")) {
-                        currentState.put(TartanSensors.ENTRY_GATE, true);
-                    } else {
-                        currentState.put(TartanSensors.ENTRY_GATE, false);
-                    }
-                } else if (pcmd.equals(TartanSensors.EXIT_GATE)) {
-                    if (pval.equals("1")) {
-                        currentState.put(TartanSensors.EXIT_GATE, true);
-                    } else {
-                        currentState.put(TartanSensors.EXIT_GATE, false);
-                    }
-                } else if (pcmd.equals(TartanSensors.ENTRY_LIGHT)) {
-                    if (pval.equals("R")) {
-                        currentState.put(TartanSensors.ENTRY_LIGHT, TartanSensors.RED);
-                    } else if (pval.equals("G")) {
-                        currentState.put(TartanSensors.ENTRY_LIGHT, TartanSensors.GREEN);
-                    } else if (pval.equals("0")) {
-                        currentState.put(TartanSensors.ENTRY_LIGHT, TartanSensors.OFF);
-                    }
-                } else if (pcmd.equals(TartanSensors.EXIT_LIGHT)) {
-                    if (pval.equals("R")) {
-                        currentState.put(TartanSensors.EXIT_LIGHT, TartanSensors.RED);
-                    } else if (pval.equals("G")) {
-                        currentState.put(TartanSensors.EXIT_LIGHT, TartanSensors.GREEN);
-                    } else if (pval.equals("0")) {
-                        currentState.put(TartanSensors.EXIT_LIGHT, TartanSensors.OFF);
-                    }
-                } else if (pcmd.equals(TartanSensors.ENTRY_IR)) {
-                    if (pval.equals("1")) {
-                        currentState.put(TartanSensors.ENTRY_IR, true);
-                    } else {
-                        currentState.put(TartanSensors.ENTRY_IR, false);
-                    }
-                } else if (pcmd.equals(TartanSensors.EXIT_IR)) {
-                    if (pval.equals("1")) {
-                        currentState.put(TartanSensors.EXIT_IR, true);
-                    } else {
-                        currentState.put(TartanSensors.EXIT_IR, false);
-                    }
-                } else if (pcmd.equals(TartanSensors.PARKING_SPOT_LIGHT)) {
-
-                    Integer[] lightState = new Integer[10];
-
-                    String spots = pval.substring(1, pval.length() - 1);
-                    StringTokenizer spotTok = new StringTokenizer(spots, TartanSensors.LIST_DELIM);
-                    while (spotTok.hasMoreTokens()) {
-                        String t = spotTok.nextToken();
-                        String spotInfo[] = t.split(TartanSensors.PARAM_EQ);
-                        lightState[Integer.parseInt(spotInfo[0])] = Integer.parseInt(spotInfo[1]);
-                    }
-                    ArrayList<Integer> temp = new ArrayList<>();
-                    for (int i = 0; i < lightState.length; i++) {
-                        if (lightState[i] != null) {
-                            temp.add(lightState[i]);
-                        }
-                    }
-                    currentState.put(TartanSensors.PARKING_SPOT_LIGHT, (Integer[]) temp.toArray(new Integer[temp.size()]));
-                } else if (pcmd.equals(TartanSensors.PARKING_SPOT_OCCUPIED)) {
-
-                    Integer[] occupiedState = new Integer[10];
+    /**
+     * Get the state of the garage as of the last update.
+     *
+     * @return the snapshot of every sensor, never null.
+     */
+    public TartanGarageSnapshot getGarageState() {
+        return currentState.get();
+    }
 
-                    String spots = pval.substring(1, pval.length() - 1);
-                    StringTokenizer spotTok = new StringTokenizer(spots, TartanSensors.LIST_DELIM);
-                    while (spotTok.hasMoreTokens()) {
-                        String t = spotTok.nextToken();
-                        String spotInfo[] = t.split(TartanSensors.PARAM_EQ);
-                        occupiedState[Integer.parseInt(spotInfo[0]) - 1] = Integer.parseInt(spotInfo[1]);
-                    }
-                    ArrayList<Integer> temp = new ArrayList<>();
-                    for (int i = 0; i < occupiedState.length; i++) {
-                        if (occupiedState[i] != null) {
-                            temp.add(occupiedState[i]);
-                        }
-                    }
-                    currentState.put(TartanSensors.PARKING_SPOT_OCCUPIED, (Integer[]) temp.toArray(new Integer[temp.size()]));
-                }
-            }
-        }
+    /**
+     * Get state for each parking stall.
+     *
+     * @return A list of parking stall states.
+     */
+    public Integer[] getSpotOccupiedState() {
+        return currentState.get().getSpotOccupiedState();
     }
 
     /**
      * Issue command to set exit light.
      *
      * @param mode The mode for the exit light.
-     * @return True on success, false otherwise.
+     * @return True once the command is acknowledged.
      */
-    public boolean setExitLight(String mode) {
-
-        String response = connection.sendMessageToGarage(TartanSensors.EXIT_LIGHT + TartanSensors.PARAM_EQ + mode + TartanSensors.MSG_END);
-
-        if (response == null) {
-            return false;
-        }
-
-        return response.equals(TartanSensors.OK);
+    public CompletableFuture<Boolean> setExitLight(String mode) {
+        return sendCommand(TartanSensors.EXIT_LIGHT + TartanSensors.PARAM_EQ + mode + TartanSensors.MSG_END);
     }
 
     /**
      * Issue command to set entry light.
      *
      * @param mode The mode for the entry light.
-     * @return True on success, false otherwise.
+     * @return True once the command is acknowledged.
      */
-    public boolean setEntryLight(String mode) {
-        String response = connection.sendMessageToGarage(TartanSensors.ENTRY_LIGHT + TartanSensors.PARAM_EQ + mode + TartanSensors.MSG_END);
-
-        if (response == null) {
-            return false;
-        }
-
-        return response.equals(TartanSensors.OK);
+    public CompletableFuture<Boolean> setEntryLight(String mode) {
+        return sendCommand(TartanSensors.ENTRY_LIGHT + TartanSensors.PARAM_EQ + mode + TartanSensors.MSG_END);
     }
 
     /**
-     * This thread monitors the entry/exit gates.
+     * This thread keeps the garage state up to date and tells the listeners about each change.
      */
     public void startUpdateThread() {
         updateThread = new Thread(new Runnable() {
             @Override
             public void run() {
 
+                long interval = MAX_POLL_INTERVAL;
+                boolean pushed = false;
                 while (true) {
+                    boolean changed = pushed;
                     synchronized (connection) {
                         if (connection.isConnected() == false) {
                             return;
                         }
-                        updateGarageState();
-                    }
-                    if (vehicleDetectedAtEntry(currentState)) {
-                        alertVehicleAtEntry();
-                        isEntryOn = true;
-                    } else {
-                        if (isEntryOn) {
-                            alertVehicleOutEntry();
-                            isEntryOn = false;
-                        }
-                    }
-                    if (vehicleDetectedAtExit(currentState)) {
-                        alertVehicleAtExit();
-                        isExitOn = true;
-                    } else {
-                        if (isExitOn) {
-                            alertVehicleReturn();
-                            isExitOn = false;
+                        // a pushed update is as good as a poll
+                        if (!pushed) {
+                            changed = updateGarageState();
                         }
                     }
-                    // currently a 5sec delay
-                    try {
-                        Thread.sleep(5000);
-                    } catch (InterruptedException ie) {
-                    }
+                    dispatchEvents();
+
+                    interval = nextPollInterval(currentState.get(), changed, interval);
+                    pushed = awaitUpdate(interval);
                 }
             }
         });
@@ -435,66 +751,60 @@ public class TartanGarageManager extends Observable {
     }
 
     /**
-     * Notify vehicle at entry gate. Note that this method notifies all parties who care
-     * about vehicle entry.
+     * Wait until the next poll is due, or until a pushed update or a gate command wakes the update thread.
+     *
+     * @param interval the longest wait, in milliseconds.
+     * @return true if a pushed update arrived, false if the garage should be polled.
      */
-    private void alertVehicleAtEntry() {
-
-        // The only observer should be the parking service
-        setChanged();
-
-
-        notifyObservers(TartanParams.MSG_VEHICLE_AT_ENTRY);
-    }
-
-    private void alertVehicleOutEntry() {
-
-        // The only observer should be the parking service
-        setChanged();
-
-
-        notifyObservers(TartanParams.MSG_VEHICLE_OUT_ENTRY);
+    private boolean awaitUpdate(long interval) {
+        synchronized (updateSignal) {
+            long deadline = System.currentTimeMillis() + interval;
+            long wait = interval;
+            while (!updateSignalled && wait > 0) {
+                try {
+                    updateSignal.wait(wait);
+                } catch (InterruptedException ie) {
+                }
+                wait = deadline - System.currentTimeMillis();
+            }
+            boolean pushed = statePushed;
+            updateSignalled = false;
+            statePushed = false;
+            return pushed;
+        }
     }
 
     /**
-     * Notify vehicle at exit gate. Note that this method notifies all parties who care
-     * about vehicle departure.
+     * Register for changes in the garage.
+     *
+     * @param listener the party to tell.
      */
-    private void alertVehicleAtExit() {
-        setChanged();
-        notifyObservers(TartanParams.MSG_VEHICLE_AT_EXIT);
-    }
-
-    private void alertVehicleReturn() {
-        setChanged();
-        notifyObservers(TartanParams.MSG_VEHICLE_RETURN);
+    public void addListener(TartanGarageListener listener) {
+        listeners.add(listener);
     }
 
     /**
-     * Signal vehicle at entry gate.
+     * Stop telling a party about changes in the garage.
      *
-     * @param state The state of the Tartan Garage.
-     * @return True if vehicle detected, false otherwise.
+     * @param listener the party.
      */
-    private boolean vehicleDetectedAtEntry(HashMap<String, Object> state) {
-
-        if (state.containsKey(TartanSensors.ENTRY_IR)) {
-            return ((Boolean) state.get(TartanSensors.ENTRY_IR)).booleanValue();
-        }
-        return false;
+    public void removeListener(TartanGarageListener listener) {
+        listeners.remove(listener);
     }
 
     /**
-     * Signal vehicle at exit gate.
-     *
-     * @param state The state of the Tartan Garage.
-     * @return True if vehicle detected, false otherwise.
+     * Deliver the queued changes to the listeners, in order.
      */
-    private boolean vehicleDetectedAtExit(HashMap<String, Object> state) {
-        if (state.containsKey(TartanSensors.EXIT_IR)) {
-            return ((Boolean) state.get(TartanSensors.EXIT_IR)).booleanValue();
+    void dispatchEvents() {
+        TartanGarageEvent event;
+        while ((event = events.poll()) != null) {
+            for (TartanGarageListener listener : listeners) {
+                try {
+                    listener.onGarageEvent(event);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
         }
-        return false;
     }
 }
-
@@ -0,0 +1,449 @@
+package edu.cmu.tartan.hardware;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A stand-in for the garage hardware that speaks the same protocol as the garage firmware, so the parking system can
+ * run without a garage. It answers state requests (GS), gate and light commands (NG, XG, NL, XL, PL), batches of
+ * commands (BA) and pushed update requests (PU), one client at a time. The entry/exit beams and the spot sensors
+ * are set by calling this class; a client that asked for pushed updates is sent each change as it happens. Garages
+ * of more than 10 spots send their spot lists as bitmaps, as a large garage would.
+ * <p>
+ * For load tests the simulator can be made slower and less reliable than a real garage: each response can be held
+ * back by a fixed latency, and each state report can misread one spot sensor with a given probability. A command
+ * listener lets a traffic model react to the gates and lights the parking system operates.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class TartanGarageSimulator {
+
+    /** The port the garage listens on */
+    public static final int DEFAULT_PORT = 5050;
+
+    /** Larger garages send their spot lists as bitmaps */
+    private static final int MAX_LIST_SPOTS = 10;
+
+    private final ServerSocket server;
+    private final int capacity;
+
+    // garage state, guarded by this
+    private boolean entryGateOpen;
+    private boolean exitGateOpen;
+    private boolean entryBeamBroken;
+    private boolean exitBeamBroken;
+    private String entryLight = TartanSensors.OFF;
+    private String exitLight = TartanSensors.OFF;
+    private final boolean[] spotLights;
+    private final boolean[] spotOccupied;
+
+    /** The connected client, or null */
+    private OutputStream client;
+    private boolean pushUpdates;
+
+    /** The number of request lines received */
+    private long requestCount;
+
+    /** How long each response is held back, in nanoseconds */
+    private long responseLatency;
+
+    /** The probability that a state report misreads one spot sensor */
+    private double sensorNoise;
+    private Random noise = new Random();
+
+    /** Told about each command carried out, or null */
+    private Consumer<String> commandListener;
+
+    /**
+     * Start a garage simulator.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @param capacity the number of parking spots.
+     * @throws IOException if the port cannot be opened.
+     */
+    public TartanGarageSimulator(int port, int capacity) throws IOException {
+        this.capacity = capacity;
+        spotLights = new boolean[capacity];
+        spotOccupied = new boolean[capacity];
+        server = new ServerSocket(port);
+
+        Thread acceptThread = new Thread(this::serve, "TartanGarageSimulator-" + server.getLocalPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @return the port the garage listens on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return the number of parking spots.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Stop listening and drop the client.
+     */
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Accept clients one at a time and answer their requests until they disconnect.
+     */
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                // answers and pushes are single short lines; do not hold one back for the ack of the last
+                socket.setTcpNoDelay(true);
+                synchronized (this) {
+                    client = socket.getOutputStream();
+                    pushUpdates = false;
+                }
+                InputStream in = socket.getInputStream();
+                StringBuilder req = new StringBuilder();
+                int c;
+                while ((c = in.read()) >= 0) {
+                    req.append((char) c);
+                    if (c == TartanSensors.MSG_END.charAt(0)) {
+                        String request = req.toString();
+                        req.setLength(0);
+                        String response;
+                        long latency;
+                        synchronized (this) {
+                            requestCount++;
+                            response = processRequest(request);
+                            latency = responseLatency;
+                        }
+                        if (latency > 0) {
+                            // the garage answers one request at a time, so the latency holds back the next one too
+                            LockSupport.parkNanos(latency);
+                        }
+                        synchronized (this) {
+                            send(response);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // the client or the simulator went away
+            } finally {
+                synchronized (this) {
+                    client = null;
+                    pushUpdates = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Carry out a request the way the garage firmware does.
+     *
+     * @param request the request, ending with MSG_END.
+     * @return the response, or an empty line for a request the garage does not know.
+     */
+    private String processRequest(String request) {
+        if (request.startsWith(TartanSensors.BATCH + TartanSensors.MSG_DELIM)) {
+            return processBatch(request.substring(TartanSensors.BATCH.length() + TartanSensors.MSG_DELIM.length(),
+                    request.length() - TartanSensors.MSG_END.length()));
+        }
+        int eq = request.indexOf(TartanSensors.PARAM_EQ);
+        String hdr = request.substring(0, Math.min(2, request.length()));
+        String body = eq < 0 ? "" : request.substring(eq + 1, request.length() - 1);
+        boolean on = TartanSensors.ON.equals(body);
+
+        if (hdr.equals(TartanSensors.GET_STATE)) {
+            return getState();
+        } else if (hdr.equals(TartanSensors.ENTRY_GATE)) {
+            entryGateOpen = on;
+        } else if (hdr.equals(TartanSensors.EXIT_GATE)) {
+            exitGateOpen = on;
+        } else if (hdr.equals(TartanSensors.ENTRY_LIGHT)) {
+            entryLight = body;
+        } else if (hdr.equals(TartanSensors.EXIT_LIGHT)) {
+            exitLight = body;
+        } else if (hdr.equals(TartanSensors.PARKING_SPOT_LIGHT)) {
+            setSpotLights(body);
+        } else if (hdr.equals(TartanSensors.PUSH_UPDATES)) {
+            pushUpdates = on;
+        } else {
+            return "";
+        }
+        if (commandListener != null) {
+            try {
+                commandListener.accept(request);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return TartanSensors.OK + TartanSensors.MSG_END;
+    }
+
+    /**
+     * Carry out the commands of a batch in order, and acknowledge them once.
+     *
+     * @param commands the commands, separated by PARAM_DELIM and without MSG_END.
+     * @return the acknowledgement, or an empty line if a command was not acknowledged.
+     */
+    private String processBatch(String commands) {
+        String response = TartanSensors.OK + TartanSensors.MSG_END;
+        for (String command : commands.split(TartanSensors.PARAM_DELIM)) {
+            if (!response.equals(processRequest(command + TartanSensors.MSG_END))) {
+                response = "";
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Set spot lights from a list such as "[1=1,2=0]" or a bitmap such as "#4". A list sets only the spots it names.
+     */
+    private void setSpotLights(String body) {
+        if (body.startsWith(TartanSensors.LIST_START) && body.endsWith(TartanSensors.LIST_END)) {
+            String list = body.substring(TartanSensors.LIST_START.length(),
+                    body.length() - TartanSensors.LIST_END.length());
+            for (String param : list.split(TartanSensors.LIST_DELIM)) {
+                int eq = param.indexOf(TartanSensors.PARAM_EQ);
+                try {
+                    int spot = Integer.parseInt(param.substring(0, eq)) - 1;
+                    if (spot >= 0 && spot < capacity) {
+                        spotLights[spot] = TartanSensors.ON.equals(param.substring(eq + 1));
+                    }
+                } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                    // ignore a malformed spot, as the firmware does
+                }
+            }
+            return;
+        }
+        TartanGarageState lights = new TartanGarageState();
+        if (!lights.parse(TartanSensors.STATE_UPDATE + TartanSensors.MSG_DELIM + TartanSensors.PARKING_SPOT_LIGHT
+                + TartanSensors.PARAM_EQ + body)) {
+            return;
+        }
+        for (int i = 0; i < Math.min(capacity, lights.getSpotLightCount()); i++) {
+            spotLights[i] = lights.getSpotLight(i) != 0;
+        }
+    }
+
+    /**
+     * Build a state update from the current state, in the order the garage firmware uses.
+     *
+     * @return the state update.
+     */
+    public synchronized String getState() {
+        StringBuilder su = new StringBuilder(TartanSensors.STATE_UPDATE).append(TartanSensors.MSG_DELIM);
+        su.append(TartanSensors.ENTRY_GATE).append(TartanSensors.PARAM_EQ).append(flag(entryGateOpen))
+                .append(TartanSensors.PARAM_DELIM);
+        su.append(TartanSensors.EXIT_GATE).append(TartanSensors.PARAM_EQ).append(flag(exitGateOpen))
+                .append(TartanSensors.PARAM_DELIM);
+        su.append(TartanSensors.EXIT_IR).append(TartanSensors.PARAM_EQ).append(flag(exitBeamBroken))
+                .append(TartanSensors.PARAM_DELIM);
+        su.append(TartanSensors.ENTRY_IR).append(TartanSensors.PARAM_EQ).append(flag(entryBeamBroken))
+                .append(TartanSensors.PARAM_DELIM);
+        su.append(TartanSensors.ENTRY_LIGHT).append(TartanSensors.PARAM_EQ).append(entryLight)
+                .append(TartanSensors.PARAM_DELIM);
+        su.append(TartanSensors.EXIT_LIGHT).append(TartanSensors.PARAM_EQ).append(exitLight)
+                .append(TartanSensors.PARAM_DELIM);
+        su.append(TartanSensors.SPOT_COUNT).append(TartanSensors.PARAM_EQ).append(capacity)
+                .append(TartanSensors.PARAM_DELIM);
+        su.append(TartanSensors.CAPABILITIES).append(TartanSensors.PARAM_EQ).append(TartanSensors.CAN_BATCH)
+                .append(TartanSensors.CAN_LIST_CHANGES).append(TartanSensors.PARAM_DELIM);
+        boolean[] occupied = spotOccupied;
+        if (sensorNoise > 0 && capacity > 0 && noise.nextDouble() < sensorNoise) {
+            // one sensor misreads in this report only
+            occupied = spotOccupied.clone();
+            int spot = noise.nextInt(capacity);
+            occupied[spot] = !occupied[spot];
+        }
+        appendSpots(su, TartanSensors.PARKING_SPOT_OCCUPIED, occupied);
+        su.append(TartanSensors.PARAM_DELIM);
+        appendSpots(su, TartanSensors.PARKING_SPOT_LIGHT, spotLights);
+        return su.append(TartanSensors.MSG_END).toString();
+    }
+
+    private static void appendSpots(StringBuilder su, String param, boolean[] spots) {
+        if (spots.length > MAX_LIST_SPOTS) {
+            su.append(param).append(TartanSensors.PARAM_EQ).append(TartanSensors.BITMAP_START);
+            for (int i = 0; i < spots.length; i += 4) {
+                int digit = 0;
+                for (int b = 0; b < 4 && i + b < spots.length; b++) {
+                    if (spots[i + b]) {
+                        digit |= 8 >>> b;
+                    }
+                }
+                su.append(Character.toUpperCase(Character.forDigit(digit, 16)));
+            }
+            return;
+        }
+        su.append(param).append(TartanSensors.PARAM_EQ).append(TartanSensors.LIST_START);
+        for (int i = 0; i < spots.length; i++) {
+            if (i > 0) {
+                su.append(TartanSensors.LIST_DELIM);
+            }
+            su.append(i + 1).append(TartanSensors.PARAM_EQ).append(flag(spots[i]));
+        }
+        su.append(TartanSensors.LIST_END);
+    }
+
+    private static String flag(boolean value) {
+        return value ? TartanSensors.ON : TartanSensors.OFF;
+    }
+
+    /**
+     * Break or restore the entry beam, as a vehicle arrives at or leaves the entry gate.
+     *
+     * @param broken true if a vehicle breaks the beam.
+     */
+    public synchronized void setEntryBeamBroken(boolean broken) {
+        entryBeamBroken = broken;
+        pushState();
+    }
+
+    /**
+     * Break or restore the exit beam, as a vehicle arrives at or leaves the exit gate.
+     *
+     * @param broken true if a vehicle breaks the beam.
+     */
+    public synchronized void setExitBeamBroken(boolean broken) {
+        exitBeamBroken = broken;
+        pushState();
+    }
+
+    /**
+     * Park a vehicle in a spot or take it away.
+     *
+     * @param spot the spot index, from 0.
+     * @param occupied true if a vehicle is in the spot.
+     */
+    public synchronized void setSpotOccupied(int spot, boolean occupied) {
+        spotOccupied[spot] = occupied;
+        pushState();
+    }
+
+    /**
+     * @return true if the entry gate is open.
+     */
+    public synchronized boolean isEntryGateOpen() {
+        return entryGateOpen;
+    }
+
+    /**
+     * @return true if the exit gate is open.
+     */
+    public synchronized boolean isExitGateOpen() {
+        return exitGateOpen;
+    }
+
+    /**
+     * @param spot the spot index, from 0.
+     * @return true if a vehicle is in the spot.
+     */
+    public synchronized boolean isSpotOccupied(int spot) {
+        return spotOccupied[spot];
+    }
+
+    /**
+     * Hold back each response, as a slow network or a busy garage would.
+     *
+     * @param latency the time to hold back each response, or 0 to answer at once.
+     * @param unit the unit of the latency.
+     */
+    public synchronized void setResponseLatency(long latency, TimeUnit unit) {
+        responseLatency = unit.toNanos(latency);
+    }
+
+    /**
+     * Make the spot sensors unreliable. A report that misreads a sensor shows one random spot the wrong way round;
+     * the next report reads it correctly again, unless it misreads too.
+     *
+     * @param probability the probability that a state report misreads one spot, from 0 to 1.
+     * @param seed the seed of the misreadings, so a run can be repeated.
+     */
+    public synchronized void setSensorNoise(double probability, long seed) {
+        sensorNoise = probability;
+        noise = new Random(seed);
+    }
+
+    /**
+     * Set the listener told about each command the garage carries out other than state requests, including each
+     * command of a batch. The listener runs while the simulator is locked and must not wait for anything.
+     *
+     * @param listener the listener, given the command as received, or null.
+     */
+    public synchronized void setCommandListener(Consumer<String> listener) {
+        commandListener = listener;
+    }
+
+    /**
+     * @param spot the spot index, from 0.
+     * @return true if the spot's light is on.
+     */
+    public synchronized boolean isSpotLightOn(int spot) {
+        return spotLights[spot];
+    }
+
+    /**
+     * @return the number of request lines received; a batch is one request.
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Send the state to a client that asked for pushed updates.
+     */
+    private void pushState() {
+        if (pushUpdates) {
+            send(TartanSensors.PUSH_MARK + getState());
+        }
+    }
+
+    /**
+     * Send a line to the client, if there is one.
+     */
+    private void send(String line) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+            client.flush();
+        } catch (IOException e) {
+            // the client went away; serve() notices on its next read
+        }
+    }
+
+    /**
+     * Run a simulated garage until the process is stopped.
+     *
+     * @param args optional port and capacity.
+     * @throws IOException if the port cannot be opened.
+     * @throws InterruptedException if the simulator is interrupted.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        TartanGarageSimulator garage = new TartanGarageSimulator(port, capacity);
+        System.out.println("Simulated garage with " + capacity + " spots listening on port " + garage.getPort());
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,222 @@
+package edu.cmu.tartan.hardware;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An immutable copy of the garage state from one state update. Every sensor in a snapshot was read at the same
+ * time, so a reader that takes one snapshot gets a consistent view of the whole garage. Snapshots can be shared
+ * between threads without locking.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public final class TartanGarageSnapshot {
+
+    /** The state before the garage has reported anything */
+    public static final TartanGarageSnapshot EMPTY = new TartanGarageSnapshot(new TartanGarageState());
+
+    private final int reported;
+    private final boolean entryGateOpen;
+    private final boolean exitGateOpen;
+    private final boolean entryBeamBroken;
+    private final boolean exitBeamBroken;
+    private final byte entryLight;
+    private final byte exitLight;
+    private final int spotCount;
+
+    /** One bit per spot, as in TartanGarageState, trimmed to the spot counts */
+    private final long[] spotLights;
+    private final long[] spotOccupied;
+    private final int spotLightCount;
+    private final int spotOccupiedCount;
+
+    /**
+     * Copy a parsed state.
+     *
+     * @param state the state.
+     */
+    TartanGarageSnapshot(TartanGarageState state) {
+        reported = state.getReported();
+        entryGateOpen = state.isEntryGateOpen();
+        exitGateOpen = state.isExitGateOpen();
+        entryBeamBroken = state.isEntryBeamBroken();
+        exitBeamBroken = state.isExitBeamBroken();
+        entryLight = state.getEntryLight();
+        exitLight = state.getExitLight();
+        spotCount = state.getSpotCount();
+
+        spotLightCount = state.getSpotLightCount();
+        spotLights = Arrays.copyOf(state.getSpotLightBits(), words(spotLightCount));
+        spotOccupiedCount = state.getSpotOccupiedCount();
+        spotOccupied = Arrays.copyOf(state.getSpotOccupiedBits(), words(spotOccupiedCount));
+    }
+
+    private static int words(int spots) {
+        return (spots + 63) >>> 6;
+    }
+
+    /**
+     * Test whether the first bits of a state's bit array are the same as a snapshot's.
+     */
+    private static boolean sameBits(long[] snapshot, long[] state) {
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] != state[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether a parsed state is the same as this snapshot, so an unchanged garage needs no new snapshot.
+     *
+     * @param state the state.
+     * @return true if every reported value is the same, false otherwise.
+     */
+    boolean matches(TartanGarageState state) {
+        if (reported != state.getReported()
+                || entryGateOpen != state.isEntryGateOpen()
+                || exitGateOpen != state.isExitGateOpen()
+                || entryBeamBroken != state.isEntryBeamBroken()
+                || exitBeamBroken != state.isExitBeamBroken()
+                || entryLight != state.getEntryLight()
+                || exitLight != state.getExitLight()
+                || spotCount != state.getSpotCount()
+                || spotLightCount != state.getSpotLightCount()
+                || spotOccupiedCount != state.getSpotOccupiedCount()) {
+            return false;
+        }
+        return sameBits(spotLights, state.getSpotLightBits()) && sameBits(spotOccupied, state.getSpotOccupiedBits());
+    }
+
+    /**
+     * Test whether a parameter was reported.
+     *
+     * @param param the parameter bit, such as TartanGarageState.ENTRY_IR.
+     * @return true if reported, false otherwise.
+     */
+    public boolean has(int param) {
+        return (reported & param) != 0;
+    }
+
+    /**
+     * @return true if the entry gate is open.
+     */
+    public boolean isEntryGateOpen() {
+        return entryGateOpen;
+    }
+
+    /**
+     * @return true if the exit gate is open.
+     */
+    public boolean isExitGateOpen() {
+        return exitGateOpen;
+    }
+
+    /**
+     * @return true if a vehicle breaks the entry beam.
+     */
+    public boolean isEntryBeamBroken() {
+        return entryBeamBroken;
+    }
+
+    /**
+     * @return true if a vehicle breaks the exit beam.
+     */
+    public boolean isExitBeamBroken() {
+        return exitBeamBroken;
+    }
+
+    /**
+     * @return the entry light color: TartanGarageState.LIGHT_OFF, LIGHT_RED or LIGHT_GREEN.
+     */
+    public byte getEntryLight() {
+        return entryLight;
+    }
+
+    /**
+     * @return the exit light color: TartanGarageState.LIGHT_OFF, LIGHT_RED or LIGHT_GREEN.
+     */
+    public byte getExitLight() {
+        return exitLight;
+    }
+
+    /**
+     * @return the number of spots the garage reports having, if TartanGarageState.SPOT_COUNT was reported.
+     */
+    public int getSpotCount() {
+        return spotCount;
+    }
+
+    /**
+     * @return the number of spots in the spot light list.
+     */
+    public int getSpotLightCount() {
+        return spotLightCount;
+    }
+
+    /**
+     * @param spot the spot index, from 0.
+     * @return 1 if the spot light is on, 0 otherwise.
+     */
+    public byte getSpotLight(int spot) {
+        if (spot >= spotLightCount) {
+            throw new ArrayIndexOutOfBoundsException(spot);
+        }
+        return (byte) (spotLights[spot >>> 6] >>> spot & 1);
+    }
+
+    /**
+     * @return the number of spots in the occupancy list.
+     */
+    public int getSpotOccupiedCount() {
+        return spotOccupiedCount;
+    }
+
+    /**
+     * @param spot the spot index, from 0.
+     * @return 1 if the spot is occupied, 0 otherwise.
+     */
+    public byte getSpotOccupied(int spot) {
+        if (spot >= spotOccupiedCount) {
+            throw new ArrayIndexOutOfBoundsException(spot);
+        }
+        return (byte) (spotOccupied[spot >>> 6] >>> spot & 1);
+    }
+
+    /**
+     * @return the spot occupancy bits, trimmed to the spot count. Not to be changed.
+     */
+    long[] getSpotOccupiedBits() {
+        return spotOccupied;
+    }
+
+    /**
+     * Get the occupancy of every spot.
+     *
+     * @return a new array with 1 for each occupied spot and 0 otherwise, or null if occupancy was not reported.
+     */
+    public Integer[] getSpotOccupiedState() {
+        if (!has(TartanGarageState.PARKING_SPOT_OCCUPIED)) {
+            return null;
+        }
+        Integer[] occupiedState = new Integer[spotOccupiedCount];
+        for (int i = 0; i < occupiedState.length; i++) {
+            occupiedState[i] = (int) getSpotOccupied(i);
+        }
+        return occupiedState;
+    }
+
+    @Override
+    public String toString() {
+        return "TartanGarageSnapshot{reported=" + Integer.toBinaryString(reported)
+                + ", entryGateOpen=" + entryGateOpen + ", exitGateOpen=" + exitGateOpen
+                + ", entryBeamBroken=" + entryBeamBroken + ", exitBeamBroken=" + exitBeamBroken
+                + ", entryLight=" + entryLight + ", exitLight=" + exitLight + ", spotCount=" + spotCount
+                + ", spotLights=" + BitSet.valueOf(spotLights)
+                + ", spotOccupied=" + BitSet.valueOf(spotOccupied) + "}";
+    }
+}
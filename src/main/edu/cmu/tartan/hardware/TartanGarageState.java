@@ -0,0 +1,534 @@
+package edu.cmu.tartan.hardware;
+
+import java.util.Arrays;
+
+/**
+ * The state reported by the garage in a state update (SU) message. A state object is reused from one update to the
+ * next: parse() reads the message in a single pass straight into the primitive fields below, without splitting the
+ * message or creating any objects.
+ * <p>
+ * A state update looks like:
+ * <pre>
+ * SU:NG=1;XG=0;XIR=0;NIR=1;NL=G;XL=R;PO=[1=1,2=0,3=0,4=1];PL=[1=0,2=0,3=0,4=0].
+ * </pre>
+ * Parameters may come in any order and may be missing; has() tells which were reported. A large garage sends its spot
+ * lists as bitmaps, such as PO=#9000, and its number of spots as SC=2000. A garage that supports optional protocol
+ * features lists them, such as CA=BL. Spot states are kept as bits in arrays
+ * that grow to the largest garage seen, so parsing stays allocation free once they have grown.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class TartanGarageState {
+
+    /** The most parking spots a garage reports */
+    public static final int MAX_SPOTS = 4096;
+
+    // the parameters of a state update, as bits of the reported set
+    public static final int ENTRY_GATE = 1;
+    public static final int EXIT_GATE = 1 << 1;
+    public static final int ENTRY_IR = 1 << 2;
+    public static final int EXIT_IR = 1 << 3;
+    public static final int ENTRY_LIGHT = 1 << 4;
+    public static final int EXIT_LIGHT = 1 << 5;
+    public static final int PARKING_SPOT_LIGHT = 1 << 6;
+    public static final int PARKING_SPOT_OCCUPIED = 1 << 7;
+    public static final int SPOT_COUNT = 1 << 8;
+    public static final int CAPABILITIES = 1 << 9;
+
+    // the optional protocol features, as bits of the capabilities
+    public static final int CAN_BATCH = 1;
+    public static final int CAN_LIST_CHANGES = 1 << 1;
+
+    // entry and exit light colors
+    public static final byte LIGHT_OFF = 0;
+    public static final byte LIGHT_RED = 1;
+    public static final byte LIGHT_GREEN = 2;
+
+    /** The parameters reported in the last update */
+    private int reported;
+
+    private boolean entryGateOpen;
+    private boolean exitGateOpen;
+    private boolean entryBeamBroken;
+    private boolean exitBeamBroken;
+    private byte entryLight;
+    private byte exitLight;
+
+    /** The number of spots the garage reports having */
+    private int spotCount;
+
+    /** The optional protocol features the garage reports */
+    private int capabilities;
+
+    /** One bit per spot, set if lit or occupied. Only the first spotCount bits are valid; the rest are clear. */
+    private long[] spotLights = new long[1];
+    private long[] spotOccupied = new long[1];
+    private int spotLightCount;
+    private int spotOccupiedCount;
+
+    /**
+     * Replace this state with the one in a state update message. If the message is not a valid state update, this
+     * state is left empty.
+     *
+     * @param msg the message from the garage.
+     * @return true if the message was a valid state update, false otherwise.
+     */
+    public boolean parse(CharSequence msg) {
+        reported = 0;
+        capabilities = 0;
+        spotLightCount = 0;
+        spotOccupiedCount = 0;
+        if (!doParse(msg)) {
+            reported = 0;
+            capabilities = 0;
+            spotLightCount = 0;
+            spotOccupiedCount = 0;
+            return false;
+        }
+        if (has(SPOT_COUNT)) {
+            // a bitmap ends on a whole digit, so it can run past the last spot
+            if (spotLightCount > spotCount) {
+                spotLightCount = spotCount;
+                clearFrom(spotLights, spotCount);
+            }
+            if (spotOccupiedCount > spotCount) {
+                spotOccupiedCount = spotCount;
+                clearFrom(spotOccupied, spotCount);
+            }
+        }
+        return true;
+    }
+
+    private boolean doParse(CharSequence msg) {
+        int end = msg.length();
+        if (!startsWith(msg, 0, end, TartanSensors.STATE_UPDATE)) {
+            return false;
+        }
+        int pos = TartanSensors.STATE_UPDATE.length();
+        if (pos >= end || msg.charAt(pos) != TartanSensors.MSG_DELIM.charAt(0)) {
+            return false;
+        }
+        pos++;
+        if (end > pos && msg.charAt(end - 1) == TartanSensors.MSG_END.charAt(0)) {
+            end--;
+        }
+
+        while (pos < end) {
+            int eq = indexOf(msg, pos, end, TartanSensors.PARAM_EQ.charAt(0));
+            if (eq < 0) {
+                return false;
+            }
+            int param = param(msg, pos, eq);
+            int valueStart = eq + 1;
+            int valueEnd;
+
+            if (valueStart < end && msg.charAt(valueStart) == TartanSensors.LIST_START.charAt(0)) {
+                int listEnd = indexOf(msg, valueStart, end, TartanSensors.LIST_END.charAt(0));
+                if (listEnd < 0) {
+                    return false;
+                }
+                if (param == PARKING_SPOT_LIGHT) {
+                    spotLightCount = parseSpots(msg, valueStart + 1, listEnd, false);
+                    if (spotLightCount < 0) {
+                        return false;
+                    }
+                } else if (param == PARKING_SPOT_OCCUPIED) {
+                    spotOccupiedCount = parseSpots(msg, valueStart + 1, listEnd, true);
+                    if (spotOccupiedCount < 0) {
+                        return false;
+                    }
+                }
+                valueEnd = listEnd + 1;
+            } else if (valueStart < end && msg.charAt(valueStart) == TartanSensors.BITMAP_START.charAt(0)) {
+                valueEnd = indexOf(msg, valueStart, end, TartanSensors.PARAM_DELIM.charAt(0));
+                if (valueEnd < 0) {
+                    valueEnd = end;
+                }
+                if (param == PARKING_SPOT_LIGHT) {
+                    spotLightCount = parseBitmap(msg, valueStart + 1, valueEnd, false);
+                    if (spotLightCount < 0) {
+                        return false;
+                    }
+                } else if (param == PARKING_SPOT_OCCUPIED) {
+                    spotOccupiedCount = parseBitmap(msg, valueStart + 1, valueEnd, true);
+                    if (spotOccupiedCount < 0) {
+                        return false;
+                    }
+                }
+            } else {
+                valueEnd = indexOf(msg, valueStart, end, TartanSensors.PARAM_DELIM.charAt(0));
+                if (valueEnd < 0) {
+                    valueEnd = end;
+                }
+                char value = valueEnd - valueStart == 1 ? msg.charAt(valueStart) : 0;
+                switch (param) {
+                    case SPOT_COUNT:
+                        spotCount = Math.min(parseNumber(msg, valueStart, valueEnd), MAX_SPOTS);
+                        if (spotCount < 0) {
+                            return false;
+                        }
+                        break;
+                    case CAPABILITIES:
+                        for (int i = valueStart; i < valueEnd; i++) {
+                            capabilities |= capability(msg.charAt(i));
+                        }
+                        break;
+                    case ENTRY_GATE:
+                        entryGateOpen = value == '1';
+                        break;
+                    case EXIT_GATE:
+                        exitGateOpen = value == '1';
+                        break;
+                    case ENTRY_IR:
+                        entryBeamBroken = value == '1';
+                        break;
+                    case EXIT_IR:
+                        exitBeamBroken = value == '1';
+                        break;
+                    case ENTRY_LIGHT:
+                        entryLight = light(value);
+                        if (entryLight < 0) {
+                            param = 0;
+                        }
+                        break;
+                    case EXIT_LIGHT:
+                        exitLight = light(value);
+                        if (exitLight < 0) {
+                            param = 0;
+                        }
+                        break;
+                    default:
+                        // a list parameter without a list, or one we do not know
+                        param = 0;
+                        break;
+                }
+            }
+            reported |= param;
+
+            pos = valueEnd;
+            if (pos < end) {
+                if (msg.charAt(pos) != TartanSensors.PARAM_DELIM.charAt(0)) {
+                    return false;
+                }
+                pos++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a spot list such as "1=1,2=0" into the spot lights or the spot occupancy.
+     *
+     * @return the number of spots, the highest spot reported, or -1 if the list is malformed.
+     */
+    private int parseSpots(CharSequence msg, int start, int end, boolean occupied) {
+        long[] bits = occupied ? spotOccupied : spotLights;
+        Arrays.fill(bits, 0L);
+        int count = 0;
+        int pos = start;
+        while (pos < end) {
+            int spot = 0;
+            int digits = 0;
+            char c;
+            while (pos < end && (c = msg.charAt(pos)) >= '0' && c <= '9') {
+                spot = spot * 10 + (c - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 4 || pos >= end || msg.charAt(pos) != TartanSensors.PARAM_EQ.charAt(0)) {
+                return -1;
+            }
+            pos++;
+
+            int value = 0;
+            digits = 0;
+            while (pos < end && (c = msg.charAt(pos)) >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 3) {
+                return -1;
+            }
+
+            // spots are numbered from 1; spots beyond the last one are ignored
+            if (spot >= 1 && spot <= MAX_SPOTS) {
+                bits = grow(occupied, spot);
+                if (value != 0) {
+                    bits[(spot - 1) >>> 6] |= 1L << (spot - 1);
+                }
+                count = Math.max(count, spot);
+            }
+
+            if (pos < end) {
+                if (msg.charAt(pos) != TartanSensors.LIST_DELIM.charAt(0)) {
+                    return -1;
+                }
+                pos++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read a spot bitmap such as "9A" into the spot lights or the spot occupancy.
+     *
+     * @return the number of spots, four per digit, or -1 if the bitmap is malformed.
+     */
+    private int parseBitmap(CharSequence msg, int start, int end, boolean occupied) {
+        int count = Math.min((end - start) * 4, MAX_SPOTS);
+        long[] bits = grow(occupied, count);
+        Arrays.fill(bits, 0L);
+        for (int pos = start, spot = 0; pos < end; pos++, spot += 4) {
+            int digit = Character.digit(msg.charAt(pos), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            for (int b = 0; b < 4 && spot + b < count; b++) {
+                if ((digit & (8 >>> b)) != 0) {
+                    bits[(spot + b) >>> 6] |= 1L << (spot + b);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Make sure a bit array holds a spot, keeping its bits.
+     *
+     * @return the bit array.
+     */
+    private long[] grow(boolean occupied, int spots) {
+        long[] bits = occupied ? spotOccupied : spotLights;
+        int words = (spots + 63) >>> 6;
+        if (words > bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(words, bits.length * 2));
+            if (occupied) {
+                spotOccupied = bits;
+            } else {
+                spotLights = bits;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Clear every bit from a spot on.
+     */
+    private static void clearFrom(long[] bits, int spot) {
+        int word = spot >>> 6;
+        if (word < bits.length) {
+            // the shift is taken mod 64, so a spot on a word boundary clears the whole word
+            bits[word] &= (1L << spot) - 1;
+            Arrays.fill(bits, word + 1, bits.length, 0L);
+        }
+    }
+
+    /**
+     * Read a whole number of up to 4 digits.
+     *
+     * @return the number, or -1 if it is malformed.
+     */
+    private static int parseNumber(CharSequence msg, int start, int end) {
+        if (end == start || end - start > 4) {
+            return -1;
+        }
+        int value = 0;
+        for (int pos = start; pos < end; pos++) {
+            char c = msg.charAt(pos);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int capability(char letter) {
+        if (letter == TartanSensors.CAN_BATCH.charAt(0)) {
+            return CAN_BATCH;
+        } else if (letter == TartanSensors.CAN_LIST_CHANGES.charAt(0)) {
+            return CAN_LIST_CHANGES;
+        }
+        // a feature we do not use
+        return 0;
+    }
+
+    private static byte light(char value) {
+        if (value == TartanSensors.RED.charAt(0)) {
+            return LIGHT_RED;
+        } else if (value == TartanSensors.GREEN.charAt(0)) {
+            return LIGHT_GREEN;
+        } else if (value == TartanSensors.OFF.charAt(0)) {
+            return LIGHT_OFF;
+        }
+        return -1;
+    }
+
+    /**
+     * Identify the parameter name between start and end.
+     *
+     * @return the parameter bit, or 0 for a parameter we do not know.
+     */
+    private static int param(CharSequence msg, int start, int end) {
+        if (matches(msg, start, end, TartanSensors.ENTRY_GATE)) return ENTRY_GATE;
+        if (matches(msg, start, end, TartanSensors.EXIT_GATE)) return EXIT_GATE;
+        if (matches(msg, start, end, TartanSensors.ENTRY_IR)) return ENTRY_IR;
+        if (matches(msg, start, end, TartanSensors.EXIT_IR)) return EXIT_IR;
+        if (matches(msg, start, end, TartanSensors.ENTRY_LIGHT)) return ENTRY_LIGHT;
+        if (matches(msg, start, end, TartanSensors.EXIT_LIGHT)) return EXIT_LIGHT;
+        if (matches(msg, start, end, TartanSensors.PARKING_SPOT_LIGHT)) return PARKING_SPOT_LIGHT;
+        if (matches(msg, start, end, TartanSensors.PARKING_SPOT_OCCUPIED)) return PARKING_SPOT_OCCUPIED;
+        if (matches(msg, start, end, TartanSensors.SPOT_COUNT)) return SPOT_COUNT;
+        if (matches(msg, start, end, TartanSensors.CAPABILITIES)) return CAPABILITIES;
+        return 0;
+    }
+
+    private static boolean matches(CharSequence msg, int start, int end, String name) {
+        return end - start == name.length() && startsWith(msg, start, end, name);
+    }
+
+    private static boolean startsWith(CharSequence msg, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (msg.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence msg, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (msg.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Test whether a parameter was reported in the last update.
+     *
+     * @param param the parameter bit, such as ENTRY_IR.
+     * @return true if reported, false otherwise.
+     */
+    public boolean has(int param) {
+        return (reported & param) != 0;
+    }
+
+    /**
+     * @return the bits of the parameters reported in the last update.
+     */
+    int getReported() {
+        return reported;
+    }
+
+    /**
+     * @return true if the entry gate is open.
+     */
+    public boolean isEntryGateOpen() {
+        return entryGateOpen;
+    }
+
+    /**
+     * @return true if the exit gate is open.
+     */
+    public boolean isExitGateOpen() {
+        return exitGateOpen;
+    }
+
+    /**
+     * @return true if a vehicle breaks the entry beam.
+     */
+    public boolean isEntryBeamBroken() {
+        return entryBeamBroken;
+    }
+
+    /**
+     * @return true if a vehicle breaks the exit beam.
+     */
+    public boolean isExitBeamBroken() {
+        return exitBeamBroken;
+    }
+
+    /**
+     * @return the entry light color: LIGHT_OFF, LIGHT_RED or LIGHT_GREEN.
+     */
+    public byte getEntryLight() {
+        return entryLight;
+    }
+
+    /**
+     * @return the exit light color: LIGHT_OFF, LIGHT_RED or LIGHT_GREEN.
+     */
+    public byte getExitLight() {
+        return exitLight;
+    }
+
+    /**
+     * Test whether the garage reported an optional protocol feature in the last update.
+     *
+     * @param capability the feature bit, such as CAN_BATCH.
+     * @return true if supported, false if not or not reported.
+     */
+    public boolean can(int capability) {
+        return (capabilities & capability) != 0;
+    }
+
+    /**
+     * @return the number of spots the garage reports having, if SPOT_COUNT was reported.
+     */
+    public int getSpotCount() {
+        return spotCount;
+    }
+
+    /**
+     * @return the number of spots in the spot light list.
+     */
+    public int getSpotLightCount() {
+        return spotLightCount;
+    }
+
+    /**
+     * @param spot the spot index, from 0.
+     * @return 1 if the spot light is on, 0 otherwise.
+     */
+    public byte getSpotLight(int spot) {
+        return (byte) (spotLights[spot >>> 6] >>> spot & 1);
+    }
+
+    /**
+     * @return the number of spots in the occupancy list.
+     */
+    public int getSpotOccupiedCount() {
+        return spotOccupiedCount;
+    }
+
+    /**
+     * @param spot the spot index, from 0.
+     * @return 1 if the spot is occupied, 0 otherwise.
+     */
+    public byte getSpotOccupied(int spot) {
+        return (byte) (spotOccupied[spot >>> 6] >>> spot & 1);
+    }
+
+    /**
+     * @return the spot light bits, which may run past the spot count. Not to be changed.
+     */
+    long[] getSpotLightBits() {
+        return spotLights;
+    }
+
+    /**
+     * @return the spot occupancy bits, which may run past the spot count. Not to be changed.
+     */
+    long[] getSpotOccupiedBits() {
+        return spotOccupied;
+    }
+}
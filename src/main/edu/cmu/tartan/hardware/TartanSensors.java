@@ -40,6 +40,13 @@ public interface TartanSensors {
     // Parking stall state. This is read only from the system
     public static final String PARKING_SPOT_OCCUPIED = "PO";
 
+    // The number of parking stalls, reported in state updates so the capacity can be discovered
+    public static final String SPOT_COUNT = "SC";
+
+    // A stall list may be sent as a bitmap instead: BITMAP_START, then one hex digit for every 4 stalls with stall 1
+    // in the high bit of the first digit. "PO=#9" means stalls 1 and 4 are occupied.
+    public static final String BITMAP_START = "#";
+
     // Indicates something is open or closed
     public static final String OPEN = "1";
     public static final String CLOSE = "0";
@@ -55,4 +62,21 @@ public interface TartanSensors {
     // System state parameters
     public static final String GET_STATE = "GS";
     public static final String STATE_UPDATE = "SU";
+
+    // Ask the garage to push a state update whenever its state changes (PU=1) or to stop (PU=0). A pushed update is
+    // a state update line that starts with PUSH_MARK, so it is never taken for the response to a command.
+    public static final String PUSH_UPDATES = "PU";
+    public static final String PUSH_MARK = "!";
+
+    // Carry out several commands in order and acknowledge them once: "BA:NL=G;NG=1;PL=[2=1]." Only sent to a garage
+    // that reports CAN_BATCH; others may acknowledge a batch without carrying out any of it.
+    public static final String BATCH = "BA";
+
+    // The optional protocol features a garage supports, reported in state updates as one letter each: "CA=BL". A
+    // garage that does not report them is sent plain commands and complete spot light lists.
+    public static final String CAPABILITIES = "CA";
+    public static final String CAN_BATCH = "B";
+
+    // A spot light list may leave spots out, and the garage keeps their lights as they are
+    public static final String CAN_LIST_CHANGES = "L";
 }
@@ -1,6 +1,5 @@
 package edu.cmu.tartan.service;
 
-import edu.cmu.tartan.MapUtil;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.ReservationStore;
 
@@ -26,6 +25,7 @@ public class AdminService extends TartanService {
     private Preferences prefs;
     private Vector<Reservation> reservations = new Vector<>();
     private ReservationStore rsvpStore;
+    private ReservationStatistics statistics = new ReservationStatistics();
     private static final String RESERVATION_STORE = "keystore.txt";
     private static final int SALT_SIZE = 32;
 
@@ -60,6 +60,9 @@ public class AdminService extends TartanService {
             case TartanParams.MSG_GET_STATISTICAL_DATA:
                 handleGetStatisticalData(message);
                 break;
+            case TartanParams.MSG_PAYMENT_COMPLETE:
+                handlePaymentComplete(message);
+                break;
             default:
                 break;
         }
@@ -74,18 +77,28 @@ public class AdminService extends TartanService {
         sendMessage(KioskService.KIOSK_SERVICE, resultMessage);
     }
 
-    public void handleGetStatisticalData(Map<String, Object> message) {
-        try {
-            rsvpStore.loadCumulativeReservations();
-        } catch (Exception e) {
-            LOGGER.warning(e.getMessage());
+    /**
+     * Fold a completed payment into the running statistics. A payment already recorded is ignored.
+     *
+     * @param message the payment complete message.
+     */
+    public void handlePaymentComplete(Map<String, Object> message) {
+        Reservation rsvp = (Reservation) message.get(TartanParams.PAYLOAD);
+        if (rsvp == null) {
+            return;
         }
-        reservations = rsvpStore.getReservations();
+        synchronized (rsvpStore) {
+            if (rsvpStore.addReservation(rsvp)) {
+                statistics.add(rsvp);
+            }
+        }
+    }
 
+    public void handleGetStatisticalData(Map<String, Object> message) {
         HashMap<String, Object> resultMessage = new HashMap<>();
-        Long revenue = getRevenue(reservations);
-        HashMap<String, Integer> averageOccupancy = getAverageOccupancy(reservations);
-        ArrayList<Integer> peakUsageHours = getPeakUsageHours(reservations);
+        Long revenue = statistics.getRevenue();
+        HashMap<String, Integer> averageOccupancy = statistics.getAverageOccupancy();
+        ArrayList<Integer> peakUsageHours = statistics.getPeakUsageHours();
         resultMessage.put(TartanParams.COMMAND, TartanParams.MSG_STATISTICAL_DATA_RESULT);
         resultMessage.put(TartanParams.REVENUE, revenue);
         resultMessage.put(TartanParams.AVERAGE_OCCUPANCY, averageOccupancy);
@@ -93,18 +106,32 @@ public class AdminService extends TartanService {
         sendMessage(KioskService.KIOSK_SERVICE, resultMessage);
     }
 
+    /**
+     * Add the recorded payments to the statistics. After this they are kept up to date by payment complete
+     * messages. A payment that arrived before the load is already counted, and the load does not add it again.
+     */
     @Override
     public void run() {
-        try {
-            rsvpStore.loadCumulativeReservations();
-        } catch (Exception e) {
-            LOGGER.warning(e.getMessage());
+        synchronized (rsvpStore) {
+            // the load only appends what the store does not hold yet
+            int counted = rsvpStore.getReservations().size();
+            try {
+                rsvpStore.loadCumulativeReservations();
+            } catch (Exception e) {
+                LOGGER.warning(e.getMessage());
+            }
+            reservations = rsvpStore.getReservations();
+            for (int i = counted; i < reservations.size(); i++) {
+                statistics.add(reservations.get(i));
+            }
         }
     }
 
+    /**
+     * The store only holds recorded payments, so nothing is written back to the reservation file.
+     */
     @Override
     public void terminate() {
-        rsvpStore.shutdown();
         stop();
     }
 
@@ -154,87 +181,26 @@ public class AdminService extends TartanService {
         return revenue;
     }
 
-    class DateUtil {
-        Calendar calendar;
-        DateUtil() {
-            calendar = GregorianCalendar.getInstance();
-        }
-
-        void setDate(Date date) {
-            calendar.setTime(date);
-        }
-
-        int getHourFromDate() {
-            return calendar.get(Calendar.HOUR_OF_DAY);
-        }
-
-        String getDate() {
-            int year = calendar.get(Calendar.YEAR);;
-            int month = calendar.get(Calendar.MONTH) + 1;
-            int day = calendar.get(Calendar.DAY_OF_MONTH);
-            String date = String.valueOf(year) + ":";
-            if (month < 10) {
-                date += "0";
-            }
-            date +=  String.valueOf(month) + ":" + String.valueOf(day);
-            return date;
+    /**
+     * Compute statistics for a set of reservations from scratch.
+     *
+     * @param reservations the reservations.
+     * @return the statistics.
+     */
+    private ReservationStatistics summarize(Vector<Reservation> reservations) {
+        ReservationStatistics summary = new ReservationStatistics();
+        for (Reservation r : reservations) {
+            summary.add(r);
         }
+        return summary;
     }
 
     public HashMap<String, Integer> getAverageOccupancy(Vector<Reservation> reservations) {
-        HashMap<String, Integer> occupancyMap = new HashMap<>();
-        int startHour, endHour, dailyCount;
-        DateUtil dateUtil = new DateUtil();
-        for (Reservation reservation : reservations) {
-            dateUtil.setDate(reservation.getStartTime());
-            startHour = dateUtil.getHourFromDate();
-            dateUtil.setDate(reservation.getEndTime());
-            endHour = dateUtil.getHourFromDate();
-            dailyCount = endHour - startHour + 1;
-            String hashKey = dateUtil.getDate();
-            System.out.println("hashKey=" + hashKey);
-            if (occupancyMap.get(hashKey) != null) {
-                dailyCount += occupancyMap.get(hashKey);
-            }
-            occupancyMap.put(hashKey, dailyCount);
-        }
-
-        for (String key : occupancyMap.keySet()) {
-            int count = occupancyMap.get(key);
-            occupancyMap.put(key, count * 100 / (24 * 4));
-        }
-        return occupancyMap;
+        return summarize(reservations).getAverageOccupancy();
     }
 
     public ArrayList<Integer> getPeakUsageHours(Vector<Reservation> reservations) {
-        Map<Integer, Integer> usageHours = new HashMap<>();
-        int startHour, endHour;
-        DateUtil dateUtil = new DateUtil();
-        for (Reservation reservation : reservations) {
-            dateUtil.setDate(reservation.getStartTime());
-            startHour = dateUtil.getHourFromDate();
-            dateUtil.setDate(reservation.getEndTime());
-            endHour = dateUtil.getHourFromDate();
-            for (int i = startHour; i <= endHour; i++) {
-                Integer value = usageHours.get(i);
-                Integer updatedValue = 1;
-                if (value != null) {
-                    updatedValue += value;
-                }
-                usageHours.put(i, updatedValue);
-            }
-        }
-        usageHours = MapUtil.sortByValue(usageHours);
-        Integer peakHour = 0;
-        ArrayList<Integer> usageHoursList = new ArrayList<>();
-        for (Integer hour : usageHours.keySet()) {
-            if (usageHours.get(hour) >= peakHour) {
-                peakHour = usageHours.get(hour);
-                usageHoursList.add(hour);
-            }
-        }
-
-        return usageHoursList;
+        return summarize(reservations).getPeakUsageHours();
     }
 
     public Vector<Reservation> getReservations() {
@@ -52,6 +52,7 @@ public class KioskService extends TartanService {
      * <li> MSG_REEDEEM_RSVP: Handle reservation redemption when customer arrives.</li>
      * <li> MSG_VEHICLE_AT_ENTRY: Vehicle detected at entry gate</li>
      * <li> MSG_NEW_RSVP: Handle new reservation.</li>
+     * <li> MSG_NEW_BATCH_RSVP: Handle a batch of new reservations.</li>
      * <li> MSG_UPDATE_RSVP: Handle update reservation.</li>
      * <li> MSG_PAYMENT_VALID: Indicate that the payment was accepted. </li>
      * <li> MSG_PAYMENT_INVALID: Indicate the payment was rejected.</li>
@@ -85,6 +86,8 @@ public class KioskService extends TartanService {
             handleParkingError(message);
         } else if (cmd.equals(TartanParams.MSG_NEW_RSVP)) {
             handleNewReservation(message);
+        } else if (cmd.equals(TartanParams.MSG_NEW_BATCH_RSVP)) {
+            handleNewBatchReservation(message);
         } else if (cmd.equals(TartanParams.MSG_UPDATE_RSVP)) {
             handleUpdateReservation(message);
         } else if (cmd.equals(TartanParams.MSG_PAYMENT_VALID)) {
@@ -262,6 +265,33 @@ public class KioskService extends TartanService {
         sendMessage(ReservationService.RESERVATION_SERVICE, message);
     }
 
+    /**
+     * Ask for many reservations at once. The reservation service books all of them or none, and answers once.
+     *
+     * @param batch The reservations to make.
+     */
+    public void makeBatchReservation(Vector<Reservation> batch) {
+
+        HashMap<String, Object> message = new HashMap<String, Object>();
+        message.put(TartanParams.COMMAND, TartanParams.MSG_NEW_BATCH_RSVP);
+        message.put(TartanParams.PAYLOAD, batch);
+
+        sendMessage(ReservationService.RESERVATION_SERVICE, message);
+    }
+
+    /**
+     * Handle a booked batch of reservations. The batch is already saved, payment is taken on entry.
+     *
+     * @param message The incoming message.
+     */
+    private void handleNewBatchReservation(HashMap<String, Object> message) {
+
+        // the payload of a batch message is always a vector of reservations
+        @SuppressWarnings("unchecked")
+        Vector<Reservation> batch = (Vector<Reservation>) message.get(TartanParams.PAYLOAD);
+        kiosk.confirmReservations(batch);
+    }
+
     /**
      * Handle a new reservation.
      *
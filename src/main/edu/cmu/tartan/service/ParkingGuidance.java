@@ -0,0 +1,131 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the vehicles that have been let into the garage until each one parks. A vehicle is resolved by the spot
+ * occupancy changes the garage reports: when its reserved spot becomes occupied it parked correctly; when a spot no
+ * guided vehicle reserved becomes occupied, the vehicle that entered first parked there by mistake. A vehicle that is
+ * not seen parking before the deadline is resolved without a spot.
+ * <p>
+ * Guidance is only touched from one thread, the timer it schedules deadlines on, so it needs no locking.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+class ParkingGuidance {
+
+    /**
+     * Told how each guided vehicle parked.
+     */
+    interface Outcome {
+
+        /**
+         * A guided vehicle parked, or its deadline passed.
+         *
+         * @param rsvp the vehicle's reservation.
+         * @param actualSpot the spot it parked in, which is the reserved spot if it parked correctly, or
+         *                   TartanParams.INVALID_SPOT if it was not seen parking.
+         */
+        void parked(Reservation rsvp, Integer actualSpot);
+    }
+
+    /**
+     * A vehicle on its way to its spot.
+     */
+    private class Guided implements Runnable {
+
+        private final Reservation rsvp;
+        private final int spot;
+        private ScheduledFuture<?> deadline;
+
+        Guided(Reservation rsvp, int spot) {
+            this.rsvp = rsvp;
+            this.spot = spot;
+        }
+
+        @Override
+        public void run() {
+            // the deadline passed
+            if (guided.remove(this)) {
+                outcome.parked(rsvp, TartanParams.INVALID_SPOT);
+            }
+        }
+    }
+
+    private final ScheduledExecutorService timer;
+    private final long deadline;
+    private final Outcome outcome;
+
+    /** The vehicles being guided, in the order they entered */
+    private final ArrayDeque<Guided> guided = new ArrayDeque<Guided>();
+
+    /**
+     * Set up guidance.
+     *
+     * @param timer the thread that runs guidance and its deadlines.
+     * @param deadline how long a vehicle has to park, in milliseconds.
+     * @param outcome told how each vehicle parked.
+     */
+    ParkingGuidance(ScheduledExecutorService timer, long deadline, Outcome outcome) {
+        this.timer = timer;
+        this.deadline = deadline;
+        this.outcome = outcome;
+    }
+
+    /**
+     * Start guiding a vehicle to its spot.
+     *
+     * @param rsvp the vehicle's reservation.
+     * @param spot the reserved spot.
+     */
+    void guide(Reservation rsvp, int spot) {
+        Guided vehicle = new Guided(rsvp, spot);
+        guided.add(vehicle);
+        vehicle.deadline = timer.schedule(vehicle, deadline, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handle a spot becoming occupied.
+     *
+     * @param spot the spot.
+     */
+    void spotOccupied(int spot) {
+        Guided parked = null;
+        for (Guided vehicle : guided) {
+            if (vehicle.spot == spot) {
+                parked = vehicle;
+                break;
+            }
+        }
+        if (parked == null) {
+            // nobody was sent here, so the first vehicle in took the wrong spot
+            parked = guided.peek();
+            if (parked == null) {
+                return;
+            }
+        }
+        guided.remove(parked);
+        parked.deadline.cancel(false);
+        outcome.parked(parked.rsvp, spot);
+    }
+
+    /**
+     * @return the spots the guided vehicles are heading to.
+     */
+    ArrayList<Integer> getGuidedSpots() {
+        ArrayList<Integer> spots = new ArrayList<Integer>(guided.size());
+        for (Guided vehicle : guided) {
+            spots.add(vehicle.spot);
+        }
+        return spots;
+    }
+}
@@ -3,10 +3,15 @@ package edu.cmu.tartan.service;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
 import edu.cmu.tartan.hardware.TartanGarageConnection;
+import edu.cmu.tartan.hardware.TartanGarageConnectionManager;
+import edu.cmu.tartan.hardware.TartanGarageEvent;
+import edu.cmu.tartan.hardware.TartanGarageListener;
 import edu.cmu.tartan.hardware.TartanGarageManager;
 import edu.cmu.tartan.hardware.TartanSensors;
 
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,7 +22,7 @@ import java.util.concurrent.TimeUnit;
  * Versions:
  * 1.0 November 2016 - initial version
  */
-public class ParkingService extends TartanService implements Observer {
+public class ParkingService extends TartanService implements TartanGarageListener {
 
     /**
      * The name of this service
@@ -34,6 +39,55 @@ public class ParkingService extends TartanService implements Observer {
      */
     private Vector<Reservation> occupancy = new Vector<Reservation>();
 
+    /**
+     * The system property that sets how long a gate stays open, in milliseconds
+     */
+    public static final String GATE_OPEN_TIME_PROPERTY = "tartan.parking.gateOpenTime";
+
+    /**
+     * How long a gate stays open for a vehicle to pass by default, in milliseconds
+     */
+    private static final long GATE_OPEN_TIME = 10000;
+
+    /**
+     * The system property that sets how long an entering vehicle has to park, in milliseconds
+     */
+    public static final String GUIDANCE_DEADLINE_PROPERTY = "tartan.parking.guidanceDeadline";
+
+    /**
+     * How long an entering vehicle has to park by default, in milliseconds, from when the entry gate opens
+     */
+    private static final long GUIDANCE_DEADLINE = 120000;
+
+    /**
+     * The steps of a gate sequence
+     */
+    private enum GateStep {OPEN, CLOSE}
+
+    private long gateOpenTime = Long.getLong(GATE_OPEN_TIME_PROPERTY, GATE_OPEN_TIME);
+
+    private long guidanceDeadline = Long.getLong(GUIDANCE_DEADLINE_PROPERTY, GUIDANCE_DEADLINE);
+
+    /**
+     * Runs the gate sequences. Steps never wait, so one thread serves both lanes.
+     */
+    private final ScheduledExecutorService gateTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ParkingService-gates");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The entry and exit lanes, which run independently
+     */
+    private final GateLane entryLane = new GateLane();
+    private final GateLane exitLane = new GateLane();
+
+    /**
+     * Follows entering vehicles to their spots. Created on first use so that the deadline can be configured.
+     */
+    private ParkingGuidance guidance = null;
+
     /**
      * The parking service manages parking spots in the garage
      */
@@ -42,23 +96,28 @@ public class ParkingService extends TartanService implements Observer {
     }
 
     /**
-     * Receive notifications (via an Observer) about vehicle entry/departure.
+     * Receive notifications (via a TartanGarageListener) about vehicle entry/departure.
      *
-     * @param obs  The element being observed.
-     * @param obj, The message from the observed element.
+     * @param event The change in the garage.
      */
     @Override
-    public void update(Observable obs, Object obj) {
-
-        String cmd = (String) obj;
-        if (cmd.equals(TartanParams.MSG_VEHICLE_AT_ENTRY)) {
-            signalVehicleArrived();
-        } else if(cmd.equals(TartanParams.MSG_VEHICLE_OUT_ENTRY)) {
-            signalVehicleLeaved();
-        } else if (cmd.equals(TartanParams.MSG_VEHICLE_AT_EXIT)) {
-            signalVehicleReadyToLeave();
-        } else if (cmd.equals(TartanParams.MSG_VEHICLE_RETURN)) {
-            signalVehicleReturned();
+    public void onGarageEvent(TartanGarageEvent event) {
+
+        if (event.getType() == TartanGarageEvent.Type.BEAM_BROKEN) {
+            if (event.getGate() == TartanGarageEvent.Gate.ENTRY) {
+                signalVehicleArrived();
+            } else {
+                signalVehicleReadyToLeave();
+            }
+        } else if (event.getType() == TartanGarageEvent.Type.BEAM_CLEARED) {
+            if (event.getGate() == TartanGarageEvent.Gate.ENTRY) {
+                signalVehicleLeaved();
+            } else {
+                signalVehicleReturned();
+            }
+        } else if (event.getType() == TartanGarageEvent.Type.SPOT_OCCUPIED) {
+            final int spot = event.getSpot();
+            gateTimer.execute(() -> getGuidance().spotOccupied(spot));
         }
     }
 
@@ -107,9 +166,24 @@ public class ParkingService extends TartanService implements Observer {
      * @return True if connected, false otherwise.
      */
     public Boolean connectToGarage(String houseAddress) {
+        return connectToGarage(TartanGarageConnection.getConnection(houseAddress));
+    }
+
+    /**
+     * Connect to a house on a given port
+     *
+     * @param houseAddress The network address of the house.
+     * @param port The port of the house.
+     * @return True if connected, false otherwise.
+     */
+    public Boolean connectToGarage(String houseAddress, int port) {
+        return connectToGarage(TartanGarageConnectionManager.getDefault().getConnection(houseAddress, port));
+    }
+
+    private Boolean connectToGarage(TartanGarageConnection connection) {
         try{
-            garageManager = new TartanGarageManager(TartanGarageConnection.getConnection(houseAddress));
-            garageManager.addObserver(this); // for notifications
+            garageManager = new TartanGarageManager(connection);
+            garageManager.addListener(this); // for notifications
             initialize();
         } catch (Exception e) {
             e.printStackTrace();
@@ -122,17 +196,27 @@ public class ParkingService extends TartanService implements Observer {
      * Initialize the parking system by closing gates and setting lights to red.
      */
     private void initialize() {
-        garageManager.setEntryLight(TartanSensors.RED);
-        garageManager.setExitLight(TartanSensors.RED);
-        garageManager.closeEntryGate();
-        garageManager.closeExitGate();
+        // the first state update tells how many spots the garage has
+        garageManager.updateGarageState();
 
-        ArrayList<String> lightState = new ArrayList<String>();
-        for (int i = 0; i < garageManager.getCapacity(); i++) {
-            lightState.add(TartanSensors.OFF);
+        garageManager.startBatch();
+        try {
+            garageManager.setEntryLight(TartanSensors.RED);
+            garageManager.setExitLight(TartanSensors.RED);
+            garageManager.closeEntryGate();
+            garageManager.closeExitGate();
+
+            ArrayList<String> lightState = new ArrayList<String>();
+            for (int i = 0; i < garageManager.getCapacity(); i++) {
+                lightState.add(TartanSensors.OFF);
+            }
+            garageManager.setParkingSpotLights(lightState);
+        } finally {
+            garageManager.sendBatch();
         }
-        garageManager.setParkingSpotLights(lightState);
 
+        // a garage that pushes its state changes needs far fewer polls once the first push arrives
+        garageManager.enablePushUpdates();
         garageManager.startUpdateThread();
     }
 
@@ -150,139 +234,290 @@ public class ParkingService extends TartanService implements Observer {
      * Terminate the service.
      */
     protected void finalize() {
+        gateTimer.shutdownNow();
         disconnectFromGarage();
         stop();
     }
 
     /**
      * Allow a vehicle to enter by setting the entry light to green and opening the gate. If the assigned spot is taken
-     * then handle updating the reservation.
+     * then handle updating the reservation. The entry runs on the entry lane once the vehicles ahead have entered.
      *
      * @param rsvp The reservation associated with this entry.
      */
     private void handleGarageEntry(Reservation rsvp) {
+        entryLane.submit(new EntrySequence(rsvp));
+    }
 
-        if (garageManager.isConnected()) {
+    /**
+     * Handle garage exit by setting the exit light to green and opening the gate. The exit runs on the exit lane
+     * once the vehicles ahead have left.
+     *
+     * @param rsvp The reservation of the leaving vehicle.
+     */
+    private void allowGarageExit(Reservation rsvp) {
+        exitLane.submit(new ExitSequence(rsvp));
+    }
 
-            Integer spot = rsvp.getSpotId();
-            Integer[] occupiedStateCheck = garageManager.getSpotOccupiedState();
-            if (occupiedStateCheck[spot] == 1) {
-                // The spot is already occupied. Try to update a new RSVP
+    /**
+     * Light the spots that entering vehicles are heading to, and turn every other parking spot light off. The garage
+     * manager only sends the lights that changed.
+     */
+    private void setSpotLights() {
+        ArrayList<Integer> spots = getGuidance().getGuidedSpots();
+        ArrayList<String> lightState = new ArrayList<String>();
+        for (int i = 0; i < garageManager.getCapacity(); i++) {
+            if (spots.contains(i)) lightState.add(i, TartanSensors.ON);
+            else {
+                lightState.add(i, TartanSensors.OFF);
+            }
+        }
+        garageManager.setParkingSpotLights(lightState);
+    }
 
-                HashMap<String, Object> body = new HashMap<String, Object>();
-                body.put(TartanParams.COMMAND, TartanParams.MSG_UPDATE_RSVP);
+    /**
+     * Get the parking guidance. Only called on the gate timer thread.
+     *
+     * @return the guidance.
+     */
+    private ParkingGuidance getGuidance() {
+        if (guidance == null) {
+            guidance = new ParkingGuidance(gateTimer, guidanceDeadline, this::vehicleParked);
+        }
+        return guidance;
+    }
 
-                rsvp.setSpotId(TartanParams.INVALID_SPOT);
+    /**
+     * Handle an entering vehicle parking, or failing to park before the guidance deadline.
+     *
+     * @param rsvp the vehicle's reservation.
+     * @param actualSpot the spot it parked in, or INVALID_SPOT if it was not seen parking.
+     */
+    private void vehicleParked(Reservation rsvp, Integer actualSpot) {
+        if (!actualSpot.equals(rsvp.getSpotId())) {
+            //  The driver parked in the wrong spot
+            HashMap<String, Object> resp = new HashMap<String, Object>();
+            resp.put(TartanParams.COMMAND, TartanParams.MSG_WRONG_SPOT);
+            HashMap<String, Object> msg = new HashMap<String, Object>();
 
-                body.put(TartanParams.PAYLOAD, rsvp);
-                body.put(TartanParams.CURRENT_OCCUPIED_STATE, occupiedStateCheck);
-                sendMessage(ReservationService.RESERVATION_SERVICE, body);
-                return;
-            }
+            msg.put(TartanParams.RSVP, rsvp);
+            msg.put(TartanParams.ACTUAL_SPOT, actualSpot);
+            resp.put(TartanParams.PAYLOAD, msg);
 
-            garageManager.setEntryLight(TartanSensors.GREEN);
-            Integer[] preParkState = garageManager.getSpotOccupiedState();
-            garageManager.openEntryGate();
+            sendMessage(KioskService.KIOSK_SERVICE, resp);
+        }
 
-            ArrayList<String> lightState = new ArrayList<String>();
+        // parking spot occupied, turn off its light
+        setSpotLights();
+    }
 
-            for (int i = 0; i < garageManager.getCapacity(); i++) {
-                if (i == spot) lightState.add(i, TartanSensors.ON);
-                else {
-                    lightState.add(i, TartanSensors.OFF);
-                }
+    /**
+     * A gate lane lets one vehicle through at a time. Sequences for the vehicles behind wait their turn. A lane is
+     * only touched from the gate timer thread.
+     */
+    private class GateLane {
+
+        private final ArrayDeque<GateSequence> waiting = new ArrayDeque<GateSequence>();
+
+        private GateSequence current = null;
+
+        /**
+         * Queue a sequence to run when the lane is free.
+         *
+         * @param sequence the sequence.
+         */
+        void submit(GateSequence sequence) {
+            sequence.lane = this;
+            gateTimer.execute(() -> {
+                waiting.add(sequence);
+                startNext();
+            });
+        }
+
+        /**
+         * Release the lane to the next vehicle.
+         */
+        void finished() {
+            current = null;
+            startNext();
+        }
+
+        private void startNext() {
+            if (current == null && !waiting.isEmpty()) {
+                current = waiting.poll();
+                current.run();
             }
-            garageManager.setParkingSpotLights(lightState);
+        }
+    }
 
-            // you get 10 seconds to enter
+    /**
+     * The steps to let one vehicle through a gate. Each step runs on the gate timer thread and schedules the next
+     * one instead of waiting, so neither lane nor the message listener is ever blocked.
+     */
+    private abstract class GateSequence implements Runnable {
+
+        private GateLane lane;
+
+        /**
+         * Run the current step.
+         */
+        abstract void step();
+
+        @Override
+        public void run() {
             try {
-                TimeUnit.SECONDS.sleep(10);
-            } catch (InterruptedException e) {
+                step();
+            } catch (Exception e) {
                 e.printStackTrace();
+                done();
             }
+        }
 
-            garageManager.setEntryLight(TartanSensors.RED);
-            garageManager.closeEntryGate();
+        /**
+         * Run the next step after a delay.
+         *
+         * @param delay the delay in milliseconds.
+         */
+        void next(long delay) {
+            gateTimer.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
 
-            // signal the entry is complete
-            HashMap<String, Object> body = new HashMap<String, Object>();
-            body.put(TartanParams.COMMAND, TartanParams.MSG_ENTRY_COMPLETE);
-            body.put(TartanParams.PAYLOAD, rsvp);
-            sendMessage(KioskService.KIOSK_SERVICE, body);
+        /**
+         * End the sequence and free the lane.
+         */
+        void done() {
+            lane.finished();
+        }
+    }
 
+    /**
+     * Entry: open the gate, wait for the vehicle to pass and close the gate. Guidance then follows the vehicle to
+     * its spot, while the lane lets the next vehicle in.
+     */
+    private class EntrySequence extends GateSequence {
 
-            // Now guide car to spot
-            int timeout = 0;
-            Boolean parkedOK = false;
-            Integer[] occupiedState = null;
-            while (timeout < 6) {
-                occupiedState = garageManager.getSpotOccupiedState();
-                if (occupiedState[spot] == 1) {
-                    parkedOK = true;
-                    break;
-                } else {
-                    timeout++;
-                    try {
-                        Thread.sleep(1);
-                    } catch (Exception e) {
-                    }
-                }
+        private final Reservation rsvp;
+
+        private GateStep step = GateStep.OPEN;
+
+        EntrySequence(Reservation rsvp) {
+            this.rsvp = rsvp;
+        }
+
+        @Override
+        void step() {
+            if (step == GateStep.OPEN) {
+                open();
+            } else {
+                close();
             }
+        }
 
-            //  The driver parked in the wrong spot
-            if (!parkedOK) {
-                Integer wrongSpot = TartanParams.INVALID_SPOT;
-                for (int i = 0; i < preParkState.length; i++) {
-                    if (!preParkState[i].equals(occupiedState[i])) {
-                        wrongSpot = i;
-                        break;
-                    }
-                }
+        private void open() {
+            if (!garageManager.isConnected()) {
+                done();
+                return;
+            }
 
+            Integer spot = rsvp.getSpotId();
+            Integer[] occupiedStateCheck = garageManager.getSpotOccupiedState();
+            if (occupiedStateCheck[spot] == 1) {
+                // The spot is already occupied. Try to update a new RSVP
 
-                HashMap<String, Object> resp = new HashMap<String, Object>();
-                resp.put(TartanParams.COMMAND, TartanParams.MSG_WRONG_SPOT);
-                HashMap<String, Object> msg = new HashMap<String, Object>();
+                HashMap<String, Object> body = new HashMap<String, Object>();
+                body.put(TartanParams.COMMAND, TartanParams.MSG_UPDATE_RSVP);
 
-                msg.put(TartanParams.RSVP, rsvp);
-                msg.put(TartanParams.ACTUAL_SPOT, wrongSpot);
-                resp.put(TartanParams.PAYLOAD, msg);
+                rsvp.setSpotId(TartanParams.INVALID_SPOT);
 
-                sendMessage(KioskService.KIOSK_SERVICE, resp);
+                body.put(TartanParams.PAYLOAD, rsvp);
+                body.put(TartanParams.CURRENT_OCCUPIED_STATE, occupiedStateCheck);
+                sendMessage(ReservationService.RESERVATION_SERVICE, body);
+                done();
+                return;
             }
 
-            // parking spot occupied, turn off the lights
-            ArrayList<String> offLightState = new ArrayList<String>();
-            for (int i = 0; i < garageManager.getCapacity(); i++) {
-                offLightState.add(TartanSensors.OFF);
+            // one round trip for the lights and the gate
+            garageManager.startBatch();
+            try {
+                garageManager.setEntryLight(TartanSensors.GREEN);
+                garageManager.openEntryGate();
+
+                // follow the vehicle from now on, in case it parks before the gate closes
+                getGuidance().guide(rsvp, spot);
+                setSpotLights();
+            } finally {
+                garageManager.sendBatch();
+            }
+
+            // you get 10 seconds to enter
+            step = GateStep.CLOSE;
+            next(gateOpenTime);
+        }
+
+        private void close() {
+            garageManager.startBatch();
+            try {
+                garageManager.setEntryLight(TartanSensors.RED);
+                garageManager.closeEntryGate();
+            } finally {
+                garageManager.sendBatch();
             }
-            garageManager.setParkingSpotLights(offLightState);
 
-            // Log that the car is now in the garage
+            // Log that the car is now in the garage, guidance only reports where it parks
             synchronized (occupancy) {
                 occupancy.add(rsvp);
             }
+
+            // signal the entry is complete
+            HashMap<String, Object> body = new HashMap<String, Object>();
+            body.put(TartanParams.COMMAND, TartanParams.MSG_ENTRY_COMPLETE);
+            body.put(TartanParams.PAYLOAD, rsvp);
+            sendMessage(KioskService.KIOSK_SERVICE, body);
+            done();
         }
     }
 
     /**
-     * Handle garage exit by setting the exit light to green and opening the gate.
+     * Exit: open the gate, wait for the vehicle to pass, close the gate and issue the receipt.
      */
-    private void allowGarageExit() {
+    private class ExitSequence extends GateSequence {
 
-        if (garageManager.isConnected()) {
-            garageManager.setExitLight(TartanSensors.GREEN);
-            garageManager.openExitGate();
+        private final Reservation rsvp;
 
-            // you get 10 seconds to exit
-            try {
-                TimeUnit.SECONDS.sleep(10);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        private GateStep step = GateStep.OPEN;
 
-            garageManager.setExitLight(TartanSensors.RED);
-            garageManager.closeExitGate();
+        ExitSequence(Reservation rsvp) {
+            this.rsvp = rsvp;
+        }
+
+        @Override
+        void step() {
+            if (step == GateStep.OPEN) {
+                if (garageManager.isConnected()) {
+                    garageManager.startBatch();
+                    try {
+                        garageManager.setExitLight(TartanSensors.GREEN);
+                        garageManager.openExitGate();
+                    } finally {
+                        garageManager.sendBatch();
+                    }
+
+                    // you get 10 seconds to exit
+                    step = GateStep.CLOSE;
+                    next(gateOpenTime);
+                    return;
+                }
+            } else {
+                garageManager.startBatch();
+                try {
+                    garageManager.setExitLight(TartanSensors.RED);
+                    garageManager.closeExitGate();
+                } finally {
+                    garageManager.sendBatch();
+                }
+            }
+            completeExit(rsvp);
+            done();
         }
     }
 
@@ -340,28 +575,36 @@ public class ParkingService extends TartanService implements Observer {
     private void handleExecuteGarageExit(HashMap<String, Object> message) {
 
         Reservation rsvp = (Reservation) message.get(TartanParams.PAYLOAD);
-        String vid = rsvp.getVehicleID();
 
         Payment payment = rsvp.getPayment();
         if (payment.getFee() != null) {
-            allowGarageExit();
+            allowGarageExit(rsvp);
+        }
+    }
 
-            synchronized (occupancy) {
-                ListIterator<Reservation> iter = occupancy.listIterator();
+    /**
+     * Remove a vehicle that has left from the garage and send its receipt.
+     *
+     * @param rsvp the reservation of the vehicle.
+     */
+    private void completeExit(Reservation rsvp) {
 
-                while (iter.hasNext()) {
-                    if (iter.next().getVehicleID().equals(vid)) {
-                        iter.remove();
-                        break;
-                    }
+        String vid = rsvp.getVehicleID();
+        synchronized (occupancy) {
+            ListIterator<Reservation> iter = occupancy.listIterator();
+
+            while (iter.hasNext()) {
+                if (iter.next().getVehicleID().equals(vid)) {
+                    iter.remove();
+                    break;
                 }
             }
-
-            HashMap<String, Object> receipt = new HashMap<String, Object>();
-            receipt.put(TartanParams.COMMAND, TartanParams.MSG_EXIT_COMPLETE);
-            receipt.put(TartanParams.PAYLOAD, rsvp);
-            sendMessage(KioskService.KIOSK_SERVICE, receipt);
         }
+
+        HashMap<String, Object> receipt = new HashMap<String, Object>();
+        receipt.put(TartanParams.COMMAND, TartanParams.MSG_EXIT_COMPLETE);
+        receipt.put(TartanParams.PAYLOAD, rsvp);
+        sendMessage(KioskService.KIOSK_SERVICE, receipt);
     }
 
     /***
@@ -399,12 +642,14 @@ public class ParkingService extends TartanService implements Observer {
     private void applyPayment(String vid) {
 
         Reservation rsvp = null;
-        ListIterator<Reservation> iter = occupancy.listIterator();
-        while (iter.hasNext()) {
-            Reservation tmp = iter.next();
-            if (tmp.getVehicleID().equals(vid)) {
-                rsvp = tmp;
-                break;
+        synchronized (occupancy) {
+            ListIterator<Reservation> iter = occupancy.listIterator();
+            while (iter.hasNext()) {
+                Reservation tmp = iter.next();
+                if (tmp.getVehicleID().equals(vid)) {
+                    rsvp = tmp;
+                    break;
+                }
             }
         }
 
@@ -435,6 +680,7 @@ public class ParkingService extends TartanService implements Observer {
      */
     @Override
     public void terminate() {
+        gateTimer.shutdownNow();
         disconnectFromGarage();
         stop();
 
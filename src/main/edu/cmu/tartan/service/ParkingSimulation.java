@@ -0,0 +1,638 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+import edu.cmu.tartan.hardware.TartanGarageSimulator;
+import edu.cmu.tartan.hardware.TartanSensors;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Drives simulated traffic through the real parking stack: a ParkingService on a broker in this process, connected
+ * to a TartanGarageSimulator. Vehicles arrive at random, at a given rate, and stay for a random time; the simulation
+ * plays the drivers and the kiosk. A vehicle at the entry is given a free spot and let in by the parking service,
+ * drives past the gate to its spot and parks; when its stay is over it drives to the exit, pays and leaves once the
+ * parking service opens the exit gate.
+ * <p>
+ * Time is simulated: the simulation runs timeScale times faster than real time, and the parking service's gate and
+ * guidance times are scaled to match. All times given to and reported by the simulation are simulated. The report
+ * gives the throughput and the entry latency (from arrival until the entry gate opens for the vehicle) and exit
+ * latency (from reaching the exit until the exit gate opens) percentiles.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class ParkingSimulation {
+
+    /** The broker the simulated services talk through */
+    private static final String BROKER_URL = "vm://tartan-simulation?broker.persistent=false&broker.useJmx=false";
+
+    /** The time a simulation takes to start, in real milliseconds, not counted in the report */
+    private static final long SETTLE_TIME = 500;
+
+    // configuration, in simulated time
+    private int capacity = 1000;
+    private double arrivalsPerHour = 2000;
+    private double meanStayMinutes = 20;
+    private double hours = 1;
+    private double timeScale = 60;
+    private double gateOpenSeconds = 1.5;
+    private double passSeconds = 1;
+    private double driveSeconds = 20;
+    private double guidanceSeconds = 300;
+    private double patienceSeconds = 600;
+    private long responseLatencyMillis = 0;
+    private double sensorNoise = 0;
+    private long seed = 1;
+
+    /**
+     * A simulated vehicle.
+     */
+    private static class Vehicle {
+        final String id;
+        final long arrived;
+        int spot = TartanParams.INVALID_SPOT;
+        boolean admitted = false;
+        long atExit;
+
+        Vehicle(String id, long arrived) {
+            this.id = id;
+            this.arrived = arrived;
+        }
+    }
+
+    // the traffic, only touched by the clock thread
+    private ScheduledExecutorService clock;
+    private TartanGarageSimulator garage;
+    private StandIn kiosk;
+    private StandIn payment;
+    private Random random;
+    private long start;
+    private int vehicleCount = 0;
+    private final ArrayDeque<Vehicle> entryQueue = new ArrayDeque<Vehicle>();
+    private final ArrayDeque<Vehicle> exitQueue = new ArrayDeque<Vehicle>();
+    private Vehicle atEntry = null;
+    private Vehicle atExit = null;
+    private final HashMap<String, Vehicle> inside = new HashMap<String, Vehicle>();
+    private final BitSet taken = new BitSet();
+    private boolean arriving = true;
+
+    // the results, only touched by the clock thread
+    private int entered = 0;
+    private int exited = 0;
+    private int turnedAway = 0;
+    private int gaveUp = 0;
+    private int wrongSpots = 0;
+    private final ArrayList<Long> entryLatencies = new ArrayList<Long>();
+    private final ArrayList<Long> exitLatencies = new ArrayList<Long>();
+
+    /**
+     * The outcome of a simulation. Latencies are in simulated seconds.
+     */
+    public static class Report {
+        private final double hours;
+        private final int arrived;
+        private final int entered;
+        private final int exited;
+        private final int turnedAway;
+        private final int gaveUp;
+        private final int wrongSpots;
+        private final double[] entryLatencies;
+        private final double[] exitLatencies;
+
+        Report(double hours, int arrived, int entered, int exited, int turnedAway, int gaveUp, int wrongSpots,
+               double[] entryLatencies, double[] exitLatencies) {
+            this.hours = hours;
+            this.arrived = arrived;
+            this.entered = entered;
+            this.exited = exited;
+            this.turnedAway = turnedAway;
+            this.gaveUp = gaveUp;
+            this.wrongSpots = wrongSpots;
+            this.entryLatencies = entryLatencies;
+            this.exitLatencies = exitLatencies;
+            Arrays.sort(this.entryLatencies);
+            Arrays.sort(this.exitLatencies);
+        }
+
+        /**
+         * @return the number of vehicles that arrived.
+         */
+        public int getArrived() {
+            return arrived;
+        }
+
+        /**
+         * @return the number of vehicles let in.
+         */
+        public int getEntered() {
+            return entered;
+        }
+
+        /**
+         * @return the number of vehicles let out.
+         */
+        public int getExited() {
+            return exited;
+        }
+
+        /**
+         * @return the number of vehicles turned away because the garage was full.
+         */
+        public int getTurnedAway() {
+            return turnedAway;
+        }
+
+        /**
+         * @return the number of vehicles that left the entry without being let in.
+         */
+        public int getGaveUp() {
+            return gaveUp;
+        }
+
+        /**
+         * @return the number of vehicles the parking service saw park in a spot other than their own.
+         */
+        public int getWrongSpots() {
+            return wrongSpots;
+        }
+
+        /**
+         * @return the vehicles let in per simulated hour.
+         */
+        public double getEntriesPerHour() {
+            return entered / hours;
+        }
+
+        /**
+         * @return the vehicles let out per simulated hour.
+         */
+        public double getExitsPerHour() {
+            return exited / hours;
+        }
+
+        /**
+         * @param percentile the percentile, from 0 to 100.
+         * @return the entry latency at the percentile, in simulated seconds, or 0 if no vehicle entered.
+         */
+        public double getEntryLatency(double percentile) {
+            return percentile(entryLatencies, percentile);
+        }
+
+        /**
+         * @param percentile the percentile, from 0 to 100.
+         * @return the exit latency at the percentile, in simulated seconds, or 0 if no vehicle left.
+         */
+        public double getExitLatency(double percentile) {
+            return percentile(exitLatencies, percentile);
+        }
+
+        private static double percentile(double[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f simulated hours: %d arrived, %d entered (%.0f/h), %d exited (%.0f/h), "
+                            + "%d turned away, %d gave up, %d in the wrong spot%n"
+                            + "entry latency s: p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n"
+                            + "exit latency s:  p50 %.1f  p90 %.1f  p99 %.1f  max %.1f",
+                    hours, arrived, entered, getEntriesPerHour(), exited, getExitsPerHour(),
+                    turnedAway, gaveUp, wrongSpots,
+                    getEntryLatency(50), getEntryLatency(90), getEntryLatency(99), getEntryLatency(100),
+                    getExitLatency(50), getExitLatency(90), getExitLatency(99), getExitLatency(100));
+        }
+    }
+
+    /**
+     * A service that stands in for one of the other Tartan services.
+     */
+    private static class StandIn extends TartanService {
+
+        private final Consumer<HashMap<String, Object>> handler;
+
+        StandIn(String serviceId, Consumer<HashMap<String, Object>> handler) {
+            this.handler = handler;
+            init(serviceId);
+        }
+
+        @Override
+        public void handleMessage(HashMap<String, Object> message) {
+            handler.accept(message);
+        }
+
+        @Override
+        public void terminate() {
+            stop();
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    /**
+     * @param capacity the number of parking spots.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param arrivalsPerHour the mean rate of arrivals, which come at exponentially distributed intervals.
+     */
+    public void setArrivalsPerHour(double arrivalsPerHour) {
+        this.arrivalsPerHour = arrivalsPerHour;
+    }
+
+    /**
+     * @param meanStayMinutes the mean time a vehicle stays parked, which is exponentially distributed.
+     */
+    public void setMeanStayMinutes(double meanStayMinutes) {
+        this.meanStayMinutes = meanStayMinutes;
+    }
+
+    /**
+     * @param hours the simulated time vehicles arrive for.
+     */
+    public void setHours(double hours) {
+        this.hours = hours;
+    }
+
+    /**
+     * @param timeScale the simulated seconds that pass in one real second.
+     */
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * @param gateOpenSeconds how long the parking service keeps a gate open for a vehicle.
+     */
+    public void setGateOpenSeconds(double gateOpenSeconds) {
+        this.gateOpenSeconds = gateOpenSeconds;
+    }
+
+    /**
+     * @param passSeconds how long a vehicle takes to pass an open gate.
+     */
+    public void setPassSeconds(double passSeconds) {
+        this.passSeconds = passSeconds;
+    }
+
+    /**
+     * @param driveSeconds how long a vehicle takes from the entry gate to its spot.
+     */
+    public void setDriveSeconds(double driveSeconds) {
+        this.driveSeconds = driveSeconds;
+    }
+
+    /**
+     * @param patienceSeconds how long a vehicle waits at the entry gate before leaving.
+     */
+    public void setPatienceSeconds(double patienceSeconds) {
+        this.patienceSeconds = patienceSeconds;
+    }
+
+    /**
+     * @param responseLatencyMillis how long the garage takes to answer each request, in simulated milliseconds.
+     */
+    public void setResponseLatencyMillis(long responseLatencyMillis) {
+        this.responseLatencyMillis = responseLatencyMillis;
+    }
+
+    /**
+     * @param sensorNoise the probability that a state report misreads one spot sensor.
+     */
+    public void setSensorNoise(double sensorNoise) {
+        this.sensorNoise = sensorNoise;
+    }
+
+    /**
+     * @param seed the seed of the arrivals, stays and sensor noise.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Run the simulation: start the garage, the broker and the services, let vehicles arrive for the simulated
+     * hours, then stop everything.
+     *
+     * @return the report.
+     * @throws IOException if the simulated garage cannot be started.
+     * @throws InterruptedException if the simulation is interrupted.
+     */
+    public Report run() throws IOException, InterruptedException {
+        String brokerUrl = System.getProperty(TartanServiceMessageBus.BROKER_URL_PROPERTY);
+        String gateOpenTime = System.getProperty(ParkingService.GATE_OPEN_TIME_PROPERTY);
+        String guidanceDeadline = System.getProperty(ParkingService.GUIDANCE_DEADLINE_PROPERTY);
+        System.setProperty(TartanServiceMessageBus.BROKER_URL_PROPERTY, BROKER_URL);
+        System.setProperty(ParkingService.GATE_OPEN_TIME_PROPERTY, String.valueOf(Math.max(1, toReal(gateOpenSeconds))));
+        System.setProperty(ParkingService.GUIDANCE_DEADLINE_PROPERTY, String.valueOf(toReal(guidanceSeconds)));
+
+        random = new Random(seed);
+        clock = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ParkingSimulation-clock");
+            t.setDaemon(true);
+            return t;
+        });
+        garage = new TartanGarageSimulator(0, capacity);
+        garage.setResponseLatency((long) (responseLatencyMillis * 1e6 / timeScale), TimeUnit.NANOSECONDS);
+        garage.setSensorNoise(sensorNoise, seed);
+        garage.setCommandListener(command -> clock.execute(() -> garageCommand(command)));
+
+        // the stand-ins listen before the parking service can talk to them
+        kiosk = new StandIn(KioskService.KIOSK_SERVICE, m -> clock.execute(() -> kioskMessage(m)));
+        payment = new StandIn(PaymentService.PAYMENT_SERVICE, m -> clock.execute(() -> paymentMessage(m)));
+        ParkingService parking = new ParkingService();
+        try {
+            if (!parking.connectToGarage("localhost", garage.getPort())) {
+                throw new IOException("The parking service cannot reach the simulated garage");
+            }
+            Thread.sleep(SETTLE_TIME);
+
+            clock.execute(() -> {
+                start = System.nanoTime();
+                scheduleArrival();
+            });
+            Thread.sleep(toReal(hours * 3600));
+
+            return clock.submit(this::report).get();
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee.getCause());
+        } finally {
+            clock.shutdownNow();
+            parking.terminate();
+            kiosk.terminate();
+            payment.terminate();
+            garage.close();
+            restore(TartanServiceMessageBus.BROKER_URL_PROPERTY, brokerUrl);
+            restore(ParkingService.GATE_OPEN_TIME_PROPERTY, gateOpenTime);
+            restore(ParkingService.GUIDANCE_DEADLINE_PROPERTY, guidanceDeadline);
+        }
+    }
+
+    private static void restore(String property, String value) {
+        if (value == null) {
+            System.clearProperty(property);
+        } else {
+            System.setProperty(property, value);
+        }
+    }
+
+    /**
+     * @param seconds simulated seconds.
+     * @return the same time in real milliseconds.
+     */
+    private long toReal(double seconds) {
+        return (long) (seconds * 1000 / timeScale);
+    }
+
+    /**
+     * @return the simulated seconds since the traffic started.
+     */
+    private double since(long realNanos) {
+        return (System.nanoTime() - realNanos) / 1e9 * timeScale;
+    }
+
+    private void later(double seconds, Runnable action) {
+        clock.schedule(action, (long) (seconds * 1e6 / timeScale), TimeUnit.MICROSECONDS);
+    }
+
+    private Report report() {
+        arriving = false;
+        double[] entry = new double[entryLatencies.size()];
+        for (int i = 0; i < entry.length; i++) {
+            entry[i] = entryLatencies.get(i) / 1e9 * timeScale;
+        }
+        double[] exit = new double[exitLatencies.size()];
+        for (int i = 0; i < exit.length; i++) {
+            exit[i] = exitLatencies.get(i) / 1e9 * timeScale;
+        }
+        return new Report(since(start) / 3600, vehicleCount, entered, exited, turnedAway, gaveUp, wrongSpots,
+                entry, exit);
+    }
+
+    // ---- the drivers
+
+    private void scheduleArrival() {
+        double interval = -Math.log(1 - random.nextDouble()) * 3600 / arrivalsPerHour;
+        later(interval, () -> {
+            if (!arriving) {
+                return;
+            }
+            entryQueue.add(new Vehicle("SIM-" + (++vehicleCount), System.nanoTime()));
+            approachEntry();
+            scheduleArrival();
+        });
+    }
+
+    /**
+     * Move the next vehicle in line up to the entry gate, breaking the beam, once the one ahead has gone.
+     */
+    private void approachEntry() {
+        if (atEntry != null || entryQueue.isEmpty()) {
+            return;
+        }
+        final Vehicle vehicle = entryQueue.poll();
+        atEntry = vehicle;
+        garage.setEntryBeamBroken(true);
+        later(patienceSeconds, () -> {
+            if (atEntry == vehicle && !vehicle.admitted) {
+                gaveUp++;
+                leaveEntry(vehicle);
+            }
+        });
+    }
+
+    private void leaveEntry(Vehicle vehicle) {
+        if (vehicle.spot != TartanParams.INVALID_SPOT && !inside.containsKey(vehicle.id)) {
+            taken.clear(vehicle.spot);
+        }
+        atEntry = null;
+        garage.setEntryBeamBroken(false);
+        later(passSeconds, this::approachEntry);
+    }
+
+    private void garageCommand(String command) {
+        if (command.startsWith(TartanSensors.ENTRY_GATE + TartanSensors.PARAM_EQ + TartanSensors.OPEN)) {
+            entryGateOpened();
+        } else if (command.startsWith(TartanSensors.EXIT_GATE + TartanSensors.PARAM_EQ + TartanSensors.OPEN)) {
+            exitGateOpened();
+        }
+    }
+
+    private void entryGateOpened() {
+        final Vehicle vehicle = atEntry;
+        if (vehicle == null || !vehicle.admitted || inside.containsKey(vehicle.id)) {
+            return;
+        }
+        entryLatencies.add(System.nanoTime() - vehicle.arrived);
+        entered++;
+        inside.put(vehicle.id, vehicle);
+        later(passSeconds, () -> {
+            leaveEntry(vehicle);
+            later(driveSeconds, () -> park(vehicle));
+        });
+    }
+
+    private void park(final Vehicle vehicle) {
+        garage.setSpotOccupied(vehicle.spot, true);
+        double stay = -Math.log(1 - random.nextDouble()) * meanStayMinutes * 60;
+        later(stay, () -> {
+            garage.setSpotOccupied(vehicle.spot, false);
+            exitQueue.add(vehicle);
+            later(driveSeconds, this::approachExit);
+        });
+    }
+
+    private void approachExit() {
+        if (atExit != null || exitQueue.isEmpty()) {
+            return;
+        }
+        atExit = exitQueue.poll();
+        atExit.atExit = System.nanoTime();
+        garage.setExitBeamBroken(true);
+    }
+
+    private void exitGateOpened() {
+        final Vehicle vehicle = atExit;
+        if (vehicle == null) {
+            return;
+        }
+        exitLatencies.add(System.nanoTime() - vehicle.atExit);
+        later(passSeconds, () -> {
+            exited++;
+            inside.remove(vehicle.id);
+            taken.clear(vehicle.spot);
+            atExit = null;
+            garage.setExitBeamBroken(false);
+            later(passSeconds, this::approachExit);
+        });
+    }
+
+    // ---- the kiosk and payment stand-ins
+
+    private void kioskMessage(HashMap<String, Object> message) {
+        String cmd = (String) message.get(TartanParams.COMMAND);
+        if (TartanParams.MSG_VEHICLE_AT_ENTRY.equals(cmd)) {
+            admit();
+        } else if (TartanParams.MSG_VEHICLE_AT_EXIT.equals(cmd)) {
+            requestExit();
+        } else if (TartanParams.MSG_EXIT_STATE.equals(cmd)) {
+            // the entry gate has not closed behind the vehicle yet; the driver tries again
+            later(passSeconds, this::requestExit);
+        } else if (TartanParams.MSG_WRONG_SPOT.equals(cmd)) {
+            wrongSpots++;
+        }
+    }
+
+    /**
+     * Give the vehicle at the entry a free spot and ask the parking service to let it in.
+     */
+    private void admit() {
+        Vehicle vehicle = atEntry;
+        if (vehicle == null || vehicle.admitted) {
+            return;
+        }
+        int spot = taken.nextClearBit(0);
+        if (spot >= capacity) {
+            turnedAway++;
+            leaveEntry(vehicle);
+            return;
+        }
+        taken.set(spot);
+        vehicle.spot = spot;
+        vehicle.admitted = true;
+
+        Reservation rsvp = new Reservation();
+        rsvp.setVehicleID(vehicle.id);
+        rsvp.setCustomerName("Simulated driver");
+        rsvp.setSpotId(spot);
+        rsvp.setStartTime(new Date());
+        rsvp.setEndTime(new Date(System.currentTimeMillis() + 86400000L));
+
+        HashMap<String, Object> body = new HashMap<String, Object>();
+        body.put(TartanParams.COMMAND, TartanParams.MSG_ENTER_GARAGE);
+        body.put(TartanParams.PAYLOAD, rsvp);
+        kioskSend(body);
+    }
+
+    private void requestExit() {
+        if (atExit == null) {
+            return;
+        }
+        HashMap<String, Object> body = new HashMap<String, Object>();
+        body.put(TartanParams.COMMAND, TartanParams.MSG_EXIT_GARAGE);
+        body.put(TartanParams.PAYLOAD, atExit.id);
+        kioskSend(body);
+    }
+
+    private void kioskSend(HashMap<String, Object> body) {
+        kiosk.sendMessage(ParkingService.PARKING_SERVICE, body);
+    }
+
+    private void paymentMessage(HashMap<String, Object> message) {
+        if (!TartanParams.MSG_MAKE_PAYMENT.equals(message.get(TartanParams.COMMAND))) {
+            return;
+        }
+        Reservation rsvp = (Reservation) message.get(TartanParams.PAYLOAD);
+        if (rsvp == null) {
+            return;
+        }
+        rsvp.setPayment(new Payment(1L));
+        rsvp.setIsPaid(true);
+
+        HashMap<String, Object> body = new HashMap<String, Object>();
+        body.put(TartanParams.COMMAND, TartanParams.MSG_PAYMENT_COMPLETE);
+        body.put(TartanParams.PAYLOAD, rsvp);
+        payment.sendMessage(ParkingService.PARKING_SERVICE, body);
+    }
+
+    /**
+     * Run a simulation and print its report.
+     *
+     * @param args optional capacity, arrivals per hour, mean stay in minutes, simulated hours and time scale.
+     * @throws IOException if the simulated garage cannot be started.
+     * @throws InterruptedException if the simulation is interrupted.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ParkingSimulation simulation = new ParkingSimulation();
+        if (args.length > 0) {
+            simulation.setCapacity(Integer.parseInt(args[0]));
+        }
+        if (args.length > 1) {
+            simulation.setArrivalsPerHour(Double.parseDouble(args[1]));
+        }
+        if (args.length > 2) {
+            simulation.setMeanStayMinutes(Double.parseDouble(args[2]));
+        }
+        if (args.length > 3) {
+            simulation.setHours(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            simulation.setTimeScale(Double.parseDouble(args[4]));
+        }
+        System.out.println(simulation.run());
+        System.exit(0);
+    }
+}
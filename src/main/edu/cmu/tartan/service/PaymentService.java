@@ -23,6 +23,13 @@ public class PaymentService extends TartanService {
 
     /** The value for calculating parking hours */
     private final int MILLI_TO_HOUR = 1000 * 60 * 60;
+    private final long MILLI_TO_DAY = 24L * MILLI_TO_HOUR;
+
+    /** The hourly rate for each hour of the week, starting Monday at midnight, and their running totals */
+    private static final int HOURS_PER_DAY = 24;
+    private static final int HOURS_PER_WEEK = 7 * HOURS_PER_DAY;
+    private final long[] weeklyRates = new long[HOURS_PER_WEEK];
+    private final long[] weeklyRateSums = new long[HOURS_PER_WEEK + 1];
 
     /** The rate for overstaying your reservation */
     private final Integer PENALTY_RATE = 20;
@@ -36,44 +43,30 @@ public class PaymentService extends TartanService {
     public PaymentService() {
 
         super.init(PAYMENT_SERVICE);
+        buildRateTable();
 
         // status = TartanServiceStatus.STOPPED;
     }
 
-    /** get reserved rates */
-    // ADDED to calculate various rates
-    private ArrayList<Long> getRates(Reservation rsvp) {
-
-        ArrayList<Long> rates = new ArrayList<Long>();
-
-        Date startTime = rsvp.getStartTime();
-        Date endTime = rsvp.getEndTime();
-        Long rsvpDuration = (endTime.getTime() - startTime.getTime()) / MILLI_TO_HOUR;
-
-        Calendar cal = Calendar.getInstance();
-        Date currentTime = startTime;
-
-        int maxDuration = (int)rsvpDuration.longValue();
-        for(int i = 1; i <= maxDuration; i++)
-        {
-            cal.setTime(currentTime);
-            Long rate = setRate(currentTime);
-            rates.add(rate);
-            currentTime = new Date(currentTime.getTime() + MILLI_TO_HOUR);
+    /**
+     * Build the weekly rate table and its running totals.
+     */
+    private void buildRateTable() {
+        for (int slot = 0; slot < HOURS_PER_WEEK; slot++) {
+            int day = (slot / HOURS_PER_DAY + 1) % 7 + 1; // slot 0 is Monday, Calendar.MONDAY is 2
+            weeklyRates[slot] = getRate(day, slot % HOURS_PER_DAY);
+            weeklyRateSums[slot + 1] = weeklyRateSums[slot] + weeklyRates[slot];
         }
-
-        return rates;
     }
 
-    /** set rates */
-    // CHANGED to get Date parameter
-    private Long setRate(Date date) {
-
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-
-        int day = cal.get(Calendar.DAY_OF_WEEK);
-        int hour = cal.get(Calendar.HOUR_OF_DAY);
+    /**
+     * Get the hourly rate for an hour of the week.
+     *
+     * @param day  the day of the week, as a Calendar.DAY_OF_WEEK value.
+     * @param hour the hour of the day.
+     * @return the rate.
+     */
+    private Long getRate(int day, int hour) {
 
         boolean isWeekday = ((day >= Calendar.MONDAY) && (day <= Calendar.FRIDAY));
 
@@ -104,6 +97,54 @@ public class PaymentService extends TartanService {
         return WEEK_DAY_RATE;
     }
 
+    /**
+     * Get the hour of the week, in local time, that an instant falls in.
+     *
+     * @param time the instant in epoch milliseconds.
+     * @param zone the local time zone.
+     * @return the hour of the week, 0 being Monday midnight to 1 AM.
+     */
+    private int getHourOfWeek(long time, TimeZone zone) {
+        long local = time + zone.getOffset(time);
+        int day = (int) Math.floorMod(Math.floorDiv(local, MILLI_TO_DAY) + 3, 7); // 1970-01-01 was a Thursday
+        int hour = (int) (Math.floorMod(local, MILLI_TO_DAY) / MILLI_TO_HOUR);
+        return day * HOURS_PER_DAY + hour;
+    }
+
+    /**
+     * Compute the fee for the whole hours of a reservation. Each hour is charged the rate of the hour of the week
+     * it starts in.
+     *
+     * @param startTime the start of the reservation in epoch milliseconds.
+     * @param endTime   the end of the reservation in epoch milliseconds.
+     * @return the reserved fee.
+     */
+    private long computeReservedFee(long startTime, long endTime) {
+        long hours = (endTime - startTime) / MILLI_TO_HOUR;
+        if (hours <= 0) {
+            return 0;
+        }
+
+        TimeZone zone = TimeZone.getDefault();
+        long lastHour = startTime + (hours - 1) * MILLI_TO_HOUR;
+        if (hours > HOURS_PER_WEEK || zone.getOffset(startTime) != zone.getOffset(lastHour)) {
+            // the local clock shifts during the reservation, so the hours are not consecutive table slots
+            long fee = 0;
+            for (long time = startTime; time <= lastHour; time += MILLI_TO_HOUR) {
+                fee += weeklyRates[getHourOfWeek(time, zone)];
+            }
+            return fee;
+        }
+
+        int first = getHourOfWeek(startTime, zone);
+        int end = first + (int) hours;
+        if (end <= HOURS_PER_WEEK) {
+            return weeklyRateSums[end] - weeklyRateSums[first];
+        }
+        // wrap around from Sunday night to Monday
+        return weeklyRateSums[HOURS_PER_WEEK] - weeklyRateSums[first] + weeklyRateSums[end - HOURS_PER_WEEK];
+    }
+
     /**
      * Run the service.
      */
@@ -167,6 +208,7 @@ public class PaymentService extends TartanService {
 
         sendMessage((String) message.get(TartanParams.SOURCE_ID), response);
         sendMessage(ReservationService.RESERVATION_SERVICE, response);
+        sendMessage(AdminService.ADMIN_SERVICE, response);
     }
 
     /**
@@ -178,13 +220,9 @@ public class PaymentService extends TartanService {
 
     private Long computeTotalFee(Reservation rsvp) {
 
-        Long reservedFee = Long.valueOf(0);
-        ArrayList<Long> rates = getRates(rsvp);
-        for(int i = 0; i < rates.size(); i++)
-            reservedFee += rates.get(i);
-
         Date startTime = rsvp.getStartTime();
         Date endTime = rsvp.getEndTime();
+        Long reservedFee = computeReservedFee(startTime.getTime(), endTime.getTime());
         Date now = new Date();
 
         // The number of hours the vehicle has been parked (hours)
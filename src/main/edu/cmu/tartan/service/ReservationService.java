@@ -3,8 +3,16 @@ package edu.cmu.tartan.service;
 import edu.cmu.tartan.TartanUtils;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.ReservationStore;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.SlotCalendar;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.SpotHolds;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.SpotTimeline;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
 
 import static edu.cmu.tartan.service.TartanParams.INVALID_SPOT;
 import static edu.cmu.tartan.service.TartanParams.SPOT_UNAVAILABLE;
@@ -39,6 +47,105 @@ public class ReservationService extends TartanService {
      */
     private ReservationStore rsvpStore;
 
+    /**
+     * Per-spot time index of the reservations in the store, used to allocate spots
+     */
+    private SpotTimeline spotTimeline = new SpotTimeline();
+
+    /**
+     * Per-slot availability over the booking horizon, answers most spot requests without the timeline
+     */
+    private SlotCalendar slotCalendar = new SlotCalendar(System.currentTimeMillis());
+
+    /**
+     * Guards the timeline and calendar, which availability queries read from other threads
+     */
+    private final Object availabilityLock = new Object();
+
+    /**
+     * Free spot counts for windows asked about, by first slot and slot count. Entries are good while their version
+     * matches the calendar version they were computed from.
+     */
+    private final ConcurrentHashMap<Long, Availability> availabilityCache = new ConcurrentHashMap<Long, Availability>();
+    private volatile long availabilityVersion = -1;
+
+    /**
+     * The most windows kept in the availability cache
+     */
+    private static final int AVAILABILITY_CACHE_SIZE = 10000;
+
+    /**
+     * An availability answer for one window.
+     */
+    private static final class Availability {
+        final long version;
+        final int freeSpots;
+        final Integer[] occupancy;
+
+        Availability(long version, int freeSpots, int[] occupancy) {
+            this.version = version;
+            this.freeSpots = freeSpots;
+            this.occupancy = new Integer[occupancy.length];
+            for (int i = 0; i < occupancy.length; i++) {
+                this.occupancy[i] = occupancy[i];
+            }
+        }
+    }
+
+    /**
+     * The system property that sets how long an offered spot is held for confirmation, in milliseconds
+     */
+    public static final String HOLD_TIME_PROPERTY = "tartan.reservation.holdTime";
+
+    /**
+     * How long an offered spot is held for confirmation by default, in milliseconds. Covers the payment dialog.
+     */
+    private static final long HOLD_TIME = 300000;
+
+    /**
+     * How often lapsed holds are swept out, in milliseconds
+     */
+    private static final long HOLD_SWEEP = 1000;
+
+    /**
+     * Spots offered for new reservations that have not been confirmed yet
+     */
+    private final SpotHolds spotHolds =
+            new SpotHolds(Long.getLong(HOLD_TIME_PROPERTY, HOLD_TIME), HOLD_SWEEP, System.currentTimeMillis());
+
+    /**
+     * A spot offered for a reservation, with the token of its hold.
+     */
+    private static final class Offer {
+        final int spot;
+        final long token;
+
+        Offer(int spot, long token) {
+            this.spot = spot;
+            this.token = token;
+        }
+    }
+
+    /**
+     * The offers not confirmed yet, by reservation. Offers whose holds have been swept out are dropped with them.
+     */
+    private final ConcurrentHashMap<Reservation, Offer> offers = new ConcurrentHashMap<Reservation, Offer>();
+
+    /**
+     * Sweeps lapsed holds out of the hold table
+     */
+    private final ScheduledExecutorService holdTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ReservationService-holds");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The reservation list the timeline was built from, and how much of it has been indexed
+     */
+    private Vector<Reservation> indexedReservations = null;
+    private int indexedCount = 0;
+
     /**
      * The constructor for the service.
      *
@@ -49,6 +156,8 @@ public class ReservationService extends TartanService {
         super.init(RESERVATION_SERVICE);
 
         configPath = cp;
+
+        holdTimer.scheduleAtFixedRate(this::expireOffers, HOLD_SWEEP, HOLD_SWEEP, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -59,9 +168,12 @@ public class ReservationService extends TartanService {
 
         System.out.println("RsvpService.run");
 
-        rsvpStore = new ReservationStore(configPath);
+        rsvpStore = new ReservationStore(configPath, true);
         try {
             rsvpStore.loadReservations();
+            synchronized (availabilityLock) {
+                refreshAvailability(System.currentTimeMillis());
+            }
         } catch (Exception e) {
             e.printStackTrace();
             HashMap<String, Object> response = new HashMap<String, Object>();
@@ -83,6 +195,8 @@ public class ReservationService extends TartanService {
      * <p>
      * <ul>
      * <li>MSG_NEW_RSVP: Handle a new reservation request.</li>
+     * <li>MSG_NEW_BATCH_RSVP: Handle a request for many reservations at once.</li>
+     * <li>MSG_GET_AVAILABILITY: Count the spots free for a window.</li>
      * <li>MSG_CONFIRM_RSVP: Confirm a new reservation.</li>
      * <li>MSG_UPDATE_RSVP: Update an existing reservation.</li>
      * <li>MSG_GET_PARKING_SPOTS: Response to request for parking spots.</li>
@@ -105,6 +219,10 @@ public class ReservationService extends TartanService {
 
         if (cmd.equals(TartanParams.MSG_NEW_RSVP)) {
             handleCreateNewReservation(message);
+        } else if (cmd.equals(TartanParams.MSG_NEW_BATCH_RSVP)) {
+            handleCreateBatchReservation(message);
+        } else if (cmd.equals(TartanParams.MSG_GET_AVAILABILITY)) {
+            handleGetAvailability(message);
         } else if (cmd.equals(TartanParams.MSG_CONFIRM_RSVP)) {
             handleConfirmReservation(message);
         } else if (cmd.equals(TartanParams.MSG_UPDATE_RSVP)) {
@@ -182,6 +300,7 @@ public class ReservationService extends TartanService {
     public void terminate() {
         if(rsvpStore != null)
             rsvpStore.shutdown();
+        holdTimer.shutdownNow();
         stop();
     }
 
@@ -198,64 +317,107 @@ public class ReservationService extends TartanService {
      * @param payload The list of parking spots.
      */
     private void handleGetParkingSpotsMessage(HashMap<String, Object> payload) {
-        parkingSpots = (ArrayList<Integer>) payload.get(TartanParams.PAYLOAD);
+        synchronized (availabilityLock) {
+            parkingSpots = (ArrayList<Integer>) payload.get(TartanParams.PAYLOAD);
+
+            // cached counts were made for the old capacity
+            availabilityCache.clear();
+        }
+    }
+
+    /**
+     * Bring the spot timeline and slot calendar up to date with the reservation store. The store only ever
+     * appends reservations, so only the entries added since the last call need to be indexed. Confirmed
+     * reservations reach the store and are picked up here.
+     */
+    private void syncSpotTimeline() {
+        Vector<Reservation> all = rsvpStore.getReservations();
+        if (all == null) {
+            return;
+        }
+        if (all != indexedReservations || all.size() < indexedCount) {
+            spotTimeline.clear();
+            slotCalendar.clear();
+            indexedReservations = all;
+            indexedCount = 0;
+        }
+        for (int i = indexedCount; i < all.size(); i++) {
+            Reservation r = all.get(i);
+            if (r.getSpotId() != null) {
+                long st = r.getStartTime().getTime();
+                long et = r.getEndTime().getTime();
+                spotTimeline.add(r.getSpotId(), st, et);
+                slotCalendar.add(r.getSpotId(), st, et);
+            }
+        }
+        indexedCount = all.size();
     }
 
     /**
-     * Check to see if a reservation has a time conflict.
+     * Bring the timeline and calendar up to date and drop cached availability if the reservations changed. The
+     * caller holds availabilityLock.
      *
-     * @param st1 Start time for the first reservation.
-     * @param et1 End time for the first reservation.
-     * @param st2 Start time for the second reservation.
-     * @param et2 End time for the second reservation.
-     * @return true if there is an overlap, false otherwise.
-     */
-    private Boolean isOverlapped(Date st1, Date et1, Date st2, Date et2) {
-        return st1.before(et2) && et1.after(st2);
+     * @param now the current time.
+     */
+    private void refreshAvailability(long now) {
+        slotCalendar.advance(now);
+        if (rsvpStore != null) {
+            syncSpotTimeline();
+        }
+        long version = slotCalendar.getVersion();
+        if (version != availabilityVersion) {
+            availabilityCache.clear();
+            availabilityVersion = version;
+        }
     }
 
-    // Get a spot for a given time window
-    private Integer getParkingSpot(Reservation newRsvp) {
+    // the capacity is unknown until the parking service replies, so only the first spot can be offered
+    private int getCapacity() {
+        return (parkingSpots == null) ? 1 : parkingSpots.size();
+    }
 
-        ArrayList<Integer> occupiedSpots = new ArrayList<Integer>();
+    /**
+     * Sweep lapsed holds out of the hold table and forget the offers they were made for.
+     */
+    private void expireOffers() {
+        spotHolds.expire(System.currentTimeMillis());
+        offers.values().removeIf(offer -> !spotHolds.isHeld(offer.spot, offer.token));
+    }
 
-        Integer spot = INVALID_SPOT;
+    // Get a spot for a given time window. The spot is held until the reservation is confirmed or the hold lapses
+    private Integer getParkingSpot(Reservation newRsvp) {
 
-        Date newSt = newRsvp.getStartTime();
-        Date newEt = newRsvp.getEndTime();
+        long now = System.currentTimeMillis();
+        long newSt = newRsvp.getStartTime().getTime();
+        long newEt = newRsvp.getEndTime().getTime();
+        int capacity = getCapacity();
 
-        // build a list of spots occupied at this time
-        for (Reservation r : rsvpStore.getReservations()) {
-            Date st = r.getStartTime();
-            Date et = r.getEndTime();
+        int spot;
+        synchronized (availabilityLock) {
+            refreshAvailability(now);
 
-            if (isOverlapped(st, et, newSt, newEt)) {
-                occupiedSpots.add(r.getSpotId());
+            // a spot offered to another customer who has not confirmed yet is passed over
+            IntPredicate claim = s -> {
+                long token = spotHolds.hold(s, newSt, newEt, now);
+                if (token == SpotHolds.NO_HOLD) {
+                    return false;
+                }
+                Offer previous = offers.put(newRsvp, new Offer(s, token));
+                if (previous != null) {
+                    spotHolds.release(previous.spot, previous.token);
+                }
+                return true;
+            };
+            spot = slotCalendar.findFreeSpot(newSt, newEt, capacity, spotTimeline, claim);
+            if (spot == SlotCalendar.UNKNOWN) {
+                // outside the booking horizon, search the whole timeline
+                spot = spotTimeline.findFreeSpot(newSt, newEt, capacity, claim);
             }
         }
 
-        // No spots occupied
-        if (occupiedSpots.isEmpty()) {
-            spot = 0;
-        }
         // There are no spots available for this time
-        else if (occupiedSpots.size() >= parkingSpots.size()) {
-            /* FIXME: Maybe logical error, Should use >= for fully occupied slots */
+        if (spot < 0) {
             return TartanParams.SPOT_UNAVAILABLE;
-        } else {
-            Collections.sort(occupiedSpots);
-            int i = 0;
-            for (i = 0; i < parkingSpots.size(); i++) {
-                if (i >= occupiedSpots.size()) {
-                    break;
-                } else if (i != occupiedSpots.get(i)) {
-                    spot = i;
-                    break;
-                }
-            }
-            if (i != parkingSpots.size()) {
-                spot = i;
-            }
         }
         return spot;
     }
@@ -358,6 +520,7 @@ public class ReservationService extends TartanService {
 
                 return;
             } else {
+                releaseSpotHold(newRsvp);
                 response.put(TartanParams.COMMAND, TartanParams.ERROR);
                 response.put(TartanParams.PAYLOAD, "Could not complete reservation");
                 sendMessage((String) request.get(TartanParams.SOURCE_ID), response);
@@ -373,6 +536,150 @@ public class ReservationService extends TartanService {
         sendMessage((String) request.get(TartanParams.SOURCE_ID), response);
     }
 
+    /**
+     * Create a batch of reservations, such as a fleet booked for an event. Either every reservation gets a spot
+     * and the whole batch is saved with one write, or none is made and the first problem is reported. The spots
+     * stay held until the write is done. Payment is
+     * deferred to entry, as for a reservation made without paying at the kiosk.
+     *
+     * @param request The message with the reservations to create.
+     */
+    private void handleCreateBatchReservation(HashMap<String, Object> request) {
+
+        // the payload of a batch message is always a vector of reservations
+        @SuppressWarnings("unchecked")
+        Vector<Reservation> batch = (Vector<Reservation>) request.get(TartanParams.PAYLOAD);
+        HashMap<String, Object> response = new HashMap<String, Object>();
+        String errorMsg = null;
+
+        // spots taken so far are held, so later reservations in the batch pass over them
+        ArrayList<Reservation> allocated = new ArrayList<Reservation>();
+        try {
+            if (batch == null || batch.isEmpty()) {
+                errorMsg = "No reservations in batch";
+            } else {
+                HashSet<Reservation> seen = new HashSet<Reservation>();
+                for (Reservation rsvp : batch) {
+                    if (!seen.add(rsvp) || rsvpStore.isDuplicate(rsvp)) {
+                        errorMsg = "Reservation for " + rsvp.getVehicleID() + " is a duplicate";
+                        break;
+                    }
+                    if (!verifyReservation(rsvp)) {
+                        errorMsg = "Reservation for " + rsvp.getVehicleID() + " is invalid";
+                        break;
+                    }
+                    Integer spot = getParkingSpot(rsvp);
+                    if ((spot.equals(INVALID_SPOT)) || (spot.equals(SPOT_UNAVAILABLE))) {
+                        errorMsg = "Parking space unavailable at desired time for " + rsvp.getVehicleID();
+                        break;
+                    }
+                    rsvp.setSpotId(spot);
+                    allocated.add(rsvp);
+                    if (rsvp.getIsPaid() == null) {
+                        rsvp.setIsPaid(false);
+                    }
+                }
+            }
+
+            // the batch only enters the store once it is written, so a failed write leaves nothing behind
+            if (errorMsg == null) {
+                if (rsvpStore.saveNewReservations(batch)) {
+                    rsvpStore.addReservations(batch);
+                    synchronized (availabilityLock) {
+                        refreshAvailability(System.currentTimeMillis());
+                    }
+                } else {
+                    errorMsg = "Could not save reservations";
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            errorMsg = "Unknown Error";
+        }
+
+        for (Reservation rsvp : allocated) {
+            releaseSpotHold(rsvp);
+        }
+
+        if (errorMsg == null) {
+            response.put(TartanParams.COMMAND, TartanParams.MSG_NEW_BATCH_RSVP);
+            response.put(TartanParams.PAYLOAD, batch);
+        } else {
+            response.put(TartanParams.COMMAND, TartanParams.ERROR);
+            response.put(TartanParams.PAYLOAD, errorMsg);
+        }
+        sendMessage((String) request.get(TartanParams.SOURCE_ID), response);
+    }
+
+    /**
+     * Count the spots free for the whole of a window. The window is widened to whole 15 minute slots. This may be
+     * called from any thread; answers are cached until the reservations change, so repeated questions about the
+     * same window are a map lookup.
+     *
+     * @param start the start of the window, in epoch milliseconds.
+     * @param end   the end of the window, in epoch milliseconds.
+     * @return the number of free spots, or -1 if the window is not within the coming week.
+     */
+    public int getFreeSpots(long start, long end) {
+        Availability availability = getAvailability(start, end);
+        return (availability == null) ? -1 : availability.freeSpots;
+    }
+
+    private Availability getAvailability(long start, long end) {
+        long first = Math.floorDiv(start, SlotCalendar.SLOT_MILLIS);
+        long slots = Math.floorDiv(end - 1, SlotCalendar.SLOT_MILLIS) - first + 1;
+
+        // only windows within the calendar as it stands now are answered, cached or not
+        long base = Math.floorDiv(System.currentTimeMillis(), SlotCalendar.SLOT_MILLIS);
+        if (end <= start || first < base || first + slots > base + SlotCalendar.SLOTS) {
+            return null;
+        }
+        // slots is between 1 and SLOTS, so each window has its own key
+        Long key = first * SlotCalendar.SLOTS + slots;
+
+        Availability cached = availabilityCache.get(key);
+        if (cached != null && cached.version == availabilityVersion) {
+            return cached;
+        }
+        synchronized (availabilityLock) {
+            refreshAvailability(System.currentTimeMillis());
+            int free = slotCalendar.countFreeSpots(start, end, getCapacity());
+            if (free == SlotCalendar.UNKNOWN) {
+                return null;
+            }
+            Availability availability =
+                    new Availability(availabilityVersion, free, slotCalendar.getOccupancy(start, end));
+            if (availabilityCache.size() >= AVAILABILITY_CACHE_SIZE) {
+                availabilityCache.clear();
+            }
+            availabilityCache.put(key, availability);
+            return availability;
+        }
+    }
+
+    /**
+     * Answer how many spots are free for a window, with the number of spots booked in each slot of it.
+     *
+     * @param request The request with the start and end of the window.
+     */
+    private void handleGetAvailability(HashMap<String, Object> request) {
+
+        Long start = (Long) request.get(TartanParams.START_TIME);
+        Long end = (Long) request.get(TartanParams.END_TIME);
+        HashMap<String, Object> response = new HashMap<String, Object>();
+
+        Availability availability = (start == null || end == null) ? null : getAvailability(start, end);
+        if (availability == null) {
+            response.put(TartanParams.COMMAND, TartanParams.ERROR);
+            response.put(TartanParams.PAYLOAD, "Availability is only known for the coming week");
+        } else {
+            response.put(TartanParams.COMMAND, TartanParams.MSG_GET_AVAILABILITY);
+            response.put(TartanParams.PAYLOAD, availability.freeSpots);
+            response.put(TartanParams.OCCUPANCY, availability.occupancy.clone());
+        }
+        sendMessage((String) request.get(TartanParams.SOURCE_ID), response);
+    }
+
     /**
      * Confirm the reservation was made.
      *
@@ -381,11 +688,54 @@ public class ReservationService extends TartanService {
     private void handleConfirmReservation(HashMap<String, Object> request) {
         Reservation newRsvp = (Reservation) request.get(TartanParams.PAYLOAD);
 
-        // spot has been reserved and paid for, save it
-        rsvpStore.addReservation(newRsvp);
+        // the spot is still the customer's if its hold is in place, or if the hold lapsed and nobody took the spot
+        synchronized (availabilityLock) {
+            long now = System.currentTimeMillis();
+            if (!releaseSpotHold(newRsvp) && !isSpotFree(newRsvp, now)) {
+                HashMap<String, Object> response = new HashMap<String, Object>();
+                response.put(TartanParams.COMMAND, TartanParams.ERROR);
+                response.put(TartanParams.PAYLOAD, "Reserved spot is no longer available, please make a new reservation");
+                sendMessage((String) request.get(TartanParams.SOURCE_ID), response);
+                return;
+            }
+
+            // spot has been reserved and paid for, save it
+            rsvpStore.addReservation(newRsvp);
+            refreshAvailability(now);
+        }
         rsvpStore.saveNewReservation(newRsvp);
     }
 
+    /**
+     * Check that the spot offered for a reservation is neither reserved nor held for any part of its window. The
+     * caller holds availabilityLock.
+     *
+     * @param rsvp The reservation with the offered spot.
+     * @param now  the current time.
+     * @return true if the spot can still be given to the reservation.
+     */
+    private boolean isSpotFree(Reservation rsvp, long now) {
+        if (rsvp.getSpotId() == null || rsvp.getStartTime() == null || rsvp.getEndTime() == null) {
+            return false;
+        }
+        long st = rsvp.getStartTime().getTime();
+        long et = rsvp.getEndTime().getTime();
+        refreshAvailability(now);
+        return spotTimeline.isFree(rsvp.getSpotId(), st, et) && spotHolds.isFree(rsvp.getSpotId(), st, et, now);
+    }
+
+    /**
+     * Release the hold on the spot offered for a reservation. Only the hold made for this reservation is released,
+     * never one made since for someone else.
+     *
+     * @param rsvp The reservation the spot was offered for.
+     * @return true if the hold on the offered spot was still in place and is now released.
+     */
+    private boolean releaseSpotHold(Reservation rsvp) {
+        Offer offer = offers.remove(rsvp);
+        return offer != null && spotHolds.release(offer.spot, offer.token);
+    }
+
     /**
      * Send all valid reservations.
      *
@@ -0,0 +1,131 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.MapUtil;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running garage statistics. Each paid reservation is folded in once as it arrives, so reading the statistics
+ * does not depend on how much history has been recorded.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class ReservationStatistics {
+
+    private static final int HOURS_PER_DAY = 24;
+
+    /**
+     * Occupancy is reported as a percentage of the hours of four spots over a day.
+     */
+    private static final int SPOT_HOURS_PER_DAY = HOURS_PER_DAY * 4;
+
+    /**
+     * Total fees collected.
+     */
+    private long revenue = 0L;
+
+    /**
+     * Per day: the number of reserved hours, and the same as an occupancy percentage.
+     */
+    private HashMap<String, Integer> dailyHours = new HashMap<>();
+    private HashMap<String, Integer> occupancy = new HashMap<>();
+
+    /**
+     * Per hour of the day: the number of reservations that use it.
+     */
+    private int[] hourUsage = new int[HOURS_PER_DAY];
+
+    private Calendar calendar = GregorianCalendar.getInstance();
+
+    /**
+     * Fold a paid reservation into the statistics.
+     *
+     * @param rsvp the reservation.
+     */
+    public synchronized void add(Reservation rsvp) {
+        Payment payment = rsvp.getPayment();
+        if (payment != null && payment.getFee() != null) {
+            revenue += payment.getFee();
+        }
+
+        calendar.setTime(rsvp.getStartTime());
+        int startHour = calendar.get(Calendar.HOUR_OF_DAY);
+        calendar.setTime(rsvp.getEndTime());
+        int endHour = calendar.get(Calendar.HOUR_OF_DAY);
+
+        // the day is taken from the end time
+        String day = getDate();
+        Integer hours = dailyHours.get(day);
+        int dailyCount = endHour - startHour + 1 + (hours == null ? 0 : hours);
+        dailyHours.put(day, dailyCount);
+        occupancy.put(day, dailyCount * 100 / SPOT_HOURS_PER_DAY);
+
+        for (int i = startHour; i <= endHour; i++) {
+            hourUsage[i]++;
+        }
+    }
+
+    private String getDate() {
+        int year = calendar.get(Calendar.YEAR);
+        int month = calendar.get(Calendar.MONTH) + 1;
+        int day = calendar.get(Calendar.DAY_OF_MONTH);
+        String date = String.valueOf(year) + ":";
+        if (month < 10) {
+            date += "0";
+        }
+        date += String.valueOf(month) + ":" + String.valueOf(day);
+        return date;
+    }
+
+    /**
+     * Get the total fees collected.
+     *
+     * @return the revenue.
+     */
+    public synchronized Long getRevenue() {
+        return revenue;
+    }
+
+    /**
+     * Get the occupancy percentage of each day.
+     *
+     * @return the occupancy keyed by day.
+     */
+    public synchronized HashMap<String, Integer> getAverageOccupancy() {
+        return new HashMap<>(occupancy);
+    }
+
+    /**
+     * Get the hours of the day in order of decreasing use, for as long as each is used at least as much as the
+     * one before.
+     *
+     * @return the peak usage hours.
+     */
+    public synchronized ArrayList<Integer> getPeakUsageHours() {
+        Map<Integer, Integer> usageHours = new HashMap<>();
+        for (int i = 0; i < HOURS_PER_DAY; i++) {
+            if (hourUsage[i] > 0) {
+                usageHours.put(i, hourUsage[i]);
+            }
+        }
+        usageHours = MapUtil.sortByValue(usageHours);
+        Integer peakHour = 0;
+        ArrayList<Integer> usageHoursList = new ArrayList<>();
+        for (Integer hour : usageHours.keySet()) {
+            if (usageHours.get(hour) >= peakHour) {
+                peakHour = usageHours.get(hour);
+                usageHoursList.add(hour);
+            }
+        }
+        return usageHoursList;
+    }
+}
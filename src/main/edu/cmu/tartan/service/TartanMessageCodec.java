@@ -0,0 +1,483 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Binary encoding of the message bodies passed between services. Each value is written as a one byte type tag
+ * followed by its fields, in place of the class descriptors and field names that Java serialization writes.
+ * The parameter names and commands in TartanParams, and the service names, are written as a one byte code.
+ * <p>
+ * A payment and its reservation refer to each other, so every reservation and payment is given a handle as it
+ * is written and written again only as a reference to that handle. A value of a type outside the schema is
+ * written with Java serialization, so any message that can be sent as an ObjectMessage can also be encoded.
+ * <p>
+ * Project: LG Exec Ed SDET Program
+ * Copyright: 2017 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 November 2016 - initial version
+ */
+public class TartanMessageCodec {
+
+    /** The encoding version, written first in every message. Version 2 sends reservation times in minutes */
+    private static final byte VERSION = 2;
+
+    // type tags
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_KNOWN_STRING = 2;
+    private static final byte T_INTEGER = 3;
+    private static final byte T_LONG = 4;
+    private static final byte T_TRUE = 5;
+    private static final byte T_FALSE = 6;
+    private static final byte T_INTEGER_ARRAY = 7;
+    private static final byte T_LIST = 8;
+    private static final byte T_VECTOR = 9;
+    private static final byte T_MAP = 10;
+    private static final byte T_RESERVATION = 11;
+    private static final byte T_PAYMENT = 12;
+    private static final byte T_REFERENCE = 13;
+    private static final byte T_SERIALIZED = 14;
+
+    // reservation fields present
+    private static final int F_START = 1;
+    private static final int F_END = 1 << 1;
+    private static final int F_CUSTOMER = 1 << 2;
+    private static final int F_VEHICLE = 1 << 3;
+    private static final int F_SPOT = 1 << 4;
+    private static final int F_PAID = 1 << 5;
+    private static final int F_REDEEMED = 1 << 6;
+
+    // payment fields present
+    private static final int F_FEE = 1;
+    private static final int F_CC_NUM = 1 << 1;
+    private static final int F_CC_EXP_DATE = 1 << 2;
+    private static final int F_CC_NAME = 1 << 3;
+
+    // boolean field values
+    private static final int F_PAID_VALUE = 1 << 8;
+    private static final int F_REDEEMED_VALUE = 1 << 9;
+
+    /**
+     * Strings sent in almost every message. The code of a string is its index, so new strings must only ever be
+     * added at the end.
+     */
+    private static final String[] KNOWN_STRINGS = {
+            TartanParams.SERVICE_ID,
+            TartanParams.SOURCE_ID,
+            TartanParams.COMMAND,
+            TartanParams.PAYLOAD,
+            TartanParams.ERROR,
+            TartanParams.CURRENT_OCCUPIED_STATE,
+            TartanParams.MSG_NEW_RSVP,
+            TartanParams.MSG_VEHICLE_AT_ENTRY,
+            TartanParams.MSG_VEHICLE_OUT_ENTRY,
+            TartanParams.MSG_VEHICLE_AT_EXIT,
+            TartanParams.MSG_VEHICLE_RETURN,
+            TartanParams.MSG_ENTRY_COMPLETE,
+            TartanParams.MSG_EXIT_COMPLETE,
+            TartanParams.MSG_CONFIRM_RSVP,
+            TartanParams.MSG_REDEEM_RSVP,
+            TartanParams.MSG_UPDATE_RSVP,
+            TartanParams.MSG_GET_ALL_RSVP,
+            TartanParams.MSG_COMPLETE_RSVP,
+            TartanParams.MSG_VALIDATE_PAYMENT,
+            TartanParams.MSG_MAKE_PAYMENT,
+            TartanParams.MSG_PAYMENT_COMPLETE,
+            TartanParams.MSG_PAYMENT_VALID,
+            TartanParams.MSG_PAYMENT_INVALID,
+            TartanParams.MSG_GET_PARKING_SPOTS,
+            TartanParams.MSG_ENTER_GARAGE,
+            TartanParams.MSG_EXIT_GARAGE,
+            TartanParams.MSG_WRONG_SPOT,
+            TartanParams.MSG_AUTHENTICATE_ADMIN,
+            TartanParams.MSG_AUTHENTICATION_RESULT,
+            TartanParams.MSG_GET_STATISTICAL_DATA,
+            TartanParams.MSG_STATISTICAL_DATA_RESULT,
+            TartanParams.MSG_EXIT_STATE,
+            TartanParams.RSVP,
+            TartanParams.ACTUAL_SPOT,
+            TartanParams.CUSTOMER,
+            TartanParams.VEHICLE,
+            TartanParams.REVENUE,
+            TartanParams.AVERAGE_OCCUPANCY,
+            TartanParams.PEAK_USAGE_HOURS,
+            TartanParams.EXIT_STATE,
+            KioskService.KIOSK_SERVICE,
+            ReservationService.RESERVATION_SERVICE,
+            PaymentService.PAYMENT_SERVICE,
+            ParkingService.PARKING_SERVICE,
+            AdminService.ADMIN_SERVICE,
+            TartanParams.MSG_NEW_BATCH_RSVP,
+            TartanParams.MSG_GET_AVAILABILITY,
+            TartanParams.START_TIME,
+            TartanParams.END_TIME,
+            TartanParams.OCCUPANCY
+    };
+
+    private static final HashMap<String, Integer> KNOWN_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < KNOWN_STRINGS.length; i++) {
+            KNOWN_CODES.put(KNOWN_STRINGS[i], i);
+        }
+    }
+
+    private TartanMessageCodec() { }
+
+    /**
+     * Encode a message body.
+     *
+     * @param message the message body.
+     * @return the encoded message.
+     * @throws IOException if a value outside the schema cannot be serialized.
+     */
+    public static byte[] encode(HashMap<String, Object> message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        new Writer(out).writeValue(message);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a message body.
+     *
+     * @param data the encoded message.
+     * @return the message body.
+     * @throws IOException if the data is not an encoded message.
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Object> decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported message encoding version " + version);
+        }
+        Object message = new Reader(in).readValue();
+        if (message != null && !(message instanceof HashMap)) {
+            throw new IOException("Encoded message is not a map");
+        }
+        return (HashMap<String, Object>) message;
+    }
+
+    /**
+     * Writes the values of one message, remembering the handles given out.
+     */
+    private static class Writer {
+
+        private final DataOutputStream out;
+
+        private final IdentityHashMap<Object, Integer> handles = new IdentityHashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(T_NULL);
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(T_INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(T_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? T_TRUE : T_FALSE);
+            } else if (value instanceof Integer[] && hasNoNulls((Integer[]) value)) {
+                Integer[] array = (Integer[]) value;
+                out.writeByte(T_INTEGER_ARRAY);
+                out.writeInt(array.length);
+                for (Integer i : array) {
+                    out.writeInt(i);
+                }
+            } else if (value.getClass() == ArrayList.class) {
+                out.writeByte(T_LIST);
+                writeElements((List<?>) value);
+            } else if (value.getClass() == Vector.class) {
+                out.writeByte(T_VECTOR);
+                writeElements((List<?>) value);
+            } else if (value.getClass() == HashMap.class) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                out.writeByte(T_MAP);
+                out.writeInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof Reservation) {
+                if (!writeReference(value)) {
+                    out.writeByte(T_RESERVATION);
+                    writeReservation((Reservation) value);
+                }
+            } else if (value instanceof Payment) {
+                if (!writeReference(value)) {
+                    out.writeByte(T_PAYMENT);
+                    writePayment((Payment) value);
+                }
+            } else if (value instanceof Serializable) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                    oos.writeObject(value);
+                }
+                out.writeByte(T_SERIALIZED);
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            } else {
+                throw new IOException("Cannot encode " + value.getClass().getName());
+            }
+        }
+
+        private boolean hasNoNulls(Integer[] array) {
+            for (Integer i : array) {
+                if (i == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void writeElements(Collection<?> elements) throws IOException {
+            out.writeInt(elements.size());
+            for (Object element : elements) {
+                writeValue(element);
+            }
+        }
+
+        /**
+         * Write a reference if the object has already been written, otherwise give it the next handle.
+         */
+        private boolean writeReference(Object value) throws IOException {
+            Integer handle = handles.get(value);
+            if (handle != null) {
+                out.writeByte(T_REFERENCE);
+                out.writeInt(handle);
+                return true;
+            }
+            handles.put(value, handles.size());
+            return false;
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer code = KNOWN_CODES.get(value);
+            if (code != null) {
+                out.writeByte(T_KNOWN_STRING);
+                out.writeByte(code);
+            } else {
+                out.writeByte(T_STRING);
+                writeText(value);
+            }
+        }
+
+        private void writeText(String value) throws IOException {
+            byte[] text = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+
+        private void writeReservation(Reservation rsvp) throws IOException {
+            int start = rsvp.getStartMinute();
+            int end = rsvp.getEndMinute();
+            String customer = rsvp.getCustomerName();
+            String vehicle = rsvp.getVehicleID();
+            Integer spot = rsvp.getSpotId();
+            Boolean paid = rsvp.getIsPaid();
+            Boolean redeemed = rsvp.getIsRedeemed();
+
+            int fields = 0;
+            if (start != Reservation.NO_TIME) fields |= F_START;
+            if (end != Reservation.NO_TIME) fields |= F_END;
+            if (customer != null) fields |= F_CUSTOMER;
+            if (vehicle != null) fields |= F_VEHICLE;
+            if (spot != null) fields |= F_SPOT;
+            if (paid != null) fields |= F_PAID | (paid ? F_PAID_VALUE : 0);
+            if (redeemed != null) fields |= F_REDEEMED | (redeemed ? F_REDEEMED_VALUE : 0);
+            out.writeShort(fields);
+
+            if (start != Reservation.NO_TIME) out.writeInt(start);
+            if (end != Reservation.NO_TIME) out.writeInt(end);
+            if (customer != null) writeText(customer);
+            if (vehicle != null) writeText(vehicle);
+            if (spot != null) out.writeInt(spot);
+            writeValue(rsvp.getPayment());
+        }
+
+        private void writePayment(Payment payment) throws IOException {
+            Long fee = payment.getFee();
+            // card details go on the bus protected, as the serialized payment carries them
+            String ccNum = payment.getProtectedCcNum();
+            String ccExpDate = payment.getProtectedCcExpDate();
+            String ccName = payment.getProtectedCcName();
+
+            int fields = 0;
+            if (fee != null) fields |= F_FEE;
+            if (ccNum != null) fields |= F_CC_NUM;
+            if (ccExpDate != null) fields |= F_CC_EXP_DATE;
+            if (ccName != null) fields |= F_CC_NAME;
+            out.writeByte(fields);
+
+            if (fee != null) out.writeLong(fee);
+            if (ccNum != null) writeText(ccNum);
+            if (ccExpDate != null) writeText(ccExpDate);
+            if (ccName != null) writeText(ccName);
+            writeValue(payment.getReservation());
+        }
+    }
+
+    /**
+     * Reads the values of one message, resolving references to the objects already read.
+     */
+    private static class Reader {
+
+        private final DataInputStream in;
+
+        private final ArrayList<Object> handles = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case T_NULL:
+                    return null;
+                case T_STRING:
+                    return readText();
+                case T_KNOWN_STRING:
+                    int code = in.readUnsignedByte();
+                    if (code >= KNOWN_STRINGS.length) {
+                        throw new IOException("Unknown string code " + code);
+                    }
+                    return KNOWN_STRINGS[code];
+                case T_INTEGER:
+                    return in.readInt();
+                case T_LONG:
+                    return in.readLong();
+                case T_TRUE:
+                    return Boolean.TRUE;
+                case T_FALSE:
+                    return Boolean.FALSE;
+                case T_INTEGER_ARRAY:
+                    Integer[] array = new Integer[readLength()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readInt();
+                    }
+                    return array;
+                case T_LIST:
+                    return readElements(new ArrayList<>());
+                case T_VECTOR:
+                    return readElements(new Vector<>());
+                case T_MAP:
+                    int size = readLength();
+                    HashMap<Object, Object> map = new HashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        Object key = readValue();
+                        map.put(key, readValue());
+                    }
+                    return map;
+                case T_RESERVATION:
+                    return readReservation();
+                case T_PAYMENT:
+                    return readPayment();
+                case T_REFERENCE:
+                    int handle = in.readInt();
+                    if (handle < 0 || handle >= handles.size()) {
+                        throw new IOException("Unknown reference " + handle);
+                    }
+                    return handles.get(handle);
+                case T_SERIALIZED:
+                    byte[] bytes = new byte[readLength()];
+                    in.readFully(bytes);
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        return ois.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                default:
+                    throw new IOException("Unknown type tag " + tag);
+            }
+        }
+
+        private int readLength() throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Negative length " + length);
+            }
+            return length;
+        }
+
+        private <T extends List<Object>> T readElements(T elements) throws IOException {
+            int size = readLength();
+            for (int i = 0; i < size; i++) {
+                elements.add(readValue());
+            }
+            return elements;
+        }
+
+        private String readText() throws IOException {
+            byte[] text = new byte[readLength()];
+            in.readFully(text);
+            return new String(text, StandardCharsets.UTF_8);
+        }
+
+        private Reservation readReservation() throws IOException {
+            // registered before its payment is read, which may refer back to it
+            Reservation rsvp = new Reservation();
+            handles.add(rsvp);
+
+            int fields = in.readUnsignedShort();
+            if ((fields & F_START) != 0) rsvp.setStartMinute(in.readInt());
+            if ((fields & F_END) != 0) rsvp.setEndMinute(in.readInt());
+            if ((fields & F_CUSTOMER) != 0) rsvp.setCustomerName(readText());
+            if ((fields & F_VEHICLE) != 0) rsvp.setVehicleID(readText());
+            rsvp.setSpotId((fields & F_SPOT) != 0 ? in.readInt() : null);
+            rsvp.setIsPaid((fields & F_PAID) != 0 ? (fields & F_PAID_VALUE) != 0 : null);
+            rsvp.setIsRedeemed((fields & F_REDEEMED) != 0 ? (fields & F_REDEEMED_VALUE) != 0 : null);
+            rsvp.setPayment(readTyped(Payment.class));
+            return rsvp;
+        }
+
+        private Payment readPayment() throws IOException {
+            Payment payment = new Payment();
+            handles.add(payment);
+
+            int fields = in.readUnsignedByte();
+            if ((fields & F_FEE) != 0) payment.setFee(in.readLong());
+            if ((fields & F_CC_NUM) != 0) payment.setProtectedCcNum(readText());
+            if ((fields & F_CC_EXP_DATE) != 0) payment.setProtectedCcExpDate(readText());
+            if ((fields & F_CC_NAME) != 0) payment.setProtectedCcName(readText());
+            payment.setReservation(readTyped(Reservation.class));
+            return payment;
+        }
+
+        private <T> T readTyped(Class<T> type) throws IOException {
+            Object value = readValue();
+            if (value != null && !type.isInstance(value)) {
+                throw new IOException("Expected " + type.getSimpleName() + " but read " + value.getClass().getName());
+            }
+            return type.cast(value);
+        }
+    }
+}
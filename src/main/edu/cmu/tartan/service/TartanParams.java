@@ -45,6 +45,8 @@ public interface TartanParams {
     public final static String MSG_GET_STATISTICAL_DATA = "GetStatisticalData";
     public final static String MSG_STATISTICAL_DATA_RESULT = "StatisticalDataResult";
     public final static String MSG_EXIT_STATE = "ExitGarageState";
+    public final static String MSG_NEW_BATCH_RSVP = "NewBatchRsvp";
+    public final static String MSG_GET_AVAILABILITY = "GetAvailability";
 
     // Command specific parameters
     public static final String RSVP = "Rsvp";
@@ -55,6 +57,9 @@ public interface TartanParams {
     public static final String AVERAGE_OCCUPANCY = "AverageOccupancy";
     public static final String PEAK_USAGE_HOURS = "PeakUsageHours";
     public static final String EXIT_STATE = "ExitState";
+    public static final String START_TIME = "StartTime";
+    public static final String END_TIME = "EndTime";
+    public static final String OCCUPANCY = "Occupancy";
 
     // Symbolic constants for understandability
     public static final Integer INVALID_SPOT = -1;
@@ -47,7 +47,7 @@ public abstract class TartanService implements MessageListener, Runnable {
         System.out.println("targetService : "+targetService);
 
         messageBody.put(TartanParams.SOURCE_ID, serviceId);
-        ObjectMessage msg = bus.generateMessage(messageBody, targetService);
+        Message msg = bus.generateMessage(messageBody, targetService);
         try {
             outChannel.send(msg);
         } catch (JMSException e) {
@@ -56,20 +56,19 @@ public abstract class TartanService implements MessageListener, Runnable {
     }
 
     /**
-     * Unpackage incoming messages/requests for processing
+     * Unpackage incoming messages/requests for processing. The bus only delivers messages addressed to this
+     * service; the address is still checked before the body is deserialized.
      *
      * @param message The message to handle.
      */
     @Override
     public void onMessage(Message message) {
         try {
-            final ObjectMessage om = (ObjectMessage) message;
-            final HashMap<String,Object> m = (HashMap<String,Object>) om.getObject();
-
-            String id = om.getStringProperty(TartanParams.SERVICE_ID);
+            String id = message.getStringProperty(TartanParams.SERVICE_ID);
             if (id.equals(serviceId)) {
 
                 // This message is meant for this service so handle it by deferring to the actual service.
+                final HashMap<String,Object> m = TartanServiceMessageBus.readMessage(message);
                 handleMessage(m);
             }
 
@@ -87,13 +86,13 @@ public abstract class TartanService implements MessageListener, Runnable {
 
         bus = TartanServiceMessageBus.connect();
         try {
-            MessageConsumer inChannel = bus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC);
+            this.serviceId = sid;
+
+            MessageConsumer inChannel = bus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC, sid);
             inChannel.setMessageListener(this);
 
             outChannel = bus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC);
 
-            this.serviceId = sid;
-
         } catch (final JMSException e) {
             e.printStackTrace();
         }
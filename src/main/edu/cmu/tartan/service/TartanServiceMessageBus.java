@@ -4,6 +4,7 @@ import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
 
 import javax.jms.*;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 
@@ -19,6 +20,24 @@ public class TartanServiceMessageBus {
 
     public static final String TARTAN_TOPIC = "TARTAN_TOPIC";
 
+    /** The system property that selects the encoding of message bodies: "binary" or "object". */
+    public static final String ENCODING_PROPERTY = "tartan.bus.encoding";
+
+    /**
+     * The system property that sets the URL of the broker, such as "vm://tartan?broker.persistent=false" for a
+     * broker in the same process. The default is the ActiveMQ broker on this host.
+     */
+    public static final String BROKER_URL_PROPERTY = "tartan.bus.url";
+
+    /**
+     * How message bodies are put on the bus. BINARY sends a BytesMessage written by TartanMessageCodec, OBJECT
+     * sends an ObjectMessage holding the serialized body. Either is read on receipt.
+     */
+    public enum Encoding { OBJECT, BINARY }
+
+    /** The encoding of the messages generated by this connection. */
+    private Encoding encoding;
+
     /** The open sessions for consumers. */
     private HashMap<Integer,Session> subscriptions;
 
@@ -37,11 +56,10 @@ public class TartanServiceMessageBus {
     /** This is the subscription session. */
     private Session subSession;
 
-    private TartanServiceMessageBus() throws JMSException {
+    private TartanServiceMessageBus(String brokerUrl) throws JMSException {
         // create the connection to the task bus
         final ActiveMQConnectionFactory connectionFactory =
-                new ActiveMQConnectionFactory(
-                        ActiveMQConnection.DEFAULT_BROKER_URL);
+                new ActiveMQConnectionFactory(brokerUrl);
 
         conn = connectionFactory.createConnection();
 
@@ -54,6 +72,25 @@ public class TartanServiceMessageBus {
         pubSession = null;
         subSession = null;
 
+        encoding = Encoding.valueOf(System.getProperty(ENCODING_PROPERTY, "binary").toUpperCase());
+    }
+
+    /**
+     * Get the encoding of generated messages.
+     *
+     * @return the encoding.
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Set the encoding of generated messages.
+     *
+     * @param encoding the encoding.
+     */
+    public void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
     }
 
     /**
@@ -77,6 +114,30 @@ public class TartanServiceMessageBus {
         return consumer;
     }
 
+    /**
+     * Create a message consumer in a new session that only receives the messages addressed to one service. The
+     * broker matches the SERVICE_ID property, so messages for other services are neither delivered to nor
+     * deserialized by this consumer.
+     *
+     * @param topicName the name of the topic to subscribe to
+     * @param serviceId the service the messages must be addressed to
+     * @return the newly created MessageConsumer
+     * @throws JMSException the jMS exception
+     */
+    public MessageConsumer getConsumer(final String topicName, final String serviceId) throws JMSException {
+
+        subSession = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        final Topic topic = subSession.createTopic(topicName);
+        final String selector = TartanParams.SERVICE_ID + " = '" + serviceId.replace("'", "''") + "'";
+        final MessageConsumer consumer = subSession.createConsumer(topic, selector);
+
+        // remember the session to tear it down later
+        subscriptions.put(consumer.hashCode(),subSession);
+
+        return consumer;
+    }
+
     /**
      * Close a consumer.
      *
@@ -149,33 +210,86 @@ public class TartanServiceMessageBus {
         return producer;
     }
 
-    public synchronized ObjectMessage generateMessage(
+    /**
+     * Create a message for a service. A map body is encoded with TartanMessageCodec when the encoding is
+     * BINARY; anything else is sent as an ObjectMessage.
+     *
+     * @param messageBody the message body.
+     * @param targetService the service the message is addressed to.
+     * @return the message, or null on failure.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Message generateMessage(
             Serializable messageBody,
             String targetService) {
 
         try {
-            ObjectMessage message = pubSession.createObjectMessage();
+            Message message;
+            if (encoding == Encoding.BINARY && messageBody instanceof HashMap) {
+                BytesMessage bm = pubSession.createBytesMessage();
+                bm.writeBytes(TartanMessageCodec.encode((HashMap<String, Object>) messageBody));
+                message = bm;
+            } else {
+                ObjectMessage om = pubSession.createObjectMessage();
+                om.setObject(messageBody);
+                message = om;
+            }
 
             if (targetService!= null)
                 message.setStringProperty(TartanParams.SERVICE_ID, targetService);
 
-            message.setObject(messageBody);
             return message;
 
-        } catch (final JMSException e) { }
+        } catch (final JMSException | IOException e) {
+            e.printStackTrace();
+        }
 
         // On failure simply return null
         return null;
     }
 
     /**
-     * Create a new connection.
+     * Read the body of a message generated with either encoding.
+     *
+     * @param message the message.
+     * @return the message body.
+     * @throws JMSException if the body cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Object> readMessage(Message message) throws JMSException {
+        if (message instanceof BytesMessage) {
+            BytesMessage bm = (BytesMessage) message;
+            byte[] data = new byte[(int) bm.getBodyLength()];
+            bm.readBytes(data);
+            try {
+                return TartanMessageCodec.decode(data);
+            } catch (IOException e) {
+                JMSException je = new JMSException("Cannot decode message: " + e.getMessage());
+                je.setLinkedException(e);
+                throw je;
+            }
+        }
+        return (HashMap<String, Object>) ((ObjectMessage) message).getObject();
+    }
+
+    /**
+     * Create a new connection to the broker set by BROKER_URL_PROPERTY.
      *
      * @return the new connection or null on error.
      */
     public synchronized static TartanServiceMessageBus connect() {
+        return connect(System.getProperty(BROKER_URL_PROPERTY, ActiveMQConnection.DEFAULT_BROKER_URL));
+    }
+
+    /**
+     * Create a new connection to a given broker.
+     *
+     * @param brokerUrl the URL of the broker.
+     * @return the new connection or null on error.
+     */
+    public synchronized static TartanServiceMessageBus connect(String brokerUrl) {
         try {
-            return new TartanServiceMessageBus();
+            return new TartanServiceMessageBus(brokerUrl);
         } catch (JMSException e) {
             return null;
         }
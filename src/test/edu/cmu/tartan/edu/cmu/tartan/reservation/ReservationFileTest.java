@@ -0,0 +1,127 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReservationFileTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("rsvp");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ReservationStoreTest.deleteDirectory(dir.toFile());
+    }
+
+    private Reservation makeRsvp(String name, String vehicle, String start, String end, Integer spot) {
+        Reservation r = new Reservation();
+        r.setCustomerName(name);
+        r.setVehicleID(vehicle);
+        r.setStartTime(start);
+        r.setEndTime(end);
+        r.setSpotId(spot);
+        return r;
+    }
+
+    @Test
+    public void writeAndReadPreserveFields() throws Exception {
+        Reservation paid = makeRsvp("A", "PA38234", "2017:07:10:09:00", "2017:07:10:11:00", 1);
+        paid.setIsPaid(true);
+        paid.setPayment(new Payment(30L));
+        Reservation sameCustomer = makeRsvp("A", "PA38234", "2017:07:11:09:00", "2017:07:11:10:30", 2);
+        Reservation noSpot = makeRsvp("B", null, "2017:07:12:09:00", "2017:07:12:10:00", null);
+        noSpot.setIsRedeemed(true);
+
+        Path file = dir.resolve(ReservationStore.RESERVATION_BINARY);
+        ReservationFile.write(file, Arrays.asList(paid, sameCustomer, noSpot));
+
+        // names and plates are stored once
+        long dictionary = 2 + "A".length() + 2 + "PA38234".length() + 2 + "B".length();
+        assertEquals(ReservationFile.HEADER_SIZE + 3 * ReservationFile.RECORD_SIZE + dictionary, Files.size(file));
+
+        List<Reservation> read = ReservationFile.read(file);
+        assertEquals(3, read.size());
+        assertEquals(paid, read.get(0));
+        assertTrue(read.get(0).getIsPaid());
+        assertEquals(30L, read.get(0).getPayment().getFee().longValue());
+        assertEquals(1, read.get(0).getSpotId().intValue());
+
+        assertEquals(sameCustomer, read.get(1));
+        assertFalse(read.get(1).getIsPaid());
+        assertNull(read.get(1).getPayment());
+
+        assertNull(read.get(2).getVehicleID());
+        assertNull(read.get(2).getSpotId());
+        assertTrue(read.get(2).getIsRedeemed());
+    }
+
+    @Test
+    public void convertedStoreLoadsFromBinaryAndExportsText() throws Exception {
+        Path text = dir.resolve(ReservationStore.RESERVATION_STORE);
+        Files.write(text, Arrays.asList(
+                "name=A,vehicle=PA38234,start=2017:07:10:09:00,end=2017:07:10:11:00,paid=false,spot=1",
+                "name=B,vehicle=NW234234,start=2017:07:10:09:00,end=2017:07:10:11:00,paid=true,spot=2"),
+                StandardCharsets.UTF_8);
+
+        ReservationFile.main(new String[]{"convert", dir.toString()});
+        assertTrue(Files.exists(dir.resolve(ReservationStore.RESERVATION_BINARY)));
+        assertEquals(0, Files.size(text));
+
+        // a reservation saved after the conversion goes to the text file and is loaded with the snapshot
+        ReservationStore store = new ReservationStore(dir.toString());
+        Reservation later = makeRsvp("C", "XYZ123", "2017:07:10:12:00", "2017:07:10:13:00", 0);
+        store.addReservation(later);
+        assertTrue(store.saveNewReservation(later));
+
+        ReservationStore loaded = new ReservationStore(dir.toString());
+        loaded.loadReservations();
+        assertEquals(3, loaded.getReservations().size());
+        assertEquals(2, loaded.lookupByVehicle("NW234234").get(0).getSpotId().intValue());
+
+        // shutdown folds the text records into the snapshot
+        loaded.shutdown();
+        assertEquals(0, Files.size(text));
+        assertEquals(3, ReservationFile.read(dir.resolve(ReservationStore.RESERVATION_BINARY)).size());
+
+        ReservationFile.main(new String[]{"export", dir.toString()});
+        List<String> exported = Files.readAllLines(dir.resolve(ReservationStore.RESERVATION_STORE + ".export"),
+                StandardCharsets.UTF_8);
+        assertEquals(3, exported.size());
+        assertEquals("name=A,vehicle=PA38234,start=2017:07:10:09:00,end=2017:07:10:11:00,paid=false,spot=1",
+                exported.get(0));
+    }
+
+    @Test
+    public void cumulativeReservationsIncludeBinaryStatistics() throws Exception {
+        Path statics = dir.resolve(ReservationStore.STATICS_STORE);
+        Files.write(statics, Arrays.asList(
+                "name=A,vehicle=PA38234,start=2017:07:10:09:00,end=2017:07:10:11:00,paid=true,spot=1,fee=30"),
+                StandardCharsets.UTF_8);
+        ReservationFile.convert(statics, dir.resolve(ReservationStore.STATICS_BINARY));
+        Files.write(statics, Arrays.asList(
+                "name=B,vehicle=NW234234,start=2017:07:11:09:00,end=2017:07:11:11:00,paid=true,spot=2,fee=40"),
+                StandardCharsets.UTF_8);
+
+        ReservationStore store = new ReservationStore(dir.toString());
+        store.loadCumulativeReservations();
+        assertEquals(2, store.getReservations().size());
+        assertEquals(30L, store.getReservations().get(0).getPayment().getFee().longValue());
+        assertEquals(40L, store.getReservations().get(1).getPayment().getFee().longValue());
+    }
+}
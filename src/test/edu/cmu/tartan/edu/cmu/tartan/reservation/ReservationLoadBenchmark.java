@@ -0,0 +1,80 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading statics.txt into a ReservationStore. The time per line stays flat from ten thousand to one
+ * million lines, where duplicate checks against every stored reservation used to make it grow with the file.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; edu.cmu.tartan.edu.cmu.tartan.reservation.ReservationLoadBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class ReservationLoadBenchmark {
+
+    private static final long HOUR = 1000 * 60 * 60;
+
+    @Param({"10000", "100000", "1000000"})
+    public int lines;
+
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("rsvp-bench");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd:HH:mm");
+        long base = format.parse("2017:01:01:00:00").getTime();
+
+        // one line per hour of history, one in every hundred duplicated
+        try (BufferedWriter bw = Files.newBufferedWriter(dir.resolve(ReservationStore.STATICS_STORE),
+                StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                int n = (i % 100 == 99) ? i - 1 : i;
+                Date start = new Date(base + n * HOUR);
+                Date end = new Date(base + (n + 2) * HOUR);
+                bw.write("name=customer" + (n % 5000) +
+                        ",vehicle=PA" + (n % 5000) +
+                        ",start=" + format.format(start) +
+                        ",end=" + format.format(end) +
+                        ",paid=true,spot=" + (n % 4) +
+                        ",fee=" + (15 + n % 30) + "\n");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ReservationStoreTest.deleteDirectory(new File(dir.toString()));
+    }
+
+    @Benchmark
+    public int loadCumulativeReservations() throws Exception {
+        ReservationStore store = new ReservationStore(dir.toString());
+        store.loadCumulativeReservations();
+        return store.getReservations().size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ReservationLoadBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,110 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReservationLogTest {
+
+    private Path logFile;
+
+    @Before
+    public void setUp() throws Exception {
+        logFile = Files.createTempFile("rsvp", ".wal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(logFile);
+    }
+
+    @Test
+    public void appendedRecordsAreReadBackInOrder() throws Exception {
+        ReservationLog log = new ReservationLog(logFile);
+        log.append("first");
+        log.append("second");
+        log.close();
+
+        List<String> records = ReservationLog.readRecords(logFile);
+        assertEquals(2, records.size());
+        assertEquals("first", records.get(0));
+        assertEquals("second", records.get(1));
+    }
+
+    @Test
+    public void appendAllWritesEveryRecord() throws Exception {
+        ReservationLog log = new ReservationLog(logFile);
+        log.append("first");
+        log.appendAll(java.util.Arrays.asList("second", "third"));
+        log.close();
+
+        List<String> records = ReservationLog.readRecords(logFile);
+        assertEquals(3, records.size());
+        assertEquals("third", records.get(2));
+    }
+
+    @Test
+    public void partialRecordIsIgnored() throws Exception {
+        ReservationLog log = new ReservationLog(logFile);
+        log.append("complete");
+        log.close();
+        Files.write(logFile, "torn".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<String> records = ReservationLog.readRecords(logFile);
+        assertEquals(1, records.size());
+        assertEquals("complete", records.get(0));
+    }
+
+    @Test
+    public void concurrentWritersAreAllDurable() throws Exception {
+        final ReservationLog log = new ReservationLog(logFile);
+        Thread[] writers = new Thread[8];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            log.append(id + ":" + i);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        log.close();
+
+        List<String> records = ReservationLog.readRecords(logFile);
+        assertEquals(400, records.size());
+        assertEquals(400, new HashSet<String>(records).size());
+    }
+
+    @Test
+    public void truncateDiscardsRecords() throws Exception {
+        ReservationLog log = new ReservationLog(logFile);
+        log.append("record");
+        log.truncate();
+        log.append("after");
+        log.close();
+
+        List<String> records = ReservationLog.readRecords(logFile);
+        assertEquals(1, records.size());
+        assertTrue(records.contains("after"));
+    }
+}
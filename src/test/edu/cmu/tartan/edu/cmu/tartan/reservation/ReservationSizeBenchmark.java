@@ -0,0 +1,73 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what one reservation costs: the heap allocated to build it and the time to serialize it into, and read
+ * it back from, the form an ObjectMessage carries. Run with the GC profiler; gc.alloc.rate.norm is the bytes per
+ * reservation built.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; edu.cmu.tartan.edu.cmu.tartan.reservation.ReservationSizeBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReservationSizeBenchmark {
+
+    private Reservation rsvp;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rsvp = create();
+        serialized = serialize();
+        System.out.println("serialized reservation: " + serialized.length + " bytes");
+    }
+
+    @Benchmark
+    public Reservation create() {
+        Reservation r = new Reservation("2017:08:04:16:00", "2017:08:05:16:00", "Jane Doe", "PA38234");
+        r.setSpotId(3);
+        r.setIsPaid(false);
+        r.setIsRedeemed(false);
+        return r;
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rsvp);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ReservationSizeBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -121,6 +121,80 @@ public class ReservationStoreTest {
         }
     }
 
+    @Test
+    public void lookupByVehicleIgnoresPlateFormatting() throws Exception {
+        Reservation reservation = helperMakeRsvp(name, "pa-382 34", startTime, endTime);
+        reservationStore.addReservation(reservation);
+
+        Vector<Reservation> results = reservationStore.lookupByVehicle("PA38234");
+        assertEquals(1, results.size());
+        assertTrue(results.get(0) == reservation);
+        assertTrue(reservationStore.lookupByVehicle(diffVehicleId).isEmpty());
+    }
+
+    @Test
+    public void lookupKeepsRedeemedReservations() throws Exception {
+        Reservation reservation = helperMakeRsvp(name, vId, startTime, endTime);
+        Reservation other = helperMakeRsvp(name, vId, diffStartTime, diffEndTime);
+        reservationStore.addReservation(reservation);
+        reservationStore.addReservation(other);
+        assertEquals(2, reservationStore.lookupByCustomer(name).size());
+
+        reservationStore.markReservationRedeemed(helperMakeRsvp(name, vId, startTime, endTime));
+
+        // the redeem service tells a redeemed reservation apart from a missing one
+        assertTrue(reservation.getIsRedeemed());
+        assertFalse(other.getIsRedeemed());
+        assertEquals(2, reservationStore.lookupByCustomer(name).size());
+        assertEquals(2, reservationStore.lookupByVehicle(vId).size());
+        assertTrue(reservationStore.lookupByCustomer(name).get(0) == reservation);
+        assertEquals(2, reservationStore.getReservations().size());
+    }
+
+    @Test
+    public void bulkLoadSkipsDuplicates() throws Exception {
+        String line = "name=" + name + ",vehicle=" + vId + ",start=2017:07:10:09:00,end=2017:07:10:11:00,paid=true,spot=1,fee=30";
+        String other = "name=" + diffName + ",vehicle=" + diffVehicleId + ",start=2017:07:10:09:00,end=2017:07:10:11:00,paid=true,spot=2,fee=30";
+        Files.write(Paths.get(file.getPath(), "statics.txt"), Arrays.asList(line, other, line), StandardCharsets.UTF_8);
+
+        reservationStore.loadCumulativeReservations();
+        assertEquals(2, reservationStore.getReservations().size());
+
+        // the reservations already loaded are still seen as duplicates by later adds
+        assertEquals(0, reservationStore.addReservations(Arrays.asList(ReservationStore.parseReservation(other))));
+        assertFalse(reservationStore.addReservation(ReservationStore.parseReservation(line)));
+        assertEquals(2, reservationStore.getReservations().size());
+    }
+
+    @Test
+    public void writeAheadLogReplaysAfterCrash() throws Exception {
+        ReservationStore walStore = new ReservationStore(file.getPath(), true);
+        Reservation reservation = helperMakeRsvp(name, vId, startTime, endTime);
+        reservation.setSpotId(1);
+        Reservation redeemed = helperMakeRsvp(diffName, diffVehicleId, diffStartTime, diffEndTime);
+        redeemed.setSpotId(2);
+        for (Reservation r : new Reservation[]{reservation, redeemed}) {
+            walStore.addReservation(r);
+            assertTrue(walStore.saveNewReservation(r));
+        }
+        walStore.markReservationRedeemed(helperMakeRsvp(diffName, diffVehicleId, diffStartTime, diffEndTime));
+
+        // no shutdown: the reservation file was never rewritten
+        assertEquals("", getCurrentReservationDBData());
+
+        ReservationStore recovered = new ReservationStore(file.getPath(), true);
+        recovered.loadReservations();
+        assertEquals(2, recovered.getReservations().size());
+        assertEquals(1, recovered.lookupByCustomer(name).size());
+        assertEquals(1, recovered.lookupByCustomer(name).get(0).getSpotId().intValue());
+        assertTrue(recovered.lookupByCustomer(diffName).get(0).getIsRedeemed());
+
+        // replay checkpointed the log into the reservation file
+        assertTrue(getCurrentReservationDBData().contains("vehicle=" + vId));
+        assertFalse(getCurrentReservationDBData().contains("vehicle=" + diffVehicleId));
+        recovered.shutdown();
+    }
+
     @Test
     public void saveNewReservation() throws Exception {
         String currentDB = getCurrentReservationDBData();
@@ -131,6 +205,64 @@ public class ReservationStoreTest {
         Assert.assertNotEquals(currentDB, getCurrentReservationDBData());
     }
 
+    @Test
+    public void saveNewReservationsWritesTheWholeBatch() throws Exception {
+        ArrayList<Reservation> batch = getReservations(false);
+
+        // the batch is written before it is added to the store
+        assertTrue(reservationStore.saveNewReservations(batch));
+        assertTrue(reservationStore.getReservations().isEmpty());
+
+        ReservationStore loaded = new ReservationStore(file.getPath());
+        loaded.loadReservations();
+        assertEquals(batch.size(), loaded.getReservations().size());
+        assertEquals(batch.get(2).getSpotId(), loaded.lookupByCustomer(batch.get(2).getCustomerName()).get(0).getSpotId());
+    }
+
+    @Test
+    public void saveNewReservationsGoesThroughTheWriteAheadLog() throws Exception {
+        ReservationStore walStore = new ReservationStore(file.getPath(), true);
+        ArrayList<Reservation> batch = getReservations(false);
+        walStore.addReservations(batch);
+        assertTrue(walStore.saveNewReservations(batch));
+        assertEquals("", getCurrentReservationDBData());
+
+        ReservationStore recovered = new ReservationStore(file.getPath(), true);
+        recovered.loadReservations();
+        assertEquals(batch.size(), recovered.getReservations().size());
+        recovered.shutdown();
+    }
+
+    @Test
+    public void batchTornByACrashIsNotReplayed() throws Exception {
+        ReservationStore walStore = new ReservationStore(file.getPath(), true);
+        Reservation single = helperMakeRsvp(name, vId, startTime, endTime);
+        single.setSpotId(1);
+        walStore.addReservation(single);
+        assertTrue(walStore.saveNewReservation(single));
+        ArrayList<Reservation> batch = getReservations(false);
+        assertTrue(walStore.saveNewReservations(batch));
+
+        // crash in the middle of the batch: the commit record and the last reservation never reach the disk
+        Path log = Paths.get(file.getPath(), "rsvp.wal");
+        String written = new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+        String torn = written.substring(0, written.lastIndexOf("op=batch,") + 20);
+        Files.write(log, torn.getBytes(StandardCharsets.UTF_8));
+
+        ReservationStore recovered = new ReservationStore(file.getPath(), true);
+        recovered.loadReservations();
+        assertEquals(1, recovered.getReservations().size());
+        assertEquals(vId, recovered.getReservations().get(0).getVehicleID());
+        recovered.shutdown();
+
+        // a batch whose last line is whole but has no commit after it is dropped as well
+        Files.write(log, written.substring(0, written.lastIndexOf("op=commit,")).getBytes(StandardCharsets.UTF_8));
+        recovered = new ReservationStore(file.getPath(), true);
+        recovered.loadReservations();
+        assertEquals(1, recovered.getReservations().size());
+        recovered.shutdown();
+    }
+
     @Test
     public void loadReservations() throws Exception {
         saveNewReservation();
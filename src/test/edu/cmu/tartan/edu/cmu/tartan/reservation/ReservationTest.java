@@ -1,9 +1,18 @@
 package edu.cmu.tartan.edu.cmu.tartan.reservation;
 
+import edu.cmu.tartan.service.TartanParams;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
 import static org.junit.Assert.*;
 
 public class ReservationTest {
@@ -103,4 +112,94 @@ public class ReservationTest {
     public void testHashCode() throws Exception {
     }
 
-}
\ No newline at end of file
+    private static Object roundTrip(Object o) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+
+    @Test
+    public void timesAreKeptToTheMinute() throws Exception {
+        Reservation rsvp = new Reservation();
+        rsvp.setStartTime("2017:08:04:16:00");
+        Date start = new SimpleDateFormat("yyyy:MM:dd:HH:mm").parse("2017:08:04:16:00");
+        assertEquals(start, rsvp.getStartTime());
+        assertEquals(start.getTime() / 60000, rsvp.getStartMinute());
+        assertEquals("2017:08:04:16:00", Reservation.formatTime(rsvp.getStartMinute()));
+
+        rsvp.setEndTime(new Date(start.getTime() + 59999));
+        assertEquals(start, rsvp.getEndTime());
+        assertNotSame(rsvp.getEndTime(), rsvp.getEndTime());
+    }
+
+    @Test
+    public void timesAreParsedLeniently() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd:HH:mm");
+        Reservation rsvp = new Reservation();
+        rsvp.setStartTime("2017:8:0:24:00");
+        assertEquals(format.parse("2017:08:01:00:00"), rsvp.getStartTime());
+
+        // a bad time leaves the old one in place
+        rsvp.setStartTime("tomorrow");
+        assertEquals(format.parse("2017:08:01:00:00"), rsvp.getStartTime());
+    }
+
+    @Test
+    public void fieldsNotSetReadAsNull() throws Exception {
+        Reservation rsvp = new Reservation("2017:08:04:16:00", "2017:08:04:18:00", "Jeff", "PA38234");
+        assertNull(rsvp.getSpotId());
+        assertNull(rsvp.getIsPaid());
+        assertNull(rsvp.getIsRedeemed());
+
+        Reservation empty = new Reservation();
+        assertNull(empty.getStartTime());
+        assertEquals(Reservation.NO_TIME, empty.getEndMinute());
+        assertFalse(empty.getIsPaid());
+        assertFalse(empty.getIsRedeemed());
+        assertFalse(empty.isComplete());
+
+        empty.setIsPaid(true);
+        empty.setIsRedeemed(null);
+        assertTrue(empty.getIsPaid());
+        assertNull(empty.getIsRedeemed());
+    }
+
+    @Test
+    public void serializedFormIsCompact() throws Exception {
+        Reservation rsvp = new Reservation("2017:08:04:16:00", "2017:08:04:18:00", "Jeff", "PA38234");
+        rsvp.setSpotId(3);
+        rsvp.setIsPaid(true);
+        rsvp.setIsRedeemed(false);
+        Payment payment = new Payment(30L);
+        payment.setReservation(rsvp);
+        rsvp.setPayment(payment);
+
+        Reservation read = (Reservation) roundTrip(rsvp);
+        assertEquals(rsvp, read);
+        assertEquals(rsvp.getStartMinute(), read.getStartMinute());
+        assertEquals(3, read.getSpotId().intValue());
+        assertTrue(read.getIsPaid());
+        assertFalse(read.getIsRedeemed());
+        assertEquals(30L, read.getPayment().getFee().longValue());
+        assertSame(read, read.getPayment().getReservation());
+
+        Reservation bare = new Reservation("2017:08:04:16:00", "2017:08:04:18:00", "Jeff", "PA38234");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(bare);
+        }
+        assertTrue(bytes.size() + " bytes", bytes.size() < 200);
+
+        Reservation partial = new Reservation();
+        partial.setStartTime("2017:08:04:16:00");
+        Reservation unset = (Reservation) roundTrip(partial);
+        assertEquals(partial.getStartTime(), unset.getStartTime());
+        assertNull(unset.getEndTime());
+        assertNull(unset.getCustomerName());
+        assertEquals(TartanParams.INVALID_SPOT, unset.getSpotId());
+    }
+}
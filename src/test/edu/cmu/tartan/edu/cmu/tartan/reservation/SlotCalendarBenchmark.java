@@ -0,0 +1,95 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares spot allocation through the slot calendar with the per-spot timeline over a fully booked week, and
+ * measures counting the free spots for a window without a cache.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; edu.cmu.tartan.edu.cmu.tartan.reservation.SlotCalendarBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SlotCalendarBenchmark {
+
+    private static final long HOUR = 1000 * 60 * 60;
+    private static final long NOW = 1000 * 24 * HOUR;
+
+    @Param({"100", "1000", "4000"})
+    public int capacity;
+
+    private SpotTimeline timeline;
+    private SlotCalendar calendar;
+
+    private long[] queryStarts;
+    private int query = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        timeline = new SpotTimeline();
+        calendar = new SlotCalendar(NOW);
+
+        // each spot gets back-to-back bookings of 1-24 hours separated by gaps of 0-6 hours, for a week
+        long horizon = NOW + 7 * 24 * HOUR;
+        for (int spot = 0; spot < capacity; spot++) {
+            long cursor = NOW;
+            while (true) {
+                long start = cursor + random.nextInt(7) * HOUR;
+                long end = start + (1 + random.nextInt(24)) * HOUR;
+                if (end > horizon) {
+                    break;
+                }
+                timeline.add(spot, start, end);
+                calendar.add(spot, start, end);
+                cursor = end;
+            }
+        }
+
+        queryStarts = new long[1024];
+        for (int i = 0; i < queryStarts.length; i++) {
+            queryStarts[i] = NOW + random.nextInt(6 * 24 * 4) * HOUR / 4;
+        }
+    }
+
+    private long nextQuery() {
+        query = (query + 1) & (queryStarts.length - 1);
+        return queryStarts[query];
+    }
+
+    @Benchmark
+    public int spotTimeline() {
+        long st = nextQuery();
+        return timeline.findFreeSpot(st, st + 2 * HOUR, capacity);
+    }
+
+    @Benchmark
+    public int slotCalendar() {
+        long st = nextQuery();
+        return calendar.findFreeSpot(st, st + 2 * HOUR, capacity, timeline);
+    }
+
+    @Benchmark
+    public int countFreeSpots() {
+        long st = nextQuery();
+        return calendar.countFreeSpots(st, st + 2 * HOUR, capacity);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SlotCalendarBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
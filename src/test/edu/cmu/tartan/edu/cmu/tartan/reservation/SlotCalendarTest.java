@@ -0,0 +1,167 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class SlotCalendarTest {
+
+    private static final long MINUTE = 1000 * 60;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    // a slot boundary well away from the epoch
+    private static final long NOW = 1000 * DAY;
+
+    private SlotCalendar calendar;
+    private SpotTimeline timeline;
+
+    @Before
+    public void setUp() throws Exception {
+        calendar = new SlotCalendar(NOW);
+        timeline = new SpotTimeline();
+    }
+
+    private void add(int spot, long start, long end) {
+        calendar.add(spot, start, end);
+        timeline.add(spot, start, end);
+    }
+
+    private int find(long start, long end, int capacity) {
+        return calendar.findFreeSpot(start, end, capacity, timeline);
+    }
+
+    @Test
+    public void emptyCalendarIsFree() throws Exception {
+        assertEquals(0, find(NOW + HOUR, NOW + 2 * HOUR, 4));
+    }
+
+    @Test
+    public void overlappingWindowIsNotFree() throws Exception {
+        add(0, NOW + 9 * HOUR, NOW + 11 * HOUR);
+        add(1, NOW + 9 * HOUR, NOW + 11 * HOUR);
+
+        assertEquals(2, find(NOW + 10 * HOUR, NOW + 12 * HOUR, 4));
+        assertEquals(2, find(NOW + 8 * HOUR, NOW + 10 * HOUR, 4));
+        assertEquals(0, find(NOW + 11 * HOUR, NOW + 12 * HOUR, 4));
+        assertEquals(-1, find(NOW + 10 * HOUR, NOW + 12 * HOUR, 2));
+    }
+
+    @Test
+    public void partlyCoveredSlotsAreSettledExactly() throws Exception {
+        add(0, NOW + 9 * HOUR, NOW + 9 * HOUR + 10 * MINUTE);
+
+        // shares the 9:00 slot with the reservation but does not overlap it
+        assertEquals(0, find(NOW + 9 * HOUR + 10 * MINUTE, NOW + 10 * HOUR, 4));
+        assertEquals(1, find(NOW + 9 * HOUR + 5 * MINUTE, NOW + 10 * HOUR, 4));
+    }
+
+    @Test
+    public void spotsBeyondOneWordAreFound() throws Exception {
+        for (int spot = 0; spot < 130; spot++) {
+            add(spot, NOW + HOUR, NOW + 3 * HOUR);
+        }
+        assertEquals(130, find(NOW + 2 * HOUR, NOW + 4 * HOUR, 200));
+        assertEquals(-1, find(NOW + 2 * HOUR, NOW + 4 * HOUR, 130));
+    }
+
+    @Test
+    public void windowsOutsideTheRingAreUnknown() throws Exception {
+        assertEquals(SlotCalendar.UNKNOWN, find(NOW - HOUR, NOW + HOUR, 4));
+        assertEquals(SlotCalendar.UNKNOWN, find(NOW + 8 * DAY, NOW + 8 * DAY + HOUR, 4));
+    }
+
+    @Test
+    public void reservationsClippedByTheRingMakeTheEndUnknown() throws Exception {
+        add(0, NOW + 7 * DAY + 23 * HOUR, NOW + 8 * DAY + 2 * HOUR);
+        calendar.advance(NOW + DAY);
+
+        assertEquals(1, find(NOW + 7 * DAY + 23 * HOUR, NOW + 8 * DAY, 4));
+        assertEquals(SlotCalendar.UNKNOWN, find(NOW + 8 * DAY, NOW + 8 * DAY + HOUR, 4));
+    }
+
+    @Test
+    public void advancingClearsPassedSlots() throws Exception {
+        add(0, NOW + HOUR, NOW + 2 * HOUR);
+        calendar.advance(NOW + 2 * HOUR);
+
+        // the ring slots the reservation used now hold the end of the horizon
+        assertEquals(0, find(NOW + 8 * DAY + HOUR, NOW + 8 * DAY + 2 * HOUR, 4));
+        assertEquals(SlotCalendar.UNKNOWN, find(NOW + HOUR, NOW + 2 * HOUR, 4));
+    }
+
+    @Test
+    public void clearRemovesEverything() throws Exception {
+        add(0, NOW + HOUR, NOW + 2 * HOUR);
+        calendar.clear();
+        assertEquals(0, calendar.findFreeSpot(NOW + HOUR, NOW + 2 * HOUR, 4, new SpotTimeline()));
+    }
+
+    @Test
+    public void freeSpotsAreCountedOverWholeSlots() throws Exception {
+        add(0, NOW + 9 * HOUR, NOW + 11 * HOUR);
+        add(1, NOW + 10 * HOUR, NOW + 10 * HOUR + 10 * MINUTE);
+        add(70, NOW + 9 * HOUR, NOW + 10 * HOUR);
+
+        assertEquals(100, calendar.countFreeSpots(NOW + 12 * HOUR, NOW + 13 * HOUR, 100));
+        assertEquals(98, calendar.countFreeSpots(NOW + 10 * HOUR, NOW + 12 * HOUR, 100));
+        assertEquals(97, calendar.countFreeSpots(NOW + 9 * HOUR, NOW + 12 * HOUR, 100));
+        assertEquals(68, calendar.countFreeSpots(NOW + 9 * HOUR, NOW + 12 * HOUR, 70));
+        assertEquals(0, calendar.countFreeSpots(NOW + 9 * HOUR, NOW + 12 * HOUR, 2));
+
+        // spot 1 is booked in the part of the 10:00 slot before the window, the slot is counted whole
+        assertEquals(98, calendar.countFreeSpots(NOW + 10 * HOUR + 10 * MINUTE, NOW + 10 * HOUR + 15 * MINUTE, 100));
+        assertEquals(SlotCalendar.UNKNOWN, calendar.countFreeSpots(NOW - HOUR, NOW, 100));
+    }
+
+    @Test
+    public void occupancyIsCountedPerSlot() throws Exception {
+        add(0, NOW + 9 * HOUR, NOW + 9 * HOUR + 30 * MINUTE);
+        add(1, NOW + 9 * HOUR + 15 * MINUTE, NOW + 10 * HOUR);
+        add(1, NOW + 10 * HOUR, NOW + 10 * HOUR + 5 * MINUTE);
+
+        assertArrayEquals(new int[]{1, 2, 1, 1, 1}, calendar.getOccupancy(NOW + 9 * HOUR, NOW + 10 * HOUR + 15 * MINUTE));
+        assertNull(calendar.getOccupancy(NOW - HOUR, NOW));
+
+        calendar.advance(NOW + 9 * HOUR + 15 * MINUTE);
+        assertArrayEquals(new int[]{2, 1}, calendar.getOccupancy(NOW + 9 * HOUR + 15 * MINUTE, NOW + 9 * HOUR + 45 * MINUTE));
+    }
+
+    @Test
+    public void versionChangesWithTheReservations() throws Exception {
+        long version = calendar.getVersion();
+        calendar.advance(NOW + HOUR);
+        assertEquals(version, calendar.getVersion());
+
+        add(0, NOW + 2 * HOUR, NOW + 3 * HOUR);
+        assertNotEquals(version, calendar.getVersion());
+        version = calendar.getVersion();
+        calendar.clear();
+        assertNotEquals(version, calendar.getVersion());
+    }
+
+    @Test
+    public void agreesWithTheTimeline() throws Exception {
+        Random random = new Random(7);
+        int capacity = 100;
+        for (int i = 0; i < 2000; i++) {
+            long start = NOW + random.nextInt(7 * 24 * 60) * MINUTE;
+            long end = start + (1 + random.nextInt(8 * 60)) * MINUTE;
+            int spot = timeline.findFreeSpot(start, end, capacity);
+            if (spot >= 0) {
+                add(spot, start, end);
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            long start = NOW + random.nextInt(6 * 24 * 60) * MINUTE;
+            long end = start + (1 + random.nextInt(24 * 60)) * MINUTE;
+            assertEquals(timeline.findFreeSpot(start, end, capacity), find(start, end, capacity));
+        }
+    }
+}
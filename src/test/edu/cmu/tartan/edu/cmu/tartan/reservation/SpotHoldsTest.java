@@ -0,0 +1,128 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpotHoldsTest {
+
+    private static final long HOUR = 1000 * 60 * 60;
+    private static final long TTL = 60000;
+    private static final long TICK = 1000;
+    private static final long NOW = 1000 * HOUR;
+
+    private SpotHolds holds;
+
+    @Before
+    public void setUp() throws Exception {
+        holds = new SpotHolds(TTL, TICK, NOW);
+    }
+
+    @Test
+    public void heldWindowCannotBeHeldAgain() throws Exception {
+        assertNotEquals(SpotHolds.NO_HOLD, holds.hold(0, 9 * HOUR, 11 * HOUR, NOW));
+
+        assertEquals(SpotHolds.NO_HOLD, holds.hold(0, 10 * HOUR, 12 * HOUR, NOW));
+        assertFalse(holds.isFree(0, 8 * HOUR, 10 * HOUR, NOW));
+        assertNotEquals(SpotHolds.NO_HOLD, holds.hold(0, 11 * HOUR, 12 * HOUR, NOW));
+        assertNotEquals(SpotHolds.NO_HOLD, holds.hold(1, 9 * HOUR, 11 * HOUR, NOW));
+        assertEquals(3, holds.size());
+    }
+
+    @Test
+    public void releasedHoldFreesTheSpot() throws Exception {
+        long token = holds.hold(0, 9 * HOUR, 11 * HOUR, NOW);
+
+        assertTrue(holds.isHeld(0, token));
+        assertTrue(holds.release(0, token));
+        assertFalse(holds.release(0, token));
+        assertFalse(holds.isHeld(0, token));
+        assertTrue(holds.isFree(0, 9 * HOUR, 11 * HOUR, NOW));
+        assertEquals(0, holds.size());
+    }
+
+    @Test
+    public void lapsedHoldCannotReleaseItsReplacement() throws Exception {
+        long first = holds.hold(0, 9 * HOUR, 11 * HOUR, NOW);
+        long second = holds.hold(0, 9 * HOUR, 11 * HOUR, NOW + TTL);
+        assertNotEquals(SpotHolds.NO_HOLD, second);
+
+        // the first holder comes back late: its hold is gone and the second one stays
+        assertFalse(holds.isHeld(0, first));
+        assertFalse(holds.release(0, first));
+        assertFalse(holds.isFree(0, 9 * HOUR, 11 * HOUR, NOW + TTL));
+        assertTrue(holds.release(0, second));
+    }
+
+    @Test
+    public void lapsedHoldIsIgnoredBeforeItIsSwept() throws Exception {
+        holds.hold(0, 9 * HOUR, 11 * HOUR, NOW);
+
+        assertFalse(holds.isFree(0, 9 * HOUR, 11 * HOUR, NOW + TTL - 1));
+        assertTrue(holds.isFree(0, 9 * HOUR, 11 * HOUR, NOW + TTL));
+        assertNotEquals(SpotHolds.NO_HOLD, holds.hold(0, 9 * HOUR, 11 * HOUR, NOW + TTL));
+        assertEquals(1, holds.size());
+    }
+
+    @Test
+    public void sweepRemovesLapsedHolds() throws Exception {
+        holds.hold(0, 9 * HOUR, 11 * HOUR, NOW);
+        holds.hold(1, 9 * HOUR, 11 * HOUR, NOW + 10 * TICK);
+
+        assertEquals(0, holds.expire(NOW + TTL - 1));
+        assertEquals(1, holds.expire(NOW + TTL + TICK));
+        assertEquals(1, holds.size());
+        assertEquals(1, holds.expire(NOW + TTL + 11 * TICK));
+        assertEquals(0, holds.size());
+    }
+
+    @Test
+    public void sweepAfterAPauseCatchesUp() throws Exception {
+        holds.hold(0, 9 * HOUR, 11 * HOUR, NOW);
+        holds.hold(1, 9 * HOUR, 11 * HOUR, NOW + 30 * TICK);
+
+        assertEquals(2, holds.expire(NOW + 10 * TTL));
+        assertEquals(0, holds.size());
+    }
+
+    @Test
+    public void onlyOneConcurrentHoldWins() throws Exception {
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicInteger won = new AtomicInteger();
+        for (int round = 0; round < 200; round++) {
+            long start = round * HOUR;
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    try {
+                        go.await();
+                        if (holds.hold(0, start, start + HOUR, NOW) != SpotHolds.NO_HOLD) {
+                            won.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    done.countDown();
+                });
+            }
+            go.countDown();
+            done.await(10, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(200, won.get());
+        assertEquals(200, holds.size());
+    }
+}
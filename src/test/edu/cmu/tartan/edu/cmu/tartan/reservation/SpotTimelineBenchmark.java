@@ -0,0 +1,120 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares spot allocation through the per-spot timeline with the linear scan that ReservationService used to
+ * do over every reservation in the store.
+ * <p>
+ * Reservations are kept as primitive arrays for the scan so that one million of them fit in a normal heap; this
+ * favours the scan, which used to walk Reservation objects.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; edu.cmu.tartan.edu.cmu.tartan.reservation.SpotTimelineBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpotTimelineBenchmark {
+
+    private static final long HOUR = 1000 * 60 * 60;
+
+    private static final int CAPACITY = 500;
+
+    @Param({"10000", "100000", "1000000"})
+    public int reservations;
+
+    private long[] starts;
+    private long[] ends;
+    private int[] spots;
+
+    private SpotTimeline timeline;
+
+    private long[] queryStarts;
+    private int query = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        starts = new long[reservations];
+        ends = new long[reservations];
+        spots = new int[reservations];
+        timeline = new SpotTimeline();
+
+        // each spot gets back-to-back bookings of 1-24 hours separated by gaps of 0-12 hours
+        long[] cursor = new long[CAPACITY];
+        long horizon = 0;
+        for (int i = 0; i < reservations; i++) {
+            int spot = i % CAPACITY;
+            long start = cursor[spot] + random.nextInt(13) * HOUR;
+            long end = start + (1 + random.nextInt(24)) * HOUR;
+            cursor[spot] = end;
+            horizon = Math.max(horizon, end);
+
+            starts[i] = start;
+            ends[i] = end;
+            spots[i] = spot;
+            timeline.add(spot, start, end);
+        }
+
+        queryStarts = new long[1024];
+        for (int i = 0; i < queryStarts.length; i++) {
+            queryStarts[i] = (long) (random.nextDouble() * horizon);
+        }
+    }
+
+    private long nextQuery() {
+        query = (query + 1) & (queryStarts.length - 1);
+        return queryStarts[query];
+    }
+
+    @Benchmark
+    public int linearScan() {
+        long st = nextQuery();
+        long et = st + 2 * HOUR;
+
+        ArrayList<Integer> occupiedSpots = new ArrayList<Integer>();
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] < et && ends[i] > st) {
+                occupiedSpots.add(spots[i]);
+            }
+        }
+        if (occupiedSpots.isEmpty()) {
+            return 0;
+        } else if (occupiedSpots.size() >= CAPACITY) {
+            return -1;
+        }
+        Collections.sort(occupiedSpots);
+        int i;
+        for (i = 0; i < CAPACITY; i++) {
+            if (i >= occupiedSpots.size() || i != occupiedSpots.get(i)) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    @Benchmark
+    public int spotTimeline() {
+        long st = nextQuery();
+        return timeline.findFreeSpot(st, st + 2 * HOUR, CAPACITY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SpotTimelineBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
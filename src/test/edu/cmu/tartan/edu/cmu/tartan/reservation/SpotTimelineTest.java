@@ -0,0 +1,83 @@
+package edu.cmu.tartan.edu.cmu.tartan.reservation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpotTimelineTest {
+
+    private static final long HOUR = 1000 * 60 * 60;
+
+    private SpotTimeline timeline;
+
+    @Before
+    public void setUp() throws Exception {
+        timeline = new SpotTimeline();
+    }
+
+    @Test
+    public void emptyTimelineIsFree() throws Exception {
+        assertTrue(timeline.isFree(0, 0, HOUR));
+        assertEquals(0, timeline.findFreeSpot(0, HOUR, 4));
+        assertEquals(0, timeline.size());
+    }
+
+    @Test
+    public void overlappingWindowIsNotFree() throws Exception {
+        timeline.add(0, 9 * HOUR, 11 * HOUR);
+
+        assertFalse(timeline.isFree(0, 10 * HOUR, 12 * HOUR));
+        assertFalse(timeline.isFree(0, 8 * HOUR, 10 * HOUR));
+        assertFalse(timeline.isFree(0, 8 * HOUR, 12 * HOUR));
+        assertTrue(timeline.isFree(1, 10 * HOUR, 12 * HOUR));
+    }
+
+    @Test
+    public void adjacentWindowIsFree() throws Exception {
+        timeline.add(0, 9 * HOUR, 11 * HOUR);
+
+        assertTrue(timeline.isFree(0, 11 * HOUR, 12 * HOUR));
+        assertTrue(timeline.isFree(0, 7 * HOUR, 9 * HOUR));
+    }
+
+    @Test
+    public void longIntervalHiddenBehindShortOnesIsFound() throws Exception {
+        timeline.add(0, 0, 24 * HOUR);
+        timeline.add(0, 2 * HOUR, 3 * HOUR);
+        timeline.add(0, 5 * HOUR, 6 * HOUR);
+
+        assertFalse(timeline.isFree(0, 10 * HOUR, 11 * HOUR));
+    }
+
+    @Test
+    public void findFreeSpotReturnsLowestFreeSpot() throws Exception {
+        timeline.add(0, 9 * HOUR, 11 * HOUR);
+        timeline.add(1, 9 * HOUR, 11 * HOUR);
+        timeline.add(3, 9 * HOUR, 11 * HOUR);
+
+        assertEquals(2, timeline.findFreeSpot(10 * HOUR, 12 * HOUR, 4));
+        assertEquals(0, timeline.findFreeSpot(11 * HOUR, 12 * HOUR, 4));
+    }
+
+    @Test
+    public void findFreeSpotWhenFull() throws Exception {
+        for (int spot = 0; spot < 4; spot++) {
+            timeline.add(spot, 9 * HOUR, 11 * HOUR);
+        }
+
+        assertEquals(-1, timeline.findFreeSpot(10 * HOUR, 12 * HOUR, 4));
+        assertEquals(4, timeline.size());
+    }
+
+    @Test
+    public void clearRemovesIntervals() throws Exception {
+        timeline.add(0, 9 * HOUR, 11 * HOUR);
+        timeline.clear();
+
+        assertTrue(timeline.isFree(0, 9 * HOUR, 11 * HOUR));
+        assertEquals(0, timeline.size());
+    }
+}
@@ -0,0 +1,135 @@
+package edu.cmu.tartan.hardware;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing one state update. "tokenized" is the parser TartanGarageManager used before, kept here as the
+ * baseline: it splits the message and fills a map with boxed values. "primitive" is TartanGarageState.parse. Run
+ * with the GC profiler, gc.alloc.rate.norm shows the bytes allocated per update, which is 0 for "primitive".
+ * <p>
+ * The "large" benchmarks parse an update from a 2000 spot garage, with the spots sent as a list and as a bitmap, and
+ * "largeSnapshot" adds publishing the parsed state as a snapshot, which is what a changed update costs.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; edu.cmu.tartan.hardware.GarageStateParseBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GarageStateParseBenchmark {
+
+    private static final String UPDATE =
+            "SU:NG=0;XG=0;XIR=0;NIR=1;NL=R;XL=R;PO=[1=1,2=0,3=0,4=1];PL=[1=0,2=0,3=0,4=0].";
+
+    private static final int LARGE_SPOTS = 2000;
+
+    private static final String LARGE_LIST;
+    private static final String LARGE_BITMAP;
+
+    static {
+        StringBuilder list = new StringBuilder("SU:NG=0;XG=0;XIR=0;NIR=1;NL=R;XL=R;PO=[");
+        StringBuilder bitmap = new StringBuilder("SU:NG=0;XG=0;XIR=0;NIR=1;NL=R;XL=R;SC=" + LARGE_SPOTS + ";PO=#");
+        for (int i = 0; i < LARGE_SPOTS; i++) {
+            list.append(i + 1).append('=').append(i % 3 == 0 ? 1 : 0).append(i + 1 < LARGE_SPOTS ? "," : "]");
+        }
+        for (int i = 0; i < LARGE_SPOTS; i += 4) {
+            int digit = 0;
+            for (int b = 0; b < 4; b++) {
+                if ((i + b) % 3 == 0) {
+                    digit |= 8 >>> b;
+                }
+            }
+            bitmap.append(Integer.toHexString(digit));
+        }
+        LARGE_LIST = list.append('.').toString();
+        LARGE_BITMAP = bitmap.append('.').toString();
+    }
+
+    private final TartanGarageState state = new TartanGarageState();
+
+    private final TartanGarageState largeState = new TartanGarageState();
+
+    private final HashMap<String, Object> currentState = new HashMap<String, Object>();
+
+    @Benchmark
+    public boolean primitive() {
+        return state.parse(UPDATE);
+    }
+
+    @Benchmark
+    public boolean largeList() {
+        return largeState.parse(LARGE_LIST);
+    }
+
+    @Benchmark
+    public boolean largeBitmap() {
+        return largeState.parse(LARGE_BITMAP);
+    }
+
+    @Benchmark
+    public TartanGarageSnapshot largeSnapshot() {
+        largeState.parse(LARGE_BITMAP);
+        return new TartanGarageSnapshot(largeState);
+    }
+
+    @Benchmark
+    public HashMap<String, Object> tokenized() {
+        String[] req = UPDATE.split(TartanSensors.MSG_DELIM);
+        String body = req[1];
+        if (String.valueOf(body.charAt(body.length() - 1)).equals(TartanSensors.MSG_END)) {
+            body = body.substring(0, body.length() - 1);
+        }
+        currentState.clear();
+        StringTokenizer pt = new StringTokenizer(body, TartanSensors.PARAM_DELIM);
+        while (pt.hasMoreTokens()) {
+            String param = pt.nextToken();
+            int paramOffset = param.indexOf(TartanSensors.PARAM_EQ);
+            String pcmd = param.substring(0, paramOffset);
+            String pval = param.substring(paramOffset + 1, param.length());
+
+            if (pcmd.equals(TartanSensors.ENTRY_GATE) || pcmd.equals(TartanSensors.EXIT_GATE)
+                    || pcmd.equals(TartanSensors.ENTRY_IR) || pcmd.equals(TartanSensors.EXIT_IR)) {
+                currentState.put(pcmd, pval.equals("1"));
+            } else if (pcmd.equals(TartanSensors.ENTRY_LIGHT) || pcmd.equals(TartanSensors.EXIT_LIGHT)) {
+                currentState.put(pcmd, pval);
+            } else if (pcmd.equals(TartanSensors.PARKING_SPOT_LIGHT)
+                    || pcmd.equals(TartanSensors.PARKING_SPOT_OCCUPIED)) {
+                Integer[] spotState = new Integer[10];
+                String spots = pval.substring(1, pval.length() - 1);
+                StringTokenizer spotTok = new StringTokenizer(spots, TartanSensors.LIST_DELIM);
+                while (spotTok.hasMoreTokens()) {
+                    String spotInfo[] = spotTok.nextToken().split(TartanSensors.PARAM_EQ);
+                    spotState[Integer.parseInt(spotInfo[0]) - 1] = Integer.parseInt(spotInfo[1]);
+                }
+                ArrayList<Integer> temp = new ArrayList<>();
+                for (int i = 0; i < spotState.length; i++) {
+                    if (spotState[i] != null) {
+                        temp.add(spotState[i]);
+                    }
+                }
+                currentState.put(pcmd, temp.toArray(new Integer[temp.size()]));
+            }
+        }
+        return currentState;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(GarageStateParseBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
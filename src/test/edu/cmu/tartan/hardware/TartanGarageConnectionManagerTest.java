@@ -0,0 +1,154 @@
+package edu.cmu.tartan.hardware;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one connection manager against a campus of simulated garages.
+ */
+public class TartanGarageConnectionManagerTest {
+
+    /** The number of garages on the campus */
+    private static final int GARAGES = 50;
+
+    /** The commands sent to each garage by the load test */
+    private static final int COMMANDS = 200;
+
+    private TartanGarageConnectionManager campus;
+    private final List<TartanGarageSimulator> garages = new ArrayList<TartanGarageSimulator>();
+
+    @Before
+    public void setUp() throws Exception {
+        campus = new TartanGarageConnectionManager();
+        for (int i = 0; i < GARAGES; i++) {
+            garages.add(new TartanGarageSimulator(0, 4 + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        campus.close();
+        for (TartanGarageSimulator garage : garages) {
+            garage.close();
+        }
+    }
+
+    private static int countIoThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("TartanGarageConnectionManager")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void connectingToAnotherGarageKeepsTheFirstConnected() {
+        TartanGarageConnection first = campus.getConnection("localhost", garages.get(0).getPort());
+        TartanGarageConnection second = campus.getConnection("localhost", garages.get(1).getPort());
+
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertNotSame(first, second);
+        Assert.assertTrue(first.isConnected());
+        Assert.assertSame(first, campus.getConnection("localhost", garages.get(0).getPort()));
+        Assert.assertEquals(2, campus.getConnectionCount());
+    }
+
+    @Test
+    public void unreachableGarageHasNoConnection() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+        Assert.assertNull(campus.getConnection("localhost", port));
+        Assert.assertNull(campus.connectGarage("localhost", port, null));
+    }
+
+    @Test
+    public void disconnectingOneGarageLeavesTheOthers() {
+        TartanGarageConnection first = campus.getConnection("localhost", garages.get(0).getPort());
+        TartanGarageConnection second = campus.getConnection("localhost", garages.get(1).getPort());
+
+        campus.disconnect("localhost", garages.get(0).getPort());
+        Assert.assertFalse(first.isConnected());
+        Assert.assertTrue(second.isConnected());
+        Assert.assertEquals("OK.", second.sendCommand(TartanSensors.ENTRY_GATE + TartanSensors.PARAM_EQ
+                + TartanSensors.OPEN + TartanSensors.MSG_END).join());
+    }
+
+    @Test
+    public void closedManagerMakesNoConnections() {
+        campus.close();
+        Assert.assertFalse(campus.isOpen());
+        Assert.assertNull(campus.getConnection("localhost", garages.get(0).getPort()));
+    }
+
+    @Test
+    public void everyGarageIsOperatedFromOneIoThread() throws Exception {
+        int threadsBefore = countIoThreads();
+        LinkedBlockingQueue<TartanGarageEvent> received = new LinkedBlockingQueue<TartanGarageEvent>();
+        List<TartanGarageManager> managers = new ArrayList<TartanGarageManager>();
+        for (TartanGarageSimulator garage : garages) {
+            TartanGarageManager manager = campus.connectGarage("localhost", garage.getPort(), received::add);
+            Assert.assertNotNull(manager);
+            Assert.assertEquals(garage.getCapacity(), manager.getCapacity().intValue());
+            managers.add(manager);
+        }
+        Assert.assertEquals(GARAGES, campus.getGarages().size());
+        Assert.assertSame(managers.get(0), campus.connectGarage("localhost", garages.get(0).getPort(), null));
+        Assert.assertEquals(threadsBefore, countIoThreads());
+
+        // every garage pushes its change to its own manager
+        for (TartanGarageSimulator garage : garages) {
+            garage.setEntryBeamBroken(true);
+        }
+        for (int i = 0; i < GARAGES; i++) {
+            TartanGarageEvent event = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("garage " + i + " of " + GARAGES + " did not report", event);
+            Assert.assertEquals(TartanGarageEvent.Type.BEAM_BROKEN, event.getType());
+        }
+        for (TartanGarageManager manager : managers) {
+            Assert.assertTrue(manager.getGarageState().isEntryBeamBroken());
+        }
+    }
+
+    @Test
+    public void commandsToEveryGarageAreAnswered() throws Exception {
+        List<TartanGarageConnection> connections = new ArrayList<TartanGarageConnection>();
+        for (TartanGarageSimulator garage : garages) {
+            connections.add(campus.getConnection("localhost", garage.getPort()));
+        }
+
+        // the commands for all the garages are in flight at once
+        long start = System.nanoTime();
+        List<CompletableFuture<String>> responses = new ArrayList<CompletableFuture<String>>();
+        for (int c = 0; c < COMMANDS; c++) {
+            for (TartanGarageConnection conn : connections) {
+                String mode = (c % 2 == 0) ? TartanSensors.OPEN : TartanSensors.CLOSE;
+                responses.add(conn.sendCommand(TartanSensors.EXIT_GATE + TartanSensors.PARAM_EQ + mode
+                        + TartanSensors.MSG_END));
+            }
+        }
+        for (CompletableFuture<String> response : responses) {
+            Assert.assertEquals("OK.", response.get(10, TimeUnit.SECONDS));
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(responses.size() + " commands to " + GARAGES + " garages answered in " + elapsed + " ms");
+
+        // the last command to each garage closed its gate
+        for (TartanGarageSimulator garage : garages) {
+            Assert.assertFalse(garage.isExitGateOpen());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package edu.cmu.tartan.hardware;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the connection against a fake garage that answers each request with "re:" and the request, once the test
+ * releases it, or hangs up if the test tells it not to answer.
+ */
+public class TartanGarageConnectionTest {
+
+    private ServerSocket server;
+    private TartanGarageConnection conn;
+
+    /** Requests received by the garage, in order */
+    private final LinkedBlockingQueue<String> requests = new LinkedBlockingQueue<String>();
+
+    /** Each permit lets the garage answer one request */
+    private final LinkedBlockingQueue<Boolean> answers = new LinkedBlockingQueue<Boolean>();
+
+    /** The garage end of the connection, for pushing lines */
+    private volatile OutputStream garageOut;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        Thread garage = new Thread(() -> {
+            try (Socket client = server.accept()) {
+                final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<String>();
+                Thread reader = new Thread(() -> {
+                    try {
+                        InputStream in = client.getInputStream();
+                        StringBuilder req = new StringBuilder();
+                        int c;
+                        while ((c = in.read()) >= 0) {
+                            req.append((char) c);
+                            if (c == '.') {
+                                requests.add(req.toString());
+                                received.add(req.toString());
+                                req.setLength(0);
+                            }
+                        }
+                    } catch (IOException e) {
+                        // the test is over
+                    }
+                });
+                reader.setDaemon(true);
+                reader.start();
+
+                OutputStream out = client.getOutputStream();
+                garageOut = out;
+                while (answers.take()) {
+                    String answer = "re:" + received.take() + "\r\n";
+                    synchronized (out) {
+                        out.write(answer.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // the test is over
+            }
+        });
+        garage.setDaemon(true);
+        garage.start();
+
+        conn = new TartanGarageConnection();
+        Assert.assertTrue(conn.connect("localhost", server.getLocalPort()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.disconnect();
+        answers.add(false);
+        server.close();
+    }
+
+    @Test
+    public void commandsArePipelinedAndAnsweredInOrder() throws Exception {
+        List<CompletableFuture<String>> responses = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 5; i++) {
+            responses.add(conn.sendCommand("NL=" + i + "."));
+        }
+
+        // every command reaches the garage before any is answered
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("NL=" + i + ".", requests.poll(2, TimeUnit.SECONDS));
+        }
+        Assert.assertFalse(responses.get(0).isDone());
+
+        for (int i = 0; i < 5; i++) {
+            answers.add(true);
+        }
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("re:NL=" + i + ".", responses.get(i).get(2, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void commandFailsAtItsDeadline() throws Exception {
+        CompletableFuture<String> response = conn.sendCommand("GS.", 100, TimeUnit.MILLISECONDS);
+        try {
+            response.get(2, TimeUnit.SECONDS);
+            Assert.fail("expected the command to time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(conn.isConnected());
+    }
+
+    @Test
+    public void lateResponseIsNotGivenToTheNextCommand() throws Exception {
+        CompletableFuture<String> first = conn.sendCommand("XG=1.", 100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("XG=1.", requests.poll(2, TimeUnit.SECONDS));
+        try {
+            first.get(2, TimeUnit.SECONDS);
+            Assert.fail("expected the command to time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        CompletableFuture<String> second = conn.sendCommand("XG=0.");
+        answers.add(true);
+        answers.add(true);
+        Assert.assertEquals("re:XG=0.", second.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sendMessageToGarageWaitsForTheResponse() throws Exception {
+        answers.add(true);
+        Assert.assertEquals("re:NG=1.", conn.sendMessageToGarage("NG=1."));
+    }
+
+    @Test
+    public void disconnectFailsWaitingCommands() throws Exception {
+        CompletableFuture<String> response = conn.sendCommand("GS.");
+        Assert.assertEquals("GS.", requests.poll(2, TimeUnit.SECONDS));
+
+        conn.disconnect();
+        try {
+            response.get(2, TimeUnit.SECONDS);
+            Assert.fail("expected the command to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertFalse(conn.isConnected());
+        Assert.assertTrue(conn.sendCommand("GS.").isCompletedExceptionally());
+    }
+
+    @Test
+    public void garageClosingTheConnectionFailsWaitingCommands() throws Exception {
+        CompletableFuture<String> response = conn.sendCommand("GS.");
+        Assert.assertEquals("GS.", requests.poll(2, TimeUnit.SECONDS));
+
+        answers.add(false);
+        try {
+            response.get(2, TimeUnit.SECONDS);
+            Assert.fail("expected the command to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertFalse(conn.isConnected());
+    }
+
+    @Test
+    public void pushedLinesGoToTheListener() throws Exception {
+        LinkedBlockingQueue<String> pushed = new LinkedBlockingQueue<String>();
+        conn.setPushListener(pushed::add);
+
+        CompletableFuture<String> response = conn.sendCommand("GS.");
+        Assert.assertEquals("GS.", requests.poll(2, TimeUnit.SECONDS));
+        synchronized (garageOut) {
+            garageOut.write("!SU:NIR=1.\r\n".getBytes(StandardCharsets.UTF_8));
+            garageOut.flush();
+        }
+
+        // the pushed line is not the answer to the waiting command
+        Assert.assertEquals("SU:NIR=1.", pushed.poll(2, TimeUnit.SECONDS));
+        Assert.assertFalse(response.isDone());
+        answers.add(true);
+        Assert.assertEquals("re:GS.", response.get(2, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,71 @@
+package edu.cmu.tartan.hardware;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+public class TartanGarageEventTest {
+
+    private static TartanGarageSnapshot snapshot(String update) {
+        TartanGarageState state = new TartanGarageState();
+        Assert.assertTrue(state.parse(update));
+        return new TartanGarageSnapshot(state);
+    }
+
+    @Test
+    public void unchangedStateHasNoEvents() {
+        ArrayDeque<TartanGarageEvent> events = new ArrayDeque<TartanGarageEvent>();
+        TartanGarageEvent.diff(snapshot("SU:NG=0;XG=1;NIR=1;PO=[1=1,2=0]."),
+                snapshot("SU:NG=0;XG=1;NIR=1;PO=[1=1,2=0]."), events);
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void everyChangeIsAnEvent() {
+        ArrayDeque<TartanGarageEvent> events = new ArrayDeque<TartanGarageEvent>();
+        TartanGarageEvent.diff(snapshot("SU:NG=0;XG=1;NIR=0;XIR=1;PO=[1=1,2=0,3=0]."),
+                snapshot("SU:NG=1;XG=1;NIR=1;XIR=0;PO=[1=0,2=0,3=1]."), events);
+
+        TartanGarageEvent event = events.poll();
+        Assert.assertEquals(TartanGarageEvent.Type.GATE_MOVED, event.getType());
+        Assert.assertEquals(TartanGarageEvent.Gate.ENTRY, event.getGate());
+        Assert.assertTrue(event.isOpen());
+
+        event = events.poll();
+        Assert.assertEquals(TartanGarageEvent.Type.BEAM_BROKEN, event.getType());
+        Assert.assertEquals(TartanGarageEvent.Gate.ENTRY, event.getGate());
+
+        event = events.poll();
+        Assert.assertEquals(TartanGarageEvent.Type.BEAM_CLEARED, event.getType());
+        Assert.assertEquals(TartanGarageEvent.Gate.EXIT, event.getGate());
+
+        event = events.poll();
+        Assert.assertEquals(TartanGarageEvent.Type.SPOT_VACATED, event.getType());
+        Assert.assertEquals(0, event.getSpot());
+
+        event = events.poll();
+        Assert.assertEquals(TartanGarageEvent.Type.SPOT_OCCUPIED, event.getType());
+        Assert.assertEquals(2, event.getSpot());
+        Assert.assertTrue(event.getState().isEntryGateOpen());
+
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void firstStateIsComparedWithAnEmptyGarage() {
+        ArrayDeque<TartanGarageEvent> events = new ArrayDeque<TartanGarageEvent>();
+        TartanGarageEvent.diff(TartanGarageSnapshot.EMPTY, snapshot("SU:NG=0;XIR=1;PO=[1=0,2=1]."), events);
+
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(TartanGarageEvent.Type.BEAM_BROKEN, events.poll().getType());
+        Assert.assertEquals(1, events.poll().getSpot());
+    }
+
+    @Test
+    public void unreportedParametersHaveNotChanged() {
+        ArrayDeque<TartanGarageEvent> events = new ArrayDeque<TartanGarageEvent>();
+        TartanGarageEvent.diff(snapshot("SU:NIR=1;PO=[1=1]."), snapshot("SU:XG=0."), events);
+        Assert.assertTrue(events.isEmpty());
+    }
+}
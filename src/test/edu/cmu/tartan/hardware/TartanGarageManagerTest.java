@@ -11,6 +11,9 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.IntStream;
 
 /**
@@ -32,6 +35,12 @@ public class TartanGarageManagerTest {
             updateGarageState
   */
 
+    private static CompletableFuture<String> noResponse() {
+        CompletableFuture<String> response = new CompletableFuture<String>();
+        response.completeExceptionally(new TimeoutException());
+        return response;
+    }
+
     @Before
     public void before() {
         conn = Mockito.spy(TartanGarageConnection.class);
@@ -47,14 +56,14 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.RED)
                 .append(TartanSensors.MSG_END);
 
-        Mockito.doReturn(TartanSensors.OK)
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
-        Boolean r = garageManager.setEntryLight(TartanSensors.RED);
+        Boolean r = garageManager.setEntryLight(TartanSensors.RED).join();
 
         Assert.assertTrue(r);
-        Mockito.verify(conn).sendMessageToGarage(cmd.toString());
+        Mockito.verify(conn).sendCommand(cmd.toString());
     }
 
 
@@ -67,15 +76,15 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(null)
+        Mockito.doReturn(noResponse())
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
 
-        boolean r = garageManager.setEntryLight(TartanSensors.RED);
+        boolean r = garageManager.setEntryLight(TartanSensors.RED).join();
 
         Assert.assertFalse(r);
-        Mockito.verify(conn).sendMessageToGarage(cmd.toString());
+        Mockito.verify(conn).sendCommand(cmd.toString());
     }
 
     @Test
@@ -86,16 +95,16 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.RED)
                 .append(TartanSensors.MSG_END);
 
-        Mockito.doReturn(TartanSensors.OK)
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
 
-        boolean r = garageManager.setExitLight(TartanSensors.RED);
+        boolean r = garageManager.setExitLight(TartanSensors.RED).join();
 
         Assert.assertTrue(r);
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
     @Test
@@ -107,16 +116,16 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(null)
+        Mockito.doReturn(noResponse())
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
 
-        boolean r = garageManager.setExitLight(TartanSensors.RED);
+        boolean r = garageManager.setExitLight(TartanSensors.RED).join();
 
         Assert.assertFalse(r);
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
     @Test
@@ -129,15 +138,15 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(TartanSensors.OK)
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
 
         garageManager.openEntryGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
     @Test
@@ -150,15 +159,15 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(null)
+        Mockito.doReturn(noResponse())
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
 
         garageManager.openEntryGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
 
@@ -171,14 +180,14 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.CLOSE)
                 .append(TartanSensors.MSG_END);
 
-        Mockito.doReturn(TartanSensors.OK)
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
         garageManager.closeEntryGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
 
@@ -192,14 +201,14 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(null)
+        Mockito.doReturn(noResponse())
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
         garageManager.closeEntryGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
 
@@ -213,14 +222,14 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(TartanSensors.OK)
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
         garageManager.openExitGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
 
@@ -234,14 +243,14 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(null)
+        Mockito.doReturn(noResponse())
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
         garageManager.openExitGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
 
@@ -255,14 +264,14 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(TartanSensors.OK)
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
 
         garageManager.closeExitGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
     @Test
@@ -275,13 +284,13 @@ public class TartanGarageManagerTest {
                 .append(TartanSensors.MSG_END);
 
 
-        Mockito.doReturn(null)
+        Mockito.doReturn(noResponse())
                 .when(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
         garageManager.closeExitGate();
 
         Mockito.verify(conn)
-                .sendMessageToGarage(cmd.toString());
+                .sendCommand(cmd.toString());
     }
 
     @Test
@@ -319,8 +328,7 @@ public class TartanGarageManagerTest {
 
     /**
      * startUpdateThread
-     * > alertVehicleAtEntry()
-     * > alertVehicleAtExit()
+     * > dispatchEvents()
      */
     @Test
     public void testStartUpdateThreadIsNotConnected() {
@@ -354,6 +362,297 @@ public class TartanGarageManagerTest {
 
     }
 
+    @Test
+    public void testUpdateGarageStateKeepsLastStateOnBadUpdate() {
+        Mockito.doReturn("SU:NG=0;XG=0;XIR=0;NIR=1;NL=R;XL=R;PO=[1=1,2=0,3=0,4=1];PL=[1=0,2=0,3=0,4=0].")
+                .doReturn("garbage")
+                .when(conn)
+                .sendMessageToGarage(TartanSensors.GET_STATE + TartanSensors.MSG_END);
+
+        Assert.assertNull(garageManager.getSpotOccupiedState());
+
+        garageManager.updateGarageState();
+        Assert.assertArrayEquals(new Integer[]{1, 0, 0, 1}, garageManager.getSpotOccupiedState());
+
+        garageManager.updateGarageState();
+        Assert.assertArrayEquals(new Integer[]{1, 0, 0, 1}, garageManager.getSpotOccupiedState());
+    }
+
+    @Test
+    public void testUnchangedUpdateKeepsSnapshot() {
+        Mockito.doReturn("SU:NIR=0;PO=[1=0,2=0].")
+                .doReturn("SU:NIR=0;PO=[1=0,2=0].")
+                .doReturn("SU:NIR=1;PO=[1=0,2=0].")
+                .when(conn)
+                .sendMessageToGarage(TartanSensors.GET_STATE + TartanSensors.MSG_END);
+
+        garageManager.updateGarageState();
+        TartanGarageSnapshot first = garageManager.getGarageState();
+        garageManager.updateGarageState();
+        Assert.assertSame(first, garageManager.getGarageState());
+
+        garageManager.updateGarageState();
+        TartanGarageSnapshot changed = garageManager.getGarageState();
+        Assert.assertNotSame(first, changed);
+        Assert.assertFalse(first.isEntryBeamBroken());
+        Assert.assertTrue(changed.isEntryBeamBroken());
+    }
+
+    @Test(timeout = 5000)
+    public void testReadersDoNotWaitForUpdate() throws Exception {
+        final CountDownLatch polling = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            polling.countDown();
+            answer.await();
+            return "SU:PO=[1=1,2=1].";
+        }).when(conn).sendMessageToGarage(TartanSensors.GET_STATE + TartanSensors.MSG_END);
+
+        Thread poll = new Thread(() -> garageManager.updateGarageState());
+        poll.start();
+        polling.await();
+
+        // the garage has not answered yet
+        Assert.assertNull(garageManager.getSpotOccupiedState());
+        Assert.assertSame(TartanGarageSnapshot.EMPTY, garageManager.getGarageState());
+
+        answer.countDown();
+        poll.join();
+        Assert.assertArrayEquals(new Integer[]{1, 1}, garageManager.getSpotOccupiedState());
+    }
+
+
+    @Test
+    public void testListenersReceiveChangesInOrder() {
+        Mockito.doReturn("SU:NIR=0;PO=[1=0,2=0].")
+                .doReturn("SU:NIR=1;PO=[1=0,2=0].")
+                .doReturn("SU:NIR=0;PO=[1=0,2=1].")
+                .when(conn)
+                .sendMessageToGarage(TartanSensors.GET_STATE + TartanSensors.MSG_END);
+
+        ArrayList<TartanGarageEvent> received = new ArrayList<TartanGarageEvent>();
+        garageManager.addListener(received::add);
+
+        garageManager.updateGarageState();
+        garageManager.updateGarageState();
+        garageManager.updateGarageState();
+        Assert.assertTrue(received.isEmpty());
+
+        garageManager.dispatchEvents();
+        Assert.assertEquals(3, received.size());
+        Assert.assertEquals(TartanGarageEvent.Type.BEAM_BROKEN, received.get(0).getType());
+        Assert.assertEquals(TartanGarageEvent.Type.BEAM_CLEARED, received.get(1).getType());
+        Assert.assertEquals(TartanGarageEvent.Type.SPOT_OCCUPIED, received.get(2).getType());
+        Assert.assertEquals(1, received.get(2).getSpot());
+
+        garageManager.dispatchEvents();
+        Assert.assertEquals(3, received.size());
+    }
+
+    @Test
+    public void testCapacityIsDiscoveredFromTheGarage() {
+        Mockito.doReturn("SU:SC=12;PO=#000.")
+                .when(conn)
+                .sendMessageToGarage(TartanSensors.GET_STATE + TartanSensors.MSG_END);
+
+        Assert.assertEquals(TartanGarageManager.DEFAULT_CAPACITY, garageManager.getCapacity().intValue());
+        garageManager.updateGarageState();
+
+        Assert.assertEquals(12, garageManager.getCapacity().intValue());
+        Assert.assertEquals(12, garageManager.getParkingSpots().size());
+        Assert.assertEquals(12, garageManager.getSpotOccupiedState().length);
+    }
+
+    @Test
+    public void testLargeGarageSendsSpotLightBitmap() {
+        garageManager = new TartanGarageManager(conn, 12);
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+
+        ArrayList<String> lightState = new ArrayList<String>();
+        for (int i = 0; i < garageManager.getCapacity(); i++) {
+            lightState.add(i == 0 || i == 5 || i == 11 ? TartanSensors.ON : TartanSensors.OFF);
+        }
+        Assert.assertTrue(garageManager.setParkingSpotLights(lightState).join());
+
+        Mockito.verify(conn).sendCommand("PL=#841.");
+    }
+
+    private static ArrayList<String> lights(int capacity, int... on) {
+        ArrayList<String> lightState = new ArrayList<String>();
+        for (int i = 0; i < capacity; i++) {
+            lightState.add(TartanSensors.OFF);
+        }
+        for (int spot : on) {
+            lightState.set(spot, TartanSensors.ON);
+        }
+        return lightState;
+    }
+
+    /**
+     * Have the garage report its optional features in a state update, such as "BL".
+     */
+    private void reportCapabilities(String capabilities) {
+        Mockito.doReturn("SU:CA=" + capabilities + ".")
+                .when(conn)
+                .sendMessageToGarage(TartanSensors.GET_STATE + TartanSensors.MSG_END);
+        garageManager.updateGarageState();
+    }
+
+    @Test
+    public void testSpotLightsSendOnlyTheSpotsThatChanged() {
+        reportCapabilities("L");
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(4, 1)).join());
+        Mockito.verify(conn).sendCommand("PL=[1=0,2=1,3=0,4=0].");
+
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(4, 1, 2)).join());
+        Mockito.verify(conn).sendCommand("PL=[3=1].");
+
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(4, 3)).join());
+        Mockito.verify(conn).sendCommand("PL=[2=0,3=0,4=1].");
+
+        // nothing changed, so nothing is sent
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(4, 3)).join());
+        Mockito.verify(conn, Mockito.times(3)).sendCommand(Mockito.anyString());
+    }
+
+    @Test
+    public void testSpotLightsAreResentAfterAFailure() {
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+        Mockito.doReturn(noResponse())
+                .when(conn)
+                .sendCommand("PL=[1=1,2=0,3=0,4=0].");
+        Assert.assertFalse(garageManager.setParkingSpotLights(lights(4, 0)).join());
+
+        // the garage may not have the first state, so the next one is sent complete
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(4, 1)).join());
+        Mockito.verify(conn).sendCommand("PL=[1=0,2=1,3=0,4=0].");
+    }
+
+    @Test
+    public void testLargeGarageSendsFewChangesAsAList() {
+        garageManager = new TartanGarageManager(conn, 100);
+        reportCapabilities("L");
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(100)).join());
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(100, 42)).join());
+        Mockito.verify(conn).sendCommand("PL=[43=1].");
+    }
+
+    @Test
+    public void testBatchIsSentAsOneLine() {
+        reportCapabilities("B");
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+
+        garageManager.startBatch();
+        CompletableFuture<Boolean> light = garageManager.setEntryLight(TartanSensors.RED);
+        CompletableFuture<Boolean> gate = garageManager.openEntryGate();
+        garageManager.setParkingSpotLights(lights(4));
+        garageManager.setEntryLight(TartanSensors.GREEN);
+        garageManager.setParkingSpotLights(lights(4, 2));
+        Assert.assertFalse(gate.isDone());
+        Mockito.verify(conn, Mockito.never()).sendCommand(Mockito.anyString());
+
+        Assert.assertTrue(garageManager.sendBatch().join());
+        Assert.assertTrue(light.join());
+        Assert.assertTrue(gate.join());
+        // the later light command replaces the earlier one in its place
+        Mockito.verify(conn).sendCommand("BA:NL=G;NG=1;PL=[1=0,2=0,3=1,4=0].");
+        Mockito.verify(conn, Mockito.times(1)).sendCommand(Mockito.anyString());
+    }
+
+    @Test
+    public void testBatchOfOneIsSentAsItIs() {
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+
+        garageManager.startBatch();
+        garageManager.startBatch();
+        garageManager.closeExitGate();
+        Assert.assertFalse(garageManager.sendBatch().isDone());
+        Assert.assertTrue(garageManager.sendBatch().join());
+        Mockito.verify(conn).sendCommand("XG=0.");
+
+        // an empty batch sends nothing
+        garageManager.startBatch();
+        Assert.assertTrue(garageManager.sendBatch().join());
+        Mockito.verify(conn, Mockito.times(1)).sendCommand(Mockito.anyString());
+    }
+
+    @Test
+    public void testUnacknowledgedBatchIsResentOneByOne() {
+        reportCapabilities("B");
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+        Mockito.doReturn(CompletableFuture.completedFuture(""))
+                .when(conn)
+                .sendCommand("BA:XL=G;XG=1.");
+
+        garageManager.startBatch();
+        garageManager.setExitLight(TartanSensors.GREEN);
+        garageManager.openExitGate();
+        Assert.assertTrue(garageManager.sendBatch().join());
+        Mockito.verify(conn).sendCommand("XL=G.");
+        Mockito.verify(conn).sendCommand("XG=1.");
+
+        // no more batches
+        garageManager.startBatch();
+        garageManager.setExitLight(TartanSensors.RED);
+        garageManager.closeExitGate();
+        Assert.assertTrue(garageManager.sendBatch().join());
+        Mockito.verify(conn).sendCommand("XL=R.");
+        Mockito.verify(conn).sendCommand("XG=0.");
+        Mockito.verify(conn, Mockito.times(5)).sendCommand(Mockito.anyString());
+    }
+
+    @Test
+    public void testGarageWithoutCapabilitiesIsSentPlainCommandsAndCompleteLists() {
+        // the stock garage acknowledges batches and light lists it does not carry out as sent
+        reportCapabilities("");
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+
+        garageManager.startBatch();
+        garageManager.setExitLight(TartanSensors.GREEN);
+        garageManager.openExitGate();
+        Assert.assertTrue(garageManager.sendBatch().join());
+        Mockito.verify(conn).sendCommand("XL=G.");
+        Mockito.verify(conn).sendCommand("XG=1.");
+
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(4, 1)).join());
+        Assert.assertTrue(garageManager.setParkingSpotLights(lights(4, 1, 2)).join());
+        Mockito.verify(conn).sendCommand("PL=[1=0,2=1,3=1,4=0].");
+        Mockito.verify(conn, Mockito.never()).sendCommand(Mockito.startsWith("BA:"));
+        Mockito.verify(conn, Mockito.times(4)).sendCommand(Mockito.anyString());
+    }
+
+    @Test
+    public void testAcknowledgedPushesAreNotReliedOnUntilOneArrives() {
+        // the stock garage acknowledges the request but never pushes
+        Mockito.doReturn(CompletableFuture.completedFuture(TartanSensors.OK))
+                .when(conn)
+                .sendCommand(Mockito.anyString());
+
+        Assert.assertTrue(garageManager.enablePushUpdates().join());
+        Assert.assertFalse(garageManager.isPushEnabled());
+        Assert.assertEquals(TartanGarageManager.MAX_POLL_INTERVAL, garageManager.nextPollInterval(
+                garageManager.getGarageState(), false, TartanGarageManager.MAX_POLL_INTERVAL));
+    }
 
     public void testEn() {
         ArrayList<String> lightState = new ArrayList<String>();
@@ -0,0 +1,234 @@
+package edu.cmu.tartan.hardware;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the garage manager against the simulated garage.
+ */
+public class TartanGarageSimulatorTest {
+
+    private TartanGarageSimulator garage;
+    private TartanGarageConnection conn;
+    private TartanGarageManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        garage = new TartanGarageSimulator(0, 4);
+        conn = new TartanGarageConnection();
+        Assert.assertTrue(conn.connect("localhost", garage.getPort()));
+        manager = new TartanGarageManager(conn);
+    }
+
+    @After
+    public void tearDown() {
+        conn.disconnect();
+        garage.close();
+    }
+
+    /**
+     * Wait for a condition, failing after two seconds.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void commandsAreAcknowledged() throws Exception {
+        Assert.assertTrue(manager.openEntryGate().join());
+        Assert.assertTrue(garage.isEntryGateOpen());
+
+        Assert.assertTrue(manager.updateGarageState());
+        Assert.assertTrue(manager.getGarageState().isEntryGateOpen());
+        Assert.assertFalse(manager.updateGarageState());
+    }
+
+    @Test
+    public void pushedUpdatesArePublishedWithoutPolling() throws Exception {
+        Assert.assertTrue(manager.enablePushUpdates().join());
+        Assert.assertFalse(manager.isPushEnabled());
+
+        garage.setEntryBeamBroken(true);
+        await(() -> manager.getGarageState().isEntryBeamBroken());
+        Assert.assertTrue(manager.isPushEnabled());
+
+        garage.setSpotOccupied(2, true);
+        await(() -> manager.getSpotOccupiedState() != null && manager.getSpotOccupiedState()[2] == 1);
+    }
+
+    @Test
+    public void stateIsPolledWithoutPushedUpdates() throws Exception {
+        garage.setExitBeamBroken(true);
+        Assert.assertFalse(manager.getGarageState().isExitBeamBroken());
+
+        Assert.assertTrue(manager.updateGarageState());
+        Assert.assertTrue(manager.getGarageState().isExitBeamBroken());
+    }
+
+    @Test
+    public void pollingSpeedsUpWhileAVehicleIsAtAGate() throws Exception {
+        TartanGarageSnapshot quiet = manager.getGarageState();
+        Assert.assertEquals(TartanGarageManager.MIN_POLL_INTERVAL,
+                manager.nextPollInterval(quiet, true, TartanGarageManager.MAX_POLL_INTERVAL));
+        Assert.assertEquals(2 * TartanGarageManager.MIN_POLL_INTERVAL,
+                manager.nextPollInterval(quiet, false, TartanGarageManager.MIN_POLL_INTERVAL));
+        Assert.assertEquals(TartanGarageManager.MAX_POLL_INTERVAL,
+                manager.nextPollInterval(quiet, false, TartanGarageManager.MAX_POLL_INTERVAL));
+
+        garage.setEntryBeamBroken(true);
+        manager.updateGarageState();
+        Assert.assertEquals(TartanGarageManager.MIN_POLL_INTERVAL,
+                manager.nextPollInterval(manager.getGarageState(), false, TartanGarageManager.MAX_POLL_INTERVAL));
+
+        // the garage is polled as before until it pushes an update
+        Assert.assertTrue(manager.enablePushUpdates().join());
+        Assert.assertEquals(TartanGarageManager.MIN_POLL_INTERVAL,
+                manager.nextPollInterval(manager.getGarageState(), false, TartanGarageManager.MAX_POLL_INTERVAL));
+
+        garage.setEntryBeamBroken(false);
+        await(manager::isPushEnabled);
+        Assert.assertEquals(TartanGarageManager.PUSH_POLL_INTERVAL,
+                manager.nextPollInterval(manager.getGarageState(), false, TartanGarageManager.MIN_POLL_INTERVAL));
+    }
+
+    @Test
+    public void updateThreadDeliversPushedChanges() throws Exception {
+        LinkedBlockingQueue<TartanGarageEvent> received = new LinkedBlockingQueue<TartanGarageEvent>();
+        manager.addListener(received::add);
+        Assert.assertTrue(manager.enablePushUpdates().join());
+        manager.startUpdateThread();
+
+        garage.setExitBeamBroken(true);
+        TartanGarageEvent event = received.poll(2, TimeUnit.SECONDS);
+        Assert.assertEquals(TartanGarageEvent.Type.BEAM_BROKEN, event.getType());
+        Assert.assertEquals(TartanGarageEvent.Gate.EXIT, event.getGate());
+
+        garage.setExitBeamBroken(false);
+        event = received.poll(2, TimeUnit.SECONDS);
+        Assert.assertEquals(TartanGarageEvent.Type.BEAM_CLEARED, event.getType());
+    }
+
+    @Test
+    public void batchIsCarriedOutInOneRequest() throws Exception {
+        // the manager learns from the state that the garage takes batches
+        Assert.assertTrue(manager.updateGarageState());
+        long before = garage.getRequestCount();
+        manager.startBatch();
+        manager.setEntryLight(TartanSensors.GREEN);
+        manager.openEntryGate();
+        ArrayList<String> lightState = new ArrayList<String>();
+        for (int i = 0; i < manager.getCapacity(); i++) {
+            lightState.add(i == 2 ? TartanSensors.ON : TartanSensors.OFF);
+        }
+        manager.setParkingSpotLights(lightState);
+        Assert.assertTrue(manager.sendBatch().join());
+
+        Assert.assertEquals(before + 1, garage.getRequestCount());
+        Assert.assertTrue(garage.isEntryGateOpen());
+        Assert.assertTrue(garage.isSpotLightOn(2));
+    }
+
+    @Test
+    public void lightListLeavesTheOtherSpotsAsTheyAre() throws Exception {
+        Assert.assertEquals("OK.", conn.sendMessageToGarage("PL=[1=1,2=1,3=0,4=0]."));
+        Assert.assertEquals("OK.", conn.sendMessageToGarage("PL=[2=0,3=1]."));
+        Assert.assertTrue(garage.isSpotLightOn(0));
+        Assert.assertFalse(garage.isSpotLightOn(1));
+        Assert.assertTrue(garage.isSpotLightOn(2));
+        Assert.assertFalse(garage.isSpotLightOn(3));
+    }
+
+    @Test
+    public void commandListenerIsToldEachCommandCarriedOut() throws Exception {
+        LinkedBlockingQueue<String> commands = new LinkedBlockingQueue<String>();
+        garage.setCommandListener(commands::add);
+
+        Assert.assertTrue(manager.updateGarageState());
+        manager.startBatch();
+        manager.setEntryLight(TartanSensors.GREEN);
+        manager.openEntryGate();
+        Assert.assertTrue(manager.sendBatch().join());
+
+        Assert.assertEquals("NL=G.", commands.poll(2, TimeUnit.SECONDS));
+        Assert.assertEquals("NG=1.", commands.poll(2, TimeUnit.SECONDS));
+        Assert.assertTrue(commands.isEmpty());
+    }
+
+    @Test
+    public void answersWaitForTheResponseLatency() throws Exception {
+        garage.setResponseLatency(100, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        Assert.assertTrue(manager.openExitGate().join());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+    }
+
+    @Test
+    public void sensorNoiseMisreadsOneSpotPerReport() throws Exception {
+        garage.setSpotOccupied(1, true);
+        garage.setSensorNoise(1.0, 7);
+
+        Assert.assertTrue(manager.updateGarageState());
+        int misread = 0;
+        for (int i = 0; i < garage.getCapacity(); i++) {
+            if ((manager.getGarageState().getSpotOccupied(i) != 0) != garage.isSpotOccupied(i)) {
+                misread++;
+            }
+        }
+        Assert.assertEquals(1, misread);
+    }
+
+    @Test
+    public void pollAnsweredBeforeAPushDoesNotUndoIt() throws Exception {
+        Assert.assertTrue(manager.enablePushUpdates().join());
+        Assert.assertTrue(manager.updateGarageState());
+
+        // the poll is answered with the state before the vehicle parked, but the answer comes after the push
+        garage.setResponseLatency(200, TimeUnit.MILLISECONDS);
+        CompletableFuture<Boolean> poll = CompletableFuture.supplyAsync(manager::updateGarageState);
+        Thread.sleep(50);
+        garage.setSpotOccupied(2, true);
+        await(() -> manager.getGarageState().getSpotOccupied(2) == 1);
+
+        Assert.assertFalse(poll.get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(1, manager.getGarageState().getSpotOccupied(2));
+    }
+
+    @Test
+    public void largeGarageReportsItsSpots() throws Exception {
+        TartanGarageSimulator large = new TartanGarageSimulator(0, 2000);
+        TartanGarageConnection largeConn = new TartanGarageConnection();
+        try {
+            Assert.assertTrue(largeConn.connect("localhost", large.getPort()));
+            TartanGarageManager largeManager = new TartanGarageManager(largeConn);
+            large.setSpotOccupied(1500, true);
+
+            Assert.assertTrue(largeManager.updateGarageState());
+            Assert.assertEquals(2000, largeManager.getCapacity().intValue());
+            Assert.assertEquals(1, largeManager.getGarageState().getSpotOccupied(1500));
+            Assert.assertEquals(0, largeManager.getGarageState().getSpotOccupied(1501));
+
+            ArrayList<String> lightState = new ArrayList<String>();
+            for (int i = 0; i < largeManager.getCapacity(); i++) {
+                lightState.add(i == 1999 ? TartanSensors.ON : TartanSensors.OFF);
+            }
+            Assert.assertTrue(largeManager.setParkingSpotLights(lightState).join());
+            Assert.assertTrue(largeManager.updateGarageState());
+            Assert.assertEquals(1, largeManager.getGarageState().getSpotLight(1999));
+        } finally {
+            largeConn.disconnect();
+            large.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package edu.cmu.tartan.hardware;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TartanGarageStateTest {
+
+    private static final String UPDATE =
+            "SU:NG=1;XG=0;XIR=0;NIR=1;NL=G;XL=R;PO=[1=1,2=0,3=0,4=1];PL=[1=0,2=1,3=0,4=0].";
+
+    private TartanGarageState state;
+
+    @Before
+    public void setUp() {
+        state = new TartanGarageState();
+    }
+
+    @Test
+    public void parsesEveryParameter() {
+        Assert.assertTrue(state.parse(UPDATE));
+
+        Assert.assertTrue(state.isEntryGateOpen());
+        Assert.assertFalse(state.isExitGateOpen());
+        Assert.assertTrue(state.isEntryBeamBroken());
+        Assert.assertFalse(state.isExitBeamBroken());
+        Assert.assertEquals(TartanGarageState.LIGHT_GREEN, state.getEntryLight());
+        Assert.assertEquals(TartanGarageState.LIGHT_RED, state.getExitLight());
+
+        Assert.assertEquals(4, state.getSpotOccupiedCount());
+        Assert.assertArrayEquals(new byte[]{1, 0, 0, 1}, new byte[]{
+                state.getSpotOccupied(0), state.getSpotOccupied(1), state.getSpotOccupied(2), state.getSpotOccupied(3)});
+        Assert.assertEquals(4, state.getSpotLightCount());
+        Assert.assertEquals(1, state.getSpotLight(1));
+        Assert.assertEquals(0, state.getSpotLight(0));
+
+        Assert.assertTrue(state.has(TartanGarageState.ENTRY_GATE | TartanGarageState.PARKING_SPOT_LIGHT));
+    }
+
+    @Test
+    public void missingParametersAreNotReported() {
+        Assert.assertTrue(state.parse(UPDATE));
+        Assert.assertTrue(state.parse("SU:XIR=1;FOO=3;PO=[1=0,2=1]"));
+
+        Assert.assertTrue(state.has(TartanGarageState.EXIT_IR));
+        Assert.assertTrue(state.isExitBeamBroken());
+        Assert.assertFalse(state.has(TartanGarageState.ENTRY_IR));
+        Assert.assertFalse(state.has(TartanGarageState.PARKING_SPOT_LIGHT));
+        Assert.assertEquals(2, state.getSpotOccupiedCount());
+        Assert.assertEquals(1, state.getSpotOccupied(1));
+    }
+
+    @Test
+    public void rejectsOtherMessages() {
+        Assert.assertFalse(state.parse("OK"));
+        Assert.assertFalse(state.parse(""));
+        Assert.assertFalse(state.parse("SU"));
+        Assert.assertFalse(state.has(TartanGarageState.ENTRY_IR));
+    }
+
+    @Test
+    public void rejectsMalformedUpdates() {
+        Assert.assertFalse(state.parse("SU:NG"));
+        Assert.assertFalse(state.parse("SU:PO=[1=1,2=0."));
+        Assert.assertFalse(state.parse("SU:PO=[1=1,x=0]."));
+        Assert.assertFalse(state.parse("SU:PO=[1=1]NG=1."));
+        Assert.assertEquals(0, state.getSpotOccupiedCount());
+    }
+
+    @Test
+    public void ignoresSpotsBeyondTheLast() {
+        Assert.assertTrue(state.parse("SU:PO=[1=1," + (TartanGarageState.MAX_SPOTS + 1) + "=1]."));
+        Assert.assertEquals(1, state.getSpotOccupiedCount());
+    }
+
+    @Test
+    public void parsesBitmaps() {
+        Assert.assertTrue(state.parse("SU:SC=6;PO=#94;PL=#0C."));
+
+        Assert.assertEquals(6, state.getSpotCount());
+        Assert.assertEquals(6, state.getSpotOccupiedCount());
+        Assert.assertArrayEquals(new byte[]{1, 0, 0, 1, 0, 1}, new byte[]{
+                state.getSpotOccupied(0), state.getSpotOccupied(1), state.getSpotOccupied(2),
+                state.getSpotOccupied(3), state.getSpotOccupied(4), state.getSpotOccupied(5)});
+        Assert.assertEquals(6, state.getSpotLightCount());
+        Assert.assertEquals(1, state.getSpotLight(4));
+        Assert.assertEquals(1, state.getSpotLight(5));
+        Assert.assertEquals(0, state.getSpotLight(3));
+        Assert.assertTrue(state.has(TartanGarageState.SPOT_COUNT));
+    }
+
+    @Test
+    public void bitmapIsTrimmedToTheSpotCount() {
+        Assert.assertTrue(state.parse("SU:PO=#FF;SC=5."));
+        Assert.assertEquals(5, state.getSpotOccupiedCount());
+
+        // the spots past the count are not left behind for a later update
+        Assert.assertTrue(state.parse("SU:PO=#FF."));
+        Assert.assertEquals(8, state.getSpotOccupiedCount());
+        Assert.assertTrue(state.parse("SU:SC=5;PO=[1=1]."));
+        Assert.assertEquals(0, state.getSpotOccupied(5));
+    }
+
+    @Test
+    public void parsesCapabilities() {
+        Assert.assertTrue(state.parse("SU:NG=0;SC=4;CA=BLX;PO=#0."));
+        Assert.assertTrue(state.has(TartanGarageState.CAPABILITIES));
+        Assert.assertTrue(state.can(TartanGarageState.CAN_BATCH));
+        Assert.assertTrue(state.can(TartanGarageState.CAN_LIST_CHANGES));
+
+        // a garage that does not report them supports none
+        Assert.assertTrue(state.parse("SU:NG=0;SC=4;PO=#0."));
+        Assert.assertFalse(state.can(TartanGarageState.CAN_BATCH));
+        Assert.assertFalse(state.can(TartanGarageState.CAN_LIST_CHANGES));
+    }
+
+    @Test
+    public void rejectsMalformedBitmaps() {
+        Assert.assertFalse(state.parse("SU:PO=#9G."));
+        Assert.assertFalse(state.parse("SU:SC=x;PO=#9."));
+    }
+
+    @Test
+    public void growsToLargeGarages() {
+        StringBuilder list = new StringBuilder("SU:PO=[");
+        StringBuilder bitmap = new StringBuilder("SU:SC=2000;PO=#");
+        for (int i = 1; i <= 2000; i++) {
+            list.append(i).append('=').append(i % 7 == 0 ? 1 : 0).append(i < 2000 ? "," : "].");
+        }
+        for (int i = 0; i < 2000; i += 4) {
+            int digit = 0;
+            for (int b = 0; b < 4; b++) {
+                if ((i + b + 1) % 7 == 0) {
+                    digit |= 8 >>> b;
+                }
+            }
+            bitmap.append(Integer.toHexString(digit));
+        }
+
+        Assert.assertTrue(state.parse(list));
+        Assert.assertEquals(2000, state.getSpotOccupiedCount());
+        for (int i = 0; i < 2000; i++) {
+            Assert.assertEquals((i + 1) % 7 == 0 ? 1 : 0, state.getSpotOccupied(i));
+        }
+
+        Assert.assertTrue(state.parse(bitmap));
+        Assert.assertEquals(2000, state.getSpotOccupiedCount());
+        for (int i = 0; i < 2000; i++) {
+            Assert.assertEquals((i + 1) % 7 == 0 ? 1 : 0, state.getSpotOccupied(i));
+        }
+    }
+}
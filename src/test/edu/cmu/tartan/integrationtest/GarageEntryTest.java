@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.Matchers.anyString;
 
@@ -63,7 +64,7 @@ public class GarageEntryTest {
         msgBus = PowerMockito.mock(TartanServiceMessageBus.class);
         consumer = PowerMockito.mock(MessageConsumer.class);
         producer = PowerMockito.mock(MessageProducer.class);
-        PowerMockito.when(msgBus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(consumer);
+        PowerMockito.when(msgBus.getConsumer(Mockito.eq(TartanServiceMessageBus.TARTAN_TOPIC), Mockito.anyString())).thenReturn(consumer);
         PowerMockito.when(msgBus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(producer);
         PowerMockito.mockStatic(TartanServiceMessageBus.class);
         PowerMockito.when(TartanServiceMessageBus.connect()).thenReturn(msgBus);
@@ -127,6 +128,13 @@ public class GarageEntryTest {
             }
         }).when(connection, "sendMessageToGarage", anyString());
 
+        PowerMockito.doAnswer(new Answer<CompletableFuture<String>>() {
+            @Override
+            public CompletableFuture<String> answer(InvocationOnMock invocation) throws Throwable {
+                return CompletableFuture.completedFuture(connection.sendMessageToGarage((String) invocation.getArguments()[0]));
+            }
+        }).when(connection, "sendCommand", anyString());
+
         garage.startGarage(settings);
         Field fields[] = garage.getClass().getDeclaredFields();
         for (Field field : fields) {
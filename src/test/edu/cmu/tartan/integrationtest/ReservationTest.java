@@ -37,7 +37,7 @@ public class ReservationTest {
         consumer = PowerMockito.mock(MessageConsumer.class);
         producer = PowerMockito.mock(MessageProducer.class);
         reservationStore = PowerMockito.mock(ReservationStore.class);
-        PowerMockito.when(msgBus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(consumer);
+        PowerMockito.when(msgBus.getConsumer(Mockito.eq(TartanServiceMessageBus.TARTAN_TOPIC), Mockito.anyString())).thenReturn(consumer);
         PowerMockito.when(msgBus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(producer);
         PowerMockito.mockStatic(TartanServiceMessageBus.class);
         PowerMockito.when(TartanServiceMessageBus.connect()).thenReturn(msgBus);
@@ -7,6 +7,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -41,7 +42,7 @@ public class AdminServiceTest {
         consumer = PowerMockito.mock(MessageConsumer.class);
         producer = PowerMockito.mock(MessageProducer.class);
 
-        PowerMockito.when(msgBus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(consumer);
+        PowerMockito.when(msgBus.getConsumer(Mockito.eq(TartanServiceMessageBus.TARTAN_TOPIC), Mockito.anyString())).thenReturn(consumer);
         PowerMockito.when(msgBus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(producer);
         PowerMockito.mockStatic(TartanServiceMessageBus.class);
         PowerMockito.when(TartanServiceMessageBus.connect()).thenReturn(msgBus);
@@ -130,11 +131,68 @@ public class AdminServiceTest {
         message.put(TartanParams.COMMAND, TartanParams.MSG_GET_STATISTICAL_DATA);
 
         adminService.handleMessage(message);
-        Vector<Reservation> reservations = adminService.getReservations();
         Mockito.verify(adminService).handleGetStatisticalData(message);
-        Mockito.verify(adminService).getRevenue(reservations);
-        Mockito.verify(adminService).getAverageOccupancy(reservations);
-        Mockito.verify(adminService).getPeakUsageHours(reservations);
+        Mockito.verify(adminService).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
+    }
+
+    @Test
+    public void handleMessage_StatisticsUpdated_If_MSG_PAYMENT_COMPLETE() throws Exception {
+        Reservation paid = new Reservation();
+        paid.setCustomerName("A");
+        paid.setVehicleID("PA38234");
+        paid.setStartTime("2017:07:25:10:45");
+        paid.setEndTime("2017:07:25:12:11");
+        paid.setPayment(new Payment(30L));
+        HashMap<String, Object> payment = new HashMap<>();
+        payment.put(TartanParams.COMMAND, TartanParams.MSG_PAYMENT_COMPLETE);
+        payment.put(TartanParams.PAYLOAD, paid);
+
+        // the same payment delivered twice is only counted once
+        adminService.handleMessage(payment);
+        adminService.handleMessage(payment);
+
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.COMMAND, TartanParams.MSG_GET_STATISTICAL_DATA);
+        adminService.handleMessage(message);
+
+        ArgumentCaptor<HashMap> result = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(adminService).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), result.capture());
+        Vector<Reservation> reservations = new Vector<>();
+        reservations.add(paid);
+        Assert.assertEquals(30L, result.getValue().get(TartanParams.REVENUE));
+        Assert.assertEquals(adminService.getAverageOccupancy(reservations), result.getValue().get(TartanParams.AVERAGE_OCCUPANCY));
+        Assert.assertEquals(adminService.getPeakUsageHours(reservations), result.getValue().get(TartanParams.PEAK_USAGE_HOURS));
+    }
+
+    @Test
+    public void run_PaymentCountedOnce_If_PaymentArrivesBeforeLoad() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("admin");
+        java.nio.file.Files.write(dir.resolve("statics.txt"), Arrays.asList(
+                "name=A,start=2017:07:25:10:45,end=2017:07:25:12:11,vehicle=PA38234,spot=1,paid=true,fee=30",
+                "name=B,start=2017:07:25:13:00,end=2017:07:25:14:00,vehicle=PB12345,spot=2,paid=true,fee=20"),
+                StandardCharsets.UTF_8);
+        adminService = Mockito.spy(new AdminService(dir.toString()));
+
+        // the payment was recorded in statics.txt, and its message is handled before the file is loaded
+        Reservation paid = new Reservation();
+        paid.setCustomerName("A");
+        paid.setVehicleID("PA38234");
+        paid.setStartTime("2017:07:25:10:45");
+        paid.setEndTime("2017:07:25:12:11");
+        paid.setPayment(new Payment(30L));
+        HashMap<String, Object> payment = new HashMap<>();
+        payment.put(TartanParams.COMMAND, TartanParams.MSG_PAYMENT_COMPLETE);
+        payment.put(TartanParams.PAYLOAD, paid);
+        adminService.handleMessage(payment);
+        adminService.run();
+
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.COMMAND, TartanParams.MSG_GET_STATISTICAL_DATA);
+        adminService.handleMessage(message);
+
+        ArgumentCaptor<HashMap> result = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(adminService).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), result.capture());
+        Assert.assertEquals(50L, result.getValue().get(TartanParams.REVENUE));
     }
 
     @Test
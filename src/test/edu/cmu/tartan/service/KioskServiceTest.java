@@ -6,6 +6,7 @@ import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
 import junit.framework.Assert;
 
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
@@ -43,7 +44,7 @@ public class KioskServiceTest {
         window = Mockito.mock(TartanKioskWindow.class);
         payment = Mockito.mock(Payment.class);
 
-        PowerMockito.when(msgBus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(consumer);
+        PowerMockito.when(msgBus.getConsumer(Mockito.eq(TartanServiceMessageBus.TARTAN_TOPIC), Mockito.anyString())).thenReturn(consumer);
         PowerMockito.when(msgBus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(producer);
         PowerMockito.mockStatic(TartanServiceMessageBus.class);
         PowerMockito.when(TartanServiceMessageBus.connect()).thenReturn(msgBus);
@@ -212,6 +213,25 @@ public class KioskServiceTest {
         Mockito.verify(window).showError(Mockito.anyString());
     }
 
+    @org.junit.Test
+    public void batchReservationIsSentAndConfirmedOnce() throws Exception {
+        Vector<Reservation> batch = new Vector<>();
+        batch.add(Mockito.mock(Reservation.class));
+        batch.add(Mockito.mock(Reservation.class));
+
+        kioskService.makeBatchReservation(batch);
+        ArgumentCaptor<HashMap> request = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(kioskService).sendMessage(Mockito.eq(ReservationService.RESERVATION_SERVICE), request.capture());
+        Assert.assertEquals(TartanParams.MSG_NEW_BATCH_RSVP, request.getValue().get(TartanParams.COMMAND));
+        Assert.assertSame(batch, request.getValue().get(TartanParams.PAYLOAD));
+
+        HashMap<String, Object> msg = new HashMap<String, Object>();
+        msg.put(TartanParams.COMMAND, TartanParams.MSG_NEW_BATCH_RSVP);
+        msg.put(TartanParams.PAYLOAD, batch);
+        kioskService.handleMessage(msg);
+        Mockito.verify(window).confirmReservations(batch);
+    }
+
     @org.junit.Test
     public void newReservationMsgHandle() throws Exception {
         HashMap<String, Object> msg = new HashMap<String, Object>();
@@ -0,0 +1,134 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the message bodies sent as ObjectMessages, which are Java serialized, with the same bodies written by
+ * TartanMessageCodec. The size of each payload is printed when the trial starts.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; edu.cmu.tartan.service.MessageCodecBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageCodecBenchmark {
+
+    /**
+     * newRsvp: a kiosk reservation request. payment: a paid reservation with its payment. occupancy: a parking
+     * spot update with the occupied state. getAll: a list of twenty reservations.
+     */
+    @Param({"newRsvp", "payment", "occupancy", "getAll"})
+    public String message;
+
+    private HashMap<String, Object> body;
+
+    private byte[] serialized;
+    private byte[] encoded;
+
+    private static Reservation newReservation(int i) {
+        Reservation rsvp = new Reservation();
+        rsvp.setCustomerName("customer" + i);
+        rsvp.setVehicleID("PA" + (38234 + i));
+        rsvp.setStartTime("2017:08:04:17:00");
+        rsvp.setEndTime("2017:08:05:17:00");
+        rsvp.setSpotId(i % 4);
+        return rsvp;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        body = new HashMap<String, Object>();
+        switch (message) {
+            case "newRsvp":
+                body.put(TartanParams.COMMAND, TartanParams.MSG_NEW_RSVP);
+                body.put(TartanParams.PAYLOAD, newReservation(0));
+                body.put(TartanParams.SOURCE_ID, KioskService.KIOSK_SERVICE);
+                break;
+            case "payment":
+                Reservation rsvp = newReservation(0);
+                Payment payment = new Payment(30L);
+                payment.setCcNum("1234567812345678");
+                payment.setCcExpDate("January\\2030");
+                payment.setCcName("customer0");
+                payment.setReservation(rsvp);
+                rsvp.setPayment(payment);
+                rsvp.setIsPaid(true);
+                body.put(TartanParams.COMMAND, TartanParams.MSG_PAYMENT_COMPLETE);
+                body.put(TartanParams.PAYLOAD, rsvp);
+                body.put(TartanParams.SOURCE_ID, PaymentService.PAYMENT_SERVICE);
+                break;
+            case "occupancy":
+                body.put(TartanParams.COMMAND, TartanParams.MSG_VEHICLE_AT_EXIT);
+                body.put(TartanParams.CURRENT_OCCUPIED_STATE, new Integer[]{1, 0, 1, 1});
+                body.put(TartanParams.PAYLOAD, newReservation(0));
+                body.put(TartanParams.SOURCE_ID, ParkingService.PARKING_SERVICE);
+                break;
+            default:
+                Vector<Reservation> rsvps = new Vector<Reservation>();
+                for (int i = 0; i < 20; i++) {
+                    rsvps.add(newReservation(i));
+                }
+                body.put(TartanParams.COMMAND, TartanParams.MSG_GET_ALL_RSVP);
+                body.put(TartanParams.PAYLOAD, rsvps);
+                body.put(TartanParams.SOURCE_ID, ReservationService.RESERVATION_SERVICE);
+                break;
+        }
+
+        serialized = serialize();
+        encoded = encode();
+        System.out.println();
+        System.out.println(message + ": serialized " + serialized.length + " bytes, encoded " + encoded.length
+                + " bytes");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return ois.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return TartanMessageCodec.encode(body);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return TartanMessageCodec.decode(encoded);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MessageCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
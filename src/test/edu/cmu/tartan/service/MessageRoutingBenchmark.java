@@ -0,0 +1,133 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures messages per second through the Tartan topic with one bus connection per service, as the services
+ * run. "broadcast" delivers every message to every service, which deserializes it and then drops it if it is
+ * addressed to someone else. "selector" lets the broker deliver each message to its target only.
+ * <p>
+ * An in-memory broker is used, so the numbers leave out the network but keep serialization.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; edu.cmu.tartan.service.MessageRoutingBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Dorg.apache.activemq.SERIALIZABLE_PACKAGES=*"})
+@State(Scope.Benchmark)
+public class MessageRoutingBenchmark {
+
+    private static final String BROKER_URL = "vm://tartan-benchmark?broker.persistent=false&broker.useJmx=false";
+
+    private static final String[] SERVICES = {
+            KioskService.KIOSK_SERVICE,
+            ReservationService.RESERVATION_SERVICE,
+            PaymentService.PAYMENT_SERVICE,
+            ParkingService.PARKING_SERVICE,
+            AdminService.ADMIN_SERVICE,
+            "GuidanceService"};
+
+    private static final int BATCH = 1000;
+
+    @Param({"broadcast", "selector"})
+    public String routing;
+
+    private List<TartanServiceMessageBus> buses = new ArrayList<TartanServiceMessageBus>();
+
+    private TartanServiceMessageBus publisher;
+    private MessageProducer producer;
+
+    private final Semaphore handled = new Semaphore(0);
+
+    private HashMap<String, Object> body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        publisher = TartanServiceMessageBus.connect(BROKER_URL);
+        producer = publisher.getProducer(TartanServiceMessageBus.TARTAN_TOPIC);
+
+        for (final String service : SERVICES) {
+            TartanServiceMessageBus bus = TartanServiceMessageBus.connect(BROKER_URL);
+            buses.add(bus);
+
+            MessageConsumer consumer;
+            if (routing.equals("selector")) {
+                consumer = bus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC, service);
+                consumer.setMessageListener(message -> {
+                    try {
+                        if (service.equals(message.getStringProperty(TartanParams.SERVICE_ID))) {
+                            TartanServiceMessageBus.readMessage(message);
+                            handled.release();
+                        }
+                    } catch (JMSException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } else {
+                consumer = bus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC);
+                consumer.setMessageListener(message -> {
+                    try {
+                        TartanServiceMessageBus.readMessage(message);
+                        if (service.equals(message.getStringProperty(TartanParams.SERVICE_ID))) {
+                            handled.release();
+                        }
+                    } catch (JMSException e) {
+                        e.printStackTrace();
+                    }
+                });
+            }
+        }
+
+        // a typical message: a reservation being passed between services
+        Reservation rsvp = new Reservation();
+        rsvp.setCustomerName("Jeff");
+        rsvp.setVehicleID("PA38234");
+        rsvp.setStartTime("2017:08:04:17:00");
+        rsvp.setEndTime("2017:08:05:17:00");
+        rsvp.setSpotId(2);
+        body = new HashMap<String, Object>();
+        body.put(TartanParams.COMMAND, TartanParams.MSG_NEW_RSVP);
+        body.put(TartanParams.PAYLOAD, rsvp);
+        body.put(TartanParams.SOURCE_ID, KioskService.KIOSK_SERVICE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (TartanServiceMessageBus bus : buses) {
+            bus.disconnect();
+        }
+        publisher.disconnect();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendAndDeliver() throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            producer.send(publisher.generateMessage(body, SERVICES[i % SERVICES.length]));
+        }
+        handled.acquire(BATCH);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MessageRoutingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
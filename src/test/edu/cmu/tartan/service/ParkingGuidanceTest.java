@@ -0,0 +1,91 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guidance runs on its timer thread, so every call is made there.
+ */
+public class ParkingGuidanceTest {
+
+    private static final long DEADLINE = 200;
+
+    private ScheduledExecutorService timer;
+    private ParkingGuidance guidance;
+
+    /** The outcomes, as reservation and actual spot */
+    private final LinkedBlockingQueue<Object[]> parked = new LinkedBlockingQueue<Object[]>();
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        guidance = new ParkingGuidance(timer, DEADLINE, (rsvp, spot) -> parked.add(new Object[]{rsvp, spot}));
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private void onTimer(Runnable r) throws Exception {
+        timer.submit(r).get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void vehicleParksInItsSpot() throws Exception {
+        Reservation rsvp = new Reservation();
+        onTimer(() -> guidance.guide(rsvp, 1));
+        onTimer(() -> Assert.assertEquals(Arrays.asList(1), guidance.getGuidedSpots()));
+
+        onTimer(() -> guidance.spotOccupied(1));
+        Object[] outcome = parked.poll(1, TimeUnit.SECONDS);
+        Assert.assertSame(rsvp, outcome[0]);
+        Assert.assertEquals(1, outcome[1]);
+        onTimer(() -> Assert.assertTrue(guidance.getGuidedSpots().isEmpty()));
+
+        // the deadline no longer applies
+        Assert.assertNull(parked.poll(2 * DEADLINE, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void firstVehicleInTakesAnUnreservedSpot() throws Exception {
+        Reservation first = new Reservation();
+        Reservation second = new Reservation();
+        onTimer(() -> guidance.guide(first, 0));
+        onTimer(() -> guidance.guide(second, 1));
+
+        // spot 1 belongs to the second vehicle, so the first is resolved only by spot 3
+        onTimer(() -> guidance.spotOccupied(1));
+        Assert.assertSame(second, parked.poll(1, TimeUnit.SECONDS)[0]);
+
+        onTimer(() -> guidance.spotOccupied(3));
+        Object[] outcome = parked.poll(1, TimeUnit.SECONDS);
+        Assert.assertSame(first, outcome[0]);
+        Assert.assertEquals(3, outcome[1]);
+    }
+
+    @Test
+    public void vehicleNotSeenParkingIsResolvedAtTheDeadline() throws Exception {
+        Reservation rsvp = new Reservation();
+        onTimer(() -> guidance.guide(rsvp, 2));
+
+        Object[] outcome = parked.poll(10 * DEADLINE, TimeUnit.MILLISECONDS);
+        Assert.assertSame(rsvp, outcome[0]);
+        Assert.assertEquals(TartanParams.INVALID_SPOT, outcome[1]);
+    }
+
+    @Test
+    public void occupancyWithNobodyGuidedIsIgnored() throws Exception {
+        onTimer(() -> guidance.spotOccupied(0));
+        Assert.assertNull(parked.poll(DEADLINE, TimeUnit.MILLISECONDS));
+    }
+}
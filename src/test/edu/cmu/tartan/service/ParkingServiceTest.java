@@ -2,7 +2,9 @@ package edu.cmu.tartan.service;
 
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+import edu.cmu.tartan.hardware.TartanGarageEvent;
 import edu.cmu.tartan.hardware.TartanGarageManager;
+import edu.cmu.tartan.hardware.TartanGarageSnapshot;
 import edu.cmu.tartan.hardware.TartanSensors;
 import org.junit.*;
 import org.junit.runner.RunWith;
@@ -36,18 +38,32 @@ public class ParkingServiceTest {
     private MessageProducer producer;
     private TartanGarageManager garageMgrMock;
 
+    /** Gates are kept open for a short time so that the gate sequences finish quickly */
+    private static final long GATE_OPEN_TIME = 50;
+
+    /** Vehicles that are not seen parking are given up on quickly */
+    private static final long GUIDANCE_DEADLINE = 200;
+    private static final int TIMEOUT = 2000;
+
     @Before
     public void setUp() throws Exception {
         msgBus = PowerMockito.mock(TartanServiceMessageBus.class);
         consumer = PowerMockito.mock(MessageConsumer.class);
         producer = PowerMockito.mock(MessageProducer.class);
         garageMgrMock = Mockito.mock(TartanGarageManager.class);
-        PowerMockito.when(msgBus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(consumer);
+        PowerMockito.when(msgBus.getConsumer(Mockito.eq(TartanServiceMessageBus.TARTAN_TOPIC), Mockito.anyString())).thenReturn(consumer);
         PowerMockito.when(msgBus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(producer);
         PowerMockito.mockStatic(TartanServiceMessageBus.class);
         PowerMockito.when(TartanServiceMessageBus.connect()).thenReturn(msgBus);
         cutSpyPower = PowerMockito.spy(new ParkingService());
         Whitebox.setInternalState(cutSpyPower, "garageManager", garageMgrMock);
+        Whitebox.setInternalState(cutSpyPower, "gateOpenTime", GATE_OPEN_TIME);
+        Whitebox.setInternalState(cutSpyPower, "guidanceDeadline", GUIDANCE_DEADLINE);
+    }
+
+    private static TartanGarageEvent spotOccupied(int spot) {
+        return new TartanGarageEvent(TartanGarageEvent.Type.SPOT_OCCUPIED, null, spot, false,
+                TartanGarageSnapshot.EMPTY);
     }
 
     @After
@@ -76,7 +92,7 @@ public class ParkingServiceTest {
         Mockito.when(garageMgrMock.getSpotOccupiedState()).thenReturn(new Integer[]{1, 0, 0, 0});
         cutSpyPower.handleMessage(msg);
 
-        Mockito.verify(cutSpyPower).sendMessage(Mockito.eq(ReservationService.RESERVATION_SERVICE), Mockito.any(HashMap.class));
+        Mockito.verify(cutSpyPower, Mockito.timeout(TIMEOUT)).sendMessage(Mockito.eq(ReservationService.RESERVATION_SERVICE), Mockito.any(HashMap.class));
     }
 
     @Test
@@ -92,11 +108,11 @@ public class ParkingServiceTest {
 
         cutSpyPower.handleMessage(msg);
 
+        Mockito.verify(cutSpyPower, Mockito.timeout(TIMEOUT).times(2)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
         Mockito.verify(garageMgrMock).setEntryLight(TartanSensors.GREEN);
         Mockito.verify(garageMgrMock).openEntryGate();
         Mockito.verify(garageMgrMock).setEntryLight(TartanSensors.RED);
         Mockito.verify(garageMgrMock).closeEntryGate();
-        Mockito.verify(cutSpyPower, Mockito.times(2)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
 
         ArgumentCaptor<String> keyMsg = ArgumentCaptor.forClass(String.class);
         ArgumentCaptor<HashMap> responseMsg = ArgumentCaptor.forClass(HashMap.class);
@@ -116,15 +132,74 @@ public class ParkingServiceTest {
 
         Mockito.when(garageMgrMock.isConnected()).thenReturn(true);
         Mockito.when(reservation.getSpotId()).thenReturn(0);
-        Mockito.when(garageMgrMock.getSpotOccupiedState()).thenReturn(new Integer[]{0, 0, 0, 0}).thenReturn(new Integer[]{1, 0, 0, 0});
+        Mockito.when(garageMgrMock.getSpotOccupiedState()).thenReturn(new Integer[]{0, 0, 0, 0});
 
         cutSpyPower.handleMessage(msg);
 
+        Mockito.verify(cutSpyPower, Mockito.timeout(TIMEOUT)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
         Mockito.verify(garageMgrMock).setEntryLight(TartanSensors.GREEN);
         Mockito.verify(garageMgrMock).openEntryGate();
         Mockito.verify(garageMgrMock).setEntryLight(TartanSensors.RED);
         Mockito.verify(garageMgrMock).closeEntryGate();
-        Mockito.verify(cutSpyPower).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
+
+        // the garage reports the vehicle in its spot
+        cutSpyPower.onGarageEvent(spotOccupied(0));
+        Mockito.verify(garageMgrMock, Mockito.timeout(TIMEOUT).times(2)).setParkingSpotLights(Mockito.any(ArrayList.class));
+
+        // only the entry complete message, no wrong spot
+        Thread.sleep(2 * GUIDANCE_DEADLINE);
+        Mockito.verify(cutSpyPower, Mockito.times(1)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
+    }
+
+    @Test
+    public void enterGarageMsgHandleWrongSpotFromSensors() throws Exception {
+        HashMap<String, Object> msg = new HashMap<String, Object>();
+        Reservation reservation = Mockito.mock(Reservation.class);
+        msg.put(TartanParams.COMMAND, TartanParams.MSG_ENTER_GARAGE);
+        msg.put(TartanParams.PAYLOAD, reservation);
+
+        Whitebox.setInternalState(cutSpyPower, "guidanceDeadline", (long) 10 * TIMEOUT);
+        Mockito.when(garageMgrMock.isConnected()).thenReturn(true);
+        Mockito.when(reservation.getSpotId()).thenReturn(0);
+        Mockito.when(garageMgrMock.getSpotOccupiedState()).thenReturn(new Integer[]{0, 0, 0, 0});
+
+        cutSpyPower.handleMessage(msg);
+        Mockito.verify(garageMgrMock, Mockito.timeout(TIMEOUT)).openEntryGate();
+
+        // the vehicle parks in spot 2 instead of spot 0
+        cutSpyPower.onGarageEvent(spotOccupied(2));
+
+        ArgumentCaptor<HashMap> responseMsg = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(cutSpyPower, Mockito.timeout(TIMEOUT).times(2)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), responseMsg.capture());
+        HashMap<String, Object> wrongSpot = null;
+        for (HashMap response : responseMsg.getAllValues()) {
+            if (TartanParams.MSG_WRONG_SPOT.equals(response.get(TartanParams.COMMAND))) {
+                wrongSpot = (HashMap<String, Object>) response.get(TartanParams.PAYLOAD);
+            }
+        }
+        Assert.assertNotNull(wrongSpot);
+        Assert.assertEquals(2, wrongSpot.get(TartanParams.ACTUAL_SPOT));
+        Assert.assertSame(reservation, wrongSpot.get(TartanParams.RSVP));
+    }
+
+    @Test
+    public void vehicleIsInTheGarageOnceEntryCompletes() throws Exception {
+        HashMap<String, Object> msg = new HashMap<String, Object>();
+        Reservation reservation = Mockito.mock(Reservation.class);
+        msg.put(TartanParams.COMMAND, TartanParams.MSG_ENTER_GARAGE);
+        msg.put(TartanParams.PAYLOAD, reservation);
+
+        Whitebox.setInternalState(cutSpyPower, "guidanceDeadline", (long) 10 * TIMEOUT);
+        Mockito.when(garageMgrMock.isConnected()).thenReturn(true);
+        Mockito.when(reservation.getSpotId()).thenReturn(0);
+        Mockito.when(garageMgrMock.getSpotOccupiedState()).thenReturn(new Integer[]{0, 0, 0, 0});
+
+        cutSpyPower.handleMessage(msg);
+        Mockito.verify(cutSpyPower, Mockito.timeout(TIMEOUT)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
+
+        // the vehicle has not been seen parking, but it can already leave
+        Vector<Reservation> occupancy = Whitebox.getInternalState(cutSpyPower, "occupancy");
+        Assert.assertTrue(occupancy.contains(reservation));
     }
 
     @Test
@@ -156,12 +231,44 @@ public class ParkingServiceTest {
 
         cutSpyPower.handleMessage(msg);
 
+        Mockito.verify(cutSpyPower, Mockito.timeout(TIMEOUT)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
         Mockito.verify(garageMgrMock).setExitLight(TartanSensors.GREEN);
         Mockito.verify(garageMgrMock).openExitGate();
         Mockito.verify(garageMgrMock).setExitLight(TartanSensors.RED);
         Mockito.verify(garageMgrMock).closeExitGate();
+    }
+
+    @Test
+    public void exitGateOpensWhileEntryGateIsOpen() throws Exception {
+        Whitebox.setInternalState(cutSpyPower, "gateOpenTime", 10 * TIMEOUT);
+        Mockito.when(garageMgrMock.isConnected()).thenReturn(true);
+        Mockito.when(garageMgrMock.getSpotOccupiedState()).thenReturn(new Integer[]{0, 0, 0, 0});
+
+        HashMap<String, Object> entry = new HashMap<String, Object>();
+        Reservation entering = Mockito.mock(Reservation.class);
+        Mockito.when(entering.getSpotId()).thenReturn(0);
+        entry.put(TartanParams.COMMAND, TartanParams.MSG_ENTER_GARAGE);
+        entry.put(TartanParams.PAYLOAD, entering);
+
+        HashMap<String, Object> exit = new HashMap<String, Object>();
+        Reservation leaving = Mockito.mock(Reservation.class);
+        Payment payment = Mockito.mock(Payment.class);
+        Mockito.when(payment.getFee()).thenReturn((long) 1000);
+        Mockito.when(leaving.getPayment()).thenReturn(payment);
+        exit.put(TartanParams.COMMAND, TartanParams.MSG_PAYMENT_COMPLETE);
+        exit.put(TartanParams.PAYLOAD, leaving);
+
+        // neither message waits for a gate
+        long start = System.currentTimeMillis();
+        cutSpyPower.handleMessage(entry);
+        cutSpyPower.handleMessage(exit);
+        Assert.assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+
+        Mockito.verify(garageMgrMock, Mockito.timeout(TIMEOUT)).openEntryGate();
+        Mockito.verify(garageMgrMock, Mockito.timeout(TIMEOUT)).openExitGate();
+        Mockito.verify(garageMgrMock, Mockito.never()).closeEntryGate();
 
-        Mockito.verify(cutSpyPower).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), Mockito.any(HashMap.class));
+        cutSpyPower.terminate();
     }
 
     /**
@@ -170,9 +277,10 @@ public class ParkingServiceTest {
     @Test
     public void test_update_not_invocate_signalVehicleReadyToLeave_when_MSG_VEHICLE_AT_ENTRY() throws Exception {
         /* Setup */
-        String cmd = TartanParams.MSG_VEHICLE_AT_ENTRY;
+        TartanGarageEvent event = new TartanGarageEvent(TartanGarageEvent.Type.BEAM_BROKEN,
+                TartanGarageEvent.Gate.ENTRY, TartanGarageEvent.NO_SPOT, false, TartanGarageSnapshot.EMPTY);
         /* Exercise */
-        cutSpyPower.update(null, cmd);
+        cutSpyPower.onGarageEvent(event);
         /* Verify */
         PowerMockito.verifyPrivate(cutSpyPower, times(0)).invoke("signalVehicleReadyToLeave");
         /* Tear-down */
@@ -181,9 +289,10 @@ public class ParkingServiceTest {
     @Test
     public void test_update_not_invocate_signalVehicleArrived_when_MSG_VEHICLE_AT_EXIT() throws Exception {
         /* Setup */
-        String cmd = TartanParams.MSG_VEHICLE_AT_EXIT;
+        TartanGarageEvent event = new TartanGarageEvent(TartanGarageEvent.Type.BEAM_BROKEN,
+                TartanGarageEvent.Gate.EXIT, TartanGarageEvent.NO_SPOT, false, TartanGarageSnapshot.EMPTY);
         /* Exercise */
-        cutSpyPower.update(null, cmd);
+        cutSpyPower.onGarageEvent(event);
         /* Verify */
         PowerMockito.verifyPrivate(cutSpyPower, times(0)).invoke("signalVehicleArrived");
         /* Tear-down */
@@ -192,9 +301,10 @@ public class ParkingServiceTest {
     @Test
     public void test_update_not_invocate_both_methods_when_negative_cmd() throws Exception {
         /* Setup */
-        String cmd = "Invalid_CMD";
+        TartanGarageEvent event = new TartanGarageEvent(TartanGarageEvent.Type.SPOT_OCCUPIED,
+                null, 0, false, TartanGarageSnapshot.EMPTY);
         /* Exercise */
-        cutSpyPower.update(null, cmd);
+        cutSpyPower.onGarageEvent(event);
         /* Verify */
         PowerMockito.verifyPrivate(cutSpyPower, times(0)).invoke("signalVehicleArrived");
         PowerMockito.verifyPrivate(cutSpyPower, times(0)).invoke("signalVehicleReadyToLeave");
@@ -0,0 +1,48 @@
+package edu.cmu.tartan.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Runs a short simulation through the parking service on an in-process broker.
+ */
+public class ParkingSimulationTest {
+
+    @Test
+    public void vehiclesEnterParkAndLeave() throws Exception {
+        ParkingSimulation simulation = new ParkingSimulation();
+        simulation.setCapacity(50);
+        simulation.setArrivalsPerHour(1200);
+        simulation.setMeanStayMinutes(1);
+        simulation.setHours(0.05);
+        simulation.setTimeScale(60);
+
+        ParkingSimulation.Report report = simulation.run();
+        System.out.println(report);
+
+        Assert.assertTrue(report.getArrived() > 0);
+        Assert.assertTrue(report.getEntered() > 0);
+        Assert.assertTrue(report.getExited() > 0);
+        Assert.assertTrue(report.getEntered() <= report.getArrived());
+        Assert.assertTrue(report.getExited() <= report.getEntered());
+        Assert.assertEquals(0, report.getWrongSpots());
+        Assert.assertTrue(report.getEntryLatency(50) <= report.getEntryLatency(99));
+        Assert.assertTrue(report.getExitLatency(50) <= report.getExitLatency(99));
+
+        // the simulation puts the settings it changed back
+        Assert.assertNull(System.getProperty(TartanServiceMessageBus.BROKER_URL_PROPERTY));
+        Assert.assertNull(System.getProperty(ParkingService.GATE_OPEN_TIME_PROPERTY));
+    }
+
+    @Test
+    public void percentilesAreTakenByNearestRank() {
+        ParkingSimulation.Report report = new ParkingSimulation.Report(2, 5, 4, 0, 0, 1, 0,
+                new double[]{4, 1, 3, 2}, new double[0]);
+
+        Assert.assertEquals(2.0, report.getEntriesPerHour(), 0);
+        Assert.assertEquals(2.0, report.getEntryLatency(50), 0);
+        Assert.assertEquals(4.0, report.getEntryLatency(99), 0);
+        Assert.assertEquals(1.0, report.getEntryLatency(0), 0);
+        Assert.assertEquals(0.0, report.getExitLatency(50), 0);
+    }
+}
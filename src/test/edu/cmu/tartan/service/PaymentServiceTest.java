@@ -16,6 +16,8 @@ import javax.jms.MessageProducer;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.TimeZone;
 
 /**
  * Created by chongjae.yoo on 2017-07-18.
@@ -39,7 +41,7 @@ public class PaymentServiceTest {
         consumer = PowerMockito.mock(MessageConsumer.class);
         producer = PowerMockito.mock(MessageProducer.class);
 
-        PowerMockito.when(msgBus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(consumer);
+        PowerMockito.when(msgBus.getConsumer(Mockito.eq(TartanServiceMessageBus.TARTAN_TOPIC), Mockito.anyString())).thenReturn(consumer);
         PowerMockito.when(msgBus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(producer);
         PowerMockito.mockStatic(TartanServiceMessageBus.class);
         PowerMockito.when(TartanServiceMessageBus.connect()).thenReturn(msgBus);
@@ -170,6 +172,41 @@ public class PaymentServiceTest {
         //Assert.assertEquals(50, result);
     }
 
+    @org.junit.Test
+    /**
+     *  Test that the weekly rate table charges every hour the same rate as the hour by hour rules,
+     *  across week boundaries and daylight saving changes
+     */
+    public void testReservedFeeMatchesHourlyRates() throws Exception {
+        TimeZone defaultZone = TimeZone.getDefault();
+        Random random = new Random(7);
+        try {
+            for (String zone : new String[]{"UTC", "America/New_York", "Asia/Seoul"}) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                Calendar cal = Calendar.getInstance();
+                cal.set(2017, Calendar.JANUARY, 1, 0, 0, 0);
+                long base = cal.getTimeInMillis();
+
+                for (int i = 0; i < 2000; i++) {
+                    long start = base + (long) random.nextInt(366 * 24 * 4) * 15 * 60 * 1000;
+                    long end = start + (long) random.nextInt(24 * 10 * 4) * 15 * 60 * 1000;
+
+                    long expected = 0;
+                    for (long time = start; time + 60 * 60 * 1000 <= end; time += 60 * 60 * 1000) {
+                        cal.setTimeInMillis(time);
+                        Long rate = Whitebox.invokeMethod(paymentService, "getRate",
+                                cal.get(Calendar.DAY_OF_WEEK), cal.get(Calendar.HOUR_OF_DAY));
+                        expected += rate;
+                    }
+                    long result = Whitebox.invokeMethod(paymentService, "computeReservedFee", start, end);
+                    Assert.assertEquals(zone + " " + new Date(start) + " - " + new Date(end), expected, result);
+                }
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
     @org.junit.Test
     public void handleMessage() throws Exception {
         HashMap<String, Object> msg = new HashMap<String, Object>();
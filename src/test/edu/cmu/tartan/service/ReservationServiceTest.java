@@ -3,6 +3,8 @@ package edu.cmu.tartan.service;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
 import edu.cmu.tartan.edu.cmu.tartan.reservation.ReservationStore;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.SlotCalendar;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.SpotHolds;
 import org.junit.Assert;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
@@ -38,7 +40,7 @@ public class ReservationServiceTest {
         consumer = PowerMockito.mock(MessageConsumer.class);
         producer = PowerMockito.mock(MessageProducer.class);
         reservationStore = PowerMockito.mock(ReservationStore.class);
-        PowerMockito.when(msgBus.getConsumer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(consumer);
+        PowerMockito.when(msgBus.getConsumer(Mockito.eq(TartanServiceMessageBus.TARTAN_TOPIC), Mockito.anyString())).thenReturn(consumer);
         PowerMockito.when(msgBus.getProducer(TartanServiceMessageBus.TARTAN_TOPIC)).thenReturn(producer);
         PowerMockito.mockStatic(TartanServiceMessageBus.class);
         PowerMockito.when(TartanServiceMessageBus.connect()).thenReturn(msgBus);
@@ -70,6 +72,321 @@ public class ReservationServiceTest {
 
     }
 
+    private Reservation offer(Date start, Date end, String customer) throws Exception {
+        Reservation reservation = new Reservation();
+        reservation.setStartTime(start);
+        reservation.setEndTime(end);
+        reservation.setCustomerName(customer);
+        reservation.setVehicleID(customer);
+
+        HashMap<String, Object> msg = new HashMap<String, Object>();
+        msg.put(TartanParams.PAYLOAD, reservation);
+        msg.put(TartanParams.COMMAND, TartanParams.MSG_NEW_RSVP);
+        msg.put(TartanParams.SOURCE_ID, KioskService.KIOSK_SERVICE);
+        reservationService.handleMessage(msg);
+        return reservation;
+    }
+
+    @org.junit.Test
+    public void offeredSpotIsHeldUntilConfirmed() throws Exception {
+        Vector<Reservation> stored = new Vector<>();
+        Mockito.when(reservationStore.getReservations()).thenReturn(stored);
+        Mockito.when(reservationStore.isDuplicate(Mockito.any(Reservation.class))).thenReturn(false);
+
+        HashMap<String, Object> spots = new HashMap<>();
+        spots.put(TartanParams.COMMAND, TartanParams.MSG_GET_PARKING_SPOTS);
+        spots.put(TartanParams.PAYLOAD, new ArrayList<>(Arrays.asList(0, 0)));
+        reservationService.handleMessage(spots);
+
+        Date start = new Date(System.currentTimeMillis() + 1000 * 60 * 60);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60);
+
+        // neither customer has confirmed, so each is offered its own spot and a third gets none
+        Reservation first = offer(start, end, "first");
+        Reservation second = offer(start, end, "second");
+        offer(start, end, "third");
+        Assert.assertEquals(Integer.valueOf(0), first.getSpotId());
+        Assert.assertEquals(Integer.valueOf(1), second.getSpotId());
+
+        ArgumentCaptor<HashMap> responses = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(reservationService, Mockito.times(3)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), responses.capture());
+        Assert.assertEquals(TartanParams.MSG_NEW_RSVP, responses.getAllValues().get(0).get(TartanParams.COMMAND));
+        Assert.assertEquals(TartanParams.MSG_NEW_RSVP, responses.getAllValues().get(1).get(TartanParams.COMMAND));
+        Assert.assertEquals(TartanParams.ERROR, responses.getAllValues().get(2).get(TartanParams.COMMAND));
+
+        // once confirmed the store keeps the spot and the hold is released
+        HashMap<String, Object> confirm = new HashMap<String, Object>();
+        confirm.put(TartanParams.COMMAND, TartanParams.MSG_CONFIRM_RSVP);
+        confirm.put(TartanParams.PAYLOAD, first);
+        reservationService.handleMessage(confirm);
+        Mockito.verify(reservationStore).addReservation(first);
+        stored.add(first);
+
+        SpotHolds holds = Whitebox.getInternalState(reservationService, "spotHolds");
+        Assert.assertEquals(1, holds.size());
+        Assert.assertFalse(holds.isFree(1, start.getTime(), end.getTime(), System.currentTimeMillis()));
+        Assert.assertTrue(holds.isFree(0, start.getTime(), end.getTime(), System.currentTimeMillis()));
+    }
+
+    @org.junit.Test
+    public void lateConfirmForASpotOfferedAgainIsRejected() throws Exception {
+        Vector<Reservation> stored = new Vector<>();
+        Mockito.when(reservationStore.getReservations()).thenReturn(stored);
+        Mockito.when(reservationStore.isDuplicate(Mockito.any(Reservation.class))).thenReturn(false);
+        Mockito.doAnswer(invocation -> stored.add((Reservation) invocation.getArguments()[0]))
+                .when(reservationStore).addReservation(Mockito.any(Reservation.class));
+
+        HashMap<String, Object> spots = new HashMap<>();
+        spots.put(TartanParams.COMMAND, TartanParams.MSG_GET_PARKING_SPOTS);
+        spots.put(TartanParams.PAYLOAD, new ArrayList<>(Arrays.asList(0)));
+        reservationService.handleMessage(spots);
+
+        // holds lapse almost at once
+        Whitebox.setInternalState(reservationService, "spotHolds", new SpotHolds(1, 1000, System.currentTimeMillis()));
+        Date start = new Date(System.currentTimeMillis() + 1000 * 60 * 60);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60);
+
+        // the first customer's hold lapses and the spot is offered to a second customer
+        Reservation first = offer(start, end, "first");
+        Thread.sleep(5);
+        Reservation second = offer(start, end, "second");
+        Assert.assertEquals(Integer.valueOf(0), first.getSpotId());
+        Assert.assertEquals(Integer.valueOf(0), second.getSpotId());
+
+        HashMap<String, Object> confirm = new HashMap<String, Object>();
+        confirm.put(TartanParams.COMMAND, TartanParams.MSG_CONFIRM_RSVP);
+        confirm.put(TartanParams.SOURCE_ID, KioskService.KIOSK_SERVICE);
+        confirm.put(TartanParams.PAYLOAD, second);
+        reservationService.handleMessage(confirm);
+
+        // the first customer confirms late, after the spot went to the second
+        confirm.put(TartanParams.PAYLOAD, first);
+        reservationService.handleMessage(confirm);
+
+        Mockito.verify(reservationStore).addReservation(second);
+        Mockito.verify(reservationStore, Mockito.never()).addReservation(first);
+        ArgumentCaptor<HashMap> responses = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(reservationService, Mockito.times(3)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), responses.capture());
+        Assert.assertEquals(TartanParams.ERROR, responses.getAllValues().get(2).get(TartanParams.COMMAND));
+    }
+
+    @org.junit.Test
+    public void lateConfirmForASpotStillFreeIsKept() throws Exception {
+        Vector<Reservation> stored = new Vector<>();
+        Mockito.when(reservationStore.getReservations()).thenReturn(stored);
+        Mockito.when(reservationStore.isDuplicate(Mockito.any(Reservation.class))).thenReturn(false);
+
+        Whitebox.setInternalState(reservationService, "spotHolds", new SpotHolds(1, 1000, System.currentTimeMillis()));
+        Date start = new Date(System.currentTimeMillis() + 1000 * 60 * 60);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60);
+
+        Reservation first = offer(start, end, "first");
+        Thread.sleep(5);
+
+        HashMap<String, Object> confirm = new HashMap<String, Object>();
+        confirm.put(TartanParams.COMMAND, TartanParams.MSG_CONFIRM_RSVP);
+        confirm.put(TartanParams.PAYLOAD, first);
+        reservationService.handleMessage(confirm);
+
+        Mockito.verify(reservationStore).addReservation(first);
+        Mockito.verify(reservationStore).saveNewReservation(first);
+    }
+
+    private Vector<Reservation> fleet(int vehicles, Date start, Date end) {
+        Vector<Reservation> batch = new Vector<>();
+        for (int i = 0; i < vehicles; i++) {
+            Reservation reservation = new Reservation();
+            reservation.setStartTime(start);
+            reservation.setEndTime(end);
+            reservation.setCustomerName("Fleet");
+            reservation.setVehicleID("FLEET" + i);
+            batch.add(reservation);
+        }
+        return batch;
+    }
+
+    private HashMap<String, Object> bookFleet(Vector<Reservation> batch, int capacity) throws Exception {
+        return bookFleet(batch, capacity, true);
+    }
+
+    private HashMap<String, Object> bookFleet(Vector<Reservation> batch, int capacity, boolean saved) throws Exception {
+        Mockito.when(reservationStore.getReservations()).thenReturn(new Vector<>());
+        Mockito.when(reservationStore.isDuplicate(Mockito.any(Reservation.class))).thenReturn(false);
+        Mockito.when(reservationStore.saveNewReservations(Mockito.anyCollection())).thenReturn(saved);
+
+        HashMap<String, Object> spots = new HashMap<>();
+        spots.put(TartanParams.COMMAND, TartanParams.MSG_GET_PARKING_SPOTS);
+        spots.put(TartanParams.PAYLOAD, new ArrayList<>(Collections.nCopies(capacity, 0)));
+        reservationService.handleMessage(spots);
+
+        HashMap<String, Object> msg = new HashMap<String, Object>();
+        msg.put(TartanParams.COMMAND, TartanParams.MSG_NEW_BATCH_RSVP);
+        msg.put(TartanParams.PAYLOAD, batch);
+        msg.put(TartanParams.SOURCE_ID, KioskService.KIOSK_SERVICE);
+        reservationService.handleMessage(msg);
+
+        ArgumentCaptor<HashMap> response = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(reservationService).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), response.capture());
+        return response.getValue();
+    }
+
+    @org.junit.Test
+    public void batchReservationBooksEveryVehicleWithOneWrite() throws Exception {
+        Date start = new Date(System.currentTimeMillis() + 1000 * 60 * 60);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60 * 4);
+        Vector<Reservation> batch = fleet(50, start, end);
+
+        HashMap<String, Object> response = bookFleet(batch, 60);
+
+        Assert.assertEquals(TartanParams.MSG_NEW_BATCH_RSVP, response.get(TartanParams.COMMAND));
+        Assert.assertSame(batch, response.get(TartanParams.PAYLOAD));
+        for (int i = 0; i < batch.size(); i++) {
+            Assert.assertEquals(Integer.valueOf(i), batch.get(i).getSpotId());
+            Assert.assertFalse(batch.get(i).getIsPaid());
+        }
+        Mockito.verify(reservationStore).addReservations(batch);
+        Mockito.verify(reservationStore).saveNewReservations(batch);
+        Mockito.verify(reservationStore, Mockito.never()).saveNewReservation(Mockito.any(Reservation.class));
+
+        // the store keeps the spots now, nothing is left held
+        SpotHolds holds = Whitebox.getInternalState(reservationService, "spotHolds");
+        Assert.assertEquals(0, holds.size());
+    }
+
+    @org.junit.Test
+    public void batchReservationIsAllOrNothing() throws Exception {
+        Date start = new Date(System.currentTimeMillis() + 1000 * 60 * 60);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60 * 4);
+
+        HashMap<String, Object> response = bookFleet(fleet(50, start, end), 40);
+
+        Assert.assertEquals(TartanParams.ERROR, response.get(TartanParams.COMMAND));
+        Assert.assertEquals("Parking space unavailable at desired time for FLEET40", response.get(TartanParams.PAYLOAD));
+        Mockito.verify(reservationStore, Mockito.never()).addReservations(Mockito.anyCollection());
+        Mockito.verify(reservationStore, Mockito.never()).saveNewReservations(Mockito.anyCollection());
+
+        // the spots taken before the failure are given back
+        SpotHolds holds = Whitebox.getInternalState(reservationService, "spotHolds");
+        Assert.assertEquals(0, holds.size());
+    }
+
+    @org.junit.Test
+    public void batchThatCannotBeSavedIsNotKept() throws Exception {
+        Date start = new Date(System.currentTimeMillis() + 1000 * 60 * 60);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60 * 4);
+        Vector<Reservation> batch = fleet(5, start, end);
+
+        HashMap<String, Object> response = bookFleet(batch, 10, false);
+
+        Assert.assertEquals(TartanParams.ERROR, response.get(TartanParams.COMMAND));
+        Assert.assertEquals("Could not save reservations", response.get(TartanParams.PAYLOAD));
+        Mockito.verify(reservationStore, Mockito.never()).addReservations(Mockito.anyCollection());
+
+        // the spots are neither stored nor held
+        SpotHolds holds = Whitebox.getInternalState(reservationService, "spotHolds");
+        Assert.assertEquals(0, holds.size());
+        Assert.assertEquals(10, reservationService.getFreeSpots(start.getTime(), end.getTime()));
+    }
+
+    @org.junit.Test
+    public void batchWithTheSameVehicleTwiceIsRejected() throws Exception {
+        Date start = new Date(System.currentTimeMillis() + 1000 * 60 * 60);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60);
+        Vector<Reservation> batch = fleet(3, start, end);
+        batch.get(2).setVehicleID("FLEET0");
+
+        HashMap<String, Object> response = bookFleet(batch, 10);
+
+        Assert.assertEquals(TartanParams.ERROR, response.get(TartanParams.COMMAND));
+        Assert.assertEquals("Reservation for FLEET0 is a duplicate", response.get(TartanParams.PAYLOAD));
+        Mockito.verify(reservationStore, Mockito.never()).saveNewReservations(Mockito.anyCollection());
+    }
+
+    @org.junit.Test
+    public void availabilityFollowsConfirmedReservations() throws Exception {
+        Vector<Reservation> stored = new Vector<>();
+        Mockito.when(reservationStore.getReservations()).thenReturn(stored);
+        Mockito.when(reservationStore.isDuplicate(Mockito.any(Reservation.class))).thenReturn(false);
+
+        HashMap<String, Object> spots = new HashMap<>();
+        spots.put(TartanParams.COMMAND, TartanParams.MSG_GET_PARKING_SPOTS);
+        spots.put(TartanParams.PAYLOAD, new ArrayList<>(Collections.nCopies(4, 0)));
+        reservationService.handleMessage(spots);
+
+        // a slot boundary an hour or two out, so the window is counted exactly
+        long slot = SlotCalendar.SLOT_MILLIS;
+        Date start = new Date((System.currentTimeMillis() / slot + 5) * slot);
+        Date end = new Date(start.getTime() + 1000 * 60 * 60);
+        Assert.assertEquals(4, reservationService.getFreeSpots(start.getTime(), end.getTime()));
+
+        // a cached answer is dropped once a reservation is confirmed
+        Reservation first = offer(start, end, "first");
+        Assert.assertEquals(4, reservationService.getFreeSpots(start.getTime(), end.getTime()));
+        Mockito.doAnswer(invocation -> stored.add(first)).when(reservationStore).addReservation(first);
+        HashMap<String, Object> confirm = new HashMap<String, Object>();
+        confirm.put(TartanParams.COMMAND, TartanParams.MSG_CONFIRM_RSVP);
+        confirm.put(TartanParams.PAYLOAD, first);
+        reservationService.handleMessage(confirm);
+        Assert.assertEquals(3, reservationService.getFreeSpots(start.getTime(), end.getTime()));
+        Assert.assertEquals(4, reservationService.getFreeSpots(end.getTime(), end.getTime() + 1000 * 60 * 60));
+
+        HashMap<String, Object> query = new HashMap<String, Object>();
+        query.put(TartanParams.COMMAND, TartanParams.MSG_GET_AVAILABILITY);
+        query.put(TartanParams.START_TIME, start.getTime() - 1000 * 60 * 30);
+        query.put(TartanParams.END_TIME, end.getTime());
+        query.put(TartanParams.SOURCE_ID, KioskService.KIOSK_SERVICE);
+        reservationService.handleMessage(query);
+
+        ArgumentCaptor<HashMap> responses = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(reservationService, Mockito.times(2)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), responses.capture());
+        HashMap<String, Object> response = responses.getValue();
+        Assert.assertEquals(TartanParams.MSG_GET_AVAILABILITY, response.get(TartanParams.COMMAND));
+        Assert.assertEquals(3, response.get(TartanParams.PAYLOAD));
+        Assert.assertArrayEquals(new Integer[]{0, 0, 1, 1, 1, 1}, (Integer[]) response.get(TartanParams.OCCUPANCY));
+
+        // only the coming week is known
+        query.put(TartanParams.START_TIME, start.getTime() + 1000L * 60 * 60 * 24 * 9);
+        query.put(TartanParams.END_TIME, end.getTime() + 1000L * 60 * 60 * 24 * 9);
+        reservationService.handleMessage(query);
+        Mockito.verify(reservationService, Mockito.times(3)).sendMessage(Mockito.eq(KioskService.KIOSK_SERVICE), responses.capture());
+        Assert.assertEquals(TartanParams.ERROR, responses.getValue().get(TartanParams.COMMAND));
+        Assert.assertEquals(-1, reservationService.getFreeSpots(start.getTime() + 1000L * 60 * 60 * 24 * 9,
+                end.getTime() + 1000L * 60 * 60 * 24 * 9));
+    }
+
+    @org.junit.Test
+    public void availabilityFollowsTheCapacity() throws Exception {
+        Mockito.when(reservationStore.getReservations()).thenReturn(new Vector<>());
+
+        long slot = SlotCalendar.SLOT_MILLIS;
+        long start = (System.currentTimeMillis() / slot + 5) * slot;
+        long end = start + 1000 * 60 * 60;
+
+        // asked before the parking service has replied
+        Assert.assertEquals(1, reservationService.getFreeSpots(start, end));
+
+        HashMap<String, Object> spots = new HashMap<>();
+        spots.put(TartanParams.COMMAND, TartanParams.MSG_GET_PARKING_SPOTS);
+        spots.put(TartanParams.PAYLOAD, new ArrayList<>(Collections.nCopies(4, 0)));
+        reservationService.handleMessage(spots);
+        Assert.assertEquals(4, reservationService.getFreeSpots(start, end));
+    }
+
+    @org.junit.Test
+    public void invalidWindowsAreNotAnsweredFromTheCache() throws Exception {
+        Mockito.when(reservationStore.getReservations()).thenReturn(new Vector<>());
+
+        long slot = SlotCalendar.SLOT_MILLIS;
+        long first = System.currentTimeMillis() / slot + 5;
+        Assert.assertEquals(1, reservationService.getFreeSpots(first * slot, (first + SlotCalendar.SLOTS - 10) * slot));
+        Assert.assertEquals(1, reservationService.getFreeSpots((first + 1) * slot, (first + 2) * slot));
+
+        // an empty or reversed window would share a key with a cached one
+        Assert.assertEquals(-1, reservationService.getFreeSpots((first + 1) * slot, (first + 1) * slot));
+        Assert.assertEquals(-1, reservationService.getFreeSpots((first + 1) * slot, (first - 9) * slot));
+        Assert.assertEquals(-1, reservationService.getFreeSpots((first - 100) * slot, (first - 99) * slot));
+    }
+
     @org.junit.Test
     public void handleCompleteReservationTest() throws Exception {
 
@@ -0,0 +1,168 @@
+package edu.cmu.tartan.service;
+
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Payment;
+import edu.cmu.tartan.edu.cmu.tartan.reservation.Reservation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.Vector;
+
+public class TartanMessageCodecTest {
+
+    private Reservation newReservation() {
+        Reservation rsvp = new Reservation();
+        rsvp.setCustomerName("Jeff");
+        rsvp.setVehicleID("PA38234");
+        rsvp.setStartTime("2017:08:04:17:00");
+        rsvp.setEndTime("2017:08:05:17:00");
+        rsvp.setSpotId(2);
+        return rsvp;
+    }
+
+    private HashMap<String, Object> roundTrip(HashMap<String, Object> message) throws IOException {
+        return TartanMessageCodec.decode(TartanMessageCodec.encode(message));
+    }
+
+    @Test
+    public void reservationMessageRoundTrips() throws Exception {
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.COMMAND, TartanParams.MSG_NEW_RSVP);
+        message.put(TartanParams.SOURCE_ID, KioskService.KIOSK_SERVICE);
+        message.put(TartanParams.PAYLOAD, newReservation());
+
+        HashMap<String, Object> decoded = roundTrip(message);
+        Assert.assertEquals(message, decoded);
+
+        Reservation rsvp = (Reservation) decoded.get(TartanParams.PAYLOAD);
+        Assert.assertEquals(Integer.valueOf(2), rsvp.getSpotId());
+        Assert.assertFalse(rsvp.getIsPaid());
+        Assert.assertNull(rsvp.getPayment());
+    }
+
+    @Test
+    public void paymentAndReservationReferToEachOther() throws Exception {
+        Reservation rsvp = newReservation();
+        Payment payment = new Payment(30L);
+        payment.setCcNum("1234567812345678");
+        payment.setCcExpDate("January\\2030");
+        payment.setCcName("Jeff");
+        payment.setReservation(rsvp);
+        rsvp.setPayment(payment);
+        rsvp.setIsPaid(true);
+
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.COMMAND, TartanParams.MSG_PAYMENT_COMPLETE);
+        message.put(TartanParams.PAYLOAD, rsvp);
+
+        Reservation decoded = (Reservation) roundTrip(message).get(TartanParams.PAYLOAD);
+        Payment decodedPayment = decoded.getPayment();
+        Assert.assertSame(decoded, decodedPayment.getReservation());
+        Assert.assertEquals(Long.valueOf(30L), decodedPayment.getFee());
+        Assert.assertEquals("1234567812345678", decodedPayment.getCcNum());
+        Assert.assertEquals("January\\2030", decodedPayment.getCcExpDate());
+        Assert.assertEquals("Jeff", decodedPayment.getCcName());
+        Assert.assertTrue(decoded.getIsPaid());
+    }
+
+    @Test
+    public void cardDetailsAreNotSentInTheClear() throws Exception {
+        Payment payment = new Payment(30L);
+        payment.setCcNum("1234567812345678");
+        payment.setCcExpDate("January\\2030");
+        payment.setCcName("Jeff");
+
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.COMMAND, TartanParams.MSG_VALIDATE_PAYMENT);
+        message.put(TartanParams.PAYLOAD, payment);
+
+        String encoded = new String(TartanMessageCodec.encode(message), StandardCharsets.ISO_8859_1);
+        Assert.assertFalse(encoded.contains("1234567812345678"));
+        Assert.assertFalse(encoded.contains("January"));
+        Assert.assertFalse(encoded.contains("Jeff"));
+
+        // restored as sent, not protected a second time
+        Payment decoded = (Payment) TartanMessageCodec.decode(TartanMessageCodec.encode(message)).get(TartanParams.PAYLOAD);
+        Assert.assertEquals("1234567812345678", decoded.getCcNum());
+        Assert.assertEquals("January\\2030", decoded.getCcExpDate());
+        Assert.assertEquals("Jeff", decoded.getCcName());
+    }
+
+    @Test
+    public void missingFieldsStayMissing() throws Exception {
+        Reservation rsvp = new Reservation();
+        rsvp.setSpotId(null);
+        rsvp.setIsRedeemed(null);
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.PAYLOAD, rsvp);
+        message.put(TartanParams.ERROR, null);
+
+        HashMap<String, Object> decoded = roundTrip(message);
+        Reservation decodedRsvp = (Reservation) decoded.get(TartanParams.PAYLOAD);
+        Assert.assertNull(decodedRsvp.getStartTime());
+        Assert.assertNull(decodedRsvp.getCustomerName());
+        Assert.assertNull(decodedRsvp.getSpotId());
+        Assert.assertNull(decodedRsvp.getIsRedeemed());
+        Assert.assertTrue(decoded.containsKey(TartanParams.ERROR));
+    }
+
+    @Test
+    public void collectionsRoundTrip() throws Exception {
+        Vector<Reservation> rsvps = new Vector<>();
+        rsvps.add(newReservation());
+        rsvps.add(newReservation());
+        HashMap<String, Integer> occupancy = new HashMap<>();
+        occupancy.put("2017:08:4", 25);
+
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.CURRENT_OCCUPIED_STATE, new Integer[]{1, 0, 0, 1});
+        message.put(TartanParams.PAYLOAD, rsvps);
+        message.put(TartanParams.REVENUE, 150L);
+        message.put(TartanParams.AVERAGE_OCCUPANCY, occupancy);
+        message.put(TartanParams.PEAK_USAGE_HOURS, new ArrayList<>(Arrays.asList(17, 18)));
+        message.put(TartanParams.EXIT_STATE, Boolean.TRUE);
+        message.put("NotAParam", "not a command");
+
+        HashMap<String, Object> decoded = roundTrip(message);
+        Assert.assertArrayEquals(new Integer[]{1, 0, 0, 1}, (Integer[]) decoded.get(TartanParams.CURRENT_OCCUPIED_STATE));
+        Assert.assertEquals(Vector.class, decoded.get(TartanParams.PAYLOAD).getClass());
+        Assert.assertEquals(rsvps, decoded.get(TartanParams.PAYLOAD));
+        Assert.assertEquals(150L, decoded.get(TartanParams.REVENUE));
+        Assert.assertEquals(occupancy, decoded.get(TartanParams.AVERAGE_OCCUPANCY));
+        Assert.assertEquals(Arrays.asList(17, 18), decoded.get(TartanParams.PEAK_USAGE_HOURS));
+        Assert.assertEquals(Boolean.TRUE, decoded.get(TartanParams.EXIT_STATE));
+        Assert.assertEquals("not a command", decoded.get("NotAParam"));
+    }
+
+    @Test
+    public void otherSerializableValuesFallBackToJavaSerialization() throws Exception {
+        UUID id = UUID.randomUUID();
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.PAYLOAD, id);
+
+        Assert.assertEquals(id, roundTrip(message).get(TartanParams.PAYLOAD));
+    }
+
+    @Test
+    public void smallerThanJavaSerialization() throws Exception {
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(TartanParams.COMMAND, TartanParams.MSG_NEW_RSVP);
+        message.put(TartanParams.PAYLOAD, newReservation());
+
+        java.io.ByteArrayOutputStream serialized = new java.io.ByteArrayOutputStream();
+        try (java.io.ObjectOutputStream oos = new java.io.ObjectOutputStream(serialized)) {
+            oos.writeObject(message);
+        }
+        Assert.assertTrue(TartanMessageCodec.encode(message).length * 4 < serialized.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws Exception {
+        TartanMessageCodec.decode(new byte[]{99});
+    }
+}